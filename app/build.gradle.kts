@@ -52,6 +52,7 @@ dependencies {
     implementation(libs.camera.view)
     implementation(libs.camera.lifecycle)
     testImplementation(libs.junit)
+    testImplementation(libs.opencv.desktop) // Desktop natives so Mat based code can run in JVM unit tests
     androidTestImplementation(libs.core.ktx) // Or "androidx.test:core-ktx:1.5.0"
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
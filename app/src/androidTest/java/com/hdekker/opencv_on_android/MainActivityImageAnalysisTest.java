@@ -93,13 +93,16 @@ public class MainActivityImageAnalysisTest {
         algo.getOutputFlux()
                 .timeout(Duration.ofSeconds(20))
                 .take(2)
+                .doOnNext(Frame::release)
                 .blockLast();
 
         Log.d(TAG, "Starting " + FPS_TEST_DURATION_SECONDS + "s measurement period for FPS.");
 
-        List<Mat> results = algo.getOutputFlux()
+        List<Long> results = algo.getOutputFlux()
                 .take(Duration.ofSeconds(10))
                 .doOnNext(m -> outputFPS.recordFrameTimestamp(System.nanoTime()))
+                .transform(FrameOperators.recordLatency(ia.getLatencyMetrics()))
+                .transform(FrameOperators.mapAndRelease(Frame::getSequence))
                 .collectList()
                 .block();
 
@@ -108,6 +111,20 @@ public class MainActivityImageAnalysisTest {
 
         Log.i(TAG, "Input FPS: " + inputFPS + ", Achieved FPS: " + achievedFps);
 
+        LatencyHistogram endToEnd = ia.getLatencyMetrics().getEndToEndHistogram();
+        Log.i(TAG, "End to end latency ms p50: " + endToEnd.getPercentileNanos(50) / 1e6
+                + ", p95: " + endToEnd.getPercentileNanos(95) / 1e6
+                + ", p99: " + endToEnd.getPercentileNanos(99) / 1e6
+                + ", max: " + endToEnd.getMaxNanos() / 1e6);
+        assertTrue("Latency recorded for delivered frames", endToEnd.getCount() > 0);
+
+        FrameIntervalStats intervals = ia.getInputIntervalStats();
+        Log.i(TAG, "Input interval ms mean: " + intervals.getMeanIntervalNanos() / 1e6
+                + ", jitter: " + intervals.getJitterNanos() / 1e6
+                + ", p99: " + intervals.getIntervalPercentileNanos(99) / 1e6
+                + ", gaps: " + intervals.getGapCount()
+                + ", missed frames: " + intervals.getEstimatedMissedFrames());
+
         assert results != null;
         assertThat("Results size around 300 frames",
                 (double) results.size(),
@@ -1,7 +1,5 @@
 package com.hdekker.opencv_on_android;
 
-import org.opencv.core.Mat;
-
 import java.time.Duration;
 
 import reactor.core.publisher.Flux;
@@ -11,32 +9,31 @@ import reactor.util.concurrent.Queues;
 
 public class SlowAlgo implements ReactiveImageAlgo{
 
-    Sinks.Many<Mat> sink;
+    Sinks.Many<Frame> sink;
+    final FrameDropStats dropStats = new FrameDropStats();
     public SlowAlgo(){
 
-       sink = Sinks.many()
-               .multicast().onBackpressureBuffer(Queues.SMALL_BUFFER_SIZE, false);
+       sink = FrameOperators.inputSink();
 
     }
     @Override
-    public Sinks.Many<Mat> getInputSink() {
+    public Sinks.Many<Frame> getInputSink() {
         return sink;
     }
 
     @Override
-    public Flux<Mat> getOutputFlux() {
-        return sink.asFlux()
-                .publishOn(Schedulers.boundedElastic())
-                .parallel()
-                .runOn(Schedulers.parallel())
-                .map(mat-> {
-                    try {
-                        Thread.sleep(200);
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                    return mat;
-                })
-                .sequential();
+    public Flux<Frame> getOutputFlux() {
+        return FrameOperators.receive(sink)
+                .transform(FrameOperators.onBackpressure(getBackpressurePolicy(), Queues.SMALL_BUFFER_SIZE,
+                        dropStats, Schedulers.boundedElastic()))
+                .transform(ParallelFrameStage.process(Schedulers.DEFAULT_POOL_SIZE, ParallelFrameStage.Ordering.SEQUENCE,
+                        Schedulers.parallel(), frame -> {
+                            try {
+                                Thread.sleep(200);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }))
+                .transform(FrameOperators.releaseDiscarded());
     }
 }
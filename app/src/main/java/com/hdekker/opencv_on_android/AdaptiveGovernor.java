@@ -0,0 +1,269 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Steps the analysis resolution and frame rate up or down to hold a latency budget.
+ * <p>
+ * The governor walks a ladder of {@link CameraMode}s ordered by pixel rate. Each evaluation looks
+ * at the latency of the frames delivered since the last one and at whether the output keeps up
+ * with the camera:
+ * <ul>
+ *     <li>Over budget, or output FPS below {@link #MIN_THROUGHPUT_RATIO} of the input, for
+ *     {@code holdEvaluations} evaluations in a row: one step down.</li>
+ *     <li>Keeping up, with the latency scaled to the next step's pixel count still under
+ *     {@code stepUpHeadroom} of the budget, for as many evaluations: one step up.</li>
+ * </ul>
+ * After a change nothing happens until {@code cooldownNanos} have passed, so the camera has
+ * settled and the measurements describe the new mode. A step up that has to be taken back blocks
+ * that step for a backoff that doubles every time it happens again, which stops the governor from
+ * bouncing between two modes when the budget lies between them.
+ * <p>
+ * {@link #evaluate(long, double, double, long)} is the pure control step and can be driven from a
+ * simulation. On a device, {@link #monitor()} measures the algorithm's output and
+ * {@link #schedule} evaluates periodically, calling the {@link Listener} to reconfigure the camera.
+ */
+public class AdaptiveGovernor {
+
+    public static final double MIN_THROUGHPUT_RATIO = 0.9;
+    public static final double DEFAULT_STEP_UP_HEADROOM = 0.75;
+    public static final int DEFAULT_HOLD_EVALUATIONS = 3;
+    public static final long DEFAULT_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    public static final double LATENCY_PERCENTILE = 95.0;
+    /**
+     * A step down this soon after a step up means the step up failed.
+     */
+    static final long STEP_UP_TRIAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    static final long BASE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    public interface Listener {
+        void onModeChanged(CameraMode previous, CameraMode next);
+    }
+
+    /**
+     * Orders {@code supported} into a ladder, cheapest first, leaving out modes above
+     * {@code maxPixels} and duplicates.
+     */
+    public static List<CameraMode> ladder(Collection<CameraMode> supported, long maxPixels) {
+        List<CameraMode> ladder = new ArrayList<>();
+        for (CameraMode mode : new LinkedHashSet<>(supported)) {
+            if (mode.getPixels() <= maxPixels) {
+                ladder.add(mode);
+            }
+        }
+        ladder.sort(Comparator.comparingLong(CameraMode::getPixelRate)
+                .thenComparingLong(CameraMode::getPixels)
+                .thenComparingInt(CameraMode::getMinFps));
+        return ladder;
+    }
+
+    /**
+     * The index of the most expensive mode in {@code ladder} not above {@code target}, 0 if all are.
+     */
+    public static int indexAtOrBelow(List<CameraMode> ladder, CameraMode target) {
+        int index = 0;
+        for (int i = 0; i < ladder.size(); i++) {
+            if (ladder.get(i).getPixelRate() <= target.getPixelRate()) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private final List<CameraMode> ladder;
+    private final long latencyBudgetNanos;
+    private final double stepUpHeadroom;
+    private final int holdEvaluations;
+    private final long cooldownNanos;
+    private final Listener listener;
+
+    // Output measurements, written by the monitored flux. Each evaluation swaps in a fresh latency
+    // window rather than resetting the one the flux may be recording into.
+    private final AtomicReference<LatencyHistogram> windowLatency = new AtomicReference<>(new LatencyHistogram());
+    private final WindowedFPSCalculator outputFps = new WindowedFPSCalculator(1000.0f);
+
+    // Control state, guarded by this.
+    private int index;
+    private int overCount = 0;
+    private int underCount = 0;
+    private long changedAtNanos;
+    private boolean changed = false;
+    private boolean lastChangeWasUp = false;
+    private final long[] blockedUntilNanos;
+    private final long[] backoffNanos;
+    private int changeCount = 0;
+
+    public AdaptiveGovernor(List<CameraMode> ladder, int startIndex, long latencyBudgetNanos, Listener listener) {
+        this(ladder, startIndex, latencyBudgetNanos, DEFAULT_STEP_UP_HEADROOM, DEFAULT_HOLD_EVALUATIONS,
+                DEFAULT_COOLDOWN_NANOS, listener);
+    }
+
+    public AdaptiveGovernor(List<CameraMode> ladder, int startIndex, long latencyBudgetNanos, double stepUpHeadroom,
+                            int holdEvaluations, long cooldownNanos, Listener listener) {
+        if (ladder.isEmpty()) {
+            throw new IllegalArgumentException("The ladder needs at least one mode.");
+        }
+        if (startIndex < 0 || startIndex >= ladder.size()) {
+            throw new IllegalArgumentException("Start index " + startIndex + " outside the ladder.");
+        }
+        if (latencyBudgetNanos <= 0 || holdEvaluations <= 0 || cooldownNanos < 0) {
+            throw new IllegalArgumentException("Budget and hold must be positive, cooldown not negative.");
+        }
+        if (stepUpHeadroom <= 0 || stepUpHeadroom > 1) {
+            throw new IllegalArgumentException("Step up headroom must be in (0, 1].");
+        }
+        this.ladder = new ArrayList<>(ladder);
+        this.index = startIndex;
+        this.latencyBudgetNanos = latencyBudgetNanos;
+        this.stepUpHeadroom = stepUpHeadroom;
+        this.holdEvaluations = holdEvaluations;
+        this.cooldownNanos = cooldownNanos;
+        this.listener = listener;
+        this.blockedUntilNanos = new long[ladder.size()];
+        this.backoffNanos = new long[ladder.size()];
+    }
+
+    public synchronized CameraMode getCurrentMode() {
+        return ladder.get(index);
+    }
+
+    public synchronized int getCurrentIndex() {
+        return index;
+    }
+
+    /**
+     * Number of mode changes so far.
+     */
+    public synchronized int getChangeCount() {
+        return changeCount;
+    }
+
+    public long getLatencyBudgetNanos() {
+        return latencyBudgetNanos;
+    }
+
+    /**
+     * One control step.
+     *
+     * @param nowNanos     on the {@link System#nanoTime()} clock, or a simulated one.
+     * @param inputFps     rate frames arrive from the camera.
+     * @param outputFps    rate the algorithm delivers results.
+     * @param latencyNanos latency of recent frames, typically a high percentile. 0 when nothing was delivered.
+     * @return the mode to use from now on.
+     */
+    public CameraMode evaluate(long nowNanos, double inputFps, double outputFps, long latencyNanos) {
+        CameraMode previous;
+        CameraMode next;
+        synchronized (this) {
+            previous = ladder.get(index);
+            if (changed && nowNanos - changedAtNanos < cooldownNanos) {
+                return previous;
+            }
+            if (inputFps <= 0) {
+                // Camera not delivering, nothing to judge the algorithm by.
+                return previous;
+            }
+            boolean keepingUp = outputFps >= inputFps * MIN_THROUGHPUT_RATIO;
+            boolean over = !keepingUp || latencyNanos > latencyBudgetNanos;
+            boolean roomToGrow = keepingUp && index < ladder.size() - 1
+                    && !isBlocked(index + 1, nowNanos)
+                    && predictLatency(latencyNanos, index + 1) < latencyBudgetNanos * stepUpHeadroom;
+            if (over) {
+                overCount++;
+                underCount = 0;
+            } else if (roomToGrow) {
+                underCount++;
+                overCount = 0;
+            } else {
+                overCount = 0;
+                underCount = 0;
+            }
+            if (overCount >= holdEvaluations && index > 0) {
+                if (changed && lastChangeWasUp && nowNanos - changedAtNanos < STEP_UP_TRIAL_NANOS) {
+                    // The step up did not hold, keep away from it for a while.
+                    long backoff = backoffNanos[index] == 0 ? BASE_BACKOFF_NANOS
+                            : Math.min(backoffNanos[index] * 2, MAX_BACKOFF_NANOS);
+                    backoffNanos[index] = backoff;
+                    blockedUntilNanos[index] = nowNanos + backoff;
+                } else {
+                    // The mode held, the load changed: a later step up deserves a fresh try.
+                    backoffNanos[index] = 0;
+                }
+                change(nowNanos, index - 1, false);
+            } else if (underCount >= holdEvaluations) {
+                change(nowNanos, index + 1, true);
+            } else {
+                return previous;
+            }
+            next = ladder.get(index);
+        }
+        if (listener != null) {
+            listener.onModeChanged(previous, next);
+        }
+        return next;
+    }
+
+    /**
+     * Evaluates with the input rate from {@code inputFps} and the output measured by {@link #monitor()}
+     * since the last evaluation. Safe to call while the monitored flux runs.
+     */
+    public CameraMode evaluate(long nowNanos, WindowedFPSCalculator inputFps) {
+        LatencyHistogram window = windowLatency.getAndSet(new LatencyHistogram());
+        long latency = window.getCount() == 0 ? 0 : window.getPercentileNanos(LATENCY_PERCENTILE);
+        return evaluate(nowNanos, inputFps.calculateFPS(), outputFps.calculateFPS(), latency);
+    }
+
+    /**
+     * Measures output rate and latency of the frames passing by, from {@link PipelineStage#RECEIVED}
+     * to now. Place it on the algorithm's output, on one subscriber.
+     */
+    public Function<Flux<Frame>, Flux<Frame>> monitor() {
+        return flux -> flux.doOnNext(frame -> {
+            long now = System.nanoTime();
+            outputFps.recordFrameTimestamp(now);
+            long received = frame.getStageNanos(PipelineStage.RECEIVED);
+            if (received != 0) {
+                windowLatency.get().record(now - received);
+            }
+        });
+    }
+
+    /**
+     * Evaluates every {@code periodNanos} on {@code scheduler} until disposed.
+     */
+    public Disposable schedule(Scheduler scheduler, long periodNanos, WindowedFPSCalculator inputFps) {
+        return scheduler.schedulePeriodically(() -> evaluate(System.nanoTime(), inputFps),
+                periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean isBlocked(int target, long nowNanos) {
+        return backoffNanos[target] != 0 && nowNanos - blockedUntilNanos[target] < 0;
+    }
+
+    private long predictLatency(long latencyNanos, int targetIndex) {
+        // Per-frame work scales with the pixel count, the frame rate only matters through keepingUp.
+        return (long) (latencyNanos * ((double) ladder.get(targetIndex).getPixels() / ladder.get(index).getPixels()));
+    }
+
+    private void change(long nowNanos, int newIndex, boolean up) {
+        index = newIndex;
+        changed = true;
+        lastChangeWasUp = up;
+        changedAtNanos = nowNanos;
+        overCount = 0;
+        underCount = 0;
+        changeCount++;
+    }
+}
@@ -0,0 +1,276 @@
+package com.hdekker.opencv_on_android;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.camera.core.ImageAnalysis;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which threads run image analysis, and owns them.
+ * <p>
+ * A model is handed to {@link CameraUseCaseConfig}, which registers the analyzer returned by
+ * {@link #bind(ImageAnalyzer)} on {@link #getAnalyzerExecutor()} and calls {@link #shutdown()}
+ * when the camera is released, so rebinding never leaks threads. Threads are created on first use.
+ * <ul>
+ *     <li>{@link Mode#INLINE}: conversion runs on CameraX's own thread, no threads are created.</li>
+ *     <li>{@link Mode#DEDICATED_THREAD}: one display priority thread converts and emits.</li>
+ *     <li>{@link Mode#PARALLEL_CONVERSION}: a dispatch thread hands images to N workers and frames
+ *     reach the algorithm in camera order. CameraX only hands out several images at once with
+ *     {@link ImageAnalysis#STRATEGY_BLOCK_PRODUCER}, with the other strategies this behaves like
+ *     a dedicated thread plus a hop.</li>
+ * </ul>
+ */
+public abstract class AnalysisExecutionModel {
+
+    private static final String TAG = "AnalysisExecutionModel";
+
+    public enum Mode {
+        INLINE,
+        DEDICATED_THREAD,
+        PARALLEL_CONVERSION
+    }
+
+    public static AnalysisExecutionModel inline() {
+        return new Inline();
+    }
+
+    public static AnalysisExecutionModel dedicatedThread() {
+        return new DedicatedThread();
+    }
+
+    public static AnalysisExecutionModel parallelConversion(int workers) {
+        return new ParallelConversion(workers);
+    }
+
+    /**
+     * A starting point per device class: inline on small devices where an extra thread hop costs more
+     * than it saves, a dedicated thread on mid range ones, and parallel conversion from eight cores.
+     */
+    public static AnalysisExecutionModel forDevice(int availableProcessors) {
+        if (availableProcessors >= 8) {
+            return parallelConversion(availableProcessors / 4);
+        }
+        if (availableProcessors >= 4) {
+            return dedicatedThread();
+        }
+        return inline();
+    }
+
+    public abstract Mode getMode();
+
+    /**
+     * Executor CameraX calls the analyzer on.
+     */
+    public abstract Executor getAnalyzerExecutor();
+
+    /**
+     * The analyzer to register with CameraX for {@code analyzer}.
+     */
+    public abstract ImageAnalysis.Analyzer bind(ImageAnalyzer analyzer);
+
+    /**
+     * Images CameraX may hand to the analyzer before the first is closed, used with
+     * {@link ImageAnalysis#STRATEGY_BLOCK_PRODUCER}.
+     */
+    public int getImageQueueDepth() {
+        return 1;
+    }
+
+    /**
+     * Stops the model's threads once queued work is done. Images still queued are closed by that work.
+     */
+    public abstract void shutdown();
+
+    private static final class Inline extends AnalysisExecutionModel {
+
+        @Override
+        public Mode getMode() {
+            return Mode.INLINE;
+        }
+
+        @Override
+        public Executor getAnalyzerExecutor() {
+            return Runnable::run;
+        }
+
+        @Override
+        public ImageAnalysis.Analyzer bind(ImageAnalyzer analyzer) {
+            return analyzer;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static final class DedicatedThread extends AnalysisExecutionModel {
+
+        private ExecutorService executor;
+        private boolean shutdown = false;
+
+        @Override
+        public Mode getMode() {
+            return Mode.DEDICATED_THREAD;
+        }
+
+        @Override
+        public synchronized Executor getAnalyzerExecutor() {
+            if (shutdown) {
+                throw new IllegalStateException("Execution model has been shut down.");
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(threadFactory("analysis"));
+            }
+            return executor;
+        }
+
+        @Override
+        public ImageAnalysis.Analyzer bind(ImageAnalyzer analyzer) {
+            return analyzer;
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    private static final class ParallelConversion extends AnalysisExecutionModel {
+
+        private final int workerCount;
+        private final ThreadLocal<ImageProxyPlanes> planes = ThreadLocal.withInitial(ImageProxyPlanes::new);
+        private ExecutorService dispatcher;
+        private ExecutorService workers;
+        private boolean shutdown = false;
+        // One sequencer for the model, so workers still finishing images of an earlier binding
+        // deliver through the same ordering as new ones and deliver calls never overlap.
+        private SequencedDelivery<Object> delivery;
+        private volatile ImageAnalyzer boundAnalyzer;
+
+        ParallelConversion(int workerCount) {
+            if (workerCount <= 0) {
+                throw new IllegalArgumentException("Worker count must be positive.");
+            }
+            this.workerCount = workerCount;
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.PARALLEL_CONVERSION;
+        }
+
+        @Override
+        public synchronized Executor getAnalyzerExecutor() {
+            start();
+            return dispatcher;
+        }
+
+        @Override
+        public int getImageQueueDepth() {
+            return workerCount + 1;
+        }
+
+        /**
+         * Rebinding keeps the model's sequencer. Frames converted before a rebind to another
+         * analyzer are delivered by the new one, still to the algorithm they were converted for.
+         */
+        @Override
+        public ImageAnalysis.Analyzer bind(ImageAnalyzer analyzer) {
+            ExecutorService workerPool;
+            SequencedDelivery<Object> delivery;
+            synchronized (this) {
+                start();
+                workerPool = workers;
+                boundAnalyzer = analyzer;
+                if (this.delivery == null) {
+                    this.delivery = new SequencedDelivery<>(getImageQueueDepth(), result -> {
+                        ImageAnalyzer target = boundAnalyzer;
+                        if (result instanceof Frame) {
+                            target.deliver((Frame) result);
+                        } else {
+                            Failure failure = (Failure) result;
+                            target.reportError(failure.receivedNanos, failure.error);
+                        }
+                    });
+                }
+                delivery = this.delivery;
+            }
+            return imageProxy -> {
+                long receivedNanos = analyzer.recordArrival();
+                long ticket = delivery.reserve();
+                if (ticket < 0) {
+                    analyzer.drop(imageProxy);
+                    return;
+                }
+                try {
+                    workerPool.execute(() -> {
+                        Object result;
+                        try {
+                            result = analyzer.convert(imageProxy, planes.get(), receivedNanos);
+                        } catch (Exception e) {
+                            result = new Failure(receivedNanos, e);
+                        }
+                        delivery.complete(ticket, result);
+                    });
+                } catch (RejectedExecutionException e) {
+                    imageProxy.close();
+                    delivery.complete(ticket, new Failure(receivedNanos, e));
+                }
+            };
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+                workers.shutdown();
+                dispatcher = null;
+                workers = null;
+            }
+        }
+
+        private void start() {
+            if (shutdown) {
+                throw new IllegalStateException("Execution model has been shut down.");
+            }
+            if (dispatcher == null) {
+                dispatcher = Executors.newSingleThreadExecutor(threadFactory("analysis-dispatch"));
+                workers = Executors.newFixedThreadPool(workerCount, threadFactory("analysis-worker"));
+            }
+        }
+    }
+
+    private static final class Failure {
+        final long receivedNanos;
+        final Exception error;
+
+        Failure(long receivedNanos, Exception error) {
+            this.receivedNanos = receivedNanos;
+            this.error = error;
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(() -> {
+            try {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            } catch (SecurityException e) {
+                Log.w(TAG, "Could not raise priority of " + Thread.currentThread().getName(), e);
+            }
+            runnable.run();
+        }, name + "-" + count.incrementAndGet());
+    }
+}
@@ -0,0 +1,164 @@
+package com.hdekker.opencv_on_android;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.camera.lifecycle.ProcessCameraProvider;
+
+import org.opencv.android.OpenCVLoader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The app's startup phases, run off the main thread by a {@link StartupOrchestrator}:
+ * <ul>
+ *     <li>{@link #PHASE_OPENCV}: loads the OpenCV natives.</li>
+ *     <li>{@link #PHASE_CAMERA_PROVIDER}: gets CameraX's camera provider, which connects to the camera service.</li>
+ *     <li>{@link #PHASE_CAPABILITIES}: loads the {@link CameraCapabilities}, from the cache when possible.</li>
+ *     <li>{@link #PHASE_FRAME_POOL}: allocates frames for the resolved analysis mode, once OpenCV
+ *     and the capabilities are in.</li>
+ *     <li>{@link #PHASE_CONVERSION_BUFFERS}: allocates conversion staging buffers for that mode.</li>
+ * </ul>
+ * Only the first two are needed to start the camera, see {@link #whenCameraReady()}. The rest
+ * are warm-ups the camera can do without, an analyzer built before they finish starts cold.
+ * <p>
+ * One instance per process. Phase timings are logged when startup completes. Time to first
+ * frame is logged when {@link #recordFirstFrame} sees the first frame.
+ */
+public final class AppStartup {
+
+    private static final String TAG = "AppStartup";
+
+    public static final String PHASE_OPENCV = "opencv";
+    public static final String PHASE_CAMERA_PROVIDER = "cameraProvider";
+    public static final String PHASE_CAPABILITIES = "capabilities";
+    public static final String PHASE_FRAME_POOL = "framePool";
+    public static final String PHASE_CONVERSION_BUFFERS = "conversionBuffers";
+    public static final String MILESTONE_FIRST_FRAME = "firstFrame";
+
+    /**
+     * The format frames are warmed up in, what a {@link ReactiveImageAlgo} asks for by default.
+     */
+    public static final PixelFormat WARM_FORMAT = PixelFormat.RGBA;
+
+    private static AppStartup instance;
+
+    private final StartupOrchestrator orchestrator;
+    private final CompletableFuture<StartupOrchestrator.Timings> ready;
+
+    private AppStartup(Context context) {
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        int imageQueueDepth = AnalysisExecutionModel.forDevice(Runtime.getRuntime().availableProcessors())
+                .getImageQueueDepth();
+        ExecutorService executor = Executors.newFixedThreadPool(3, runnable -> {
+            Thread thread = new Thread(runnable, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        orchestrator = new StartupOrchestrator(executor)
+                .phase(PHASE_OPENCV, () -> {
+                    if (!OpenCVLoader.initLocal()) {
+                        throw new IllegalStateException("OpenCV load failed from local package.");
+                    }
+                    return null;
+                })
+                .phase(PHASE_CAMERA_PROVIDER, () -> ProcessCameraProvider.getInstance(appContext).get())
+                .phase(PHASE_CAPABILITIES, () -> CameraCapabilityReader.get(appContext))
+                .phase(PHASE_FRAME_POOL, () -> {
+                    CameraMode mode = resolvedMode();
+                    FramePool pool = new FramePool();
+                    pool.preallocate(framesInFlight(imageQueueDepth),
+                            MatSpec.of(WARM_FORMAT, mode.getWidth(), mode.getHeight()));
+                    return pool;
+                }, PHASE_OPENCV, PHASE_CAPABILITIES)
+                .phase(PHASE_CONVERSION_BUFFERS, () -> {
+                    CameraMode mode = resolvedMode();
+                    ConversionBufferPool pool = new ConversionBufferPool();
+                    pool.preallocate(imageQueueDepth, mode.getWidth(), mode.getHeight());
+                    return pool;
+                }, PHASE_OPENCV, PHASE_CAPABILITIES);
+        ready = orchestrator.start().whenComplete((timings, error) -> {
+            executor.shutdown();
+            if (error != null) {
+                Log.e(TAG, "Startup failed", error);
+            } else {
+                Log.i(TAG, timings.toString());
+            }
+        });
+    }
+
+    /**
+     * Starts startup on first call, later calls return the running or finished instance.
+     */
+    public static synchronized AppStartup start(Context context) {
+        if (instance == null) {
+            instance = new AppStartup(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Completes when every phase is done, exceptionally if one failed.
+     */
+    public CompletableFuture<StartupOrchestrator.Timings> whenReady() {
+        return ready;
+    }
+
+    /**
+     * Completes when OpenCV is loaded and the camera provider is connected, exceptionally if either
+     * failed. Optional warm-ups failing does not keep the camera from starting.
+     */
+    public CompletableFuture<Void> whenCameraReady() {
+        return CompletableFuture.allOf(orchestrator.getPhaseResult(PHASE_OPENCV),
+                orchestrator.getPhaseResult(PHASE_CAMERA_PROVIDER));
+    }
+
+    /**
+     * The warmed up frame pool when its phase is done and {@code format} is {@link #WARM_FORMAT},
+     * otherwise a new empty pool. Never waits for the warm-up.
+     */
+    public FramePool framePoolFor(PixelFormat format) {
+        FramePool pool = format == WARM_FORMAT ? completedPhaseResult(PHASE_FRAME_POOL) : null;
+        return pool != null ? pool : new FramePool();
+    }
+
+    /**
+     * The warmed up conversion buffers when their phase is done, otherwise a new empty pool. Never
+     * waits for the warm-up.
+     */
+    public ConversionBufferPool conversionBufferPool() {
+        ConversionBufferPool pool = completedPhaseResult(PHASE_CONVERSION_BUFFERS);
+        return pool != null ? pool : new ConversionBufferPool();
+    }
+
+    /**
+     * Frames a stream holds at once: one per image being converted, one waiting for the algorithm
+     * and one in it.
+     */
+    static int framesInFlight(int imageQueueDepth) {
+        return Math.min(imageQueueDepth + 2, FramePool.DEFAULT_MAX_POOLED);
+    }
+
+    // The analysis mode the camera will start in, once the capabilities phase is done.
+    private CameraMode resolvedMode() {
+        CameraCapabilities capabilities = orchestrator.<CameraCapabilities>getPhaseResult(PHASE_CAPABILITIES).join();
+        return capabilities.resolve(CameraCapabilities.LENS_FACING_BACK, CameraMode.DEFAULT);
+    }
+
+    private <T> T completedPhaseResult(String phase) {
+        CompletableFuture<T> result = orchestrator.getPhaseResult(phase);
+        return result.isDone() && !result.isCompletedExceptionally() ? result.join() : null;
+    }
+
+    /**
+     * Logs time to first frame once {@code analyzer} delivers its first frame.
+     */
+    public void recordFirstFrame(ImageAnalyzer analyzer) {
+        analyzer.getFirstFrameFuture().thenRun(() -> {
+            long nanos = orchestrator.markMilestone(MILESTONE_FIRST_FRAME);
+            Log.i(TAG, "Time to first frame " + nanos / 1_000_000 + " ms");
+        });
+    }
+}
@@ -0,0 +1,27 @@
+package com.hdekker.opencv_on_android;
+
+/**
+ * What happens when an algorithm cannot keep up with the camera.
+ * Applied end to end: by CameraX in front of the analyzer, by {@link ImageAnalyzer} when
+ * emitting, and by {@link FrameOperators#onBackpressure} in front of the algorithm.
+ * {@link CameraUseCaseConfig} maps it to a CameraX strategy, so the enum has no Android dependency.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Conflate to the newest frame. Anything older than the frame the algorithm will see next is
+     * dropped, keeping glass-to-result latency at roughly one processing time.
+     */
+    LATEST,
+
+    /**
+     * Queue up to a bounded number of frames and drop the oldest when full.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Never drop: the analyzer waits for room in the input sink, which in turn stalls the camera.
+     * Every frame is processed, latency grows when the algorithm is slower than the camera.
+     */
+    BLOCK
+}
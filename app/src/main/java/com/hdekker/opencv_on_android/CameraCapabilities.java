@@ -0,0 +1,356 @@
+package com.hdekker.opencv_on_android;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the device's cameras can do, read once from camera2 by {@link CameraCapabilityReader} and
+ * cached by {@link CameraCapabilityStore}: facing, hardware level, output sizes per format with
+ * their minimum frame durations, and AE target frame rate ranges.
+ * <p>
+ * Constants are camera2's: {@code LENS_FACING_*}, {@code INFO_SUPPORTED_HARDWARE_LEVEL_*} and
+ * {@code ImageFormat} values. The model itself does not depend on Android, so it can be stored,
+ * parsed and resolved against in unit tests.
+ */
+public final class CameraCapabilities {
+
+    public static final int LENS_FACING_FRONT = 0;
+    public static final int LENS_FACING_BACK = 1;
+    public static final int FORMAT_YUV_420_888 = 0x23;
+
+    static final String HEADER = "camera-capabilities 1";
+
+    /**
+     * A frame rate range the AE routine can target.
+     */
+    public static final class FpsRange {
+        private final int lower;
+        private final int upper;
+
+        public FpsRange(int lower, int upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        public int getLower() {
+            return lower;
+        }
+
+        public int getUpper() {
+            return upper;
+        }
+
+        public boolean isFixed() {
+            return lower == upper;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lower + ", " + upper + "]";
+        }
+    }
+
+    /**
+     * An output size of a format and the shortest frame duration it supports.
+     */
+    public static final class StreamSize {
+        private final int format;
+        private final int width;
+        private final int height;
+        private final long minFrameDurationNanos;
+
+        public StreamSize(int format, int width, int height, long minFrameDurationNanos) {
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.minFrameDurationNanos = minFrameDurationNanos;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getMinFrameDurationNanos() {
+            return minFrameDurationNanos;
+        }
+
+        /**
+         * Highest frame rate of the size, 0 if the camera does not say.
+         */
+        public int getMaxFps() {
+            return minFrameDurationNanos > 0 ? (int) Math.round(1_000_000_000.0 / minFrameDurationNanos) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + " format " + format + " max " + getMaxFps() + " fps";
+        }
+    }
+
+    public static final class Camera {
+        private final String id;
+        private final int facing;
+        private final int hardwareLevel;
+        private final List<StreamSize> sizes;
+        private final List<FpsRange> fpsRanges;
+
+        public Camera(String id, int facing, int hardwareLevel, List<StreamSize> sizes, List<FpsRange> fpsRanges) {
+            this.id = id;
+            this.facing = facing;
+            this.hardwareLevel = hardwareLevel;
+            this.sizes = Collections.unmodifiableList(new ArrayList<>(sizes));
+            this.fpsRanges = Collections.unmodifiableList(new ArrayList<>(fpsRanges));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getFacing() {
+            return facing;
+        }
+
+        public int getHardwareLevel() {
+            return hardwareLevel;
+        }
+
+        public List<StreamSize> getSizes() {
+            return sizes;
+        }
+
+        public List<StreamSize> getSizes(int format) {
+            List<StreamSize> result = new ArrayList<>();
+            for (StreamSize size : sizes) {
+                if (size.format == format) {
+                    result.add(size);
+                }
+            }
+            return result;
+        }
+
+        public List<FpsRange> getFpsRanges() {
+            return fpsRanges;
+        }
+
+        /**
+         * YUV sizes paired with the fixed AE ranges they can sustain, or with their maximum rate when
+         * the camera has no fixed ranges. The input for {@link AdaptiveGovernor#ladder}.
+         */
+        public List<CameraMode> getAnalysisModes() {
+            List<CameraMode> modes = new ArrayList<>();
+            for (StreamSize size : getSizes(FORMAT_YUV_420_888)) {
+                int maxFps = size.getMaxFps() > 0 ? size.getMaxFps() : CameraMode.DEFAULT.getMaxFps();
+                boolean fixedRangeAdded = false;
+                for (FpsRange range : fpsRanges) {
+                    if (range.isFixed() && range.upper <= maxFps) {
+                        modes.add(new CameraMode(size.width, size.height, range.lower, range.upper));
+                        fixedRangeAdded = true;
+                    }
+                }
+                if (!fixedRangeAdded) {
+                    modes.add(new CameraMode(size.width, size.height, 0, maxFps));
+                }
+            }
+            return modes;
+        }
+
+        /**
+         * The analysis mode closest to {@code width} x {@code height} at {@code fps}, in sensor orientation.
+         * <p>
+         * Sizes that reach {@code fps} win over faster sizes that do not. Among them the closest
+         * aspect ratio wins, then the smallest size covering the target, then the largest below it.
+         * The frame rate range is a fixed range at {@code fps} if the camera has one, otherwise the
+         * narrowest range containing it, otherwise left to the camera.
+         *
+         * @return null if the camera has no YUV sizes.
+         */
+        public CameraMode resolve(int width, int height, int fps) {
+            StreamSize best = null;
+            for (StreamSize size : getSizes(FORMAT_YUV_420_888)) {
+                if (best == null || compare(size, best, width, height, fps) < 0) {
+                    best = size;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            int maxFps = best.getMaxFps() > 0 ? best.getMaxFps() : fps;
+            int targetFps = Math.min(fps, maxFps);
+            FpsRange range = null;
+            for (FpsRange candidate : fpsRanges) {
+                if (candidate.lower > targetFps || candidate.upper < targetFps || candidate.upper > maxFps) {
+                    continue;
+                }
+                if (range == null || candidate.upper - candidate.lower < range.upper - range.lower) {
+                    range = candidate;
+                }
+            }
+            return range == null
+                    ? new CameraMode(best.width, best.height, 0, targetFps)
+                    : new CameraMode(best.width, best.height, range.lower, range.upper);
+        }
+
+        private static int compare(StreamSize a, StreamSize b, int width, int height, int fps) {
+            boolean aFast = a.getMaxFps() == 0 || a.getMaxFps() >= fps;
+            boolean bFast = b.getMaxFps() == 0 || b.getMaxFps() >= fps;
+            if (aFast != bFast) {
+                return aFast ? -1 : 1;
+            }
+            double targetAspect = (double) width / height;
+            int aspect = Double.compare(aspectError(a, targetAspect), aspectError(b, targetAspect));
+            if (aspect != 0) {
+                return aspect;
+            }
+            long target = (long) width * height;
+            long aPixels = (long) a.width * a.height;
+            long bPixels = (long) b.width * b.height;
+            boolean aCovers = aPixels >= target;
+            boolean bCovers = bPixels >= target;
+            if (aCovers != bCovers) {
+                return aCovers ? -1 : 1;
+            }
+            return aCovers ? Long.compare(aPixels, bPixels) : Long.compare(bPixels, aPixels);
+        }
+
+        private static double aspectError(StreamSize size, double targetAspect) {
+            // Rounded so sizes like 1280x720 and 1920x1088 count as the same aspect ratio.
+            return Math.round(Math.abs(Math.log((double) size.width / size.height / targetAspect)) * 50) / 50.0;
+        }
+    }
+
+    private final List<Camera> cameras;
+    private final boolean complete;
+
+    public CameraCapabilities(List<Camera> cameras) {
+        this(cameras, true);
+    }
+
+    /**
+     * @param complete false if some cameras could not be read, such capabilities are not stored.
+     */
+    public CameraCapabilities(List<Camera> cameras, boolean complete) {
+        this.cameras = Collections.unmodifiableList(new ArrayList<>(cameras));
+        this.complete = complete;
+    }
+
+    /**
+     * Whether every camera was read. {@link CameraCapabilityStore} only keeps complete capabilities.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public List<Camera> getCameras() {
+        return cameras;
+    }
+
+    /**
+     * The first camera facing {@code facing}, null if there is none.
+     */
+    public Camera getCamera(int facing) {
+        for (Camera camera : cameras) {
+            if (camera.facing == facing) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@link Camera#resolve} for {@code target} on the first camera facing {@code facing}, or
+     * {@code target} itself if there is no such camera or it has no YUV sizes.
+     */
+    public CameraMode resolve(int facing, CameraMode target) {
+        Camera camera = getCamera(facing);
+        CameraMode resolved = camera == null ? null
+                : camera.resolve(target.getWidth(), target.getHeight(), target.getMaxFps());
+        return resolved == null ? target : resolved;
+    }
+
+    /**
+     * Writes the line based form {@link #read} parses.
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (Camera camera : cameras) {
+            writer.write("camera " + camera.facing + " " + camera.hardwareLevel + " " + camera.id + "\n");
+            for (FpsRange range : camera.fpsRanges) {
+                writer.write("fps " + range.lower + " " + range.upper + "\n");
+            }
+            for (StreamSize size : camera.sizes) {
+                writer.write("size " + size.format + " " + size.width + " " + size.height + " "
+                        + size.minFrameDurationNanos + "\n");
+            }
+        }
+    }
+
+    /**
+     * @throws IOException if the input is not in the form {@link #write} produces.
+     */
+    public static CameraCapabilities read(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        if (!HEADER.equals(lines.readLine())) {
+            throw new IOException("Not a camera capabilities file.");
+        }
+        List<Camera> cameras = new ArrayList<>();
+        String[] camera = null;
+        List<StreamSize> sizes = new ArrayList<>();
+        List<FpsRange> ranges = new ArrayList<>();
+        String line;
+        try {
+            while ((line = lines.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(" ", 4);
+                switch (fields[0]) {
+                    case "camera":
+                        if (camera != null) {
+                            cameras.add(toCamera(camera, sizes, ranges));
+                        }
+                        camera = fields;
+                        sizes = new ArrayList<>();
+                        ranges = new ArrayList<>();
+                        break;
+                    case "fps":
+                        ranges.add(new FpsRange(Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+                        break;
+                    case "size":
+                        String[] size = line.split(" ");
+                        sizes.add(new StreamSize(Integer.parseInt(size[1]), Integer.parseInt(size[2]),
+                                Integer.parseInt(size[3]), Long.parseLong(size[4])));
+                        break;
+                    default:
+                        throw new IOException("Unexpected line: " + line);
+                }
+                if (camera == null) {
+                    throw new IOException("Entry before the first camera: " + line);
+                }
+            }
+            if (camera != null) {
+                cameras.add(toCamera(camera, sizes, ranges));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed camera capabilities.", e);
+        }
+        return new CameraCapabilities(cameras);
+    }
+
+    private static Camera toCamera(String[] fields, List<StreamSize> sizes, List<FpsRange> ranges) {
+        return new Camera(fields[3], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), sizes, ranges);
+    }
+}
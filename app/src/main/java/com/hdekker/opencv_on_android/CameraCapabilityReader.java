@@ -0,0 +1,110 @@
+package com.hdekker.opencv_on_android;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads {@link CameraCapabilities} from camera2, and serves them from a process wide
+ * {@link CameraCapabilityStore} so the enumeration runs once per device and system version.
+ */
+public final class CameraCapabilityReader {
+
+    private static final String TAG = "CameraCapabilities";
+    private static final String FILE_NAME = "camera_capabilities.txt";
+
+    private static CameraCapabilityStore store;
+
+    private CameraCapabilityReader() {
+    }
+
+    /**
+     * The device's capabilities, enumerated and logged only if neither memory nor disk has them.
+     */
+    public static CameraCapabilities get(Context context) {
+        Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        CameraCapabilityStore current;
+        synchronized (CameraCapabilityReader.class) {
+            if (store == null) {
+                store = new CameraCapabilityStore(new File(appContext.getFilesDir(), FILE_NAME), Build.FINGERPRINT);
+            }
+            current = store;
+        }
+        return current.get(() -> {
+            CameraCapabilities capabilities =
+                    read((CameraManager) appContext.getSystemService(Context.CAMERA_SERVICE));
+            CameraLogger.logCapabilities(capabilities);
+            return capabilities;
+        });
+    }
+
+    /**
+     * Enumerates every camera. Cameras that cannot be read are left out and the result is marked
+     * incomplete, so it is used for this run but not stored.
+     */
+    public static CameraCapabilities read(CameraManager cameraManager) {
+        List<CameraCapabilities.Camera> cameras = new ArrayList<>();
+        if (cameraManager == null) {
+            Log.e(TAG, "CameraManager not available.");
+            return new CameraCapabilities(cameras, false);
+        }
+        String[] cameraIds;
+        try {
+            cameraIds = cameraManager.getCameraIdList();
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, "Error listing cameras: " + e.getMessage());
+            return new CameraCapabilities(cameras, false);
+        }
+        boolean complete = true;
+        for (String cameraId : cameraIds) {
+            try {
+                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                Integer hardwareLevel = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+
+                List<CameraCapabilities.StreamSize> sizes = new ArrayList<>();
+                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                if (map != null && map.getOutputFormats() != null) {
+                    for (int format : map.getOutputFormats()) {
+                        Size[] outputSizes = map.getOutputSizes(format);
+                        if (outputSizes == null) {
+                            continue;
+                        }
+                        for (Size size : outputSizes) {
+                            sizes.add(new CameraCapabilities.StreamSize(format, size.getWidth(), size.getHeight(),
+                                    map.getOutputMinFrameDuration(format, size)));
+                        }
+                    }
+                }
+
+                List<CameraCapabilities.FpsRange> fpsRanges = new ArrayList<>();
+                Range<Integer>[] availableFpsRanges =
+                        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+                if (availableFpsRanges != null) {
+                    for (Range<Integer> range : availableFpsRanges) {
+                        fpsRanges.add(new CameraCapabilities.FpsRange(range.getLower(), range.getUpper()));
+                    }
+                }
+
+                cameras.add(new CameraCapabilities.Camera(cameraId,
+                        facing == null ? -1 : facing,
+                        hardwareLevel == null ? -1 : hardwareLevel,
+                        sizes, fpsRanges));
+            } catch (CameraAccessException | RuntimeException e) {
+                Log.e(TAG, "Error accessing camera " + cameraId + " characteristics: " + e.getMessage());
+                complete = false;
+            }
+        }
+        return new CameraCapabilities(cameras, complete);
+    }
+}
@@ -0,0 +1,109 @@
+package com.hdekker.opencv_on_android;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Keeps {@link CameraCapabilities} in memory and in a file, keyed by the device fingerprint, so
+ * camera2 is only enumerated the first time and again after a system update.
+ * <p>
+ * A file that is missing, unreadable or written for another fingerprint counts as a miss, a file
+ * that cannot be parsed is also deleted. Writes go to a temporary file that is then renamed, so a
+ * crash never leaves half a file behind. Capabilities enumerated with errors are not written, the
+ * next start enumerates again.
+ */
+public class CameraCapabilityStore {
+
+    private static final String FINGERPRINT_PREFIX = "fingerprint ";
+
+    private final File file;
+    private final String fingerprint;
+    private volatile CameraCapabilities cached;
+
+    public CameraCapabilityStore(File file, String fingerprint) {
+        if (fingerprint.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("Fingerprint must be a single line.");
+        }
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * The capabilities from memory, else from the file, else from {@code enumerate}, which are then
+     * written to the file if {@link CameraCapabilities#isComplete() complete}. Failing to write only
+     * costs the next start an enumeration.
+     */
+    public CameraCapabilities get(Supplier<CameraCapabilities> enumerate) {
+        CameraCapabilities capabilities = cached;
+        if (capabilities != null) {
+            return capabilities;
+        }
+        synchronized (this) {
+            if (cached != null) {
+                return cached;
+            }
+            capabilities = load();
+            if (capabilities == null) {
+                capabilities = enumerate.get();
+                if (capabilities.isComplete()) {
+                    try {
+                        save(capabilities);
+                    } catch (IOException e) {
+                        // Next start enumerates again.
+                    }
+                }
+            }
+            cached = capabilities;
+            return capabilities;
+        }
+    }
+
+    /**
+     * @return the stored capabilities, or null if there are none for this fingerprint.
+     */
+    public CameraCapabilities load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String first = reader.readLine();
+            if (first == null || !first.equals(FINGERPRINT_PREFIX + fingerprint)) {
+                return null;
+            }
+            return CameraCapabilities.read(reader);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    public void save(CameraCapabilities capabilities) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            writer.write(FINGERPRINT_PREFIX + fingerprint + "\n");
+            capabilities.write(writer);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Forgets the cached capabilities and deletes the file.
+     */
+    public synchronized void clear() {
+        cached = null;
+        file.delete();
+    }
+}
@@ -0,0 +1,89 @@
+package com.hdekker.opencv_on_android;
+
+/**
+ * An analysis resolution and AE target frame rate range, one step of an {@link AdaptiveGovernor} ladder.
+ * <p>
+ * Sizes are in sensor orientation, landscape on almost every device. A {@code minFps} of 0 leaves
+ * the frame rate range to the camera, {@code maxFps} is then only what the size can reach.
+ */
+public final class CameraMode {
+
+    /**
+     * What the analysis used before it became configurable: 1280x720 at whatever rate the camera picks.
+     */
+    public static final CameraMode DEFAULT = new CameraMode(1280, 720, 0, 30);
+
+    private final int width;
+    private final int height;
+    private final int minFps;
+    private final int maxFps;
+
+    public CameraMode(int width, int height, int minFps, int maxFps) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive.");
+        }
+        if (maxFps <= 0 || minFps < 0 || minFps > maxFps) {
+            throw new IllegalArgumentException("Invalid frame rate range [" + minFps + ", " + maxFps + "].");
+        }
+        this.width = width;
+        this.height = height;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMinFps() {
+        return minFps;
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    /**
+     * Whether the mode asks the camera for a specific AE target frame rate range.
+     */
+    public boolean hasFpsRange() {
+        return minFps > 0;
+    }
+
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    /**
+     * Pixels per second at the top of the frame rate range, what the ladder is ordered by.
+     */
+    public long getPixelRate() {
+        return getPixels() * maxFps;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CameraMode)) {
+            return false;
+        }
+        CameraMode other = (CameraMode) o;
+        return width == other.width && height == other.height && minFps == other.minFps && maxFps == other.maxFps;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((width * 31 + height) * 31 + minFps) * 31 + maxFps;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "@[" + minFps + ", " + maxFps + "]";
+    }
+}
@@ -3,14 +3,16 @@ package com.hdekker.opencv_on_android;
 import android.content.Context;
 import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.util.Log;
+import android.util.Range;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.OptIn;
 import androidx.annotation.Size;
 import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.Camera2Interop;
 import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
 import androidx.camera.core.Camera;
 import androidx.camera.core.CameraInfo;
@@ -25,11 +27,13 @@ import androidx.lifecycle.LifecycleOwner;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 public class CameraUseCaseConfig {
 
@@ -38,17 +42,110 @@ public class CameraUseCaseConfig {
 
     ProcessCameraProvider cameraProvider;
 
+    /**
+     *  Owns the analysis threads, shut down with the camera.
+     */
+    private final AnalysisExecutionModel executionModel;
+    private ImageAnalysis imageAnalysis;
+
+    /**
+     *  Analysis resolution and frame rate, resolved from the capabilities and changed at runtime
+     *  by an {@link AdaptiveGovernor}.
+     */
+    private volatile CameraMode analysisMode = CameraMode.DEFAULT;
+    private final List<CameraMode> supportedAnalysisModes;
+    private final CameraCapabilities capabilities;
 
-    private ExecutorService cameraExecutor;
+    /**
+     *  Evaluates the running governor, if any, disposed with the camera.
+     */
+    private Scheduler governorScheduler;
+
+    // What the camera was last started with, to rebind when the mode changes.
+    private volatile Context context;
+    private LifecycleOwner lifecycleOwner;
+    private Preview.SurfaceProvider surfaceProvider;
+    private ImageAnalysis.Analyzer imageAnalyzer;
 
     public CameraUseCaseConfig(Context context){
+        this(context, AnalysisExecutionModel.forDevice(Runtime.getRuntime().availableProcessors()));
+    }
 
-        cameraExecutor = Executors.newSingleThreadExecutor();
+    public CameraUseCaseConfig(Context context, AnalysisExecutionModel executionModel){
+
+        this.executionModel = executionModel;
         cameraProviderFuture = ProcessCameraProvider.getInstance(context);
 
-        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        CameraLogger.logAllCameraCapabilities(cameraManager);
+        // Enumerated once per device and system version, later constructions read the cache.
+        capabilities = CameraCapabilityReader.get(context);
+        CameraCapabilities.Camera backCamera = capabilities.getCamera(CameraCapabilities.LENS_FACING_BACK);
+        supportedAnalysisModes = backCamera != null ? backCamera.getAnalysisModes() : new ArrayList<>();
+        analysisMode = capabilities.resolve(CameraCapabilities.LENS_FACING_BACK, CameraMode.DEFAULT);
+
+    }
+
+    public CameraCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     *  Modes the back camera supports for analysis, the input for {@link AdaptiveGovernor#ladder}.
+     */
+    public List<CameraMode> getSupportedAnalysisModes() {
+        return supportedAnalysisModes;
+    }
+
+    public CameraMode getAnalysisMode() {
+        return analysisMode;
+    }
+
+    /**
+     *  Switches analysis to {@code mode}, rebinding the camera if it is running. Safe from any thread,
+     *  the rebind happens on the main thread.
+     */
+    public void setAnalysisMode(@NonNull CameraMode mode) {
+        analysisMode = mode;
+        Context startedContext = context;
+        if (startedContext == null) {
+            return;
+        }
+        ContextCompat.getMainExecutor(startedContext).execute(() -> {
+            // Released since this was posted, the execution model is shut down.
+            if (context == null) {
+                return;
+            }
+            if (cameraProvider != null && imageAnalyzer != null) {
+                bindPreviewAndAnalysis(lifecycleOwner, surfaceProvider, imageAnalyzer, cameraProvider);
+            }
+        });
+    }
+
+    /**
+     *  Starts an {@link AdaptiveGovernor} over the supported analysis modes, from the current one,
+     *  evaluating every {@code periodNanos} and rebinding the camera whenever it changes mode. Only
+     *  the algorithm's subscriber sees its results, so the caller places
+     *  {@link AdaptiveGovernor#monitor()} on the output flux. Replaces a governor started earlier,
+     *  and stops with {@link #releaseCamera()}.
+     */
+    public AdaptiveGovernor startGovernor(@NonNull ImageAnalyzer imageAnalyzer, long latencyBudgetNanos,
+                                          long periodNanos) {
+        List<CameraMode> ladder = AdaptiveGovernor.ladder(supportedAnalysisModes, Long.MAX_VALUE);
+        if (ladder.isEmpty()) {
+            throw new IllegalStateException("The back camera reported no analysis modes to step between.");
+        }
+        AdaptiveGovernor governor = new AdaptiveGovernor(ladder, AdaptiveGovernor.indexAtOrBelow(ladder, analysisMode),
+                latencyBudgetNanos, (previous, next) -> setAnalysisMode(next));
+        stopGovernor();
+        governorScheduler = Schedulers.newSingle("adaptive-governor");
+        governor.schedule(governorScheduler, periodNanos, imageAnalyzer.inputFPS);
+        return governor;
+    }
 
+    private void stopGovernor() {
+        if (governorScheduler != null) {
+            governorScheduler.dispose();
+            governorScheduler = null;
+        }
     }
 
     public void startCamera(
@@ -58,7 +155,15 @@ public class CameraUseCaseConfig {
             @NonNull ImageAnalysis.Analyzer imageAnalyzer
     ) {
 
+        this.context = context;
+        this.lifecycleOwner = lifecycleOwner;
+        this.surfaceProvider = surfaceProvider;
+        this.imageAnalyzer = imageAnalyzer;
         cameraProviderFuture.addListener(() -> {
+            // With a warmed up provider this runs right after startCamera, releaseCamera may still beat it.
+            if (this.context == null) {
+                return;
+            }
             try {
                 cameraProvider = cameraProviderFuture.get();
                 bindPreviewAndAnalysis(lifecycleOwner, surfaceProvider, imageAnalyzer, cameraProvider);
@@ -68,6 +173,7 @@ public class CameraUseCaseConfig {
         }, ContextCompat.getMainExecutor(context));
     }
 
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
     private void bindPreviewAndAnalysis(
             @NonNull LifecycleOwner lifecycleOwner,
             @NonNull Preview.SurfaceProvider surfaceProvider,
@@ -77,16 +183,37 @@ public class CameraUseCaseConfig {
         Preview preview = new Preview.Builder().build();
         preview.setSurfaceProvider(surfaceProvider);
 
-        ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-                // Set the resolution for analysis (optional, but recommended)
-                // Set the backpressure strategy. STRATEGY_KEEP_ONLY_LATEST is common.
-                .setTargetResolution(new android.util.Size(720, 1280))
-                .setBackpressureStrategy(ImageAnalysis.STRATEGY_BLOCK_PRODUCER)
-                .build();
+        // Follow the algorithm's backpressure policy so CameraX drops or blocks the same way the pipeline does.
+        int backpressureStrategy = imageAnalyzer instanceof ImageAnalyzer
+                ? toCameraXStrategy(((ImageAnalyzer) imageAnalyzer).getBackpressurePolicy())
+                : ImageAnalysis.STRATEGY_BLOCK_PRODUCER;
 
-        ExecutorService cameraExecutor = Executors.newSingleThreadExecutor();
+        CameraMode mode = analysisMode;
+        ImageAnalysis.Builder analysisBuilder = new ImageAnalysis.Builder()
+                // Target resolution is in the display's portrait orientation, modes are in the sensor's.
+                .setTargetResolution(new android.util.Size(mode.getHeight(), mode.getWidth()))
+                .setBackpressureStrategy(backpressureStrategy);
+        if (mode.hasFpsRange()) {
+            new Camera2Interop.Extender<>(analysisBuilder).setCaptureRequestOption(
+                    CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<>(mode.getMinFps(), mode.getMaxFps()));
+        }
+        if (imageAnalyzer instanceof ImageAnalyzer) {
+            ((ImageAnalyzer) imageAnalyzer).getInputIntervalStats().setExpectedFps(mode.getMaxFps());
+        }
+        if (backpressureStrategy == ImageAnalysis.STRATEGY_BLOCK_PRODUCER) {
+            // Lets the execution model hold several images at once, for parallel conversion.
+            analysisBuilder.setImageQueueDepth(executionModel.getImageQueueDepth());
+        }
+        ImageAnalysis imageAnalysis = analysisBuilder.build();
 
-        imageAnalysis.setAnalyzer(cameraExecutor, imageAnalyzer);
+        ImageAnalysis.Analyzer analyzer = imageAnalyzer instanceof ImageAnalyzer
+                ? executionModel.bind((ImageAnalyzer) imageAnalyzer)
+                : imageAnalyzer;
+        imageAnalysis.setAnalyzer(executionModel.getAnalyzerExecutor(), analyzer);
+        if (this.imageAnalysis != null) {
+            this.imageAnalysis.clearAnalyzer();
+        }
+        this.imageAnalysis = imageAnalysis;
 
         CameraSelector cameraSelector = new CameraSelector.Builder()
                 .requireLensFacing(CameraSelector.LENS_FACING_BACK)
@@ -109,15 +236,27 @@ public class CameraUseCaseConfig {
         }
     }
 
+    /**
+     *  The {@link ImageAnalysis.Builder#setBackpressureStrategy} value matching {@code policy}.
+     */
+    static int toCameraXStrategy(BackpressurePolicy policy) {
+        return policy == BackpressurePolicy.BLOCK
+                ? ImageAnalysis.STRATEGY_BLOCK_PRODUCER
+                : ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST;
+    }
 
     public void releaseCamera() {
-        if (cameraExecutor != null) {
-            cameraExecutor.shutdown();
-            cameraExecutor = null;
+        // No rebinding once released, the execution model is shut down below.
+        context = null;
+        stopGovernor();
+        if (imageAnalysis != null) {
+            imageAnalysis.clearAnalyzer();
+            imageAnalysis = null;
         }
         if (cameraProvider != null) {
             cameraProvider.unbindAll(); // Ensure all use cases are unbound
         }
+        executionModel.shutdown();
         Log.d(TAG, "Camera resources released.");
     }
 
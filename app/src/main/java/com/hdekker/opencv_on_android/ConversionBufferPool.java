@@ -0,0 +1,443 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-resolution pool of the buffers used to convert a YUV_420_888 frame to a Mat.
+ * Buffers are leased with {@link #acquire(int, int)} and handed back with {@link #release(Buffers)},
+ * so once the pool is warm the conversion path allocates nothing per frame.
+ * <p>
+ * At most {@code maxResolutions} resolutions are kept, the least recently used one is dropped for
+ * a new one, so regions of interest that change size do not grow the pool without bound.
+ */
+public class ConversionBufferPool {
+
+    public static final int DEFAULT_MAX_PER_RESOLUTION = 4;
+    public static final int DEFAULT_MAX_RESOLUTIONS = 4;
+
+    private final int maxPerResolution;
+    private final int maxResolutions;
+    private final ArrayList<Slot> slots = new ArrayList<>();
+    private int allocatedCount = 0;
+
+    public ConversionBufferPool() {
+        this(DEFAULT_MAX_PER_RESOLUTION);
+    }
+
+    public ConversionBufferPool(int maxPerResolution) {
+        this(maxPerResolution, DEFAULT_MAX_RESOLUTIONS);
+    }
+
+    public ConversionBufferPool(int maxPerResolution, int maxResolutions) {
+        if (maxPerResolution <= 0) {
+            throw new IllegalArgumentException("Max buffers per resolution must be positive.");
+        }
+        if (maxResolutions <= 0) {
+            throw new IllegalArgumentException("Max resolutions must be positive.");
+        }
+        this.maxPerResolution = maxPerResolution;
+        this.maxResolutions = maxResolutions;
+    }
+
+    /**
+     * Leases a set of buffers for a frame of the given size, creating one if none are free.
+     */
+    public synchronized Buffers acquire(int width, int height) {
+        Slot slot = slotFor(width, height);
+        Buffers buffers = slot.free.pollFirst();
+        if (buffers == null) {
+            buffers = new Buffers(this, width, height);
+            allocatedCount++;
+        }
+        buffers.leased = true;
+        return buffers;
+    }
+
+    /**
+     * Creates up to {@code count} buffer sets for {@code width} x {@code height} with their NV21
+     * staging array and Mat allocated, the buffers a frame needs when its planes cannot be wrapped
+     * in place. Needs the OpenCV natives.
+     */
+    public void preallocate(int count, int width, int height) {
+        List<Buffers> leased = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, maxPerResolution); i++) {
+            Buffers buffers = acquire(width, height);
+            buffers.nv21();
+            buffers.yuvMat();
+            leased.add(buffers);
+        }
+        for (int i = 0; i < leased.size(); i++) {
+            release(leased.get(i));
+        }
+    }
+
+    /**
+     * Returns leased buffers. Buffers beyond the per-resolution limit, or of a resolution dropped
+     * meanwhile, have their Mats released.
+     */
+    public synchronized void release(Buffers buffers) {
+        if (buffers.pool != this) {
+            throw new IllegalArgumentException("Buffers were not leased from this pool.");
+        }
+        if (!buffers.leased) {
+            throw new IllegalStateException("Buffers released twice.");
+        }
+        buffers.leased = false;
+        Slot slot = findSlot(buffers.width, buffers.height);
+        if (slot != null && slot.free.size() < maxPerResolution) {
+            slot.free.addFirst(buffers);
+        } else {
+            buffers.releaseMats();
+            allocatedCount--;
+        }
+    }
+
+    /**
+     * Number of buffer sets created by this pool that are still alive, leased or free.
+     */
+    public synchronized int getAllocatedCount() {
+        return allocatedCount;
+    }
+
+    /**
+     * Number of resolutions buffers are kept for, at most {@code maxResolutions}.
+     */
+    public synchronized int getResolutionCount() {
+        return slots.size();
+    }
+
+    /**
+     * Releases the native memory of all free buffers. Leased buffers are released when returned.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < slots.size(); i++) {
+            releaseFree(slots.get(i));
+        }
+        slots.clear();
+    }
+
+    private void releaseFree(Slot slot) {
+        Buffers buffers;
+        while ((buffers = slot.free.pollFirst()) != null) {
+            buffers.releaseMats();
+            allocatedCount--;
+        }
+    }
+
+    // Most recently used first, the slot asked for is moved to the front.
+    private Slot slotFor(int width, int height) {
+        Slot slot = findSlot(width, height);
+        if (slot != null) {
+            if (slots.get(0) != slot) {
+                slots.remove(slot);
+                slots.add(0, slot);
+            }
+            return slot;
+        }
+        if (slots.size() >= maxResolutions) {
+            releaseFree(slots.remove(slots.size() - 1));
+        }
+        slot = new Slot(width, height, maxPerResolution);
+        slots.add(0, slot);
+        return slot;
+    }
+
+    // Linear scan, the pool holds at most maxResolutions slots.
+    private Slot findSlot(int width, int height) {
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (slot.width == width && slot.height == height) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private static final class Slot {
+        final int width;
+        final int height;
+        final ArrayDeque<Buffers> free;
+
+        Slot(int width, int height, int capacity) {
+            this.width = width;
+            this.height = height;
+            this.free = new ArrayDeque<>(capacity);
+        }
+    }
+
+    /**
+     * The buffers needed to convert one frame. Mats are created on first use so the
+     * pool itself does not require the OpenCV native library.
+     */
+    public static final class Buffers {
+
+        private final ConversionBufferPool pool;
+        private final int width;
+        private final int height;
+        private boolean leased;
+
+        private byte[] nv21;
+        private YuvInterleaver interleaver;
+        private Mat yuvMat;
+        private Mat chromaMat;
+        private Mat rgbaMat;
+        private Mat orientedLuma;
+        private Mat orientedChroma;
+        private Mat resizedLuma;
+        private Mat resizedChroma;
+        private CroppedYuvImage croppedImage;
+        private Mat yuvLuma;
+        private Mat yuvChroma;
+        private Mat chromaSamples;
+        private final DirectPlaneMats.Header lumaHeader = new DirectPlaneMats.Header();
+        private final DirectPlaneMats.Header chromaHeader = new DirectPlaneMats.Header();
+        private final DirectPlaneMats.Header uHeader = new DirectPlaneMats.Header();
+        private final DirectPlaneMats.Header vHeader = new DirectPlaneMats.Header();
+        private final Size size = new Size();
+        private final Rect cropRect = new Rect();
+
+        private Buffers(ConversionBufferPool pool, int width, int height) {
+            this.pool = pool;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * NV21 staging array, width * height * 3 / 2 bytes.
+         */
+        public byte[] nv21() {
+            if (nv21 == null) {
+                nv21 = new byte[width * height * 3 / 2];
+            }
+            return nv21;
+        }
+
+        /**
+         * Interleaver whose scratch rows are reused with these buffers.
+         */
+        public YuvInterleaver interleaver() {
+            if (interleaver == null) {
+                interleaver = new YuvInterleaver();
+            }
+            return interleaver;
+        }
+
+        /**
+         * Single channel Mat holding the NV21 data, (height * 3 / 2) x width.
+         */
+        public Mat yuvMat() {
+            if (yuvMat == null) {
+                yuvMat = new Mat(height + height / 2, width, CvType.CV_8UC1);
+            }
+            return yuvMat;
+        }
+
+        /**
+         * The Y rows of {@link #yuvMat()}, height x width.
+         */
+        public Mat yuvLuma() {
+            if (yuvLuma == null) {
+                yuvLuma = yuvMat().rowRange(0, height);
+            }
+            return yuvLuma;
+        }
+
+        /**
+         * The chroma rows of {@link #yuvMat()} as (height / 2) x (width / 2) CV_8UC2.
+         */
+        public Mat yuvChroma() {
+            if (yuvChroma == null) {
+                Mat rows = yuvMat().rowRange(height, height + height / 2);
+                yuvChroma = rows.reshape(2);
+                rows.release();
+            }
+            return yuvChroma;
+        }
+
+        /**
+         * Interleaved VU chroma, (height / 2) x (width / 2) CV_8UC2.
+         */
+        public Mat chromaMat() {
+            if (chromaMat == null) {
+                chromaMat = new Mat(height / 2, width / 2, CvType.CV_8UC2);
+            }
+            return chromaMat;
+        }
+
+        /**
+         * Destination Mat of the colour conversion.
+         */
+        public Mat rgbaMat() {
+            if (rgbaMat == null) {
+                rgbaMat = new Mat(height, width, CvType.CV_8UC4);
+            }
+            return rgbaMat;
+        }
+
+        /**
+         * Y plane after resizing, when it is rotated or mirrored next.
+         */
+        public Mat resizedLuma() {
+            if (resizedLuma == null) {
+                resizedLuma = new Mat();
+            }
+            return resizedLuma;
+        }
+
+        /**
+         * Interleaved chroma after resizing, when it is rotated or mirrored next.
+         */
+        public Mat resizedChroma() {
+            if (resizedChroma == null) {
+                resizedChroma = new Mat();
+            }
+            return resizedChroma;
+        }
+
+        /**
+         * Y plane after resizing, rotation or mirroring, sized by the conversion that writes it.
+         */
+        public Mat orientedLuma() {
+            if (orientedLuma == null) {
+                orientedLuma = new Mat();
+            }
+            return orientedLuma;
+        }
+
+        /**
+         * Interleaved chroma after resizing, rotation or mirroring, sized by the conversion that writes it.
+         */
+        public Mat orientedChroma() {
+            if (orientedChroma == null) {
+                orientedChroma = new Mat();
+            }
+            return orientedChroma;
+        }
+
+        /**
+         * One chroma plane's samples, when they have to be picked out of a wider pixel stride.
+         */
+        public Mat chromaSamples() {
+            if (chromaSamples == null) {
+                chromaSamples = new Mat();
+            }
+            return chromaSamples;
+        }
+
+        /**
+         * {@code size} set to {@code width} x {@code height}, for OpenCV calls that take a Size.
+         * Every call returns the same instance.
+         */
+        public Size size(int width, int height) {
+            size.width = width;
+            size.height = height;
+            return size;
+        }
+
+        /**
+         * Rect to write the crop of the current frame into, see {@link FrameTransform#cropRect(int, int, Rect)}.
+         */
+        public Rect cropRect() {
+            return cropRect;
+        }
+
+        DirectPlaneMats.Header lumaHeader() {
+            return lumaHeader;
+        }
+
+        DirectPlaneMats.Header chromaHeader() {
+            return chromaHeader;
+        }
+
+        DirectPlaneMats.Header uHeader() {
+            return uHeader;
+        }
+
+        DirectPlaneMats.Header vHeader() {
+            return vHeader;
+        }
+
+        /**
+         * Reusable view for converting part of an image. These buffers are sized for the part.
+         */
+        public CroppedYuvImage croppedImage() {
+            if (croppedImage == null) {
+                croppedImage = new CroppedYuvImage();
+            }
+            return croppedImage;
+        }
+
+        /**
+         * Hands the buffers back to the pool they were leased from.
+         */
+        public void release() {
+            pool.release(this);
+        }
+
+        private void releaseMats() {
+            if (yuvLuma != null) {
+                yuvLuma.release();
+                yuvLuma = null;
+            }
+            if (yuvChroma != null) {
+                yuvChroma.release();
+                yuvChroma = null;
+            }
+            if (chromaSamples != null) {
+                chromaSamples.release();
+                chromaSamples = null;
+            }
+            lumaHeader.release();
+            chromaHeader.release();
+            uHeader.release();
+            vHeader.release();
+            if (interleaver != null) {
+                interleaver.release();
+            }
+            if (yuvMat != null) {
+                yuvMat.release();
+                yuvMat = null;
+            }
+            if (chromaMat != null) {
+                chromaMat.release();
+                chromaMat = null;
+            }
+            if (rgbaMat != null) {
+                rgbaMat.release();
+                rgbaMat = null;
+            }
+            if (orientedLuma != null) {
+                orientedLuma.release();
+                orientedLuma = null;
+            }
+            if (orientedChroma != null) {
+                orientedChroma.release();
+                orientedChroma = null;
+            }
+            if (resizedLuma != null) {
+                resizedLuma.release();
+                resizedLuma = null;
+            }
+            if (resizedChroma != null) {
+                resizedChroma.release();
+                resizedChroma = null;
+            }
+            nv21 = null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A rectangle of a {@link YuvPlanarImage} seen as an image of its own. The planes are views that
+ * start at the rectangle and keep the original strides, nothing is copied, so converting the view
+ * only reads the pixels inside the rectangle. NV21/NV12 aliasing between U and V is preserved.
+ * <p>
+ * Instances are reusable, call {@link #wrap} for each new frame. The view is only valid while
+ * the wrapped image is. A plane view is kept while the same plane buffer comes back with the crop
+ * in the same place, so a steady crop of a steady source allocates nothing.
+ */
+public class CroppedYuvImage implements YuvPlanarImage {
+
+    private YuvPlanarImage image;
+    private int width;
+    private int height;
+    private final ByteBuffer[] buffers = new ByteBuffer[3];
+    private final ByteBuffer[] sources = new ByteBuffer[3];
+    private final int[] starts = new int[3];
+
+    /**
+     * @param rect the part of {@code image} to view, with even coordinates and size inside the image.
+     */
+    public CroppedYuvImage wrap(YuvPlanarImage image, Rect rect) {
+        if (rect.x < 0 || rect.y < 0 || rect.width <= 0 || rect.height <= 0
+                || rect.x + rect.width > image.getWidth() || rect.y + rect.height > image.getHeight()
+                || ((rect.x | rect.y | rect.width | rect.height) & 1) != 0) {
+            throw new IllegalArgumentException("Crop " + rect + " is not even or not inside the "
+                    + image.getWidth() + "x" + image.getHeight() + " image");
+        }
+        this.image = image;
+        this.width = rect.width;
+        this.height = rect.height;
+        view(image, PLANE_Y, rect.y, rect.x);
+        view(image, PLANE_U, rect.y / 2, rect.x / 2);
+        view(image, PLANE_V, rect.y / 2, rect.x / 2);
+        return this;
+    }
+
+    private void view(YuvPlanarImage image, int plane, int row, int col) {
+        ByteBuffer buffer = image.getPlaneBuffer(plane);
+        int start = buffer.position() + row * image.getRowStride(plane) + col * image.getPixelStride(plane);
+        if (start == buffer.position()) {
+            buffers[plane] = buffer;
+            sources[plane] = null;
+            return;
+        }
+        if (buffer == sources[plane] && start == starts[plane]) {
+            return;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        buffers[plane] = view.slice();
+        sources[plane] = buffer;
+        starts[plane] = start;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public ByteBuffer getPlaneBuffer(int plane) {
+        return buffers[plane];
+    }
+
+    @Override
+    public int getRowStride(int plane) {
+        return image.getRowStride(plane);
+    }
+
+    @Override
+    public int getPixelStride(int plane) {
+        return image.getPixelStride(plane);
+    }
+}
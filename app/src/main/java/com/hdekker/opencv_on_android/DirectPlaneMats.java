@@ -0,0 +1,125 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wraps direct plane buffers as Mat headers with the step set to the row stride, so OpenCV
+ * reads camera memory in place. The returned Mats do not own their data: they must be released
+ * before the image they came from is closed.
+ * <p>
+ * The variants taking a {@link Header} keep the Mat in it instead, to be used again while the
+ * same buffer comes back, and the caller does not release it.
+ */
+public final class DirectPlaneMats {
+
+    private DirectPlaneMats() {
+    }
+
+    /**
+     * Wraps the Y plane as a width x height CV_8UC1 Mat, or returns null if the buffer
+     * is not direct or too small for the stride.
+     */
+    public static Mat wrapLuma(YuvPlanarImage image) {
+        return wrapLuma(image, null);
+    }
+
+    static Mat wrapLuma(YuvPlanarImage image, Header header) {
+        ByteBuffer yBuffer = image.getPlaneBuffer(YuvPlanarImage.PLANE_Y);
+        int rowStride = image.getRowStride(YuvPlanarImage.PLANE_Y);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (!yBuffer.isDirect() || yBuffer.remaining() < rowStride * (height - 1) + width) {
+            return null;
+        }
+        return wrap(header, yBuffer, height, width, CvType.CV_8UC1, rowStride);
+    }
+
+    /**
+     * Wraps interleaved chroma starting at {@code first} as a (width / 2) x (height / 2) CV_8UC2 Mat.
+     * Only valid when the U and V planes alias each other (see {@link YuvInterleaver#chromaAlias}):
+     * {@code first} is one byte short of a full last row and the missing byte is the last
+     * sample of the other plane, so the memory covered by the header is always mapped.
+     */
+    public static Mat wrapInterleavedChroma(YuvPlanarImage image, ByteBuffer first, int rowStride) {
+        return wrapInterleavedChroma(image, first, rowStride, null);
+    }
+
+    static Mat wrapInterleavedChroma(YuvPlanarImage image, ByteBuffer first, int rowStride, Header header) {
+        if (!first.isDirect()) {
+            return null;
+        }
+        return wrap(header, first, image.getHeight() / 2, image.getWidth() / 2, CvType.CV_8UC2, rowStride);
+    }
+
+    /**
+     * Wraps one chroma plane as a (width / 2) x (height / 2) Mat with one channel per byte of
+     * pixel stride, so channel 0 holds the samples. Returns null when that is not possible.
+     */
+    public static Mat wrapChromaPlane(YuvPlanarImage image, int plane) {
+        return wrapChromaPlane(image, plane, null);
+    }
+
+    static Mat wrapChromaPlane(YuvPlanarImage image, int plane, Header header) {
+        ByteBuffer buffer = image.getPlaneBuffer(plane);
+        int pixelStride = image.getPixelStride(plane);
+        int rowStride = image.getRowStride(plane);
+        int chromaWidth = image.getWidth() / 2;
+        int chromaHeight = image.getHeight() / 2;
+        if (!buffer.isDirect() || pixelStride < 1 || pixelStride > 4
+                || buffer.remaining() < rowStride * (chromaHeight - 1) + (chromaWidth - 1) * pixelStride + 1) {
+            return null;
+        }
+        return wrap(header, buffer, chromaHeight, chromaWidth, CvType.CV_8UC(pixelStride), rowStride);
+    }
+
+    private static Mat wrap(Header header, ByteBuffer buffer, int rows, int cols, int type, int step) {
+        return header == null ? new Mat(rows, cols, type, base(buffer), step) : header.wrap(buffer, rows, cols, type, step);
+    }
+
+    // OpenCV takes the buffer's base address and ignores its position.
+    private static ByteBuffer base(ByteBuffer buffer) {
+        return buffer.position() == 0 ? buffer : buffer.slice();
+    }
+
+    /**
+     * A Mat header over one plane, kept while the same buffer object comes back at the same
+     * position with the same shape. Sources that hand out the same plane buffers every frame,
+     * such as a replay or a reused crop view, are then wrapped without allocating.
+     */
+    static final class Header {
+
+        private ByteBuffer buffer;
+        private int position;
+        private int rows;
+        private int cols;
+        private int type;
+        private int step;
+        private Mat mat;
+
+        Mat wrap(ByteBuffer buffer, int rows, int cols, int type, int step) {
+            if (mat == null || buffer != this.buffer || buffer.position() != position
+                    || rows != this.rows || cols != this.cols || type != this.type || step != this.step) {
+                release();
+                mat = new Mat(rows, cols, type, base(buffer), step);
+                this.buffer = buffer;
+                this.position = buffer.position();
+                this.rows = rows;
+                this.cols = cols;
+                this.type = type;
+                this.step = step;
+            }
+            return mat;
+        }
+
+        void release() {
+            if (mat != null) {
+                mat.release();
+                mat = null;
+            }
+            buffer = null;
+        }
+    }
+}
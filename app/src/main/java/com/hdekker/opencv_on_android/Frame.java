@@ -0,0 +1,367 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A converted camera frame with a reference count.
+ * <p>
+ * A frame starts with one reference held by whoever acquired it. Every party that keeps the frame
+ * beyond the call it was handed over in must {@link #retain()} it, and every reference must be
+ * {@link #release() released} exactly once. When the count reaches zero the frame goes back to its
+ * {@link FramePool}, or has its Mat released if it was not pooled.
+ * The Mat must not be used after the last release.
+ */
+public class Frame {
+
+    /**
+     * Owners of result Mats kept before the ones that did not use the frame since it was last
+     * acquired are released, see {@link #getResultMat(Object, int)}.
+     */
+    static final int MAX_RESULT_OWNERS = 4;
+
+    private final FramePool pool;
+    private final AtomicInteger refCnt = new AtomicInteger();
+    private Mat mat;
+    private Mat[] resultMats = new Mat[1];
+    private final List<OwnedResults> ownedResults = new ArrayList<>();
+    private long generation;
+    private long timestampNanos;
+    private long sequence;
+    private final long[] stageNanos = new long[PipelineStage.VALUES.length];
+    private FrameTransform transform = FrameTransform.IDENTITY;
+    private int imageWidth;
+    private int imageHeight;
+    private FramePyramid pyramid;
+    private boolean pyramidPrepared;
+    private ReactiveImageAlgo target;
+
+    Frame(FramePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Wraps a Mat in an unpooled frame. The Mat is released with the last reference.
+     */
+    public static Frame wrap(Mat mat, long timestampNanos, long sequence) {
+        Frame frame = new Frame(null);
+        frame.mat = mat;
+        frame.reset(timestampNanos, sequence);
+        frame.setSource(mat.cols(), mat.rows(), FrameTransform.IDENTITY);
+        return frame;
+    }
+
+    void reset(long timestampNanos, long sequence) {
+        this.timestampNanos = timestampNanos;
+        this.sequence = sequence;
+        Arrays.fill(stageNanos, 0L);
+        this.transform = FrameTransform.IDENTITY;
+        this.imageWidth = 0;
+        this.imageHeight = 0;
+        this.pyramidPrepared = false;
+        this.target = null;
+        synchronized (this) {
+            generation++;
+        }
+        refCnt.set(1);
+    }
+
+    /**
+     * Records that the frame was converted from a {@code imageWidth} x {@code imageHeight} camera
+     * image with {@code transform}.
+     */
+    void setSource(int imageWidth, int imageHeight, FrameTransform transform) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.transform = transform;
+    }
+
+    /**
+     * The algorithm the frame was converted for, so {@link ImageAnalyzer} hands it there even if the
+     * algorithm was swapped meanwhile. Null for frames not converted by the analyzer.
+     */
+    ReactiveImageAlgo getTarget() {
+        return target;
+    }
+
+    void setTarget(ReactiveImageAlgo target) {
+        this.target = target;
+    }
+
+    /**
+     * How the frame was cut and turned out of the camera image.
+     */
+    public FrameTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     * Width of the camera image the frame was converted from, before any crop or rotation.
+     */
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * Maps a rectangle of this frame to camera image coordinates, for example a detection to
+     * publish as the next {@link RegionOfInterest}.
+     */
+    public Rect toImage(Rect inFrame) {
+        return transform.toImage(inFrame, imageWidth, imageHeight);
+    }
+
+    /**
+     * The frame's pixels. Pooled frames keep their Mat between uses so converting into it
+     * does not allocate when the size and format stay the same.
+     */
+    public Mat getMat() {
+        if (mat == null) {
+            mat = new Mat();
+        }
+        return mat;
+    }
+
+    /**
+     * Smaller versions of {@link #getMat()} shared by everyone holding the frame, built on first
+     * use. Null unless the frame was converted with a pyramid, see {@link ImageAnalyzer#setPyramidLevels}.
+     */
+    public FramePyramid getPyramid() {
+        return pyramidPrepared ? pyramid : null;
+    }
+
+    /**
+     * Offers a pyramid of {@code levels} levels above the converted Mat. Nothing is computed until
+     * a level is asked for. Call once the Mat holds the frame and before the frame is shared.
+     */
+    void preparePyramid(int levels) {
+        if (pyramid == null) {
+            pyramid = new FramePyramid();
+        }
+        pyramid.reset(getMat(), levels);
+        pyramidPrepared = true;
+    }
+
+    /**
+     * A second pooled Mat for algorithms whose output cannot be written over the input, for example
+     * filters. Kept with the frame between uses like {@link #getMat()}. It belongs to the frame's only
+     * consumer, algorithms sharing frames use {@link #getResultMat(Object, int)}.
+     */
+    public Mat getResultMat() {
+        return getResultMat(0);
+    }
+
+    /**
+     * Further result Mats, for pipelines that hand intermediate results between threads with the
+     * frame. Each index keeps its own Mat, so every index keeps its size and format between uses.
+     */
+    public synchronized Mat getResultMat(int index) {
+        if (index >= resultMats.length) {
+            resultMats = Arrays.copyOf(resultMats, index + 1);
+        }
+        if (resultMats[index] == null) {
+            resultMats[index] = new Mat();
+        }
+        return resultMats[index];
+    }
+
+    /**
+     * Result Mats of {@code owner}, for frames handed to several algorithms at once, see
+     * {@link FrameDispatcher}. Each owner writes only its own Mats, so algorithms running side by side
+     * never overwrite each other's output. Owners are told apart by identity and keep their Mats with
+     * the frame between uses. Once more than {@link #MAX_RESULT_OWNERS} owners used the frame, the
+     * Mats of those that skipped it since it was last acquired are released.
+     */
+    public synchronized Mat getResultMat(Object owner, int index) {
+        OwnedResults results = null;
+        for (int i = 0; i < ownedResults.size(); i++) {
+            if (ownedResults.get(i).owner == owner) {
+                results = ownedResults.get(i);
+                break;
+            }
+        }
+        if (results == null) {
+            if (ownedResults.size() >= MAX_RESULT_OWNERS) {
+                releaseStaleResults();
+            }
+            results = new OwnedResults(owner);
+            ownedResults.add(results);
+        }
+        results.generation = generation;
+        return results.get(index);
+    }
+
+    private void releaseStaleResults() {
+        for (int i = ownedResults.size() - 1; i >= 0; i--) {
+            if (ownedResults.get(i).generation != generation) {
+                ownedResults.remove(i).release();
+            }
+        }
+    }
+
+    /**
+     * Sensor timestamp of the frame in nanoseconds.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Position of the frame in the stream it was produced by, starting at 0.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Records that the frame reached {@code stage} now, on the {@link System#nanoTime()} clock.
+     * When several subscribers pass the same stage the last one wins.
+     */
+    public void stamp(PipelineStage stage) {
+        stampAt(stage, System.nanoTime());
+    }
+
+    public void stampAt(PipelineStage stage, long nanoTime) {
+        stageNanos[stage.ordinal()] = nanoTime;
+    }
+
+    /**
+     * The {@link System#nanoTime()} the frame reached {@code stage}, or 0 if it has not.
+     */
+    public long getStageNanos(PipelineStage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+
+    public Frame retain() {
+        return retain(1);
+    }
+
+    public Frame retain(int increment) {
+        if (increment < 0) {
+            throw new IllegalArgumentException("Increment must not be negative.");
+        }
+        while (true) {
+            int current = refCnt.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Frame " + sequence + " retained after it was released.");
+            }
+            if (refCnt.compareAndSet(current, current + increment)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * @return true if this was the last reference and the frame has been recycled.
+     */
+    public boolean release() {
+        return release(1);
+    }
+
+    public boolean release(int decrement) {
+        if (decrement <= 0) {
+            return false;
+        }
+        while (true) {
+            int current = refCnt.get();
+            if (current < decrement) {
+                throw new IllegalStateException("Frame " + sequence + " released more times than it was retained.");
+            }
+            if (refCnt.compareAndSet(current, current - decrement)) {
+                return current == decrement && recycle();
+            }
+        }
+    }
+
+    /**
+     * Releases one reference unless the frame has already been fully released. Reactor can discard
+     * the same element twice when a cancel races with onNext, so discard handlers use this.
+     */
+    public void releaseIfRetained() {
+        while (true) {
+            int current = refCnt.get();
+            if (current <= 0) {
+                return;
+            }
+            if (refCnt.compareAndSet(current, current - 1)) {
+                if (current == 1) {
+                    recycle();
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean recycle() {
+        if (pool != null) {
+            pool.recycle(this);
+        } else {
+            releaseMat();
+        }
+        return true;
+    }
+
+    void releaseMat() {
+        if (mat != null) {
+            mat.release();
+            mat = null;
+        }
+        if (pyramid != null) {
+            pyramid.release();
+            pyramid = null;
+        }
+        synchronized (this) {
+            for (int i = 0; i < resultMats.length; i++) {
+                if (resultMats[i] != null) {
+                    resultMats[i].release();
+                    resultMats[i] = null;
+                }
+            }
+            for (OwnedResults results : ownedResults) {
+                results.release();
+            }
+            ownedResults.clear();
+        }
+    }
+
+    private static final class OwnedResults {
+
+        private final Object owner;
+        private Mat[] mats = new Mat[1];
+        private long generation;
+
+        OwnedResults(Object owner) {
+            this.owner = owner;
+        }
+
+        Mat get(int index) {
+            if (index >= mats.length) {
+                mats = Arrays.copyOf(mats, index + 1);
+            }
+            if (mats[index] == null) {
+                mats[index] = new Mat();
+            }
+            return mats[index];
+        }
+
+        void release() {
+            for (Mat mat : mats) {
+                if (mat != null) {
+                    mat.release();
+                }
+            }
+        }
+    }
+}
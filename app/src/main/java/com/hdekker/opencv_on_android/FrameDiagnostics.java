@@ -0,0 +1,177 @@
+package com.hdekker.opencv_on_android;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame diagnostics for the analyzer without per-frame logging.
+ * <p>
+ * The frame path only bumps primitive counters. Once per flush interval, driven by the frame
+ * timestamps passed in, the counters are turned into a single summary line and handed to the
+ * {@link Reporter}. Errors are rate limited the same way: the first error of an interval is
+ * reported with its stack trace, the rest are counted.
+ * <p>
+ * Nothing is formatted below the configured {@link Level}, and with {@link Level#OFF} the frame
+ * path does not allocate at all. Instances are meant to be used from the analysis thread only,
+ * the level may be changed from any thread.
+ */
+public class FrameDiagnostics {
+
+    public static final long DEFAULT_FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public enum Level {
+        /** Nothing is reported. */
+        OFF,
+        /** Rate limited errors. */
+        ERROR,
+        /** Errors and a summary per flush interval. */
+        INFO,
+        /** As INFO, with the size, format and timestamp of the last frame added to the summary. */
+        DEBUG
+    }
+
+    /**
+     * Receives the formatted output.
+     */
+    public interface Reporter {
+        void report(Level level, String message, Throwable error);
+    }
+
+    /**
+     * Reports through android.util.Log with the given tag.
+     */
+    public static Reporter logcat(String tag) {
+        return (level, message, error) -> {
+            if (level == Level.ERROR) {
+                Log.e(tag, message, error);
+            } else if (level == Level.DEBUG) {
+                Log.d(tag, message);
+            } else {
+                Log.i(tag, message);
+            }
+        };
+    }
+
+    private final Reporter reporter;
+    private final long flushIntervalNanos;
+    private volatile Level level;
+
+    private long intervalStart = 0;
+    private boolean started = false;
+    private int frames = 0;
+    private int dropped = 0;
+    private int errors = 0;
+    private long conversionNanosTotal = 0;
+    private long conversionNanosMax = 0;
+    private int lastWidth = 0;
+    private int lastHeight = 0;
+    private int lastFormat = 0;
+    private long lastSensorTimestamp = 0;
+
+    public FrameDiagnostics(Level level, Reporter reporter) {
+        this(level, reporter, DEFAULT_FLUSH_INTERVAL_NANOS);
+    }
+
+    public FrameDiagnostics(Level level, Reporter reporter, long flushIntervalNanos) {
+        if (flushIntervalNanos <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive.");
+        }
+        this.level = level;
+        this.reporter = reporter;
+        this.flushIntervalNanos = flushIntervalNanos;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(Level atLeast) {
+        return level.compareTo(atLeast) >= 0 && atLeast != Level.OFF;
+    }
+
+    /**
+     * Counts a converted frame. {@code nowNanos} is on the {@link System#nanoTime()} clock and
+     * drives flushing.
+     */
+    public void recordFrame(long nowNanos, long conversionNanos, int width, int height, int format,
+                            long sensorTimestampNanos) {
+        if (level == Level.OFF) {
+            return;
+        }
+        maybeFlush(nowNanos);
+        frames++;
+        conversionNanosTotal += conversionNanos;
+        if (conversionNanos > conversionNanosMax) {
+            conversionNanosMax = conversionNanos;
+        }
+        lastWidth = width;
+        lastHeight = height;
+        lastFormat = format;
+        lastSensorTimestamp = sensorTimestampNanos;
+    }
+
+    /**
+     * Counts a frame the algorithm did not accept.
+     */
+    public void recordDropped() {
+        if (level != Level.OFF) {
+            dropped++;
+        }
+    }
+
+    /**
+     * Reports the first error of each flush interval and counts the rest.
+     */
+    public void recordError(long nowNanos, String message, Throwable error) {
+        if (!isEnabled(Level.ERROR)) {
+            return;
+        }
+        maybeFlush(nowNanos);
+        if (errors++ == 0) {
+            reporter.report(Level.ERROR, message, error);
+        }
+    }
+
+    private void maybeFlush(long nowNanos) {
+        if (!started) {
+            started = true;
+            intervalStart = nowNanos;
+            return;
+        }
+        long elapsed = nowNanos - intervalStart;
+        if (elapsed < flushIntervalNanos) {
+            return;
+        }
+        if (isEnabled(Level.INFO) && (frames > 0 || errors > 0)) {
+            reporter.report(level == Level.DEBUG ? Level.DEBUG : Level.INFO, summary(elapsed), null);
+        }
+        intervalStart = nowNanos;
+        frames = 0;
+        dropped = 0;
+        errors = 0;
+        conversionNanosTotal = 0;
+        conversionNanosMax = 0;
+    }
+
+    private String summary(long elapsedNanos) {
+        StringBuilder sb = new StringBuilder(160)
+                .append(frames).append(" frames in ").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .append(" ms, dropped ").append(dropped)
+                .append(", conversion avg ").append(frames == 0 ? 0 : conversionNanosTotal / frames / 1000)
+                .append(" us max ").append(conversionNanosMax / 1000).append(" us");
+        if (errors > 1) {
+            sb.append(", ").append(errors - 1).append(" errors not shown");
+        }
+        if (level == Level.DEBUG) {
+            sb.append(", last frame ").append(lastWidth).append('x').append(lastHeight)
+                    .append(" format ").append(lastFormat)
+                    .append(" timestamp ").append(lastSensorTimestamp);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,196 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.Queues;
+
+/**
+ * Feeds one camera stream to several {@link ReactiveImageAlgo}s, for example a tracker at full
+ * frame rate next to a classifier at 2 fps.
+ * <p>
+ * {@link ImageAnalyzer} converts each frame once, into the dispatcher's pixel format, and the same
+ * frame is handed to every member with a reference of its own, so members must treat it as
+ * read-only. Each member has its own rate limit, its own scheduler to receive frames on, and its
+ * own {@link BackpressurePolicy}, applied in front of it with {@link FrameOperators#onBackpressure}:
+ * a slow member only drops its own frames. Members are added and removed while frames flow,
+ * without touching the camera.
+ * <p>
+ * The dispatcher asks the analyzer to block only while some member's policy is
+ * {@link BackpressurePolicy#BLOCK}, then the slowest such member paces the camera. The CameraX
+ * strategy is still chosen when the camera is bound.
+ */
+public class FrameDispatcher implements ReactiveImageAlgo {
+
+    /**
+     * Frames a {@link BackpressurePolicy#DROP_OLDEST} member queues before dropping.
+     */
+    public static final int MEMBER_CAPACITY = Queues.XS_BUFFER_SIZE;
+
+    private final PixelFormat format;
+    private final Sinks.Many<Frame> sink = FrameOperators.inputSink();
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param format what frames are converted to once, every member must ask for it.
+     */
+    public FrameDispatcher(PixelFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Starts feeding {@code algo} every frame, on {@code scheduler}.
+     */
+    public Member add(ReactiveImageAlgo algo, Scheduler scheduler) {
+        return add(algo, scheduler, 0);
+    }
+
+    /**
+     * Starts feeding {@code algo} at most {@code maxFps} frames per second of camera time, on
+     * {@code scheduler}. Frames are picked on a fixed schedule, so jitter does not lower the rate.
+     *
+     * @param maxFps 0 for every frame.
+     * @throws IllegalArgumentException if {@code algo} wants another pixel format.
+     */
+    public Member add(ReactiveImageAlgo algo, Scheduler scheduler, double maxFps) {
+        if (algo.getPixelFormat() != format) {
+            throw new IllegalArgumentException("Frames are converted to " + format + " once for all members, "
+                    + "the algorithm wants " + algo.getPixelFormat());
+        }
+        if (maxFps < 0) {
+            throw new IllegalArgumentException("Frame rate must not be negative, got " + maxFps);
+        }
+        Member member = new Member(algo, maxFps == 0 ? 0 : Math.round(1_000_000_000.0 / maxFps));
+        members.add(member);
+        member.subscription = FrameOperators.receive(sink)
+                .filter(member::admit)
+                .transform(FrameOperators.onBackpressure(algo.getBackpressurePolicy(), MEMBER_CAPACITY,
+                        member.dropStats, scheduler))
+                .transform(FrameOperators.releaseDiscarded())
+                .subscribe(member::deliver);
+        return member;
+    }
+
+    /**
+     * The members currently fed, in the order they were added.
+     */
+    public List<Member> getMembers() {
+        return new ArrayList<>(members);
+    }
+
+    @Override
+    public Sinks.Many<Frame> getInputSink() {
+        return sink;
+    }
+
+    /**
+     * Every converted frame, before any member's rate limit. Subscribers release them as usual.
+     */
+    @Override
+    public Flux<Frame> getOutputFlux() {
+        return FrameOperators.receive(sink).transform(FrameOperators.releaseDiscarded());
+    }
+
+    @Override
+    public PixelFormat getPixelFormat() {
+        return format;
+    }
+
+    /**
+     * {@link BackpressurePolicy#BLOCK} while any member blocks, otherwise {@link BackpressurePolicy#LATEST}.
+     */
+    @Override
+    public BackpressurePolicy getBackpressurePolicy() {
+        for (Member member : members) {
+            if (member.algo.getBackpressurePolicy() == BackpressurePolicy.BLOCK) {
+                return BackpressurePolicy.BLOCK;
+            }
+        }
+        return BackpressurePolicy.LATEST;
+    }
+
+    /**
+     * One algorithm fed by the dispatcher.
+     */
+    public final class Member {
+
+        private final ReactiveImageAlgo algo;
+        private final long periodNanos;
+        private final FrameDropStats dropStats = new FrameDropStats();
+        private final AtomicLong skipped = new AtomicLong();
+        private volatile Disposable subscription;
+        private boolean started = false;
+        private long nextDueNanos;
+
+        private Member(ReactiveImageAlgo algo, long periodNanos) {
+            this.algo = algo;
+            this.periodNanos = periodNanos;
+        }
+
+        public ReactiveImageAlgo getAlgo() {
+            return algo;
+        }
+
+        /**
+         * Frames that passed the rate limit and what the member's backpressure policy dropped of them.
+         */
+        public FrameDropStats getDropStats() {
+            return dropStats;
+        }
+
+        /**
+         * Frames left out by the rate limit.
+         */
+        public long getSkippedCount() {
+            return skipped.get();
+        }
+
+        /**
+         * Stops feeding the algorithm. Frames waiting for it are released, frames it already has
+         * are its own to finish.
+         */
+        public void remove() {
+            if (members.remove(this)) {
+                subscription.dispose();
+            }
+        }
+
+        // Called serially, on the thread emitting into the dispatcher.
+        private boolean admit(Frame frame) {
+            if (periodNanos == 0) {
+                return true;
+            }
+            long timestamp = frame.getTimestampNanos();
+            if (started && timestamp < nextDueNanos) {
+                skipped.incrementAndGet();
+                return false;
+            }
+            nextDueNanos = started ? nextDueNanos + periodNanos : timestamp + periodNanos;
+            // More than a period behind, for example after a pause: start the schedule over.
+            if (nextDueNanos <= timestamp) {
+                nextDueNanos = timestamp + periodNanos;
+            }
+            started = true;
+            return true;
+        }
+
+        private void deliver(Frame frame) {
+            try {
+                Sinks.EmitResult result = algo.getBackpressurePolicy() == BackpressurePolicy.BLOCK
+                        ? FrameOperators.emitBlocking(algo.getInputSink(), frame, Long.MAX_VALUE)
+                        : FrameOperators.emit(algo.getInputSink(), frame);
+                if (result.isFailure()) {
+                    dropStats.recordDropped();
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+}
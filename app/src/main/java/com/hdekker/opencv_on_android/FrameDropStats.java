@@ -0,0 +1,41 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts frames offered to a stage and frames that stage dropped. Safe to update from any thread.
+ */
+public class FrameDropStats {
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public void recordOffered() {
+        offered.incrementAndGet();
+    }
+
+    public void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Fraction of offered frames that were dropped, 0.0 when nothing has been offered.
+     */
+    public double getDropRate() {
+        long offeredCount = offered.get();
+        return offeredCount == 0 ? 0.0 : (double) dropped.get() / offeredCount;
+    }
+
+    public void reset() {
+        offered.set(0);
+        dropped.set(0);
+    }
+}
@@ -0,0 +1,177 @@
+package com.hdekker.opencv_on_android;
+
+/**
+ * Inter-frame interval statistics, the stutter an averaged FPS hides.
+ * <p>
+ * Tracks the mean and variance of the intervals (Welford's method), their percentiles in a
+ * {@link LatencyHistogram}, and the gaps longer than {@link #GAP_FACTOR} times the expected frame
+ * period along with an estimate of how many frames those gaps swallowed. Each frame costs O(1)
+ * and allocates nothing.
+ * <p>
+ * Statistics cover everything since construction or the last {@link #reset()}. Like
+ * {@link WindowedFPSCalculator}, one thread records and any thread may read; reads see a
+ * consistent snapshot without blocking the writer.
+ */
+public class FrameIntervalStats {
+
+    public static final double GAP_FACTOR = 1.5;
+
+    private final LatencyHistogram intervals = new LatencyHistogram();
+    private volatile long expectedPeriodNanos;
+    private volatile boolean resetRequested = false;
+
+    // Writer state.
+    private long lastTimestamp = 0;
+    private boolean hasLast = false;
+    private long count = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+    private long gaps = 0;
+    private long missedFrames = 0;
+
+    // Snapshot published to readers. The version is odd while a write is in progress.
+    private volatile long version = 0;
+    private volatile long publishedCount = 0;
+    private volatile double publishedMean = 0.0;
+    private volatile double publishedM2 = 0.0;
+    private volatile long publishedGaps = 0;
+    private volatile long publishedMissedFrames = 0;
+
+    public FrameIntervalStats(double expectedFps) {
+        setExpectedFps(expectedFps);
+    }
+
+    /**
+     * Changes the frame rate gaps are measured against, for example after the camera was reconfigured.
+     */
+    public void setExpectedFps(double expectedFps) {
+        if (expectedFps <= 0) {
+            throw new IllegalArgumentException("Expected FPS must be positive.");
+        }
+        this.expectedPeriodNanos = (long) (1_000_000_000.0 / expectedFps);
+    }
+
+    public long getExpectedPeriodNanos() {
+        return expectedPeriodNanos;
+    }
+
+    /**
+     * Records a frame timestamp in nanoseconds. Timestamps that do not move forward are ignored.
+     */
+    public void recordFrameTimestamp(long timestampNanos) {
+        if (resetRequested) {
+            resetRequested = false;
+            hasLast = false;
+            count = 0;
+            mean = 0.0;
+            m2 = 0.0;
+            gaps = 0;
+            missedFrames = 0;
+            intervals.reset();
+        }
+        if (!hasLast) {
+            hasLast = true;
+            lastTimestamp = timestampNanos;
+            publish();
+            return;
+        }
+        long interval = timestampNanos - lastTimestamp;
+        if (interval <= 0) {
+            return;
+        }
+        lastTimestamp = timestampNanos;
+
+        count++;
+        double delta = interval - mean;
+        mean += delta / count;
+        m2 += delta * (interval - mean);
+        intervals.record(interval);
+
+        long period = expectedPeriodNanos;
+        if (interval > GAP_FACTOR * period) {
+            gaps++;
+            // An interval of n periods, give or take half a period, means n - 1 frames never arrived.
+            missedFrames += Math.max(1, (interval + period / 2) / period - 1);
+        }
+        publish();
+    }
+
+    /**
+     * Number of intervals recorded, one less than the number of frames.
+     */
+    public long getIntervalCount() {
+        return publishedCount;
+    }
+
+    public double getMeanIntervalNanos() {
+        long before;
+        double result;
+        do {
+            before = version;
+            result = publishedMean;
+        } while ((before & 1) != 0 || before != version);
+        return result;
+    }
+
+    /**
+     * Sample variance of the intervals in squared nanoseconds, 0 with fewer than two intervals.
+     */
+    public double getIntervalVariance() {
+        long before;
+        long n;
+        double sumOfSquares;
+        do {
+            before = version;
+            n = publishedCount;
+            sumOfSquares = publishedM2;
+        } while ((before & 1) != 0 || before != version);
+        return n < 2 ? 0.0 : sumOfSquares / (n - 1);
+    }
+
+    /**
+     * Standard deviation of the intervals in nanoseconds, the frame jitter.
+     */
+    public double getJitterNanos() {
+        return Math.sqrt(getIntervalVariance());
+    }
+
+    public long getIntervalPercentileNanos(double percentile) {
+        return intervals.getPercentileNanos(percentile);
+    }
+
+    public long getMaxIntervalNanos() {
+        return intervals.getMaxNanos();
+    }
+
+    /**
+     * Intervals longer than {@link #GAP_FACTOR} times the expected period.
+     */
+    public long getGapCount() {
+        return publishedGaps;
+    }
+
+    /**
+     * Frames the gaps are estimated to have swallowed.
+     */
+    public long getEstimatedMissedFrames() {
+        return publishedMissedFrames;
+    }
+
+    /**
+     * Clears the statistics. Safe from any thread: the recording thread applies it with the next frame.
+     */
+    public void reset() {
+        resetRequested = true;
+    }
+
+    private void publish() {
+        long v = version;
+        version = v + 1;
+        publishedCount = count;
+        publishedMean = mean;
+        publishedM2 = m2;
+        publishedGaps = gaps;
+        publishedMissedFrames = missedFrames;
+        version = v + 2;
+    }
+}
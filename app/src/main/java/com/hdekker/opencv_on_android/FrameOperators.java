@@ -0,0 +1,183 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Reactor operators that keep {@link Frame} reference counts balanced through a
+ * {@link ReactiveImageAlgo} pipeline.
+ * <p>
+ * Frames are emitted into an {@link #inputSink()} while the emitter holds its own reference (see
+ * {@link #emit}), and each subscriber's chain starts with {@link #receive}, which retains a reference
+ * for that subscriber as the frame reaches it. The chain then either releases the frame after using
+ * it ({@link #mapAndRelease}, {@link #consume}), or passes it downstream, in which case whoever ends
+ * up with it releases it. Frames dropped by Reactor operators or left in queues on cancel are
+ * released by ending the chain with {@link #releaseDiscarded()}.
+ */
+public final class FrameOperators {
+
+    private static final long BLOCKING_EMIT_BACKOFF_NANOS = 100_000L;
+
+    private FrameOperators() {
+    }
+
+    /**
+     * A sink for frames to be emitted into with {@link #emit}. It hands each frame to every
+     * subscriber before the emit returns, or to none of them, so frames are never left in the sink
+     * after the emitter's reference is gone. A subscriber without demand makes the emit fail with
+     * {@link Sinks.EmitResult#FAIL_OVERFLOW}, queueing is up to {@link #onBackpressure}.
+     */
+    public static Sinks.Many<Frame> inputSink() {
+        return Sinks.many().multicast().directAllOrNothing();
+    }
+
+    /**
+     * The frames emitted into {@code sink}, each retained once for this subscriber as it arrives.
+     * Every subscriber of an {@link #inputSink()} starts its chain here, so a subscriber that comes
+     * or goes while a frame is emitted holds a reference exactly when it received the frame.
+     */
+    public static Flux<Frame> receive(Sinks.Many<Frame> sink) {
+        return sink.asFlux().doOnNext(Frame::retain);
+    }
+
+    /**
+     * Emits {@code frame} to an {@link #inputSink()}. Subscribers take their own references in
+     * {@link #receive} while the caller's reference keeps the frame alive, so the caller's
+     * reference is untouched and must still be released. With no subscribers the frame is not
+     * emitted at all.
+     *
+     * @return the emit result, anything but {@link Sinks.EmitResult#OK} means the frame was dropped.
+     */
+    public static Sinks.EmitResult emit(Sinks.Many<Frame> sink, Frame frame) {
+        return sink.tryEmitNext(frame);
+    }
+
+    /**
+     * Emits like {@link #emit}, but while the sink is full keeps retrying for up to {@code maxWaitNanos}
+     * so the calling thread, and with it the camera, waits for the algorithm. Used for
+     * {@link BackpressurePolicy#BLOCK}.
+     */
+    public static Sinks.EmitResult emitBlocking(Sinks.Many<Frame> sink, Frame frame, long maxWaitNanos) {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (true) {
+            Sinks.EmitResult result = emit(sink, frame);
+            if (result != Sinks.EmitResult.FAIL_OVERFLOW && result != Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+                return result;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return result;
+            }
+            LockSupport.parkNanos(BLOCKING_EMIT_BACKOFF_NANOS);
+        }
+    }
+
+    /**
+     * Applies {@code policy} in front of a slow stage and hops onto {@code scheduler} with a
+     * prefetch of one, so frames wait here, where the policy decides which survive, rather than
+     * in a large publishOn queue.
+     * <ul>
+     *     <li>{@link BackpressurePolicy#LATEST}: a single slot, a new frame replaces the waiting one.</li>
+     *     <li>{@link BackpressurePolicy#DROP_OLDEST}: up to {@code capacity} frames, oldest dropped first.</li>
+     *     <li>{@link BackpressurePolicy#BLOCK}: nothing dropped here, demand is passed upstream so the
+     *     producer has to wait (see {@link #emitBlocking}).</li>
+     * </ul>
+     * Dropped frames are counted in {@code stats} and released through {@link #releaseDiscarded()},
+     * which must end the chain.
+     */
+    public static Function<Flux<Frame>, Flux<Frame>> onBackpressure(BackpressurePolicy policy, int capacity,
+                                                                   FrameDropStats stats, Scheduler scheduler) {
+        return flux -> {
+            Flux<Frame> counted = flux.doOnNext(frame -> stats.recordOffered());
+            switch (policy) {
+                case LATEST:
+                    return counted
+                            .onBackpressureBuffer(1, frame -> stats.recordDropped(), BufferOverflowStrategy.DROP_OLDEST)
+                            .publishOn(scheduler, 1);
+                case DROP_OLDEST:
+                    return counted
+                            .onBackpressureBuffer(capacity, frame -> stats.recordDropped(), BufferOverflowStrategy.DROP_OLDEST)
+                            .publishOn(scheduler, 1);
+                case BLOCK:
+                default:
+                    return counted.publishOn(scheduler, 1);
+            }
+        };
+    }
+
+    /**
+     * Releases frames that Reactor discards, for example on cancel, filter or overflow, anywhere
+     * upstream of this point. Apply it once, at the end of each subscriber's chain: discard
+     * handlers accumulate, so applying it twice releases discarded frames twice.
+     */
+    public static <T> Function<Flux<T>, Flux<T>> releaseDiscarded() {
+        return flux -> flux.doOnDiscard(Frame.class, Frame::releaseIfRetained);
+    }
+
+    /**
+     * Stamps each frame {@link PipelineStage#DELIVERED} and records its latencies in {@code metrics}.
+     * Place it where results reach their consumer, before the frame is released.
+     */
+    public static Function<Flux<Frame>, Flux<Frame>> recordLatency(PipelineLatencyMetrics metrics) {
+        return flux -> flux
+                .doOnNext(frame -> {
+                    frame.stamp(PipelineStage.DELIVERED);
+                    metrics.record(frame);
+                });
+    }
+
+    /**
+     * Maps each frame to a result and releases the frame afterwards, even if the mapper throws.
+     * The result must not reference the frame's Mat. The mapper is timed as the algorithm stage.
+     */
+    public static <R> Function<Flux<Frame>, Flux<R>> mapAndRelease(Function<Frame, R> mapper) {
+        return flux -> flux
+                .<R>map(frame -> {
+                    try {
+                        frame.stamp(PipelineStage.ALGORITHM_START);
+                        R result = mapper.apply(frame);
+                        frame.stamp(PipelineStage.ALGORITHM_END);
+                        return result;
+                    } finally {
+                        frame.release();
+                    }
+                });
+    }
+
+    /**
+     * Runs {@code action} on each frame and passes the frame on, releasing it if the action throws.
+     * The action is timed as the algorithm stage.
+     */
+    public static Function<Flux<Frame>, Flux<Frame>> process(Consumer<Frame> action) {
+        return flux -> flux
+                .map(frame -> {
+                    try {
+                        frame.stamp(PipelineStage.ALGORITHM_START);
+                        action.accept(frame);
+                        frame.stamp(PipelineStage.ALGORITHM_END);
+                    } catch (RuntimeException e) {
+                        frame.release();
+                        throw e;
+                    }
+                    return frame;
+                });
+    }
+
+    /**
+     * Terminal step for a subscriber: runs {@code action} then releases the frame.
+     */
+    public static Consumer<Frame> consume(Consumer<Frame> action) {
+        return frame -> {
+            try {
+                action.accept(frame);
+            } finally {
+                frame.release();
+            }
+        };
+    }
+}
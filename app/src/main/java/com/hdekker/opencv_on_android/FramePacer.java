@@ -0,0 +1,66 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spaces the images of a {@link FrameSource} like a camera would, or not at all.
+ * <p>
+ * A fixed rate schedules image {@code n} at {@code start + n * period}, so a late image does not
+ * push back the ones after it. Falling more than a period behind drops the missed slots instead of
+ * bursting to catch up, as a camera does when nobody takes its images.
+ */
+public class FramePacer {
+
+    private final long periodNanos;
+    private long nextNanos;
+    private boolean started = false;
+
+    private FramePacer(long periodNanos) {
+        this.periodNanos = periodNanos;
+    }
+
+    /**
+     * Images as fast as they are asked for.
+     */
+    public static FramePacer unpaced() {
+        return new FramePacer(0);
+    }
+
+    public static FramePacer fixedRate(double fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Frame rate must be positive, got " + fps);
+        }
+        return new FramePacer(Math.round(1_000_000_000.0 / fps));
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * Blocks until the next slot.
+     *
+     * @return the slot's time on the {@link System#nanoTime()} clock.
+     */
+    public long await() {
+        long now = System.nanoTime();
+        if (periodNanos == 0) {
+            return now;
+        }
+        if (!started) {
+            started = true;
+            nextNanos = now + periodNanos;
+            return now;
+        }
+        long wait = nextNanos - now;
+        // An interrupt ends the wait early and is left set for the caller.
+        while (wait > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(wait);
+            wait = nextNanos - System.nanoTime();
+        }
+        long slot = nextNanos;
+        long behind = -wait / periodNanos;
+        nextNanos += (behind + 1) * periodNanos;
+        return slot + behind * periodNanos;
+    }
+}
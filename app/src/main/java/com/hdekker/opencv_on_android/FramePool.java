@@ -0,0 +1,136 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of {@link Frame}s and their Mats. Frames return here when their last reference is released,
+ * so a steady stream of frames reuses the same native memory instead of growing it.
+ * <p>
+ * With leak detection on, the pool remembers where every outstanding frame was acquired so
+ * tests can assert that a pipeline released everything it was given.
+ */
+public class FramePool {
+
+    public static final int DEFAULT_MAX_POOLED = 8;
+
+    private final int maxPooled;
+    private final ArrayDeque<Frame> free;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile Map<Frame, Throwable> leakTracking = null;
+
+    public FramePool() {
+        this(DEFAULT_MAX_POOLED);
+    }
+
+    public FramePool(int maxPooled) {
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("Max pooled frames must be positive.");
+        }
+        this.maxPooled = maxPooled;
+        this.free = new ArrayDeque<>(maxPooled);
+    }
+
+    /**
+     * Takes a frame with a reference count of one and the next sequence number.
+     */
+    public Frame acquire(long timestampNanos) {
+        Frame frame;
+        synchronized (free) {
+            frame = free.pollFirst();
+        }
+        if (frame == null) {
+            frame = new Frame(this);
+        }
+        frame.reset(timestampNanos, nextSequence.getAndIncrement());
+        outstanding.incrementAndGet();
+        Map<Frame, Throwable> tracking = leakTracking;
+        if (tracking != null) {
+            tracking.put(frame, new Throwable("Frame " + frame.getSequence() + " acquired here"));
+        }
+        return frame;
+    }
+
+    /**
+     * Fills the pool with up to {@code count} frames whose Mats are already allocated to {@code spec},
+     * so the first frames do not pay for the allocation. Needs the OpenCV natives.
+     */
+    public void preallocate(int count, MatSpec spec) {
+        for (int i = 0; i < count; i++) {
+            Frame frame = new Frame(this);
+            spec.create(frame.getMat());
+            synchronized (free) {
+                if (free.size() >= maxPooled) {
+                    frame.releaseMat();
+                    return;
+                }
+                free.addLast(frame);
+            }
+        }
+    }
+
+    /**
+     * Number of frames waiting in the pool.
+     */
+    public int getPooledCount() {
+        synchronized (free) {
+            return free.size();
+        }
+    }
+
+    void recycle(Frame frame) {
+        outstanding.decrementAndGet();
+        Map<Frame, Throwable> tracking = leakTracking;
+        if (tracking != null) {
+            tracking.remove(frame);
+        }
+        synchronized (free) {
+            if (free.size() < maxPooled) {
+                free.addFirst(frame);
+                return;
+            }
+        }
+        frame.releaseMat();
+    }
+
+    /**
+     * Number of frames acquired and not yet fully released.
+     */
+    public int getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Starts or stops recording the acquisition site of each outstanding frame. Meant for tests,
+     * it costs a stack trace per frame.
+     */
+    public void setLeakDetection(boolean enabled) {
+        leakTracking = enabled ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Acquisition sites of frames that are still outstanding, empty when leak detection is off.
+     */
+    public List<Throwable> getLeakReports() {
+        Map<Frame, Throwable> tracking = leakTracking;
+        return tracking == null ? new ArrayList<>() : new ArrayList<>(tracking.values());
+    }
+
+    /**
+     * Releases the Mats of all pooled frames. Outstanding frames are unaffected.
+     */
+    public void clear() {
+        synchronized (free) {
+            Frame frame;
+            while ((frame = free.pollFirst()) != null) {
+                frame.releaseMat();
+            }
+        }
+    }
+}
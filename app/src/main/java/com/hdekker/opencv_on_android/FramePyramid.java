@@ -0,0 +1,88 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Half, quarter and smaller versions of a frame's Mat, built once per frame and only when first
+ * asked for, see {@link Frame#getPyramid()}.
+ * <p>
+ * Level 0 is the frame's Mat, every further level halves the one before it with
+ * {@link Imgproc#INTER_AREA}, what algorithms got from their own {@code resize} calls. Levels are
+ * shared by everyone holding the frame: they must be treated as read-only, and are only valid
+ * while a reference to the frame is held. The level Mats stay with the pooled frame, so a steady
+ * stream of frames allocates no native memory for them.
+ */
+public class FramePyramid {
+
+    private Mat base;
+    private Mat[] levels = new Mat[0];
+    private int levelCount;
+    private int builtCount;
+
+    FramePyramid() {
+    }
+
+    /**
+     * Starts a new frame with {@code levelCount} levels above {@code base}, none of them built.
+     */
+    synchronized void reset(Mat base, int levelCount) {
+        this.base = base;
+        this.levelCount = levelCount;
+        this.builtCount = 0;
+        if (levels.length < levelCount) {
+            Mat[] grown = new Mat[levelCount];
+            System.arraycopy(levels, 0, grown, 0, levels.length);
+            levels = grown;
+        }
+    }
+
+    /**
+     * Number of levels above the base that can be asked for.
+     */
+    public synchronized int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Number of levels above the base built so far for this frame.
+     */
+    public synchronized int getBuiltCount() {
+        return builtCount;
+    }
+
+    /**
+     * The frame scaled by {@code 1 / 2^level}, built on first use together with any smaller level
+     * it needs. Callers that ask at the same time wait for one build.
+     *
+     * @param level 0 for the frame's Mat itself, up to {@link #getLevelCount()}.
+     */
+    public synchronized Mat getLevel(int level) {
+        if (level < 0 || level > levelCount) {
+            throw new IllegalArgumentException("Level " + level + " not in 0.." + levelCount);
+        }
+        while (builtCount < level) {
+            Mat previous = builtCount == 0 ? base : levels[builtCount - 1];
+            if (levels[builtCount] == null) {
+                levels[builtCount] = new Mat();
+            }
+            Imgproc.resize(previous, levels[builtCount],
+                    new Size((previous.cols() + 1) / 2, (previous.rows() + 1) / 2), 0, 0, Imgproc.INTER_AREA);
+            builtCount++;
+        }
+        return level == 0 ? base : levels[level - 1];
+    }
+
+    synchronized void release() {
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != null) {
+                levels[i].release();
+                levels[i] = null;
+            }
+        }
+        base = null;
+        levelCount = 0;
+        builtCount = 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.hdekker.opencv_on_android;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Produces YUV_420_888 images without a camera, so {@link ImageAnalyzer#analyze(FrameSource, int)}
+ * can run conversion, algorithm and output headless, in unit tests and JVM benchmarks.
+ * <p>
+ * Sources reuse their buffers: an image is only valid until the next call to {@link #next()}.
+ */
+public interface FrameSource extends Closeable {
+
+    /**
+     * Waits until the next image is due and returns it.
+     *
+     * @return null once the source is exhausted.
+     */
+    YuvPlanarImage next() throws IOException;
+
+    /**
+     * Capture timestamp of the image {@link #next()} returned last, as {@code ImageInfo.getTimestamp()}.
+     */
+    long getTimestampNanos();
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,354 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Crop, downscale, rotation and mirroring applied while a frame is converted, in that order, see
+ * {@link ImageConversionUtils#convert(YuvPlanarImage, PixelFormat, FrameTransform, ConversionBufferPool.Buffers, Mat)}.
+ * <p>
+ * The crop is in image coordinates, before rotation, like CameraX's crop rect. It is rounded to
+ * even coordinates so chroma samples stay aligned, and clipped to the image. The rotation is
+ * clockwise, as {@code ImageInfo.getRotationDegrees()} reports it, and the mirror flips the
+ * rotated image left to right, as a front camera preview does. The scale shrinks the crop before
+ * it is rotated, rounded to even sizes.
+ * <p>
+ * Instances are immutable.
+ */
+public final class FrameTransform {
+
+    public static final FrameTransform IDENTITY = new FrameTransform(0, false, null, 2, 1.0);
+
+    private static final int NO_FLIP = Integer.MIN_VALUE;
+
+    private final int rotationDegrees;
+    private final boolean mirror;
+    private final Rect crop;
+    private final int cropStep;
+    private final double scale;
+    // Rotation and mirror as at most one transpose followed by at most one flip.
+    private final boolean transpose;
+    private final int flipCode;
+    // The same transform at each rotation, filled on demand so per frame rotations do not allocate.
+    private final FrameTransform[] rotations = new FrameTransform[4];
+
+    private FrameTransform(int rotationDegrees, boolean mirror, Rect crop, int cropStep, double scale) {
+        this.rotationDegrees = rotationDegrees;
+        this.mirror = mirror;
+        this.crop = crop;
+        this.cropStep = cropStep;
+        this.scale = scale;
+        switch (rotationDegrees) {
+            case 90:
+                transpose = true;
+                flipCode = mirror ? NO_FLIP : 1;
+                break;
+            case 180:
+                transpose = false;
+                flipCode = mirror ? 0 : -1;
+                break;
+            case 270:
+                transpose = true;
+                flipCode = mirror ? -1 : 0;
+                break;
+            default:
+                transpose = false;
+                flipCode = mirror ? 1 : NO_FLIP;
+                break;
+        }
+    }
+
+    /**
+     * Rotates clockwise by {@code degrees}, which must be 0, 90, 180 or 270.
+     */
+    public static FrameTransform rotation(int degrees) {
+        return IDENTITY.withRotation(degrees);
+    }
+
+    public FrameTransform withRotation(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Rotation must be 0, 90, 180 or 270 degrees, got " + degrees);
+        }
+        if (degrees == rotationDegrees) {
+            return this;
+        }
+        FrameTransform rotated = rotations[degrees / 90];
+        if (rotated == null) {
+            rotated = new FrameTransform(degrees, mirror, crop, cropStep, scale);
+            rotations[degrees / 90] = rotated;
+        }
+        return rotated;
+    }
+
+    public FrameTransform withMirror(boolean mirror) {
+        return mirror == this.mirror ? this : new FrameTransform(rotationDegrees, mirror, crop, cropStep, scale);
+    }
+
+    /**
+     * Converts only {@code crop} of the image, null for the whole image.
+     */
+    public FrameTransform withCrop(Rect crop) {
+        return withCrop(crop, 2);
+    }
+
+    /**
+     * Converts {@code crop} of the image grown to a multiple of {@code sizeStep} in width and
+     * height, around its centre and kept inside the image. A crop that follows a moving object
+     * then only changes size in steps, so the conversion buffers sized for it are reused instead
+     * of being allocated for every new size.
+     *
+     * @param sizeStep a positive even number of pixels, 2 for no growing.
+     */
+    public FrameTransform withCrop(Rect crop, int sizeStep) {
+        if (crop != null && (crop.width <= 0 || crop.height <= 0)) {
+            throw new IllegalArgumentException("Crop must not be empty, got " + crop);
+        }
+        if (sizeStep <= 0 || sizeStep % 2 != 0) {
+            throw new IllegalArgumentException("Crop size step must be positive and even, got " + sizeStep);
+        }
+        return new FrameTransform(rotationDegrees, mirror, crop == null ? null : crop.clone(), sizeStep, scale);
+    }
+
+    /**
+     * Shrinks the crop by {@code scale}, in (0, 1], while it is converted. Cheaper than resizing
+     * the converted frame: the planes are resized before the colour conversion, which then only
+     * runs on the smaller image.
+     */
+    public FrameTransform withScale(double scale) {
+        if (!(scale > 0 && scale <= 1)) {
+            throw new IllegalArgumentException("Scale must be in (0, 1], got " + scale);
+        }
+        return scale == this.scale ? this : new FrameTransform(rotationDegrees, mirror, crop, cropStep, scale);
+    }
+
+    public int getRotationDegrees() {
+        return rotationDegrees;
+    }
+
+    public boolean isMirrored() {
+        return mirror;
+    }
+
+    /**
+     * The requested crop, null for the whole image.
+     */
+    public Rect getCrop() {
+        return crop == null ? null : crop.clone();
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * What the crop's width and height are grown to a multiple of, see {@link #withCrop(Rect, int)}.
+     */
+    public int getCropStep() {
+        return cropStep;
+    }
+
+    public boolean hasCrop() {
+        return crop != null;
+    }
+
+    /**
+     * Whether the converted frame is the crop with width and height swapped, for 90 and 270 degrees.
+     */
+    public boolean swapsAxes() {
+        return transpose;
+    }
+
+    public boolean isIdentity() {
+        return crop == null && !changesGeometry();
+    }
+
+    /**
+     * Whether pixels are resized, rotated or mirrored, so the planes cannot be converted as they are.
+     */
+    public boolean changesGeometry() {
+        return scale != 1.0 || changesOrientation();
+    }
+
+    /**
+     * Whether the rotation and mirror move pixels at all.
+     */
+    public boolean changesOrientation() {
+        return transpose || flipCode != NO_FLIP;
+    }
+
+    /**
+     * The part of a {@code width} x {@code height} image that is converted: the crop rounded to
+     * even coordinates, grown to its size step and clipped to the image, or the whole image.
+     *
+     * @throws IllegalArgumentException if nothing of the crop is left.
+     */
+    public Rect cropRect(int width, int height) {
+        return cropRect(width, height, new Rect());
+    }
+
+    /**
+     * {@link #cropRect(int, int)} written into {@code into}, for callers that reuse a Rect per frame.
+     */
+    public Rect cropRect(int width, int height, Rect into) {
+        if (crop == null) {
+            return set(into, 0, 0, width, height);
+        }
+        int x = Math.max(crop.x, 0) & ~1;
+        int y = Math.max(crop.y, 0) & ~1;
+        int right = Math.min(crop.x + crop.width, width) & ~1;
+        int bottom = Math.min(crop.y + crop.height, height) & ~1;
+        if (right <= x || bottom <= y) {
+            throw new IllegalArgumentException("Crop " + crop + " is outside the " + width + "x" + height + " image");
+        }
+        if (cropStep > 2) {
+            int stepWidth = Math.min(roundUp(right - x, cropStep), width & ~1);
+            int stepHeight = Math.min(roundUp(bottom - y, cropStep), height & ~1);
+            x = clamp(x - (stepWidth - (right - x)) / 2, (width & ~1) - stepWidth) & ~1;
+            y = clamp(y - (stepHeight - (bottom - y)) / 2, (height & ~1) - stepHeight) & ~1;
+            return set(into, x, y, stepWidth, stepHeight);
+        }
+        return set(into, x, y, right - x, bottom - y);
+    }
+
+    private static Rect set(Rect rect, int x, int y, int width, int height) {
+        rect.x = x;
+        rect.y = y;
+        rect.width = width;
+        rect.height = height;
+        return rect;
+    }
+
+    private static int roundUp(int size, int step) {
+        return (size + step - 1) / step * step;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    /**
+     * Width of the converted frame for a {@code width} x {@code height} image.
+     */
+    public int getOutputWidth(int width, int height) {
+        Rect rect = cropRect(width, height);
+        return transpose ? scaled(rect.height) : scaled(rect.width);
+    }
+
+    /**
+     * Height of the converted frame for a {@code width} x {@code height} image.
+     */
+    public int getOutputHeight(int width, int height) {
+        Rect rect = cropRect(width, height);
+        return transpose ? scaled(rect.width) : scaled(rect.height);
+    }
+
+    /**
+     * A crop width or height after scaling, even and at least 2.
+     */
+    public int scaled(int size) {
+        if (scale == 1.0) {
+            return size;
+        }
+        return Math.max(2, (int) Math.round(size * scale) & ~1);
+    }
+
+    /**
+     * Maps a rectangle of a frame converted with this transform from a {@code width} x
+     * {@code height} image back to image coordinates, for example to publish a detection as the
+     * next {@link RegionOfInterest}. Rounded outwards when the frame was scaled.
+     */
+    public Rect toImage(Rect inFrame, int width, int height) {
+        Rect rect = cropRect(width, height);
+        int scaledWidth = scaled(rect.width);
+        int scaledHeight = scaled(rect.height);
+        int x = inFrame.x;
+        int y = inFrame.y;
+        int w = inFrame.width;
+        int h = inFrame.height;
+        // Undo the flip in frame coordinates, then the transpose.
+        if (flipCode == 1 || flipCode == -1) {
+            x = (transpose ? scaledHeight : scaledWidth) - x - w;
+        }
+        if (flipCode == 0 || flipCode == -1) {
+            y = (transpose ? scaledWidth : scaledHeight) - y - h;
+        }
+        if (transpose) {
+            int t = x;
+            x = y;
+            y = t;
+            t = w;
+            w = h;
+            h = t;
+        }
+        double sx = rect.width / (double) scaledWidth;
+        double sy = rect.height / (double) scaledHeight;
+        int left = (int) Math.floor(x * sx);
+        int top = (int) Math.floor(y * sy);
+        int right = (int) Math.ceil((x + w) * sx);
+        int bottom = (int) Math.ceil((y + h) * sy);
+        return new Rect(rect.x + left, rect.y + top, right - left, bottom - top);
+    }
+
+    /**
+     * Writes {@code src} rotated and mirrored into {@code dst}, which must be a different Mat.
+     * Any element type works, so chroma can be reoriented as interleaved pairs. Takes one pass,
+     * two for rotations by 90 or 270 that are not mirrored.
+     */
+    public void orient(Mat src, Mat dst) {
+        if (transpose) {
+            Core.transpose(src, dst);
+            if (flipCode != NO_FLIP) {
+                Core.flip(dst, dst, flipCode);
+            }
+        } else if (flipCode != NO_FLIP) {
+            Core.flip(src, dst, flipCode);
+        } else {
+            src.copyTo(dst);
+        }
+    }
+
+    /**
+     * Resizes {@code src}, a plane of the cropped image, to {@code size} and orients it into
+     * {@code dst}. {@code scratch} holds the resized plane when both are needed. Chroma planes are
+     * passed at half the luma size. {@code size} is only read during the call, so callers can reuse one.
+     */
+    public void transformPlane(Mat src, Size size, Mat scratch, Mat dst) {
+        if (src.cols() == size.width && src.rows() == size.height) {
+            orient(src, dst);
+        } else if (!changesOrientation()) {
+            Imgproc.resize(src, dst, size, 0, 0, Imgproc.INTER_AREA);
+        } else {
+            Imgproc.resize(src, scratch, size, 0, 0, Imgproc.INTER_AREA);
+            orient(scratch, dst);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FrameTransform)) {
+            return false;
+        }
+        FrameTransform other = (FrameTransform) o;
+        return rotationDegrees == other.rotationDegrees && mirror == other.mirror && scale == other.scale
+                && cropStep == other.cropStep && (crop == null ? other.crop == null : crop.equals(other.crop));
+    }
+
+    @Override
+    public int hashCode() {
+        return (((rotationDegrees * 31 + (mirror ? 1 : 0)) * 31 + Double.hashCode(scale)) * 31
+                + (crop == null ? 0 : crop.hashCode())) * 31 + cropStep;
+    }
+
+    @Override
+    public String toString() {
+        return "rotate " + rotationDegrees + (mirror ? " mirrored" : "") + (crop == null ? "" : " crop " + crop)
+                + (cropStep == 2 ? "" : " step " + cropStep)
+                + (scale == 1.0 ? "" : " scale " + scale);
+    }
+}
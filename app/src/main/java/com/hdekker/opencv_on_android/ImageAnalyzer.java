@@ -1,24 +1,49 @@
 package com.hdekker.opencv_on_android;
 
-import android.annotation.SuppressLint;
-import android.util.Log;
-
 import androidx.annotation.NonNull;
 import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageProxy;
 
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import reactor.core.publisher.Sinks;
 
 public class ImageAnalyzer implements ImageAnalysis.Analyzer {
 
     private static final String TAG = "ImageAnalyzer";
+    private static final long MAX_BLOCKING_EMIT_NANOS = 1_000_000_000L;
+    private static final double EXPECTED_INPUT_FPS = 30.0;
 
-    ReactiveImageAlgo algo;
+    /**
+     *  Where new frames go, swapped with {@link #setAlgorithm} while the camera keeps running.
+     */
+    private volatile ReactiveImageAlgo algo;
 
     public ImageAnalyzer(ReactiveImageAlgo algo){
+        this(algo, new FramePool());
+    }
+
+    /**
+     *  @param framePool where converted frames come from, for example one filled with {@link FramePool#preallocate}.
+     */
+    public ImageAnalyzer(ReactiveImageAlgo algo, FramePool framePool){
+        this(algo, framePool, new ConversionBufferPool());
+    }
+
+    /**
+     *  @param scratchPool staging buffers for conversion, for example one filled with
+     *                     {@link ConversionBufferPool#preallocate}.
+     */
+    public ImageAnalyzer(ReactiveImageAlgo algo, FramePool framePool, ConversionBufferPool scratchPool){
         this.algo = algo;
+        this.framePool = framePool;
+        this.scratchPool = scratchPool;
     }
 
     public Mat latestMatImage = null;
@@ -29,27 +54,371 @@ public class ImageAnalyzer implements ImageAnalysis.Analyzer {
      */
     WindowedFPSCalculator inputFPS = new WindowedFPSCalculator(1000.0f);
 
-    @SuppressLint("UnsafeOptInUsageError") // For ImageProxy.getImage()
+    /**
+     *  Interval jitter and gaps between images arriving from the camera.
+     */
+    final FrameIntervalStats inputIntervals = new FrameIntervalStats(EXPECTED_INPUT_FPS);
+
+    public FrameIntervalStats getInputIntervalStats() {
+        return inputIntervals;
+    }
+
+    /**
+     *  Reused adapter for inline conversion, and staging buffers shared by all conversion threads.
+     */
+    private final ImageProxyPlanes planes = new ImageProxyPlanes();
+    private final ConversionBufferPool scratchPool;
+
+    /**
+     *  Frames handed to the algorithm come back here once every subscriber has released them.
+     */
+    final FramePool framePool;
+
+    public FramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     *  Completes when the first frame is handed to the algorithm, for time to first frame.
+     */
+    private final CompletableFuture<Void> firstFrame = new CompletableFuture<>();
+
+    public CompletableFuture<Void> getFirstFrameFuture() {
+        return firstFrame;
+    }
+
+    /**
+     *  Frames the algorithm's input sink refused. Drops inside the algorithm are counted by the algorithm.
+     */
+    final FrameDropStats dropStats = new FrameDropStats();
+
+    public FrameDropStats getDropStats() {
+        return dropStats;
+    }
+
+    /**
+     *  Stage latencies of frames, recorded where the algorithm's output is consumed
+     *  with {@link FrameOperators#recordLatency}.
+     */
+    final PipelineLatencyMetrics latencyMetrics = new PipelineLatencyMetrics();
+
+    public PipelineLatencyMetrics getLatencyMetrics() {
+        return latencyMetrics;
+    }
+
+    /**
+     *  Sampled frame and error logging, a summary line per second instead of a line per frame.
+     */
+    final FrameDiagnostics diagnostics = new FrameDiagnostics(FrameDiagnostics.Level.INFO, FrameDiagnostics.logcat(TAG));
+
+    public FrameDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     *  Records the frames being converted when set, for replay with {@link ReplayFrameSource}.
+     */
+    private volatile YuvRecorder recorder;
+
+    /**
+     *  Starts recording the frames being converted to {@code recorder}, or stops with null.
+     *  Closing the recorder is up to the caller.
+     */
+    public void setRecorder(YuvRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public YuvRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     *  Crop, rotation and mirror applied while converting, see {@link FrameTransform}.
+     */
+    private volatile FrameTransform transform = FrameTransform.IDENTITY;
+
+    /**
+     *  Whether camera images are rotated upright by their rotation degrees, in place of the
+     *  transform's rotation.
+     */
+    private volatile boolean applyCameraRotation = false;
+
+    public void setTransform(FrameTransform transform) {
+        this.transform = transform;
+    }
+
+    public FrameTransform getTransform() {
+        return transform;
+    }
+
+    /**
+     *  Turns on rotating camera images upright as part of their conversion, so algorithms get
+     *  oriented frames without running {@code Core.rotate} on them. Frame width and height swap
+     *  for 90 and 270 degrees.
+     */
+    public void setApplyCameraRotation(boolean applyCameraRotation) {
+        this.applyCameraRotation = applyCameraRotation;
+    }
+
+    public boolean isApplyCameraRotation() {
+        return applyCameraRotation;
+    }
+
+    /**
+     *  Levels of the pyramid offered with every frame, 0 for none.
+     */
+    private volatile int pyramidLevels = 0;
+
+    /**
+     *  Offers every converted frame with a pyramid of {@code levels} halvings, see
+     *  {@link Frame#getPyramid()}. Levels are only built when some subscriber asks for them, and
+     *  then once for all of them, so detectors that each downscaled the frame share the work.
+     *  0 turns the pyramid off.
+     */
+    public void setPyramidLevels(int levels) {
+        if (levels < 0) {
+            throw new IllegalArgumentException("Pyramid levels must not be negative.");
+        }
+        this.pyramidLevels = levels;
+    }
+
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return algo.getBackpressurePolicy();
+    }
+
+    public ReactiveImageAlgo getAlgorithm() {
+        return algo;
+    }
+
+    /**
+     *  Time from {@link #setAlgorithm} to the first frame the new algorithm accepted.
+     */
+    final LatencyHistogram swapLatency = new LatencyHistogram();
+
+    public LatencyHistogram getSwapLatency() {
+        return swapLatency;
+    }
+
+    private final AtomicReference<PendingSwap> pendingSwap = new AtomicReference<>();
+
+    /**
+     *  Hands the following frames to {@code next} instead, without touching the camera binding.
+     *  Frames already being converted still go to the algorithm they were converted for, so the
+     *  previous algorithm receives at most the execution model's queue depth more frames, then
+     *  nothing: it drains what it holds and can be completed, or have its subscribers cancel, which
+     *  releases anything left. The CameraX backpressure strategy stays the one chosen at binding.
+     *
+     *  @return completes with the swap latency in nanoseconds once {@code next} accepted its first
+     *  frame, also recorded in {@link #getSwapLatency()}. Cancelled if swapped again before that.
+     */
+    public CompletableFuture<Long> setAlgorithm(ReactiveImageAlgo next) {
+        PendingSwap swap = new PendingSwap(next, System.nanoTime());
+        synchronized (pendingSwap) {
+            PendingSwap superseded = pendingSwap.getAndSet(swap);
+            algo = next;
+            if (superseded != null) {
+                superseded.future.cancel(false);
+            }
+        }
+        return swap.future;
+    }
+
     @Override
     public void analyze(@NonNull ImageProxy imageProxy) {
+        long receivedNanos = recordArrival();
+        Frame frame;
+        try {
+            frame = convert(imageProxy, planes, receivedNanos);
+        } catch (Exception e) {
+            reportError(receivedNanos, e);
+            return;
+        }
+        deliver(frame);
+    }
 
-        Log.d(TAG, "ImageAnalysis: New frame received. Format: " + imageProxy.getFormat() +
-                ", Size: " + imageProxy.getWidth() + "x" + imageProxy.getHeight() +
-                ", Timestamp: " + imageProxy.getImageInfo().getTimestamp());
+    /**
+     * Analyses images from {@code source} on the calling thread the way camera images are analysed,
+     * until the source is exhausted or {@code maxFrames} images were read. Runs the pipeline headless,
+     * for tests and benchmarks. Must not overlap with camera analysis.
+     *
+     * @return the number of images read.
+     */
+    public long analyze(FrameSource source, long maxFrames) throws IOException {
+        long count = 0;
+        YuvPlanarImage image;
+        while (count < maxFrames && (image = source.next()) != null) {
+            count++;
+            long receivedNanos = recordArrival();
+            Frame frame;
+            try {
+                frame = convert(image, source.getTimestampNanos(), receivedNanos);
+            } catch (Exception e) {
+                reportError(receivedNanos, e);
+                continue;
+            }
+            deliver(frame);
+        }
+        return count;
+    }
 
-        long startTime = System.currentTimeMillis();
-        inputFPS.recordFrameTimestamp(System.nanoTime());
+    /**
+     * Records the arrival of an image. Called on one thread, in the order the camera produced images.
+     *
+     * @return the arrival time on the {@link System#nanoTime()} clock.
+     */
+    long recordArrival() {
+        long receivedNanos = System.nanoTime();
+        inputFPS.recordFrameTimestamp(receivedNanos);
+        inputIntervals.recordFrameTimestamp(receivedNanos);
+        return receivedNanos;
+    }
 
-        Mat bgrMat = null;
+    /**
+     * Converts {@code imageProxy} into a pooled frame in the algorithm's pixel format, transformed by
+     * {@link #getTransform()} and cropped to the algorithm's {@link RegionOfInterest}, and closes it.
+     * Safe to call from several threads at once as long as each passes its own {@code planes}.
+     *
+     * @return a frame holding one reference for the caller, see {@link #deliver(Frame)}.
+     */
+    Frame convert(ImageProxy imageProxy, ImageProxyPlanes planes, long receivedNanos) {
         try (imageProxy) {
-            bgrMat = ImageConversionUtils.imageProxyToMat(imageProxy);
-            algo.getInputSink().tryEmitNext(bgrMat);
+            ReactiveImageAlgo target = algo;
+            FrameTransform frameTransform = currentTransform(target);
+            if (applyCameraRotation) {
+                frameTransform = frameTransform.withRotation(imageProxy.getImageInfo().getRotationDegrees());
+            }
+            return convert(planes.wrap(imageProxy), imageProxy.getImageInfo().getTimestamp(), receivedNanos,
+                    target, frameTransform);
+        }
+    }
+
+    /**
+     * Converts {@code image} into a pooled frame in the algorithm's pixel format. Same threading
+     * rules as {@link #convert(ImageProxy, ImageProxyPlanes, long)}, the image stays with the caller.
+     */
+    Frame convert(YuvPlanarImage image, long timestampNanos, long receivedNanos) {
+        ReactiveImageAlgo target = algo;
+        return convert(image, timestampNanos, receivedNanos, target, currentTransform(target));
+    }
+
+    /**
+     * The transform narrowed to the algorithm's region of interest, if it publishes one.
+     */
+    private FrameTransform currentTransform(ReactiveImageAlgo target) {
+        RegionOfInterest regionOfInterest = target.getRegionOfInterest();
+        return regionOfInterest == null ? transform : regionOfInterest.applyTo(transform);
+    }
+
+    private Frame convert(YuvPlanarImage image, long timestampNanos, long receivedNanos, ReactiveImageAlgo target,
+                          FrameTransform frameTransform) {
+        YuvRecorder activeRecorder = recorder;
+        if (activeRecorder != null) {
+            try {
+                activeRecorder.offer(image, timestampNanos);
+            } catch (RuntimeException e) {
+                // Counted as dropped by the recorder, the frame itself is still good.
+            }
+        }
+        Frame frame = framePool.acquire(timestampNanos);
+        try {
+            frame.stampAt(PipelineStage.RECEIVED, receivedNanos);
+            frame.setTarget(target);
+            frame.setSource(image.getWidth(), image.getHeight(), frameTransform);
+            ConversionBufferPool.Buffers scratch = acquireScratch(image, frameTransform);
+            try {
+                ImageConversionUtils.convert(image, target.getPixelFormat(), frameTransform, scratch, frame.getMat());
+            } finally {
+                scratch.release();
+            }
+            int levels = pyramidLevels;
+            if (levels > 0) {
+                frame.preparePyramid(levels);
+            }
+            frame.stamp(PipelineStage.CONVERTED);
+            return frame;
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    private ConversionBufferPool.Buffers acquireScratch(YuvPlanarImage image, FrameTransform frameTransform) {
+        if (!frameTransform.hasCrop()) {
+            return scratchPool.acquire(image.getWidth(), image.getHeight());
+        }
+        Rect crop = frameTransform.cropRect(image.getWidth(), image.getHeight());
+        return scratchPool.acquire(crop.width, crop.height);
+    }
+
+    /**
+     * Hands a converted frame to the algorithm it was converted for and releases the caller's reference.
+     * Calls must not overlap, and frames should be delivered in camera order.
+     */
+    void deliver(Frame frame) {
+        try {
+            long receivedNanos = frame.getStageNanos(PipelineStage.RECEIVED);
+            Mat mat = frame.getMat();
+            diagnostics.recordFrame(receivedNanos, frame.getStageNanos(PipelineStage.CONVERTED) - receivedNanos,
+                    mat.cols(), mat.rows(), mat.type(), frame.getTimestampNanos());
+            dropStats.recordOffered();
+            frame.stamp(PipelineStage.EMITTED);
+            if (!firstFrame.isDone()) {
+                firstFrame.complete(null);
+            }
+            ReactiveImageAlgo target = frame.getTarget() != null ? frame.getTarget() : algo;
+            Sinks.EmitResult result = target.getBackpressurePolicy() == BackpressurePolicy.BLOCK
+                    ? FrameOperators.emitBlocking(target.getInputSink(), frame, MAX_BLOCKING_EMIT_NANOS)
+                    : FrameOperators.emit(target.getInputSink(), frame);
+            if (result.isFailure()) {
+                dropStats.recordDropped();
+                diagnostics.recordDropped();
+            } else {
+                completeSwap(target);
+            }
         } catch (Exception e) {
-            Log.e(TAG, "Error during ImageProxy to Mat conversion: ", e);
+            reportError(frame.getStageNanos(PipelineStage.RECEIVED), e);
+        } finally {
+            frame.release();
         }
+    }
 
-        long millis = System.currentTimeMillis() - startTime;
-        Log.i(TAG, "Conversion took " + millis + " millis.");
+    private void completeSwap(ReactiveImageAlgo target) {
+        PendingSwap swap = pendingSwap.get();
+        if (swap != null && swap.algo == target && pendingSwap.compareAndSet(swap, null)) {
+            long latencyNanos = System.nanoTime() - swap.startNanos;
+            swapLatency.record(latencyNanos);
+            swap.future.complete(latencyNanos);
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * Closes an image that will not be converted, counting it as dropped.
+     */
+    void drop(ImageProxy imageProxy) {
+        imageProxy.close();
+        dropStats.recordOffered();
+        dropStats.recordDropped();
+    }
+
+    /**
+     * Reports a frame that could not be converted or delivered. Same threading rules as {@link #deliver(Frame)}.
+     */
+    void reportError(long receivedNanos, Exception e) {
+        diagnostics.recordError(receivedNanos, "Error during ImageProxy to Mat conversion: ", e);
+    }
+
+    private static final class PendingSwap {
+        final ReactiveImageAlgo algo;
+        final long startNanos;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingSwap(ReactiveImageAlgo algo, long startNanos) {
+            this.algo = algo;
+            this.startNanos = startNanos;
+        }
+    }
+}
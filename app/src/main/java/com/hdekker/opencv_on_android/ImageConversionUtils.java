@@ -1,88 +1,311 @@
 package com.hdekker.opencv_on_android;
 
-import androidx.camera.core.ImageProxy;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import java.nio.ByteBuffer;
 
 public class ImageConversionUtils {
 
-    public static Mat imageProxyToMat(ImageProxy image) {
-        if (image.getFormat() != android.graphics.ImageFormat.YUV_420_888) {
-            throw new IllegalArgumentException("Invalid image format, YUV_420_888 expected, got " + image.getFormat());
-        }
-
-        ImageProxy.PlaneProxy[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer(); // U-plane
-        ByteBuffer vBuffer = planes[2].getBuffer(); // V-plane
+    /**
+     * Converts {@code image} to a new RGBA Mat owned by the caller. Allocates on every call, the
+     * frame path uses {@link #convert} with pooled buffers instead.
+     */
+    public static Mat yuvToRgbaMat(YuvPlanarImage image) {
+        // Pack Y followed by interleaved VU (NV21), honouring row and pixel strides.
+        byte[] nv21 = new byte[image.getWidth() * image.getHeight() * 3 / 2];
+        YuvInterleaver interleaver = new YuvInterleaver();
+        interleaver.packNv21(image, nv21);
+        interleaver.release();
 
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining(); // Size of U data
-        int vSize = vBuffer.remaining(); // Size of V data
+        Mat yuvMat = new Mat(image.getHeight() + image.getHeight() / 2, image.getWidth(), CvType.CV_8UC1);
+        yuvMat.put(0, 0, nv21);
 
-        byte[] nv21 = new byte[ySize + uSize + vSize];
+        Mat rgbaMat = new Mat();
+        // Convert NV21 (YUV) to RGBA
+        Imgproc.cvtColor(yuvMat, rgbaMat, Imgproc.COLOR_YUV2RGBA_NV21, 4);
 
-        // Copy Y plane
-        yBuffer.get(nv21, 0, ySize);
+        yuvMat.release(); // Release the intermediate YUV Mat
 
-        // Copy U and V planes, handling interleaved or non-interleaved data
-        // This part aims to construct an NV21 format byte array (Y plane, then interleaved VU planes).
-        // For YUV_420_888, planes[1] is U and planes[2] is V.
-        // A common way to get NV21 from YUV_420_888 is to copy Y, then V, then U with appropriate strides.
-        // This example assumes a common scenario where pixel stride is 2 for chroma,
-        // and manually interleaves V and U.
+        return rgbaMat;
 
-        int chromaPixelStride = planes[1].getPixelStride();
-        int chromaRowStride = planes[1].getRowStride();
+    }
 
-        if (chromaPixelStride == 2) { // UV interleaved (common for NV21/NV12 derived from YUV_420_888 planes)
-            int uvIndex = ySize;
-            for (int row = 0; row < image.getHeight() / 2; row++) {
-                uBuffer.position(row * chromaRowStride);
-                vBuffer.position(row * chromaRowStride);
-                for (int col = 0; col < image.getWidth() / 2; col++) {
-                    nv21[uvIndex++] = vBuffer.get(); // V
-                    nv21[uvIndex++] = uBuffer.get(); // U
-                }
-            }
-        } else { // U and V are separate (likely I420 if not interleaved)
-            uBuffer.get(nv21, ySize, uSize);
-            vBuffer.get(nv21, ySize + uSize, vSize);
+    /**
+     * Converts {@code image} to a new RGBA Mat owned by the caller, cropped, rotated and mirrored
+     * by {@code transform}. Allocates on every call like {@link #yuvToRgbaMat(YuvPlanarImage)}.
+     */
+    public static Mat yuvToRgbaMat(YuvPlanarImage image, FrameTransform transform) {
+        Rect crop = transform.cropRect(image.getWidth(), image.getHeight());
+        ConversionBufferPool pool = new ConversionBufferPool(1);
+        ConversionBufferPool.Buffers scratch = pool.acquire(crop.width, crop.height);
+        Mat rgbaMat = new Mat();
+        try {
+            convert(image, PixelFormat.RGBA, transform, scratch, rgbaMat);
+        } finally {
+            scratch.release();
+            pool.clear();
         }
+        return rgbaMat;
+    }
 
-        Mat yuvMat = new Mat(image.getHeight() + image.getHeight() / 2, image.getWidth(), CvType.CV_8UC1);
-        yuvMat.put(0, 0, nv21);
 
-        Mat rgbaMat = new Mat();
-        // Convert NV21 (YUV) to RGBA
-        Imgproc.cvtColor(yuvMat, rgbaMat, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+    /**
+     * Pooled conversion of a YUV_420_888 image to RGBA. The result is written into
+     * {@code buffers.rgbaMat()}, no Java or native memory is allocated once the buffers are warm.
+     * The returned Mat is owned by {@code buffers} and is only valid until they are released.
+     */
+    public static Mat imageToMat(YuvPlanarImage image, ConversionBufferPool.Buffers buffers) {
+        checkSize(image, buffers);
+        Yuv420Layout layout = stageNv21(image, buffers);
+
+        Mat rgbaMat = buffers.rgbaMat();
+        Imgproc.cvtColor(buffers.yuvMat(), rgbaMat, layout.toRgbaCode(), 4);
+        return rgbaMat;
+    }
+
+    /**
+     * Pooled conversion that reads the camera planes in place when they are direct buffers.
+     * The result is written into {@code buffers.rgbaMat()} and is only valid until they are released.
+     */
+    public static Mat imageToMatZeroCopy(YuvPlanarImage image, ConversionBufferPool.Buffers buffers) {
+        Mat rgbaMat = buffers.rgbaMat();
+        convertToRgba(image, buffers, rgbaMat);
+        return rgbaMat;
+    }
+
+    /**
+     * Converts {@code image} to RGBA into {@code dst}, using {@code scratch} only when a copy is needed.
+     * <ul>
+     *     <li>Direct planes with NV21/NV12 aliased chroma are wrapped as Mats and converted
+     *     with no copy at all.</li>
+     *     <li>Direct planes with separate chroma get a single native copy of the chroma into
+     *     {@code scratch.chromaMat()}, the Y plane is still read in place.</li>
+     *     <li>Anything else goes through the heap staging path of {@link #imageToMat}.</li>
+     * </ul>
+     */
+    public static void convertToRgba(YuvPlanarImage image, ConversionBufferPool.Buffers scratch, Mat dst) {
+        convertToColor(image, scratch, dst, true, FrameTransform.IDENTITY);
+    }
 
-        // Handle rotation if needed (based on imageProxy.getImageInfo().getRotationDegrees())
-        // This is a simplified example. You would get the actual rotation value
-        // from imageProxy.getImageInfo().getRotationDegrees() and apply it.
-        /*
-        int rotationDegrees = imageProxy.getImageInfo().getRotationDegrees();
-        switch (rotationDegrees) {
-            case 90:
-                Core.rotate(rgbaMat, rgbaMat, Core.ROTATE_90_CLOCKWISE);
+    /**
+     * Converts {@code image} into {@code dst} in the requested format, doing only the work that
+     * format needs: GRAY is a copy of the Y plane, NV21 a repack, RGB/RGBA a single colour
+     * conversion as in {@link #convertToRgba}.
+     */
+    public static void convert(YuvPlanarImage image, PixelFormat format, ConversionBufferPool.Buffers scratch, Mat dst) {
+        convert(image, format, FrameTransform.IDENTITY, scratch, dst);
+    }
+
+    /**
+     * Converts {@code image} into {@code dst} cropped, scaled, rotated and mirrored by
+     * {@code transform}, without a separate pass over the converted frame.
+     * <p>
+     * The crop is a view of the planes, only the pixels inside it are read. Scaling, rotation and
+     * mirroring are applied to the Y and chroma planes before the colour conversion, which then
+     * writes {@code dst} in its final size and orientation: 1.5 bytes per pixel are moved instead
+     * of 3 or 4, and a downscaled frame is colour converted at its reduced size.
+     * GRAY is resized and reoriented straight out of camera memory.
+     *
+     * @param scratch buffers sized for the crop, see {@link FrameTransform#cropRect}.
+     */
+    public static void convert(YuvPlanarImage image, PixelFormat format, FrameTransform transform,
+                               ConversionBufferPool.Buffers scratch, Mat dst) {
+        if (transform.hasCrop()) {
+            Rect crop = transform.cropRect(image.getWidth(), image.getHeight(), scratch.cropRect());
+            if (crop.width != image.getWidth() || crop.height != image.getHeight()) {
+                image = scratch.croppedImage().wrap(image, crop);
+            }
+        }
+        switch (format) {
+            case GRAY:
+                copyLuma(image, transform, scratch, dst);
+                break;
+            case NV21:
+                packNv21(image, transform, scratch, dst);
                 break;
-            case 180:
-                Core.rotate(rgbaMat, rgbaMat, Core.ROTATE_180);
+            case RGB:
+                convertToColor(image, scratch, dst, false, transform);
                 break;
-            case 270:
-                Core.rotate(rgbaMat, rgbaMat, Core.ROTATE_90_COUNTERCLOCKWISE);
+            case RGBA:
+                convertToColor(image, scratch, dst, true, transform);
                 break;
         }
-        */
+    }
 
-        yuvMat.release(); // Release the intermediate YUV Mat
+    /**
+     * Copies the Y plane into {@code dst} as width x height CV_8UC1, straight from camera
+     * memory when the plane is direct.
+     */
+    public static void copyLuma(YuvPlanarImage image, ConversionBufferPool.Buffers scratch, Mat dst) {
+        copyLuma(image, FrameTransform.IDENTITY, scratch, dst);
+    }
 
-        return rgbaMat;
+    private static void copyLuma(YuvPlanarImage image, FrameTransform transform,
+                                 ConversionBufferPool.Buffers scratch, Mat dst) {
+        checkSize(image, scratch);
+        Mat yMat = DirectPlaneMats.wrapLuma(image, scratch.lumaHeader());
+        Size size = scratch.size(transform.scaled(image.getWidth()), transform.scaled(image.getHeight()));
+        if (yMat != null) {
+            transform.transformPlane(yMat, size, scratch.resizedLuma(), dst);
+            return;
+        }
+        byte[] staging = scratch.nv21();
+        YuvInterleaver.copyLuma(image, staging);
+        if (!transform.changesGeometry()) {
+            dst.create(image.getHeight(), image.getWidth(), CvType.CV_8UC1);
+            dst.put(0, 0, staging, 0, image.getWidth() * image.getHeight());
+            return;
+        }
+        Mat luma = scratch.yuvLuma();
+        luma.put(0, 0, staging, 0, image.getWidth() * image.getHeight());
+        transform.transformPlane(luma, size, scratch.resizedLuma(), dst);
+    }
+
+    private static void packNv21(YuvPlanarImage image, FrameTransform transform,
+                                 ConversionBufferPool.Buffers scratch, Mat dst) {
+        checkSize(image, scratch);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] nv21 = scratch.nv21();
+        scratch.interleaver().packNv21(image, nv21);
+        if (!transform.changesGeometry()) {
+            dst.create(height + height / 2, width, CvType.CV_8UC1);
+            dst.put(0, 0, nv21);
+            return;
+        }
+        scratch.yuvMat().put(0, 0, nv21);
+        int scaledWidth = transform.scaled(width);
+        int scaledHeight = transform.scaled(height);
+        int outWidth = transform.swapsAxes() ? scaledHeight : scaledWidth;
+        int outHeight = transform.swapsAxes() ? scaledWidth : scaledHeight;
+        dst.create(outHeight + outHeight / 2, outWidth, CvType.CV_8UC1);
+        // Both halves are transformed straight into their place in dst.
+        Mat dstLuma = dst.rowRange(0, outHeight);
+        transform.transformPlane(scratch.yuvLuma(), scratch.size(scaledWidth, scaledHeight),
+                scratch.resizedLuma(), dstLuma);
+        Mat dstChroma = chromaOf(dst, outHeight);
+        transform.transformPlane(scratch.yuvChroma(), scratch.size(scaledWidth / 2, scaledHeight / 2),
+                scratch.resizedChroma(), dstChroma);
+        dstLuma.release();
+        dstChroma.release();
+    }
+
+    // The interleaved chroma half of a packed NV21/NV12 Mat as (height / 2) x (width / 2) CV_8UC2.
+    private static Mat chromaOf(Mat packed, int height) {
+        Mat rows = packed.rowRange(height, height + height / 2);
+        Mat chroma = rows.reshape(2);
+        rows.release();
+        return chroma;
+    }
+
+    private static void convertToColor(YuvPlanarImage image, ConversionBufferPool.Buffers scratch, Mat dst,
+                                       boolean alpha, FrameTransform transform) {
+        checkSize(image, scratch);
+        Mat yMat = DirectPlaneMats.wrapLuma(image, scratch.lumaHeader());
+        if (yMat == null) {
+            convertStaged(image, scratch, dst, alpha, transform);
+            return;
+        }
+        int alias = YuvInterleaver.chromaAlias(image, scratch.uHeader(), scratch.vHeader());
+        if (alias != YuvInterleaver.ALIAS_NONE) {
+            ByteBuffer first = image.getPlaneBuffer(
+                    alias == YuvInterleaver.ALIAS_NV21 ? YuvPlanarImage.PLANE_V : YuvPlanarImage.PLANE_U);
+            Mat chroma = DirectPlaneMats.wrapInterleavedChroma(image, first, image.getRowStride(YuvPlanarImage.PLANE_U),
+                    scratch.chromaHeader());
+            if (chroma != null) {
+                Yuv420Layout layout = alias == YuvInterleaver.ALIAS_NV21 ? Yuv420Layout.NV21 : Yuv420Layout.NV12;
+                cvtColorTwoPlane(yMat, chroma, dst, layout, alpha, transform, scratch);
+                return;
+            }
+        }
+        if (copyChromaAsVu(image, scratch)) {
+            cvtColorTwoPlane(yMat, scratch.chromaMat(), dst, Yuv420Layout.NV21, alpha, transform, scratch);
+            return;
+        }
+        convertStaged(image, scratch, dst, alpha, transform);
+    }
 
+    private static void convertStaged(YuvPlanarImage image, ConversionBufferPool.Buffers scratch, Mat dst,
+                                      boolean alpha, FrameTransform transform) {
+        Yuv420Layout layout = stageNv21(image, scratch);
+        if (!transform.changesGeometry()) {
+            cvtColorStaged(scratch.yuvMat(), dst, layout, alpha);
+            return;
+        }
+        cvtColorTwoPlane(scratch.yuvLuma(), scratch.yuvChroma(), dst, layout, alpha, transform, scratch);
     }
 
+    /**
+     * Colour converts separate Y and interleaved chroma Mats, resizing and reorienting both first
+     * when {@code transform} asks for it. 4:2:0 chroma covers 2x2 blocks of luma, which rotate and
+     * mirror as whole blocks, so the result is the same as reorienting the converted frame.
+     * Chroma is resized to half the resized luma, it stays aligned with it.
+     */
+    private static void cvtColorTwoPlane(Mat luma, Mat chroma, Mat dst, Yuv420Layout layout, boolean alpha,
+                                         FrameTransform transform, ConversionBufferPool.Buffers scratch) {
+        if (transform.changesGeometry()) {
+            int width = transform.scaled(luma.cols());
+            int height = transform.scaled(luma.rows());
+            transform.transformPlane(luma, scratch.size(width, height), scratch.resizedLuma(), scratch.orientedLuma());
+            transform.transformPlane(chroma, scratch.size(width / 2, height / 2), scratch.resizedChroma(),
+                    scratch.orientedChroma());
+            luma = scratch.orientedLuma();
+            chroma = scratch.orientedChroma();
+        }
+        Imgproc.cvtColorTwoPlane(luma, chroma, dst, alpha ? layout.toRgbaCode() : layout.toRgbCode());
+    }
+
+    private static void cvtColorStaged(Mat yuvMat, Mat dst, Yuv420Layout layout, boolean alpha) {
+        if (alpha) {
+            Imgproc.cvtColor(yuvMat, dst, layout.toRgbaCode(), 4);
+        } else {
+            Imgproc.cvtColor(yuvMat, dst, layout.toRgbCode(), 3);
+        }
+    }
+
+    private static void checkSize(YuvPlanarImage image, ConversionBufferPool.Buffers buffers) {
+        if (image.getWidth() != buffers.getWidth() || image.getHeight() != buffers.getHeight()) {
+            throw new IllegalArgumentException("Buffers are " + buffers.getWidth() + "x" + buffers.getHeight()
+                    + ", image is " + image.getWidth() + "x" + image.getHeight());
+        }
+    }
+
+    private static Yuv420Layout stageNv21(YuvPlanarImage image, ConversionBufferPool.Buffers scratch) {
+        byte[] nv21 = scratch.nv21();
+        Yuv420Layout layout = scratch.interleaver().pack(image, nv21, true);
+        scratch.yuvMat().put(0, 0, nv21);
+        return layout;
+    }
+
+    /**
+     * Fills {@code scratch.chromaMat()} (CV_8UC2) as VU from separate direct U and V planes, read
+     * in place. Returns false if the planes cannot be wrapped.
+     */
+    private static boolean copyChromaAsVu(YuvPlanarImage image, ConversionBufferPool.Buffers scratch) {
+        Mat uMat = DirectPlaneMats.wrapChromaPlane(image, YuvPlanarImage.PLANE_U, scratch.uHeader());
+        Mat vMat = DirectPlaneMats.wrapChromaPlane(image, YuvPlanarImage.PLANE_V, scratch.vHeader());
+        if (uMat == null || vMat == null) {
+            return false;
+        }
+        // Core.mixChannels would do it in one call, but builds Java lists of Mats on every call.
+        insertSamples(vMat, scratch.chromaMat(), 0, scratch.chromaSamples());
+        insertSamples(uMat, scratch.chromaMat(), 1, scratch.chromaSamples());
+        return true;
+    }
+
+    // Channel 0 of plane holds the samples, a pixel stride above 1 adds channels to skip.
+    private static void insertSamples(Mat plane, Mat chroma, int channel, Mat samples) {
+        if (plane.channels() == 1) {
+            Core.insertChannel(plane, chroma, channel);
+            return;
+        }
+        Core.extractChannel(plane, samples, 0);
+        Core.insertChannel(samples, chroma, channel);
+    }
 
     // 2. Easy Way to Get Grayscale
     public static Mat toGrayscale(Mat colorMat) {
@@ -90,7 +313,18 @@ public class ImageConversionUtils {
         if (colorMat.empty()) {
             return grayMat; // Return empty if input is empty
         }
-        Imgproc.cvtColor(colorMat, grayMat, Imgproc.COLOR_BGR2GRAY); // Or COLOR_RGB2GRAY if your input Mat is RGB
+        // Frames from the analyzer are RGB ordered, pick the code from the channel count.
+        switch (colorMat.channels()) {
+            case 1:
+                colorMat.copyTo(grayMat);
+                break;
+            case 3:
+                Imgproc.cvtColor(colorMat, grayMat, Imgproc.COLOR_RGB2GRAY);
+                break;
+            default:
+                Imgproc.cvtColor(colorMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+                break;
+        }
         return grayMat;
     }
 }
@@ -0,0 +1,72 @@
+package com.hdekker.opencv_on_android;
+
+import androidx.camera.core.ImageProxy;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts a CameraX {@link ImageProxy} to {@link YuvPlanarImage}.
+ * Instances are reusable, call {@link #wrap(ImageProxy)} for each new frame to avoid allocating.
+ */
+public class ImageProxyPlanes implements YuvPlanarImage {
+
+    /**
+     * Converts a CameraX image to a new upright RGBA Mat owned by the caller, rotated by the
+     * image's rotation degrees as part of the conversion, see {@link ImageConversionUtils#yuvToRgbaMat}.
+     */
+    public static Mat imageProxyToMat(ImageProxy image) {
+        return imageProxyToMat(image, FrameTransform.IDENTITY);
+    }
+
+    /**
+     * Like {@link #imageProxyToMat(ImageProxy)}, also mirrored and cropped by {@code transform}.
+     * Its rotation is replaced by the image's.
+     */
+    public static Mat imageProxyToMat(ImageProxy image, FrameTransform transform) {
+        return ImageConversionUtils.yuvToRgbaMat(new ImageProxyPlanes().wrap(image),
+                transform.withRotation(image.getImageInfo().getRotationDegrees()));
+    }
+
+    private ImageProxy image;
+    private ImageProxy.PlaneProxy[] planes;
+
+    public ImageProxyPlanes wrap(ImageProxy image) {
+        if (image.getFormat() != android.graphics.ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Invalid image format, YUV_420_888 expected, got " + image.getFormat());
+        }
+        this.image = image;
+        this.planes = image.getPlanes();
+        return this;
+    }
+
+    public ImageProxy getImage() {
+        return image;
+    }
+
+    @Override
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Override
+    public ByteBuffer getPlaneBuffer(int plane) {
+        return planes[plane].getBuffer();
+    }
+
+    @Override
+    public int getRowStride(int plane) {
+        return planes[plane].getRowStride();
+    }
+
+    @Override
+    public int getPixelStride(int plane) {
+        return planes[plane].getPixelStride();
+    }
+}
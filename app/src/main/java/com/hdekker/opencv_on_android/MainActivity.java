@@ -16,21 +16,12 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
-import org.opencv.android.OpenCVLoader;
+import java.util.concurrent.CompletableFuture;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
 
-    static {
-
-        if (OpenCVLoader.initLocal()) {
-            Log.i(TAG, "OpenCV loaded successfully from local package.");
-        } else {
-            Log.e(TAG, "OpenCV load failed from local package. Check library paths or initAsync.");
-        }
-
-    }
     private static final int REQUEST_CODE_PERMISSIONS = 10;
     private static final String[] REQUIRED_PERMISSIONS = new String[]{Manifest.permission.CAMERA};
 
@@ -39,9 +30,15 @@ public class MainActivity extends AppCompatActivity {
     CameraUseCaseConfig cameraUseCaseConfig;
     public ImageAnalyzer imageAnalyzer;
 
+    /**
+     *  Loads OpenCV and warms up the camera off the main thread while the UI comes up.
+     */
+    AppStartup startup;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        startup = AppStartup.start(this);
         EdgeToEdge.enable(this);
         setContentView(R.layout.activity_main);
         previewView = findViewById(R.id.previewView);
@@ -57,13 +54,54 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     *  Builds an analyzer for {@code algo} on the frames and conversion buffers startup warmed up,
+     *  when they are ready by now, and starts the camera with it like
+     *  {@link #setImageAnalyzer(ImageAnalyzer)}.
+     */
+    public ImageAnalyzer setImageAnalyzer(ReactiveImageAlgo algo){
+        ImageAnalyzer imageAnalyzer = new ImageAnalyzer(algo, startup.framePoolFor(algo.getPixelFormat()),
+                startup.conversionBufferPool());
+        setImageAnalyzer(imageAnalyzer);
+        return imageAnalyzer;
+    }
+
+    /**
+     *  Starts the camera with {@code imageAnalyzer} once OpenCV and the camera provider are ready,
+     *  right away if they already are. Optional startup warm-ups do not hold it back.
+     */
     public void setImageAnalyzer(ImageAnalyzer imageAnalyzer){
         this.imageAnalyzer = imageAnalyzer;
-        if (cameraUseCaseConfig != null) {
-            cameraUseCaseConfig.releaseCamera();
+        startup.recordFirstFrame(imageAnalyzer);
+        startup.whenCameraReady().whenCompleteAsync((ready, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Not starting the camera, OpenCV or the camera provider failed.", error);
+                return;
+            }
+            if (isDestroyed() || this.imageAnalyzer != imageAnalyzer) {
+                return;
+            }
+            if (cameraUseCaseConfig != null) {
+                cameraUseCaseConfig.releaseCamera();
+            }
+            cameraUseCaseConfig = new CameraUseCaseConfig(this);
+            cameraUseCaseConfig.startCamera(this, this, previewView.getSurfaceProvider(), imageAnalyzer);
+        }, ContextCompat.getMainExecutor(this));
+    }
+
+    /**
+     *  Switches the running analyzer to {@code algo} while the camera stays bound and warm, see
+     *  {@link ImageAnalyzer#setAlgorithm}. Only {@link #setImageAnalyzer} rebinds the camera.
+     *
+     *  @return completes with the swap latency in nanoseconds.
+     */
+    public CompletableFuture<Long> setAlgorithm(ReactiveImageAlgo algo){
+        if (imageAnalyzer == null) {
+            throw new IllegalStateException("No analyzer to swap the algorithm of, call setImageAnalyzer first.");
         }
-        cameraUseCaseConfig = new CameraUseCaseConfig(this);
-        cameraUseCaseConfig.startCamera(this, this, previewView.getSurfaceProvider(), imageAnalyzer);
+        CompletableFuture<Long> swap = imageAnalyzer.setAlgorithm(algo);
+        swap.thenAccept(latencyNanos -> Log.i(TAG, "Algorithm swapped in " + latencyNanos / 1_000_000.0 + " ms."));
+        return swap;
     }
 
     private boolean permissionsNotGranted() {
@@ -0,0 +1,100 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Size and type of a Mat, what a {@link VisionStage} consumes and produces.
+ */
+public final class MatSpec {
+
+    private final int rows;
+    private final int cols;
+    private final int type;
+
+    public MatSpec(int rows, int cols, int type) {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Rows and columns must not be negative.");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.type = type;
+    }
+
+    /**
+     * The Mat {@link ImageAnalyzer} produces for a {@code width} x {@code height} image in {@code format}.
+     */
+    public static MatSpec of(PixelFormat format, int width, int height) {
+        switch (format) {
+            case GRAY:
+                return new MatSpec(height, width, CvType.CV_8UC1);
+            case NV21:
+                return new MatSpec(height * 3 / 2, width, CvType.CV_8UC1);
+            case RGB:
+                return new MatSpec(height, width, CvType.CV_8UC3);
+            case RGBA:
+            default:
+                return new MatSpec(height, width, CvType.CV_8UC4);
+        }
+    }
+
+    public static MatSpec of(Mat mat) {
+        return new MatSpec(mat.rows(), mat.cols(), mat.type());
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getChannels() {
+        return CvType.channels(type);
+    }
+
+    /**
+     * Same spec with another type, for stages that keep the size.
+     */
+    public MatSpec withType(int type) {
+        return new MatSpec(rows, cols, type);
+    }
+
+    public boolean matches(Mat mat) {
+        return mat.rows() == rows && mat.cols() == cols && mat.type() == type;
+    }
+
+    /**
+     * Allocates {@code mat} to this spec, a no-op if it already matches.
+     */
+    public void create(Mat mat) {
+        mat.create(rows, cols, type);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MatSpec)) {
+            return false;
+        }
+        MatSpec other = (MatSpec) o;
+        return rows == other.rows && cols == other.cols && type == other.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return (rows * 31 + cols) * 31 + type;
+    }
+
+    @Override
+    public String toString() {
+        return cols + "x" + rows + " " + CvType.typeToString(type);
+    }
+}
@@ -0,0 +1,230 @@
+package com.hdekker.opencv_on_android;
+
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Runs a per-frame algorithm on several threads with a bounded number of frames in flight.
+ * <p>
+ * Unlike {@code parallel().runOn().map().sequential()}, which interleaves rails and queues
+ * without limit, the stage holds at most {@code maxInFlight} frames, whether being processed or
+ * waiting for their turn, and results leave it in one of two orders:
+ * <ul>
+ *     <li>{@link Ordering#SEQUENCE}: the order frames arrived in, which for a single camera is
+ *     sequence order. A slow frame holds back the faster ones behind it.</li>
+ *     <li>{@link Ordering#LATEST_ONLY}: as soon as each result is ready, releasing results older than
+ *     the last one emitted so the output never goes back in time.</li>
+ * </ul>
+ * Reference counting follows {@link FrameOperators#process}: the frame is passed on after the action,
+ * or released if the action throws. The stage releases every frame it still holds on cancel or
+ * error, frames still being processed as soon as their action returns. Reactor's own
+ * {@code flatMapSequential} is not used because it drops, rather than discards, the results it is
+ * holding when cancelled, which would leak frames.
+ */
+public final class ParallelFrameStage {
+
+    public enum Ordering {
+        SEQUENCE,
+        LATEST_ONLY
+    }
+
+    private ParallelFrameStage() {
+    }
+
+    /**
+     * @param maxInFlight frames held by the stage at once, typically the number of cores.
+     * @param scheduler   runs the action, needs at least {@code maxInFlight} threads to reach full parallelism.
+     */
+    public static Function<Flux<Frame>, Flux<Frame>> process(int maxInFlight, Ordering ordering,
+                                                           Scheduler scheduler, Consumer<Frame> action) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max in flight must be positive.");
+        }
+        return flux -> Flux.create(sink -> {
+            Stage stage = new Stage(maxInFlight, ordering, scheduler, action, sink);
+            sink.onRequest(stage::requested);
+            sink.onCancel(stage::cancelled);
+            flux.subscribe(stage);
+        });
+    }
+
+    private static final class Stage extends BaseSubscriber<Frame> {
+
+        private final Ordering ordering;
+        private final Scheduler scheduler;
+        private final Consumer<Frame> action;
+        private final FluxSink<Frame> sink;
+
+        // All below guarded by this.
+        private final Frame[] results;
+        private long nextTicket = 0;
+        private long nextToEmit = 0;
+        private int active = 0;
+        private int permits;
+        private long demand = 0;
+        private boolean upstreamDone = false;
+        private boolean terminated = false;
+
+        Stage(int maxInFlight, Ordering ordering, Scheduler scheduler, Consumer<Frame> action, FluxSink<Frame> sink) {
+            this.results = new Frame[maxInFlight];
+            this.permits = maxInFlight;
+            this.ordering = ordering;
+            this.scheduler = scheduler;
+            this.action = action;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            requestUpstream();
+        }
+
+        void requested(long n) {
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            requestUpstream();
+        }
+
+        @Override
+        protected void hookOnNext(Frame frame) {
+            long ticket;
+            synchronized (this) {
+                if (terminated) {
+                    frame.release();
+                    return;
+                }
+                ticket = nextTicket++;
+                active++;
+            }
+            try {
+                scheduler.schedule(() -> run(frame, ticket));
+            } catch (RejectedExecutionException e) {
+                frame.release();
+                fail(e);
+            }
+        }
+
+        private void run(Frame frame, long ticket) {
+            try {
+                frame.stamp(PipelineStage.ALGORITHM_START);
+                action.accept(frame);
+                frame.stamp(PipelineStage.ALGORITHM_END);
+            } catch (RuntimeException e) {
+                frame.release();
+                fail(e);
+                return;
+            }
+            completed(frame, ticket);
+        }
+
+        private void completed(Frame frame, long ticket) {
+            // Emits under the lock so results reach the sink in order.
+            synchronized (this) {
+                if (terminated) {
+                    frame.release();
+                    return;
+                }
+                if (ordering == Ordering.LATEST_ONLY) {
+                    active--;
+                    permits++;
+                    if (ticket < nextToEmit) {
+                        frame.release();
+                        demand++;
+                    } else {
+                        nextToEmit = ticket + 1;
+                        sink.next(frame);
+                    }
+                } else {
+                    results[slot(ticket)] = frame;
+                    Frame next;
+                    while ((next = results[slot(nextToEmit)]) != null) {
+                        results[slot(nextToEmit)] = null;
+                        nextToEmit++;
+                        active--;
+                        permits++;
+                        sink.next(next);
+                    }
+                }
+                maybeComplete();
+            }
+            requestUpstream();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            synchronized (this) {
+                upstreamDone = true;
+                maybeComplete();
+            }
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        void cancelled() {
+            cancel();
+            terminate();
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            if (terminate()) {
+                sink.error(error);
+            }
+        }
+
+        /**
+         * @return true if this call terminated the stage.
+         */
+        private synchronized boolean terminate() {
+            if (terminated) {
+                return false;
+            }
+            terminated = true;
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != null) {
+                    results[i].release();
+                    results[i] = null;
+                }
+            }
+            return true;
+        }
+
+        private int slot(long ticket) {
+            return (int) (ticket % results.length);
+        }
+
+        private void maybeComplete() {
+            if (upstreamDone && !terminated && active == 0) {
+                terminated = true;
+                sink.complete();
+            }
+        }
+
+        private void requestUpstream() {
+            long toRequest;
+            synchronized (this) {
+                if (terminated || upstream() == null) {
+                    return;
+                }
+                toRequest = Math.min(permits, demand);
+                permits -= (int) toRequest;
+                demand -= toRequest;
+            }
+            if (toRequest > 0) {
+                upstream().request(toRequest);
+            }
+        }
+    }
+}
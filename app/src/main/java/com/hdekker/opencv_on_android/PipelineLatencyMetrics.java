@@ -0,0 +1,79 @@
+package com.hdekker.opencv_on_android;
+
+/**
+ * Per-stage and end-to-end latency of the frames passing through a pipeline.
+ * <p>
+ * The histogram of a stage holds the time from the previous stage the frame was stamped at to that
+ * stage, so stages an algorithm does not stamp are skipped rather than recorded as zero.
+ * End-to-end latency runs from {@link PipelineStage#RECEIVED} to {@link PipelineStage#DELIVERED}.
+ * <p>
+ * Sensor-to-delivered latency is also kept when the sensor timestamp shares the
+ * {@link System#nanoTime()} clock, which is the case for most devices. Cameras reporting on the
+ * boot-time clock give differences outside {@link #MAX_PLAUSIBLE_SENSOR_LATENCY_NANOS} and are
+ * left out.
+ */
+public class PipelineLatencyMetrics {
+
+    public static final long MAX_PLAUSIBLE_SENSOR_LATENCY_NANOS = 10_000_000_000L;
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[PipelineStage.VALUES.length];
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final LatencyHistogram sensorToDelivered = new LatencyHistogram();
+
+    public PipelineLatencyMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the stamps of a delivered frame. Does not allocate.
+     */
+    public void record(Frame frame) {
+        long previous = 0;
+        for (PipelineStage stage : PipelineStage.VALUES) {
+            long stamp = frame.getStageNanos(stage);
+            if (stamp == 0) {
+                continue;
+            }
+            if (previous != 0) {
+                stages[stage.ordinal()].record(stamp - previous);
+            }
+            previous = stamp;
+        }
+
+        long received = frame.getStageNanos(PipelineStage.RECEIVED);
+        long delivered = frame.getStageNanos(PipelineStage.DELIVERED);
+        if (received != 0 && delivered != 0) {
+            endToEnd.record(delivered - received);
+        }
+        long sensorLatency = delivered - frame.getTimestampNanos();
+        if (delivered != 0 && sensorLatency >= 0 && sensorLatency < MAX_PLAUSIBLE_SENSOR_LATENCY_NANOS) {
+            sensorToDelivered.record(sensorLatency);
+        }
+    }
+
+    /**
+     * Time taken to reach {@code stage} from the stage stamped before it.
+     * {@link PipelineStage#RECEIVED} has no previous stage and stays empty.
+     */
+    public LatencyHistogram getStageHistogram(PipelineStage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public LatencyHistogram getEndToEndHistogram() {
+        return endToEnd;
+    }
+
+    public LatencyHistogram getSensorToDeliveredHistogram() {
+        return sensorToDelivered;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : stages) {
+            histogram.reset();
+        }
+        endToEnd.reset();
+        sensorToDelivered.reset();
+    }
+}
@@ -0,0 +1,30 @@
+package com.hdekker.opencv_on_android;
+
+/**
+ * Points in the pipeline a {@link Frame} is timestamped at, in the order frames pass them.
+ */
+public enum PipelineStage {
+
+    /** The analyzer received the ImageProxy. */
+    RECEIVED,
+
+    /** Conversion to the algorithm's pixel format finished. */
+    CONVERTED,
+
+    /**
+     * The frame is being handed to the algorithm's input sink. Time spent waiting for room in the
+     * sink counts towards the next stage.
+     */
+    EMITTED,
+
+    /** The algorithm started working on the frame. */
+    ALGORITHM_START,
+
+    /** The algorithm finished with the frame. */
+    ALGORITHM_END,
+
+    /** The result reached its consumer. */
+    DELIVERED;
+
+    static final PipelineStage[] VALUES = values();
+}
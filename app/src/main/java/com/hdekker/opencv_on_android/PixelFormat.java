@@ -0,0 +1,20 @@
+package com.hdekker.opencv_on_android;
+
+/**
+ * Pixel format an algorithm wants its frames in. {@link ImageAnalyzer} produces exactly this,
+ * so algorithms that only need luma never pay for a colour conversion.
+ */
+public enum PixelFormat {
+
+    /** The Y plane only, width x height CV_8UC1. No colour conversion. */
+    GRAY,
+
+    /** Y plane followed by interleaved VU, (height * 3 / 2) x width CV_8UC1. */
+    NV21,
+
+    /** width x height CV_8UC3, R G B order. */
+    RGB,
+
+    /** width x height CV_8UC4, R G B A order. */
+    RGBA
+}
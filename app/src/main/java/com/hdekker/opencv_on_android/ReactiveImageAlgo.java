@@ -1,14 +1,46 @@
 package com.hdekker.opencv_on_android;
 
-import org.opencv.core.Mat;
-
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Sinks;
 
+/**
+ * An image algorithm fed by {@link ImageAnalyzer}.
+ * <p>
+ * Frames arrive on the input sink, a {@link FrameOperators#inputSink()}, and each subscriber takes
+ * its own reference with {@link FrameOperators#receive}. Implementations release the frames they
+ * consume, or pass them on through the output flux for its subscriber to release.
+ * {@link FrameOperators} has operators that do this bookkeeping.
+ */
 public interface ReactiveImageAlgo {
 
-    public Sinks.Many<Mat> getInputSink();
+    public Sinks.Many<Frame> getInputSink();
+
+    public Flux<Frame> getOutputFlux();
+
+    /**
+     * The format frames are delivered to {@link #getInputSink()} in. Algorithms that only
+     * need luma should return {@link PixelFormat#GRAY} to skip colour conversion entirely.
+     */
+    public default PixelFormat getPixelFormat() {
+        return PixelFormat.RGBA;
+    }
+
+    /**
+     * How frames are dropped when this algorithm falls behind the camera. {@link ImageAnalyzer}
+     * and the camera binding follow it, implementations apply it to their own input with
+     * {@link FrameOperators#onBackpressure}.
+     */
+    public default BackpressurePolicy getBackpressurePolicy() {
+        return BackpressurePolicy.BLOCK;
+    }
 
-    public Flux<Mat> getOutputFlux();
+    /**
+     * The part of the image this algorithm looks at, null for all of it. {@link ImageAnalyzer}
+     * reads it for every frame and converts only that region, so algorithms that track something
+     * can narrow it from their last result.
+     */
+    public default RegionOfInterest getRegionOfInterest() {
+        return null;
+    }
 
 }
@@ -0,0 +1,114 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Rect;
+
+/**
+ * The part of the camera image an algorithm wants to see, and how small. Algorithms publish it,
+ * typically from the result of the last frame, and {@link ImageAnalyzer} only reads and converts
+ * that region of the next frames, see {@link ReactiveImageAlgo#getRegionOfInterest()}.
+ * <p>
+ * The region is in image coordinates like {@link FrameTransform#withCrop}. Results found in a
+ * converted frame are mapped there with {@link Frame#toImage(Rect)}. Safe to update from any thread,
+ * a frame that is already being converted keeps the region it started with.
+ */
+public class RegionOfInterest {
+
+    /**
+     * Regions are converted grown to a multiple of this many pixels, see
+     * {@link FrameTransform#withCrop(Rect, int)}, so a region that moves and resizes with every
+     * frame reuses a few buffer sizes.
+     */
+    public static final int SIZE_STEP = 32;
+
+    private volatile State state = new State(null, 1.0);
+    private volatile Applied applied;
+
+    /**
+     * Converts only {@code region} of the following frames, null for the whole frame.
+     */
+    public void set(Rect region) {
+        if (region != null && (region.width <= 0 || region.height <= 0)) {
+            throw new IllegalArgumentException("Region must not be empty, got " + region);
+        }
+        state = new State(region == null ? null : region.clone(), state.scale);
+    }
+
+    /**
+     * Converts the whole frame again.
+     */
+    public void clear() {
+        set(null);
+    }
+
+    /**
+     * The published region, null for the whole frame.
+     */
+    public Rect get() {
+        Rect region = state.region;
+        return region == null ? null : region.clone();
+    }
+
+    /**
+     * Shrinks the region by {@code scale}, in (0, 1], while it is converted, see {@link FrameTransform#withScale}.
+     */
+    public void setScale(double scale) {
+        if (!(scale > 0 && scale <= 1)) {
+            throw new IllegalArgumentException("Scale must be in (0, 1], got " + scale);
+        }
+        state = new State(state.region, scale);
+    }
+
+    public double getScale() {
+        return state.scale;
+    }
+
+    /**
+     * {@code base} narrowed to the region, grown to {@link #SIZE_STEP}, and scaled. A crop already in
+     * {@code base} is intersected with the region, the whole crop is kept when they do not overlap. Returns the same instance
+     * until the region or {@code base} change, so a steady region costs nothing per frame.
+     */
+    public FrameTransform applyTo(FrameTransform base) {
+        State current = state;
+        Applied last = applied;
+        if (last != null && last.base == base && last.state == current) {
+            return last.result;
+        }
+        FrameTransform result = base.withScale(current.scale);
+        if (current.region != null) {
+            Rect region = current.region;
+            Rect crop = base.getCrop();
+            if (crop != null) {
+                int x = Math.max(crop.x, region.x);
+                int y = Math.max(crop.y, region.y);
+                int right = Math.min(crop.x + crop.width, region.x + region.width);
+                int bottom = Math.min(crop.y + crop.height, region.y + region.height);
+                region = right > x && bottom > y ? new Rect(x, y, right - x, bottom - y) : crop;
+            }
+            result = result.withCrop(region, SIZE_STEP);
+        }
+        applied = new Applied(base, current, result);
+        return result;
+    }
+
+    private static final class State {
+        final Rect region;
+        final double scale;
+
+        State(Rect region, double scale) {
+            this.region = region;
+            this.scale = scale;
+        }
+    }
+
+    private static final class Applied {
+        final FrameTransform base;
+        final State state;
+        final FrameTransform result;
+
+        Applied(FrameTransform base, State state, FrameTransform result) {
+            this.base = base;
+            this.state = state;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.hdekker.opencv_on_android;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a {@link YuvRecording} at a fixed rate or as fast as it is read, optionally in a loop.
+ * <p>
+ * Images are views into the mapped recording, nothing is copied, and they keep the strides and
+ * chroma layout the camera delivered, see {@link YuvRecording.Reader}.
+ * <p>
+ * Timestamps are the recorded ones. Every loop shifts them by the length of the recording so they
+ * keep increasing.
+ */
+public class ReplayFrameSource implements FrameSource {
+
+    private final YuvRecording.Reader reader;
+    private final boolean loop;
+    private final FramePacer pacer;
+    private final long loopNanos;
+
+    private long position = 0;
+    private long timestampNanos = 0;
+
+    public ReplayFrameSource(File file, FramePacer pacer, boolean loop) throws IOException {
+        this.reader = new YuvRecording.Reader(file);
+        this.pacer = pacer;
+        this.loop = loop;
+        this.loopNanos = reader.getFrameCount() == 0 ? 0 : loopLength();
+    }
+
+    /**
+     * Frames in the recording. A frame that was being written when recording stopped is not counted.
+     */
+    public int getFrameCount() {
+        return reader.getFrameCount();
+    }
+
+    @Override
+    public YuvPlanarImage next() throws IOException {
+        int frameCount = reader.getFrameCount();
+        if (frameCount == 0 || (!loop && position >= frameCount)) {
+            return null;
+        }
+        pacer.await();
+        int frame = (int) (position % frameCount);
+        timestampNanos = reader.getTimestampNanos(frame) + (position / frameCount) * loopNanos;
+        position++;
+        return reader.read(frame);
+    }
+
+    @Override
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private long loopLength() {
+        int frameCount = reader.getFrameCount();
+        long first = reader.getTimestampNanos(0);
+        long last = reader.getTimestampNanos(frameCount - 1);
+        // One average frame interval between the end of a loop and the start of the next.
+        long interval = frameCount > 1 ? (last - first) / (frameCount - 1) : 0;
+        return Math.max(last - first + interval, 1);
+    }
+}
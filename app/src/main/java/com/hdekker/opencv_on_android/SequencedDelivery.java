@@ -0,0 +1,94 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.function.Consumer;
+
+/**
+ * Puts results completed out of order on several threads back into submission order.
+ * <p>
+ * Each task takes a ticket with {@link #reserve()} on the submitting thread and hands its result to
+ * {@link #complete(long, Object)} from whichever thread finished it. Results are passed to the
+ * consumer strictly in ticket order, one at a time, on the thread that completed the result
+ * unblocking them. At most {@code capacity} tickets may be outstanding. The consumer should not
+ * throw: if it does, the exception propagates and later results wait for the next completion.
+ */
+final class SequencedDelivery<T> {
+
+    private final Object[] slots;
+    private final Consumer<T> consumer;
+    private long nextTicket = 0;
+    private long nextToDeliver = 0;
+    private boolean delivering = false;
+
+    SequencedDelivery(int capacity, Consumer<T> consumer) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.slots = new Object[capacity];
+        this.consumer = consumer;
+    }
+
+    /**
+     * Takes the next ticket, or returns -1 if {@code capacity} tickets are already outstanding.
+     */
+    synchronized long reserve() {
+        if (nextTicket - nextToDeliver >= slots.length) {
+            return -1;
+        }
+        return nextTicket++;
+    }
+
+    /**
+     * Completes {@code ticket} with a non-null result and delivers every result that is now in order.
+     */
+    void complete(long ticket, T result) {
+        if (result == null) {
+            throw new IllegalArgumentException("Result must not be null.");
+        }
+        synchronized (this) {
+            if (ticket < nextToDeliver || ticket >= nextTicket) {
+                throw new IllegalStateException("Ticket " + ticket + " is not outstanding.");
+            }
+            slots[slot(ticket)] = result;
+            // Another thread is already draining and will pick this result up.
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+        }
+        while (true) {
+            T next;
+            synchronized (this) {
+                int index = slot(nextToDeliver);
+                @SuppressWarnings("unchecked")
+                T ready = (T) slots[index];
+                if (ready == null) {
+                    delivering = false;
+                    return;
+                }
+                slots[index] = null;
+                nextToDeliver++;
+                next = ready;
+            }
+            try {
+                consumer.accept(next);
+            } catch (RuntimeException | Error e) {
+                // Let the next completion resume draining.
+                synchronized (this) {
+                    delivering = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Number of tickets reserved and not yet delivered.
+     */
+    synchronized int getOutstandingCount() {
+        return (int) (nextTicket - nextToDeliver);
+    }
+
+    private int slot(long ticket) {
+        return (int) (ticket % slots.length);
+    }
+}
@@ -0,0 +1,212 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the startup phases of the app in parallel, each as soon as the phases it depends on are done,
+ * and times them.
+ * <p>
+ * {@link #whenReady()} completes once every phase has finished, with the {@link Timings}, or with
+ * the first failure. A failed phase skips the phases depending on it, the others still run. After
+ * startup {@link #markMilestone} records later events on the same clock, such as the first analysed
+ * frame, so time to first frame can be tracked next to the phases that feed into it.
+ */
+public class StartupOrchestrator {
+
+    /**
+     * Start and end of each phase and milestone, in nanoseconds since {@link #start()}.
+     */
+    public static final class Timings {
+        private final Map<String, long[]> phases = new ConcurrentHashMap<>();
+        private final Map<String, Long> milestones = new ConcurrentHashMap<>();
+        private final List<String> order;
+        private volatile long totalNanos = -1;
+
+        Timings(List<String> order) {
+            this.order = order;
+        }
+
+        /**
+         * Duration of {@code phase}, -1 if it has not finished or was skipped.
+         */
+        public long getPhaseNanos(String phase) {
+            long[] span = phases.get(phase);
+            return span == null ? -1 : span[1] - span[0];
+        }
+
+        /**
+         * When {@code phase} started, -1 if it has not.
+         */
+        public long getPhaseStartNanos(String phase) {
+            long[] span = phases.get(phase);
+            return span == null ? -1 : span[0];
+        }
+
+        /**
+         * From start until every phase had finished, -1 before that.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * When {@code milestone} was marked, -1 if it has not been.
+         */
+        public long getMilestoneNanos(String milestone) {
+            Long at = milestones.get(milestone);
+            return at == null ? -1 : at;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("startup ").append(millis(totalNanos)).append(" ms");
+            for (String phase : order) {
+                long[] span = phases.get(phase);
+                sb.append(", ").append(phase).append(' ');
+                if (span == null) {
+                    sb.append("skipped");
+                } else {
+                    sb.append(millis(span[1] - span[0])).append(" ms at ").append(millis(span[0]));
+                }
+            }
+            for (Map.Entry<String, Long> milestone : milestones.entrySet()) {
+                sb.append(", ").append(milestone.getKey()).append(" at ").append(millis(milestone.getValue())).append(" ms");
+            }
+            return sb.toString();
+        }
+
+        private static long millis(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+
+    private static final class Phase {
+        final String name;
+        final Callable<?> work;
+        final String[] dependsOn;
+        CompletableFuture<Object> result;
+
+        Phase(String name, Callable<?> work, String[] dependsOn) {
+            this.name = name;
+            this.work = work;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final Executor executor;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private long startNanos;
+    private Timings timings;
+    private CompletableFuture<Timings> ready;
+
+    public StartupOrchestrator(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a phase that runs {@code work} once the phases named in {@code dependsOn} have completed.
+     * Phases must be added before {@link #start()}, after the phases they depend on.
+     */
+    public synchronized StartupOrchestrator phase(String name, Callable<?> work, String... dependsOn) {
+        if (ready != null) {
+            throw new IllegalStateException("Startup already started.");
+        }
+        if (phases.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate phase " + name + ".");
+        }
+        for (String dependency : dependsOn) {
+            if (!phases.containsKey(dependency)) {
+                throw new IllegalArgumentException("Phase " + name + " depends on unknown phase " + dependency + ".");
+            }
+        }
+        phases.put(name, new Phase(name, work, dependsOn));
+        return this;
+    }
+
+    /**
+     * Starts every phase whose dependencies allow it. Later calls return the same future.
+     */
+    public synchronized CompletableFuture<Timings> start() {
+        if (ready != null) {
+            return ready;
+        }
+        startNanos = System.nanoTime();
+        timings = new Timings(Collections.unmodifiableList(new ArrayList<>(phases.keySet())));
+        List<CompletableFuture<Object>> all = new ArrayList<>();
+        for (Phase phase : phases.values()) {
+            CompletableFuture<?>[] dependencies = new CompletableFuture<?>[phase.dependsOn.length];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencies[i] = phases.get(phase.dependsOn[i]).result;
+            }
+            phase.result = CompletableFuture.allOf(dependencies)
+                    .thenApplyAsync(ignored -> run(phase), executor);
+            all.add(phase.result);
+        }
+        ready = CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    timings.totalNanos = System.nanoTime() - startNanos;
+                    return timings;
+                });
+        return ready;
+    }
+
+    /**
+     * The future {@link #start()} returned, null before it was called.
+     */
+    public synchronized CompletableFuture<Timings> whenReady() {
+        return ready;
+    }
+
+    /**
+     * What the phase's work returned.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> CompletableFuture<T> getPhaseResult(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null || phase.result == null) {
+            throw new IllegalArgumentException("No started phase " + name + ".");
+        }
+        return (CompletableFuture<T>) (CompletableFuture<?>) phase.result;
+    }
+
+    /**
+     * Records that {@code milestone} happened now. Only the first mark of a milestone counts.
+     *
+     * @return nanoseconds since {@link #start()}.
+     */
+    public long markMilestone(String milestone) {
+        Timings current;
+        long start;
+        synchronized (this) {
+            if (timings == null) {
+                throw new IllegalStateException("Startup not started.");
+            }
+            current = timings;
+            start = startNanos;
+        }
+        long at = System.nanoTime() - start;
+        Long previous = current.milestones.putIfAbsent(milestone, at);
+        return previous == null ? at : previous;
+    }
+
+    private Object run(Phase phase) {
+        long begin = System.nanoTime() - startNanos;
+        try {
+            Object result = phase.work.call();
+            timings.phases.put(phase.name, new long[]{begin, System.nanoTime() - startNanos});
+            return result;
+        } catch (Exception e) {
+            throw new CompletionException(new IllegalStateException("Startup phase " + phase.name + " failed.", e));
+        }
+    }
+}
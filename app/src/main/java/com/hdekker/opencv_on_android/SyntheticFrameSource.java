@@ -0,0 +1,261 @@
+package com.hdekker.opencv_on_android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Generates YUV_420_888 images with the plane layouts cameras produce: row padding, semi-planar
+ * chroma with a pixel stride of 2 that U and V share as NV21 or NV12, or separate planar chroma.
+ * <p>
+ * Pixel values are a deterministic function of image, plane, row and column, see {@link #value}.
+ * A few distinct images are generated up front and cycled through, so producing an image costs
+ * nothing and the algorithm still sees content that changes from frame to frame.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+    /** How the U and V planes are laid out in memory. */
+    public enum ChromaLayout {
+        /** U and V in separate buffers. */
+        SEPARATE,
+        /** One interleaved buffer, V first, as NV21. What most devices deliver. */
+        ALIASED_VU,
+        /** One interleaved buffer, U first, as NV12. */
+        ALIASED_UV
+    }
+
+    public static final double DEFAULT_TIMESTAMP_FPS = 30.0;
+    public static final int DEFAULT_DISTINCT_IMAGES = 4;
+
+    private final Image[] images;
+    private final long frameCount;
+    private final FramePacer pacer;
+    private final long timestampPeriodNanos;
+    private long emitted = 0;
+    private long timestampNanos = 0;
+
+    private SyntheticFrameSource(Builder builder) {
+        this.images = new Image[builder.distinctImages];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new Image(builder, i);
+        }
+        this.frameCount = builder.frameCount;
+        this.pacer = builder.pacer;
+        this.timestampPeriodNanos = Math.round(1_000_000_000.0 / builder.timestampFps);
+    }
+
+    /**
+     * Starts with tightly packed NV21 planes in direct buffers, the most common camera layout.
+     */
+    public static Builder builder(int width, int height) {
+        return new Builder(width, height);
+    }
+
+    /**
+     * The value at {@code row}, {@code col} of {@code plane} in the {@code image}th distinct image.
+     * Chroma coordinates are in chroma samples.
+     */
+    public static byte value(int image, int plane, int row, int col) {
+        return (byte) (plane * 71 + row * 31 + col * 7 + image * 13);
+    }
+
+    @Override
+    public YuvPlanarImage next() {
+        if (emitted >= frameCount) {
+            return null;
+        }
+        pacer.await();
+        timestampNanos = emitted * timestampPeriodNanos;
+        return images[(int) (emitted++ % images.length)];
+    }
+
+    @Override
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    private static final class Image implements YuvPlanarImage {
+        private final int width;
+        private final int height;
+        private final int[] rowStrides;
+        private final int[] pixelStrides;
+        private final ByteBuffer[] buffers = new ByteBuffer[3];
+
+        Image(Builder b, int index) {
+            this.width = b.width;
+            this.height = b.height;
+            this.rowStrides = new int[]{b.yRowStride, b.chromaRowStride, b.chromaRowStride};
+            this.pixelStrides = new int[]{1, b.chromaPixelStride, b.chromaPixelStride};
+            boolean aliased = b.chromaLayout != ChromaLayout.SEPARATE;
+            int chromaRows = height / 2;
+            int chromaCols = width / 2;
+
+            int ySize = b.paddedLastRow ? b.yRowStride * height : b.yRowStride * (height - 1) + width;
+            int chromaSize = b.paddedLastRow
+                    ? b.chromaRowStride * chromaRows - (aliased ? 1 : 0)
+                    : b.chromaRowStride * (chromaRows - 1) + (chromaCols - 1) * b.chromaPixelStride + 1;
+            buffers[PLANE_Y] = allocate(ySize, b.direct);
+            if (aliased) {
+                ByteBuffer shared = allocate(chromaSize + 1, b.direct);
+                int uStart = b.chromaLayout == ChromaLayout.ALIASED_VU ? 1 : 0;
+                buffers[PLANE_U] = slice(shared, uStart, chromaSize);
+                buffers[PLANE_V] = slice(shared, 1 - uStart, chromaSize);
+            } else {
+                buffers[PLANE_U] = allocate(chromaSize, b.direct);
+                buffers[PLANE_V] = allocate(chromaSize, b.direct);
+            }
+
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    buffers[PLANE_Y].put(row * b.yRowStride + col, value(index, PLANE_Y, row, col));
+                }
+            }
+            for (int row = 0; row < chromaRows; row++) {
+                for (int col = 0; col < chromaCols; col++) {
+                    int at = row * b.chromaRowStride + col * b.chromaPixelStride;
+                    buffers[PLANE_U].put(at, value(index, PLANE_U, row, col));
+                    buffers[PLANE_V].put(at, value(index, PLANE_V, row, col));
+                }
+            }
+        }
+
+        private static ByteBuffer allocate(int size, boolean direct) {
+            return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.wrap(new byte[size]);
+        }
+
+        private static ByteBuffer slice(ByteBuffer shared, int start, int length) {
+            ByteBuffer view = shared.duplicate();
+            view.position(start);
+            view.limit(start + length);
+            return view.slice();
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public ByteBuffer getPlaneBuffer(int plane) {
+            return buffers[plane];
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return rowStrides[plane];
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return pixelStrides[plane];
+        }
+    }
+
+    public static final class Builder {
+        private final int width;
+        private final int height;
+        private int yRowStride;
+        private int chromaRowStride;
+        private int chromaPixelStride = 2;
+        private ChromaLayout chromaLayout = ChromaLayout.ALIASED_VU;
+        private boolean paddedLastRow = false;
+        private boolean direct = true;
+        private int distinctImages = DEFAULT_DISTINCT_IMAGES;
+        private long frameCount = Long.MAX_VALUE;
+        private FramePacer pacer = FramePacer.unpaced();
+        private double timestampFps = DEFAULT_TIMESTAMP_FPS;
+
+        private Builder(int width, int height) {
+            if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+                throw new IllegalArgumentException("Size must be positive and even, got " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            this.yRowStride = width;
+            this.chromaRowStride = width;
+        }
+
+        /**
+         * Bytes from one row to the next. Anything above the width is row padding.
+         */
+        public Builder rowStrides(int yRowStride, int chromaRowStride) {
+            this.yRowStride = yRowStride;
+            this.chromaRowStride = chromaRowStride;
+            return this;
+        }
+
+        /**
+         * @param pixelStride 1 for planar chroma, which needs {@link ChromaLayout#SEPARATE}, or 2.
+         */
+        public Builder chroma(ChromaLayout layout, int pixelStride) {
+            this.chromaLayout = layout;
+            this.chromaPixelStride = pixelStride;
+            return this;
+        }
+
+        /**
+         * Whether the plane buffers include the padding after the last row. Devices differ here.
+         */
+        public Builder paddedLastRow(boolean paddedLastRow) {
+            this.paddedLastRow = paddedLastRow;
+            return this;
+        }
+
+        /**
+         * Direct buffers, as CameraX delivers, or heap buffers.
+         */
+        public Builder direct(boolean direct) {
+            this.direct = direct;
+            return this;
+        }
+
+        public Builder distinctImages(int distinctImages) {
+            this.distinctImages = distinctImages;
+            return this;
+        }
+
+        /**
+         * Number of images before the source is exhausted, unlimited by default.
+         */
+        public Builder frames(long frameCount) {
+            this.frameCount = frameCount;
+            return this;
+        }
+
+        /**
+         * When images are handed out, as fast as asked for by default.
+         */
+        public Builder pacer(FramePacer pacer) {
+            this.pacer = pacer;
+            return this;
+        }
+
+        /**
+         * Rate the capture timestamps advance at, independent of the pacing.
+         */
+        public Builder timestampFps(double timestampFps) {
+            this.timestampFps = timestampFps;
+            return this;
+        }
+
+        public SyntheticFrameSource build() {
+            if (chromaPixelStride != 1 && chromaPixelStride != 2) {
+                throw new IllegalArgumentException("Chroma pixel stride must be 1 or 2, got " + chromaPixelStride);
+            }
+            if (chromaLayout != ChromaLayout.SEPARATE && chromaPixelStride != 2) {
+                throw new IllegalArgumentException("Aliased chroma requires a pixel stride of 2");
+            }
+            if (yRowStride < width || chromaRowStride < (width / 2) * chromaPixelStride) {
+                throw new IllegalArgumentException("Row strides " + yRowStride + ", " + chromaRowStride
+                        + " too small for width " + width);
+            }
+            if (distinctImages <= 0 || frameCount < 0 || timestampFps <= 0) {
+                throw new IllegalArgumentException("Distinct images and timestamp rate must be positive, frames not negative.");
+            }
+            return new SyntheticFrameSource(this);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Splits one frame's processing across cores by running an operation on ROI tiles of the frame.
+ * <p>
+ * Tiles are horizontal bands, which keep each tile's rows contiguous. Every tile writes straight
+ * into its part of the destination Mat, so there is nothing to stitch. OpenCV filters applied to a
+ * submat read the pixels around it from the parent Mat, so blur, morphology and other neighbourhood
+ * operations give the same result tiled as on the whole frame with a halo of 0.
+ * <p>
+ * Operations that only see their own input, for example Java pixel loops or filters using
+ * {@code BORDER_ISOLATED}, need a halo of at least their kernel radius. So do chained filters such as
+ * opening and closing, whose second pass would otherwise read neighbouring tiles' unfinished
+ * intermediate results. Each tile is then processed with that many extra rows on either side into
+ * per-thread scratch and its core copied out.
+ * <p>
+ * Algorithms opt in with {@link FrameOperators#process} and {@link #intoResult}.
+ */
+public class TileParallel {
+
+    /**
+     * An operation that can run on part of a frame. {@code dst} has the size of {@code src}.
+     */
+    public interface TileOperation {
+        void apply(Mat src, Mat dst);
+    }
+
+    public static TileOperation blur(Size kernelSize) {
+        return (src, dst) -> Imgproc.blur(src, dst, kernelSize);
+    }
+
+    public static TileOperation gaussianBlur(Size kernelSize, double sigma) {
+        return (src, dst) -> Imgproc.GaussianBlur(src, dst, kernelSize, sigma);
+    }
+
+    public static TileOperation threshold(double threshold, double maxValue, int type) {
+        return (src, dst) -> Imgproc.threshold(src, dst, threshold, maxValue, type);
+    }
+
+    /**
+     * Erode and dilate work with a halo of 0, the other operations chain two passes and need a halo
+     * of at least the kernel radius.
+     */
+    public static TileOperation morphology(int operation, Mat kernel) {
+        return (src, dst) -> Imgproc.morphologyEx(src, dst, operation, kernel);
+    }
+
+    private final ForkJoinPool pool;
+    private final int tiles;
+    private final int halo;
+    private final ThreadLocal<Mat> scratch = ThreadLocal.withInitial(Mat::new);
+
+    /**
+     * Tiles on the common pool, one per core.
+     */
+    public TileParallel() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism(), 0);
+    }
+
+    public TileParallel(ForkJoinPool pool, int tiles, int halo) {
+        if (tiles <= 0) {
+            throw new IllegalArgumentException("Tile count must be positive.");
+        }
+        if (halo < 0) {
+            throw new IllegalArgumentException("Halo must not be negative.");
+        }
+        this.pool = pool;
+        this.tiles = tiles;
+        this.halo = halo;
+    }
+
+    public int getTileCount() {
+        return tiles;
+    }
+
+    public int getHalo() {
+        return halo;
+    }
+
+    /**
+     * Runs {@code operation} over {@code src} tile by tile, writing into {@code dst}, which is
+     * (re)allocated to the size and type of {@code src}. {@code dst} must not share memory with
+     * {@code src}. Returns when every tile is done.
+     */
+    public void apply(Mat src, Mat dst, TileOperation operation) {
+        dst.create(src.rows(), src.cols(), src.type());
+        int bands = Math.min(tiles, src.rows());
+        if (bands <= 1) {
+            operation.apply(src, dst);
+            return;
+        }
+        pool.invoke(new Bands(src, dst, operation, 0, bands, bands));
+    }
+
+    /**
+     * Frame action for {@link FrameOperators#process} that applies {@code operation} to the frame's
+     * Mat and leaves the output in {@code owner}'s {@link Frame#getResultMat(Object, int)} at index 0,
+     * so algorithms sharing the frame do not overwrite each other's output.
+     */
+    public Consumer<Frame> intoResult(Object owner, TileOperation operation) {
+        return frame -> apply(frame.getMat(), frame.getResultMat(owner, 0), operation);
+    }
+
+    private void applyTile(Mat src, Mat dst, TileOperation operation, int band, int bands) {
+        int rows = src.rows();
+        int top = (int) ((long) rows * band / bands);
+        int bottom = (int) ((long) rows * (band + 1) / bands);
+        Mat dstTile = dst.submat(top, bottom, 0, dst.cols());
+        try {
+            if (halo == 0) {
+                Mat srcTile = src.submat(top, bottom, 0, src.cols());
+                operation.apply(srcTile, dstTile);
+                srcTile.release();
+                return;
+            }
+            int haloTop = Math.max(0, top - halo);
+            int haloBottom = Math.min(rows, bottom + halo);
+            Mat srcTile = src.submat(haloTop, haloBottom, 0, src.cols());
+            Mat out = scratch.get();
+            operation.apply(srcTile, out);
+            Mat core = out.submat(new Rect(0, top - haloTop, out.cols(), bottom - top));
+            core.copyTo(dstTile);
+            core.release();
+            srcTile.release();
+        } finally {
+            dstTile.release();
+        }
+    }
+
+    private final class Bands extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Mat src;
+        private final Mat dst;
+        private final TileOperation operation;
+        private final int from;
+        private final int to;
+        private final int bands;
+
+        Bands(Mat src, Mat dst, TileOperation operation, int from, int to, int bands) {
+            this.src = src;
+            this.dst = dst;
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+            this.bands = bands;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                applyTile(src, dst, operation, from, bands);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Bands(src, dst, operation, from, mid, bands),
+                    new Bands(src, dst, operation, mid, to, bands));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.Queues;
+
+/**
+ * A {@link ReactiveImageAlgo} assembled from {@link VisionStage}s, for example
+ * gray, blur, threshold.
+ * <p>
+ * Consecutive stages added with {@link Builder#then} are fused: they run back to back on one thread
+ * in one Reactor operator. Only {@link Builder#thenAsync} starts a new segment behind a small queue on
+ * another scheduler, so slow stages can overlap with the ones before them. Stage specs are checked
+ * when the pipeline is built and resolved again whenever the input size changes. Every intermediate
+ * Mat is allocated then and reused for later frames: Mats within a segment belong to the segment,
+ * Mats handed across a queue travel with the frame in the pipeline's own
+ * {@link Frame#getResultMat(Object, int)}. With {@link FramePool}ed frames a steady stream allocates
+ * no native memory.
+ * <p>
+ * The output flux emits the input frames with the last stage's output in {@link #getResult(Frame)}.
+ * Results are kept per pipeline, so pipelines sharing frames behind a {@link FrameDispatcher} do not
+ * overwrite each other. Frame references follow {@link FrameOperators}: subscribers release the
+ * frames they receive.
+ */
+public class VisionPipeline implements ReactiveImageAlgo {
+
+    /**
+     * Frames queued in front of an async segment.
+     */
+    static final int SEGMENT_QUEUE_SIZE = 2;
+
+    private final PixelFormat inputFormat;
+    private final BackpressurePolicy policy;
+    private final int capacity;
+    private final RegionOfInterest regionOfInterest;
+    private final Scheduler inputScheduler;
+    private final List<List<VisionStage>> segmentStages;
+    private final List<Scheduler> segmentSchedulers;
+    private final Sinks.Many<Frame> sink = FrameOperators.inputSink();
+    private final FrameDropStats dropStats = new FrameDropStats();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    private VisionPipeline(Builder builder) {
+        this.inputFormat = builder.inputFormat;
+        this.policy = builder.policy;
+        this.capacity = builder.capacity;
+        this.regionOfInterest = builder.regionOfInterest;
+        this.inputScheduler = builder.inputScheduler;
+        this.segmentStages = new ArrayList<>();
+        for (List<VisionStage> stages : builder.segmentStages) {
+            this.segmentStages.add(new ArrayList<>(stages));
+        }
+        this.segmentSchedulers = new ArrayList<>(builder.segmentSchedulers);
+    }
+
+    /**
+     * Starts a pipeline fed {@code inputFormat} frames. The first segment runs on {@code scheduler}.
+     */
+    public static Builder builder(PixelFormat inputFormat, Scheduler scheduler) {
+        return new Builder(inputFormat, scheduler);
+    }
+
+    @Override
+    public Sinks.Many<Frame> getInputSink() {
+        return sink;
+    }
+
+    /**
+     * Takes one subscriber at a time: the stages write into the pipeline's results on the shared
+     * frames, so a second subscriber would overwrite the first one's. Subscribe again once the
+     * previous subscription is done, or build a second pipeline for a second consumer.
+     * A subscription made while another is active fails with an {@link IllegalStateException}.
+     */
+    @Override
+    public Flux<Frame> getOutputFlux() {
+        return Flux.defer(() -> {
+            if (!subscribed.compareAndSet(false, true)) {
+                return Flux.<Frame>error(new IllegalStateException(
+                        "The pipeline already has a subscriber, its results live on the shared frames."));
+            }
+            int count = segmentStages.size();
+            Flux<Frame> flux = FrameOperators.receive(sink)
+                    .transform(FrameOperators.onBackpressure(policy, capacity, dropStats, inputScheduler));
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    flux = flux.publishOn(segmentSchedulers.get(i), SEGMENT_QUEUE_SIZE);
+                }
+                Segment segment = new Segment(this, segmentStages.get(i), i, count);
+                flux = flux.map(segment::run);
+            }
+            return flux.doFinally(signal -> subscribed.set(false));
+        }).transform(FrameOperators.releaseDiscarded());
+    }
+
+    @Override
+    public PixelFormat getPixelFormat() {
+        return inputFormat;
+    }
+
+    @Override
+    public BackpressurePolicy getBackpressurePolicy() {
+        return policy;
+    }
+
+    @Override
+    public RegionOfInterest getRegionOfInterest() {
+        return regionOfInterest;
+    }
+
+    public FrameDropStats getDropStats() {
+        return dropStats;
+    }
+
+    /**
+     * The last stage's output for {@code frame}, valid while the frame is held.
+     */
+    public Mat getResult(Frame frame) {
+        return frame.getResultMat(this, 0);
+    }
+
+    /**
+     * Number of segments, one more than the number of queue boundaries.
+     */
+    public int getSegmentCount() {
+        return segmentStages.size();
+    }
+
+    /**
+     * Fused stages that run on one thread. Reactor calls {@link #run} serially, which is what makes
+     * the segment's own Mats safe to reuse.
+     */
+    private static final class Segment {
+
+        private final Object owner;
+        private final VisionStage[] stages;
+        private final Mat[] intermediates;
+        private final int index;
+        private final int count;
+        private MatSpec inputSpec;
+        private MatSpec outputSpec;
+
+        Segment(Object owner, List<VisionStage> stages, int index, int count) {
+            this.owner = owner;
+            this.stages = stages.toArray(new VisionStage[0]);
+            this.intermediates = new Mat[this.stages.length - 1];
+            for (int i = 0; i < intermediates.length; i++) {
+                intermediates[i] = new Mat();
+            }
+            this.index = index;
+            this.count = count;
+        }
+
+        Frame run(Frame frame) {
+            try {
+                if (index == 0) {
+                    frame.stamp(PipelineStage.ALGORITHM_START);
+                }
+                Mat src = index == 0 ? frame.getMat() : frame.getResultMat(owner, index);
+                Mat out = frame.getResultMat(owner, index == count - 1 ? 0 : index + 1);
+                if (inputSpec == null || !inputSpec.matches(src)) {
+                    resolve(MatSpec.of(src));
+                }
+                // The output travels with the frame, a no-op unless the frame is new to this pipeline.
+                outputSpec.create(out);
+                Mat in = src;
+                for (int i = 0; i < stages.length; i++) {
+                    Mat dst = i == stages.length - 1 ? out : intermediates[i];
+                    stages[i].apply(in, dst);
+                    in = dst;
+                }
+                if (index == count - 1) {
+                    frame.stamp(PipelineStage.ALGORITHM_END);
+                }
+            } catch (RuntimeException e) {
+                frame.release();
+                throw e;
+            }
+            return frame;
+        }
+
+        private void resolve(MatSpec input) {
+            MatSpec spec = input;
+            for (int i = 0; i < stages.length; i++) {
+                spec = stages[i].outputSpec(spec);
+                if (i < intermediates.length) {
+                    spec.create(intermediates[i]);
+                }
+            }
+            inputSpec = input;
+            outputSpec = spec;
+        }
+    }
+
+    public static final class Builder {
+
+        /**
+         * Size the stage specs are checked against when building, the real size is only known with
+         * the first frame.
+         */
+        private static final int NOMINAL_WIDTH = 640;
+        private static final int NOMINAL_HEIGHT = 480;
+
+        private final PixelFormat inputFormat;
+        private final Scheduler inputScheduler;
+        private final List<List<VisionStage>> segmentStages = new ArrayList<>();
+        private final List<Scheduler> segmentSchedulers = new ArrayList<>();
+        private BackpressurePolicy policy = BackpressurePolicy.BLOCK;
+        private int capacity = Queues.XS_BUFFER_SIZE;
+        private RegionOfInterest regionOfInterest;
+
+        private Builder(PixelFormat inputFormat, Scheduler inputScheduler) {
+            this.inputFormat = inputFormat;
+            this.inputScheduler = inputScheduler;
+        }
+
+        /**
+         * Adds a stage to the current segment, it runs on the same thread right after the previous one.
+         */
+        public Builder then(VisionStage stage) {
+            if (segmentStages.isEmpty()) {
+                segmentStages.add(new ArrayList<>());
+                segmentSchedulers.add(inputScheduler);
+            }
+            segmentStages.get(segmentStages.size() - 1).add(stage);
+            return this;
+        }
+
+        /**
+         * Starts a new segment with {@code stage} on {@code scheduler}, behind a queue of
+         * {@link VisionPipeline#SEGMENT_QUEUE_SIZE} frames. Use it for slow stages.
+         */
+        public Builder thenAsync(Scheduler scheduler, VisionStage stage) {
+            if (segmentStages.isEmpty()) {
+                return then(stage);
+            }
+            segmentStages.add(new ArrayList<>());
+            segmentSchedulers.add(scheduler);
+            return then(stage);
+        }
+
+        /**
+         * How frames are dropped in front of the first segment, see {@link FrameOperators#onBackpressure}.
+         * Later segments only queue, their backpressure reaches this point.
+         */
+        public Builder backpressure(BackpressurePolicy policy, int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Capacity must be positive.");
+            }
+            this.policy = policy;
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Region of the image the pipeline is fed, updated by whoever consumes its output.
+         * Stages see frames of the region's size, which may change from frame to frame.
+         */
+        public Builder regionOfInterest(RegionOfInterest regionOfInterest) {
+            this.regionOfInterest = regionOfInterest;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if there are no stages or a stage cannot take what the
+         *                                  one before it produces.
+         */
+        public VisionPipeline build() {
+            if (segmentStages.isEmpty()) {
+                throw new IllegalArgumentException("A pipeline needs at least one stage.");
+            }
+            MatSpec spec = MatSpec.of(inputFormat, NOMINAL_WIDTH, NOMINAL_HEIGHT);
+            for (List<VisionStage> stages : segmentStages) {
+                for (VisionStage stage : stages) {
+                    spec = stage.outputSpec(spec);
+                }
+            }
+            return new VisionPipeline(this);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * One step of a {@link VisionPipeline}: declares the Mat it produces for a given input and then
+ * produces it.
+ * <p>
+ * {@link #apply} writes into a {@code dst} the pipeline has already allocated to
+ * {@link #outputSpec}, and {@code src} and {@code dst} never share memory. Stages keep no per-frame
+ * state, the pipeline decides which thread runs them.
+ */
+public interface VisionStage {
+
+    /**
+     * The spec of the output for an input of {@code input}.
+     *
+     * @throws IllegalArgumentException if the stage cannot take {@code input}.
+     */
+    MatSpec outputSpec(MatSpec input);
+
+    void apply(Mat src, Mat dst);
+
+    /**
+     * A stage whose output has the size and type of its input, for example the operations in
+     * {@link TileParallel}.
+     */
+    static VisionStage of(TileParallel.TileOperation operation) {
+        return new VisionStage() {
+            @Override
+            public MatSpec outputSpec(MatSpec input) {
+                return input;
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst) {
+                operation.apply(src, dst);
+            }
+        };
+    }
+
+    /**
+     * {@code operation} split over tiles by {@code tiles}.
+     */
+    static VisionStage tiled(TileParallel tiles, TileParallel.TileOperation operation) {
+        return of((src, dst) -> tiles.apply(src, dst, operation));
+    }
+
+    /**
+     * {@link Imgproc#cvtColor} with {@code code}, producing {@code outputChannels} 8 bit channels
+     * from {@code inputChannels}.
+     */
+    static VisionStage convertColor(int code, int inputChannels, int outputChannels) {
+        return new VisionStage() {
+            @Override
+            public MatSpec outputSpec(MatSpec input) {
+                if (input.getChannels() != inputChannels) {
+                    throw new IllegalArgumentException("Colour conversion expects " + inputChannels
+                            + " channels, got " + input);
+                }
+                return input.withType(CvType.makeType(CvType.CV_8U, outputChannels));
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst) {
+                Imgproc.cvtColor(src, dst, code);
+            }
+        };
+    }
+
+    /**
+     * Scales to {@code width} x {@code height}.
+     */
+    static VisionStage resize(int width, int height, int interpolation) {
+        Size size = new Size(width, height);
+        return new VisionStage() {
+            @Override
+            public MatSpec outputSpec(MatSpec input) {
+                return new MatSpec(height, width, input.getType());
+            }
+
+            @Override
+            public void apply(Mat src, Mat dst) {
+                Imgproc.resize(src, dst, size, 0, 0, interpolation);
+            }
+        };
+    }
+}
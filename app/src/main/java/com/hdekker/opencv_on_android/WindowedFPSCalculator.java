@@ -1,18 +1,46 @@
 package com.hdekker.opencv_on_android;
 
-import java.util.LinkedList;
-
+/**
+ * Frame rate over a sliding time window.
+ * <p>
+ * Timestamps are kept in a fixed size ring of primitive longs, so recording a frame is O(1)
+ * amortised and never allocates. Once the ring is full the oldest timestamp is dropped even if it
+ * is still inside the window; the default capacity covers a one second window at 480 FPS.
+ * <p>
+ * One thread records (and resets), any number of threads may read. Readers never block the
+ * writer: the writer publishes the window's first and last timestamp and its size under a
+ * sequence counter, and readers retry if the counter moved while they were reading.
+ */
 public class WindowedFPSCalculator {
 
-        private final LinkedList<Long> frameTimestamps;
+        public static final int DEFAULT_CAPACITY = 512;
+
+        private final long[] frameTimestamps;
         private final long windowSizeNanos;
 
+        // Ring state, only touched by the writer.
+        private int head = 0;
+        private int size = 0;
+
+        // Snapshot published to readers. The version is odd while a write is in progress.
+        private volatile long version = 0;
+        private volatile long firstTimestamp;
+        private volatile long lastTimestamp;
+        private volatile int frameCount = 0;
+
         public WindowedFPSCalculator(float windowSizeMillis) {
+            this(windowSizeMillis, DEFAULT_CAPACITY);
+        }
+
+        public WindowedFPSCalculator(float windowSizeMillis, int capacity) {
             if (windowSizeMillis <= 0) {
                 throw new IllegalArgumentException("Window size must be positive.");
             }
+            if (capacity < 2) {
+                throw new IllegalArgumentException("Capacity must be at least 2.");
+            }
             this.windowSizeNanos = (long) (windowSizeMillis * 1_000_000L);
-            this.frameTimestamps = new LinkedList<>();
+            this.frameTimestamps = new long[capacity];
         }
 
         /**
@@ -20,11 +48,16 @@ public class WindowedFPSCalculator {
          * Timestamps should be in nanoseconds (e.g., from System.nanoTime()).
          */
         public void recordFrameTimestamp(long timestampNanos) {
-            frameTimestamps.addLast(timestampNanos);
-            // Remove timestamps older than the window
-            while (!frameTimestamps.isEmpty() && (timestampNanos - frameTimestamps.getFirst() > windowSizeNanos)) {
-                frameTimestamps.removeFirst();
+            long[] ring = frameTimestamps;
+            // Remove timestamps older than the window, and the oldest one if the ring is full
+            while (size > 0 && (timestampNanos - ring[head] > windowSizeNanos || size == ring.length)) {
+                head = next(head);
+                size--;
             }
+            int tail = head + size;
+            ring[tail < ring.length ? tail : tail - ring.length] = timestampNanos;
+            size++;
+            publish(ring[head], timestampNanos, size);
         }
 
         /**
@@ -32,20 +65,17 @@ public class WindowedFPSCalculator {
          * @return The calculated FPS, or 0.0 if not enough data.
          */
         public double calculateFPS() {
-            if (frameTimestamps.size() < 2) {
-                return 0.0; // Not enough frames to calculate FPS
-            }
-            long firstTimestamp = frameTimestamps.getFirst();
-            long lastTimestamp = frameTimestamps.getLast();
-            long durationNanos = lastTimestamp - firstTimestamp;
-
-            if (durationNanos <= 0) {
-                return 0.0; // Avoid division by zero or negative duration
-            }
-
-            // Number of intervals is number of frames - 1
-            int frameCountInWindow = frameTimestamps.size();
-            return (double) (frameCountInWindow - 1) * 1_000_000_000.0 / durationNanos;
+            long first;
+            long last;
+            int count;
+            long before;
+            do {
+                before = version;
+                first = firstTimestamp;
+                last = lastTimestamp;
+                count = frameCount;
+            } while ((before & 1) != 0 || before != version);
+            return fps(first, last, count);
         }
 
         /**
@@ -54,19 +84,52 @@ public class WindowedFPSCalculator {
          * @return The calculated FPS, or 0.0 if not enough data.
          */
         public double calculateFPSAverageInterval() {
-            if (frameTimestamps.size() < 2) {
-                return 0.0;
-            }
-            long durationNanos = frameTimestamps.getLast() - frameTimestamps.getFirst();
-            if (durationNanos <= 0) return 0.0;
-            // Number of intervals = number of frames - 1
-            return (double) (frameTimestamps.size() - 1) * 1_000_000_000.0 / durationNanos;
+            // Frames - 1 intervals spanning last - first is the same figure as calculateFPS.
+            return calculateFPS();
         }
 
+        /**
+         * Number of frames currently in the window.
+         */
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public int getCapacity() {
+            return frameTimestamps.length;
+        }
 
+        /**
+         * Forgets all timestamps. Must be called from the recording thread.
+         */
         public void reset() {
-            frameTimestamps.clear();
+            head = 0;
+            size = 0;
+            publish(0, 0, 0);
         }
-}
 
+        private static double fps(long firstTimestamp, long lastTimestamp, int frameCountInWindow) {
+            if (frameCountInWindow < 2) {
+                return 0.0; // Not enough frames to calculate FPS
+            }
+            long durationNanos = lastTimestamp - firstTimestamp;
+            if (durationNanos <= 0) {
+                return 0.0; // Avoid division by zero or negative duration
+            }
+            // Number of intervals is number of frames - 1
+            return (double) (frameCountInWindow - 1) * 1_000_000_000.0 / durationNanos;
+        }
 
+        private void publish(long first, long last, int count) {
+            long v = version;
+            version = v + 1;
+            firstTimestamp = first;
+            lastTimestamp = last;
+            frameCount = count;
+            version = v + 2;
+        }
+
+        private int next(int index) {
+            return index + 1 == frameTimestamps.length ? 0 : index + 1;
+        }
+}
@@ -0,0 +1,38 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Semi-planar layouts a YUV_420_888 image can be packed into: a full Y plane followed by
+ * one interleaved chroma plane.
+ */
+public enum Yuv420Layout {
+
+    /** Chroma interleaved as V, U. */
+    NV21(Imgproc.COLOR_YUV2RGBA_NV21, Imgproc.COLOR_YUV2RGB_NV21),
+
+    /** Chroma interleaved as U, V. */
+    NV12(Imgproc.COLOR_YUV2RGBA_NV12, Imgproc.COLOR_YUV2RGB_NV12);
+
+    private final int toRgbaCode;
+    private final int toRgbCode;
+
+    Yuv420Layout(int toRgbaCode, int toRgbCode) {
+        this.toRgbaCode = toRgbaCode;
+        this.toRgbCode = toRgbCode;
+    }
+
+    /**
+     * {@link Imgproc#cvtColor} code converting this layout to RGBA.
+     */
+    public int toRgbaCode() {
+        return toRgbaCode;
+    }
+
+    /**
+     * {@link Imgproc#cvtColor} code converting this layout to RGB.
+     */
+    public int toRgbCode() {
+        return toRgbCode;
+    }
+}
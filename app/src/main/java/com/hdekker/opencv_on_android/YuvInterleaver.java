@@ -0,0 +1,232 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the planes of a {@link YuvPlanarImage} into a contiguous semi-planar array using row
+ * sized bulk copies. Handles any row stride and pixel stride, including padded Y rows.
+ * <p>
+ * When the U and V planes already alias each other as NV21 or NV12 memory, which is what most
+ * camera HALs produce, the chroma plane is copied row by row (or in one go when the rows are
+ * not padded) without touching individual bytes.
+ * <p>
+ * Instances keep scratch rows and, for direct planes, Mat headers between calls, see
+ * {@link #release()}. They are not thread safe.
+ */
+public class YuvInterleaver {
+
+    /** V starts one byte before U in the same memory, chroma is NV21. */
+    static final int ALIAS_NV21 = -1;
+    /** No usable aliasing between U and V. */
+    static final int ALIAS_NONE = 0;
+    /** U starts one byte before V in the same memory, chroma is NV12. */
+    static final int ALIAS_NV12 = 1;
+
+    private byte[] uRow = new byte[0];
+    private byte[] vRow = new byte[0];
+    private final DirectPlaneMats.Header uHeader = new DirectPlaneMats.Header();
+    private final DirectPlaneMats.Header vHeader = new DirectPlaneMats.Header();
+
+    /**
+     * Packs {@code image} into {@code dst} as NV21.
+     */
+    public void packNv21(YuvPlanarImage image, byte[] dst) {
+        pack(image, dst, false);
+    }
+
+    /**
+     * Packs {@code image} into {@code dst}, width * height * 3 / 2 bytes.
+     *
+     * @param allowNv12 when true and the source is already NV12 the chroma is copied as is,
+     *                  otherwise it is always written as NV21.
+     * @return the layout written to {@code dst}.
+     */
+    public Yuv420Layout pack(YuvPlanarImage image, byte[] dst, boolean allowNv12) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int ySize = width * height;
+        if (dst.length < ySize + 2 * (width / 2) * (height / 2)) {
+            throw new IllegalArgumentException("Destination too small for " + width + "x" + height);
+        }
+
+        copyLuma(image, dst);
+
+        ByteBuffer uBuffer = image.getPlaneBuffer(YuvPlanarImage.PLANE_U);
+        ByteBuffer vBuffer = image.getPlaneBuffer(YuvPlanarImage.PLANE_V);
+        int uPixelStride = image.getPixelStride(YuvPlanarImage.PLANE_U);
+        int vPixelStride = image.getPixelStride(YuvPlanarImage.PLANE_V);
+        int uRowStride = image.getRowStride(YuvPlanarImage.PLANE_U);
+        int vRowStride = image.getRowStride(YuvPlanarImage.PLANE_V);
+
+        int alias = chromaAlias(image, uHeader, vHeader);
+        if (alias == ALIAS_NV21) {
+            copySemiPlanar(vBuffer, uBuffer, uRowStride, width, height, dst, ySize);
+            return Yuv420Layout.NV21;
+        }
+        if (alias == ALIAS_NV12) {
+            copySemiPlanar(uBuffer, vBuffer, uRowStride, width, height, dst, ySize);
+            if (allowNv12) {
+                return Yuv420Layout.NV12;
+            }
+            swapPairs(dst, ySize, 2 * (width / 2) * (height / 2));
+            return Yuv420Layout.NV21;
+        }
+
+        interleaveRows(uBuffer, uRowStride, uPixelStride, vBuffer, vRowStride, vPixelStride,
+                width / 2, height / 2, dst, ySize);
+        return Yuv420Layout.NV21;
+    }
+
+    /**
+     * Copies the Y plane into the first width * height bytes of {@code dst}, dropping row padding.
+     */
+    public static void copyLuma(YuvPlanarImage image, byte[] dst) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ByteBuffer yBuffer = image.getPlaneBuffer(YuvPlanarImage.PLANE_Y);
+        int yRowStride = image.getRowStride(YuvPlanarImage.PLANE_Y);
+        int start = yBuffer.position();
+
+        if (yRowStride == width) {
+            yBuffer.get(dst, 0, width * height);
+        } else {
+            for (int row = 0; row < height; row++) {
+                yBuffer.position(start + row * yRowStride);
+                yBuffer.get(dst, row * width, width);
+            }
+        }
+        yBuffer.position(start);
+    }
+
+    /**
+     * Works out whether U and V are views over the same interleaved memory, without reading or
+     * writing it. Both planes need a pixel stride of 2 and the same row stride. Heap buffers are
+     * compared by backing array, direct buffers by the native address of a Mat header over each
+     * plane. Allocates and releases those two headers on every call.
+     */
+    static int chromaAlias(YuvPlanarImage image) {
+        return chromaAlias(image, null, null);
+    }
+
+    /**
+     * Like {@link #chromaAlias(YuvPlanarImage)}, keeping the Mat headers over direct planes in
+     * {@code uHeader} and {@code vHeader} so a steady stream does not allocate. The headers have
+     * the shape {@link DirectPlaneMats#wrapChromaPlane} gives them, ready to be used again there.
+     */
+    static int chromaAlias(YuvPlanarImage image, DirectPlaneMats.Header uHeader, DirectPlaneMats.Header vHeader) {
+        int rowStride = image.getRowStride(YuvPlanarImage.PLANE_U);
+        if (image.getPixelStride(YuvPlanarImage.PLANE_U) != 2 || image.getPixelStride(YuvPlanarImage.PLANE_V) != 2
+                || image.getRowStride(YuvPlanarImage.PLANE_V) != rowStride) {
+            return ALIAS_NONE;
+        }
+        ByteBuffer uBuffer = image.getPlaneBuffer(YuvPlanarImage.PLANE_U);
+        ByteBuffer vBuffer = image.getPlaneBuffer(YuvPlanarImage.PLANE_V);
+        if (uBuffer.hasArray() && vBuffer.hasArray()) {
+            if (uBuffer.array() != vBuffer.array()) {
+                return ALIAS_NONE;
+            }
+            return alias((vBuffer.arrayOffset() + vBuffer.position()) - (uBuffer.arrayOffset() + uBuffer.position()));
+        }
+        if (!uBuffer.isDirect() || !vBuffer.isDirect()) {
+            return ALIAS_NONE;
+        }
+        Mat u = DirectPlaneMats.wrapChromaPlane(image, YuvPlanarImage.PLANE_U, uHeader);
+        Mat v = DirectPlaneMats.wrapChromaPlane(image, YuvPlanarImage.PLANE_V, vHeader);
+        try {
+            return u == null || v == null ? ALIAS_NONE : alias(v.dataAddr() - u.dataAddr());
+        } finally {
+            if (u != null && uHeader == null) {
+                u.release();
+            }
+            if (v != null && vHeader == null) {
+                v.release();
+            }
+        }
+    }
+
+    // Where V starts relative to U.
+    private static int alias(long difference) {
+        return difference == -1 ? ALIAS_NV21 : difference == 1 ? ALIAS_NV12 : ALIAS_NONE;
+    }
+
+    /**
+     * Releases the Mat headers kept for telling the chroma layout of direct planes.
+     */
+    public void release() {
+        uHeader.release();
+        vHeader.release();
+    }
+
+    /**
+     * Copies an already interleaved chroma plane. {@code first} holds the first byte of every pair,
+     * {@code second} starts one byte later in the same memory and supplies the final byte the first
+     * buffer is one short of.
+     */
+    private static void copySemiPlanar(ByteBuffer first, ByteBuffer second, int rowStride,
+                                       int width, int height, byte[] dst, int offset) {
+        int rowBytes = 2 * (width / 2);
+        int rows = height / 2;
+        int total = rowBytes * rows;
+        int start = first.position();
+        int available = first.remaining();
+
+        if (rowStride == rowBytes && available >= total) {
+            first.get(dst, offset, total);
+        } else if (rowStride == rowBytes) {
+            first.get(dst, offset, total - 1);
+            dst[offset + total - 1] = second.get(second.position() + total - 2);
+        } else {
+            for (int row = 0; row < rows; row++) {
+                int rowStart = row * rowStride;
+                int length = Math.min(rowBytes, available - rowStart);
+                first.position(start + rowStart);
+                first.get(dst, offset + row * rowBytes, length);
+                if (length < rowBytes) {
+                    dst[offset + row * rowBytes + rowBytes - 1] = second.get(second.position() + rowStart + rowBytes - 2);
+                }
+            }
+        }
+        first.position(start);
+    }
+
+    private static void swapPairs(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i += 2) {
+            byte tmp = data[i];
+            data[i] = data[i + 1];
+            data[i + 1] = tmp;
+        }
+    }
+
+    private void interleaveRows(ByteBuffer uBuffer, int uRowStride, int uPixelStride,
+                                ByteBuffer vBuffer, int vRowStride, int vPixelStride,
+                                int chromaWidth, int chromaHeight, byte[] dst, int offset) {
+        int uSpan = (chromaWidth - 1) * uPixelStride + 1;
+        int vSpan = (chromaWidth - 1) * vPixelStride + 1;
+        if (uRow.length < uSpan) {
+            uRow = new byte[uSpan];
+        }
+        if (vRow.length < vSpan) {
+            vRow = new byte[vSpan];
+        }
+        byte[] us = uRow;
+        byte[] vs = vRow;
+        int uStart = uBuffer.position();
+        int vStart = vBuffer.position();
+
+        int out = offset;
+        for (int row = 0; row < chromaHeight; row++) {
+            uBuffer.position(uStart + row * uRowStride);
+            uBuffer.get(us, 0, uSpan);
+            vBuffer.position(vStart + row * vRowStride);
+            vBuffer.get(vs, 0, vSpan);
+            for (int col = 0, ui = 0, vi = 0; col < chromaWidth; col++, ui += uPixelStride, vi += vPixelStride) {
+                dst[out++] = vs[vi];
+                dst[out++] = us[ui];
+            }
+        }
+        uBuffer.position(uStart);
+        vBuffer.position(vStart);
+    }
+}
@@ -0,0 +1,25 @@
+package com.hdekker.opencv_on_android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV_420_888 image seen as three planes (Y, U, V), independent of where it came from.
+ * Lets the conversion code run against CameraX frames as well as synthetic sources on the JVM.
+ */
+public interface YuvPlanarImage {
+
+    int PLANE_Y = 0;
+    int PLANE_U = 1;
+    int PLANE_V = 2;
+
+    int getWidth();
+
+    int getHeight();
+
+    ByteBuffer getPlaneBuffer(int plane);
+
+    int getRowStride(int plane);
+
+    int getPixelStride(int plane);
+
+}
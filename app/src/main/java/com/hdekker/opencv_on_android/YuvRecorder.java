@@ -0,0 +1,194 @@
+package com.hdekker.opencv_on_android;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the frames {@link ImageAnalyzer} processes to a {@link YuvRecording}, without ever making
+ * the camera wait for storage.
+ * <p>
+ * {@link #offer} copies the planes into one of a few direct staging buffers, a native copy with no
+ * heap involved, and hands the buffer to the writer thread, which appends it to the mapped file.
+ * When storage is slow the staging buffers run out and frames are dropped and counted instead.
+ * Staging buffers grow to the largest frame seen and are then reused.
+ */
+public class YuvRecorder implements Closeable {
+
+    public static final int DEFAULT_STAGING_BUFFERS = 3;
+    static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final YuvRecording.Writer writer;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int stagingBuffers;
+    private final BlockingQueue<ByteBuffer> free;
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong recorded = new AtomicLong();
+    private volatile boolean stopped = false;
+    private volatile IOException failure;
+
+    /**
+     * Writes on a thread of its own, shut down by {@link #close()}.
+     */
+    public YuvRecorder(YuvRecording.Writer writer) {
+        this(writer, DEFAULT_STAGING_BUFFERS, null);
+    }
+
+    /**
+     * @param executor runs the writes one at a time and in order, null for a thread of its own.
+     */
+    public YuvRecorder(YuvRecording.Writer writer, int stagingBuffers, Executor executor) {
+        if (stagingBuffers <= 0) {
+            throw new IllegalArgumentException("At least one staging buffer is needed.");
+        }
+        this.writer = writer;
+        this.ownedExecutor = executor == null
+                ? Executors.newSingleThreadExecutor(r -> new Thread(r, "yuv-recorder"))
+                : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+        this.stagingBuffers = stagingBuffers;
+        this.free = new ArrayBlockingQueue<>(stagingBuffers);
+        for (int i = 0; i < stagingBuffers; i++) {
+            free.add(ByteBuffer.allocateDirect(0));
+        }
+    }
+
+    /**
+     * Stages {@code image} for recording. Safe to call from several threads, frames converted in
+     * parallel may be recorded slightly out of order, their timestamps tell the order.
+     *
+     * @return false if the frame was dropped because storage is behind, the recording is full or
+     * it has stopped.
+     */
+    public boolean offer(YuvPlanarImage image, long timestampNanos) {
+        offered.incrementAndGet();
+        ByteBuffer staging = stopped ? null : free.poll();
+        if (staging == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        try {
+            int chromaLayout = YuvRecording.chromaLayout(image);
+            int recordBytes = YuvRecording.recordBytes(image, chromaLayout);
+            if (staging.capacity() < recordBytes) {
+                staging = ByteBuffer.allocateDirect(recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            staging.clear();
+            YuvRecording.encode(image, chromaLayout, staging);
+            staging.flip();
+            ByteBuffer record = staging;
+            executor.execute(() -> write(record, timestampNanos));
+            return true;
+        } catch (RuntimeException e) {
+            free.offer(staging);
+            dropped.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public long getOfferedCount() {
+        return offered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    /**
+     * Why recording stopped early, null if it did not.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops accepting frames, waits for the staged ones to be written and closes the recording.
+     * Closing truncates the file to what was written, so if the writes do not finish within five
+     * seconds the recording is left open and whole rather than cut under a write still running.
+     * Close again once storage has caught up.
+     *
+     * @throws IOException the failure that stopped recording early, if any, or that the writes did
+     *                     not finish in time.
+     */
+    @Override
+    public void close() throws IOException {
+        close(CLOSE_TIMEOUT_NANOS);
+    }
+
+    void close(long timeoutNanos) throws IOException {
+        stopped = true;
+        boolean written;
+        try {
+            written = awaitWrites(timeoutNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            written = false;
+        }
+        if (!written) {
+            throw new IOException("Staged frames still being written after "
+                    + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms, the recording was left open.");
+        }
+        writer.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean awaitWrites(long timeoutNanos) throws InterruptedException {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            return ownedExecutor.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        // Every staging buffer back in the pool means every staged frame was written.
+        long deadline = System.nanoTime() + timeoutNanos;
+        List<ByteBuffer> returned = new ArrayList<>(stagingBuffers);
+        try {
+            while (returned.size() < stagingBuffers) {
+                ByteBuffer buffer = free.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (buffer == null) {
+                    return false;
+                }
+                returned.add(buffer);
+            }
+            return true;
+        } finally {
+            free.addAll(returned);
+        }
+    }
+
+    private void write(ByteBuffer record, long timestampNanos) {
+        try {
+            if (failure != null) {
+                dropped.incrementAndGet();
+            } else if (writer.append(record, timestampNanos)) {
+                recorded.incrementAndGet();
+            } else {
+                // Index full, nothing more will fit.
+                stopped = true;
+                dropped.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException("Recording failed.", e);
+            stopped = true;
+            dropped.incrementAndGet();
+        } finally {
+            free.offer(record);
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.hdekker.opencv_on_android;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory mapped container for recorded camera frames, written by {@link YuvRecorder} and replayed
+ * by {@link ReplayFrameSource}.
+ * <p>
+ * Frames are stored as the camera delivered them: the Y, U and V planes with their row and pixel
+ * strides and padding. U and V that share interleaved memory (NV21 or NV12) are stored once, so a
+ * replayed frame takes the same conversion path as the original. Layout, numbers little endian:
+ * <ul>
+ *     <li>A 64 byte header: magic, version, index capacity, segment size, committed frame count.</li>
+ *     <li>The index: per frame the file offset of its record and its timestamp.</li>
+ *     <li>Segments of records, each record 64 byte aligned: width, height, chroma layout, then
+ *     row stride, pixel stride and length of each plane, then the plane bytes. Records never
+ *     cross a segment, so each can be read from a single mapping.</li>
+ * </ul>
+ * The file is append only. The frame count in the header is written last, a crash loses at most
+ * the frame being written.
+ */
+public final class YuvRecording {
+
+    static final int MAGIC = 0x46565559; // "YUVF" read as little endian
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int INDEX_ENTRY_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 48;
+    static final int RECORD_ALIGNMENT = 64;
+    static final int DATA_ALIGNMENT = 4096;
+
+    static final int CHROMA_SEPARATE = 0;
+    static final int CHROMA_ALIASED_VU = 1;
+    static final int CHROMA_ALIASED_UV = 2;
+
+    private static final int OFFSET_INDEX_CAPACITY = 8;
+    private static final int OFFSET_SEGMENT_BYTES = 12;
+    private static final int OFFSET_FRAME_COUNT = 16;
+
+    public static final int DEFAULT_INDEX_CAPACITY = 36_000;
+    public static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+    private YuvRecording() {
+    }
+
+    static long dataStart(int indexCapacity) {
+        long end = HEADER_BYTES + (long) indexCapacity * INDEX_ENTRY_BYTES;
+        return (end + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+    }
+
+    /**
+     * How U and V of {@code image} share memory, one of the {@code CHROMA_*} values.
+     */
+    static int chromaLayout(YuvPlanarImage image) {
+        int alias = YuvInterleaver.chromaAlias(image);
+        return alias == YuvInterleaver.ALIAS_NV21 ? CHROMA_ALIASED_VU
+                : alias == YuvInterleaver.ALIAS_NV12 ? CHROMA_ALIASED_UV : CHROMA_SEPARATE;
+    }
+
+    /**
+     * Bytes the planes of {@code image} take in a record laid out as {@code chromaLayout}.
+     */
+    static int planeBytes(YuvPlanarImage image, int chromaLayout) {
+        int y = image.getPlaneBuffer(YuvPlanarImage.PLANE_Y).remaining();
+        int u = image.getPlaneBuffer(YuvPlanarImage.PLANE_U).remaining();
+        int v = image.getPlaneBuffer(YuvPlanarImage.PLANE_V).remaining();
+        return chromaLayout == CHROMA_SEPARATE ? y + u + v : y + Math.max(u, v) + 1;
+    }
+
+    /**
+     * Copies the planes of {@code image} to {@code dst} from its position on, storing aliased
+     * chroma once. Only direct or array backed buffer copies, no intermediate heap copy.
+     */
+    static void copyPlanes(YuvPlanarImage image, int chromaLayout, ByteBuffer dst) {
+        dst.put(image.getPlaneBuffer(YuvPlanarImage.PLANE_Y).duplicate());
+        ByteBuffer u = image.getPlaneBuffer(YuvPlanarImage.PLANE_U).duplicate();
+        ByteBuffer v = image.getPlaneBuffer(YuvPlanarImage.PLANE_V).duplicate();
+        if (chromaLayout == CHROMA_SEPARATE) {
+            dst.put(u);
+            dst.put(v);
+            return;
+        }
+        ByteBuffer first = chromaLayout == CHROMA_ALIASED_VU ? v : u;
+        ByteBuffer second = chromaLayout == CHROMA_ALIASED_VU ? u : v;
+        // The second plane starts a byte later, only its bytes past the end of the first are new.
+        int firstLength = first.remaining();
+        int blockLength = Math.max(u.remaining(), v.remaining()) + 1;
+        int start = dst.position();
+        dst.put(first);
+        if (second.remaining() >= firstLength) {
+            second.position(second.position() + firstLength - 1);
+            dst.put(second);
+        }
+        dst.position(start + blockLength);
+    }
+
+    /**
+     * Size of the record {@link #encode} writes for {@code image}.
+     */
+    static int recordBytes(YuvPlanarImage image, int chromaLayout) {
+        return RECORD_HEADER_BYTES + planeBytes(image, chromaLayout);
+    }
+
+    /**
+     * Writes the record of {@code image} to {@code dst} from its position on, which must have
+     * {@link #recordBytes} left. Leaves the position after the record.
+     */
+    static void encode(YuvPlanarImage image, int chromaLayout, ByteBuffer dst) {
+        int start = dst.position();
+        dst.putInt(start, image.getWidth());
+        dst.putInt(start + 4, image.getHeight());
+        dst.putInt(start + 8, chromaLayout);
+        for (int plane = 0; plane < 3; plane++) {
+            int at = start + 12 + plane * 12;
+            dst.putInt(at, image.getRowStride(plane));
+            dst.putInt(at + 4, image.getPixelStride(plane));
+            dst.putInt(at + 8, image.getPlaneBuffer(plane).remaining());
+        }
+        dst.position(start + RECORD_HEADER_BYTES);
+        copyPlanes(image, chromaLayout, dst);
+    }
+
+    /**
+     * Plane views into a record, reused from frame to frame.
+     */
+    static final class RecordImage implements YuvPlanarImage {
+        private int width;
+        private int height;
+        private final int[] rowStrides = new int[3];
+        private final int[] pixelStrides = new int[3];
+        private final ByteBuffer[] buffers = new ByteBuffer[3];
+        private final int[] lengths = new int[3];
+
+        /**
+         * Points the views at the record starting at {@code offset} in {@code segment}.
+         */
+        void point(ByteBuffer segment, int offset) {
+            width = segment.getInt(offset);
+            height = segment.getInt(offset + 4);
+            int chromaLayout = segment.getInt(offset + 8);
+            for (int plane = 0; plane < 3; plane++) {
+                int at = offset + 12 + plane * 12;
+                rowStrides[plane] = segment.getInt(at);
+                pixelStrides[plane] = segment.getInt(at + 4);
+                lengths[plane] = segment.getInt(at + 8);
+            }
+            int data = offset + RECORD_HEADER_BYTES;
+            buffers[PLANE_Y] = slice(segment, data, lengths[PLANE_Y]);
+            data += lengths[PLANE_Y];
+            if (chromaLayout == CHROMA_SEPARATE) {
+                buffers[PLANE_U] = slice(segment, data, lengths[PLANE_U]);
+                buffers[PLANE_V] = slice(segment, data + lengths[PLANE_U], lengths[PLANE_V]);
+            } else {
+                int uStart = chromaLayout == CHROMA_ALIASED_VU ? 1 : 0;
+                buffers[PLANE_U] = slice(segment, data + uStart, lengths[PLANE_U]);
+                buffers[PLANE_V] = slice(segment, data + 1 - uStart, lengths[PLANE_V]);
+            }
+        }
+
+        private static ByteBuffer slice(ByteBuffer segment, int start, int length) {
+            ByteBuffer view = segment.duplicate();
+            view.position(start);
+            view.limit(start + length);
+            return view.slice();
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public ByteBuffer getPlaneBuffer(int plane) {
+            return buffers[plane];
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return rowStrides[plane];
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return pixelStrides[plane];
+        }
+    }
+
+    /**
+     * Appends frames to a new recording through memory mapped segments. Not thread safe, see
+     * {@link YuvRecorder} for recording from the camera without stalling it.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final int indexCapacity;
+        private final int segmentBytes;
+        private final long dataStart;
+        private final MappedByteBuffer header;
+        private MappedByteBuffer segment;
+        private int segmentIndex = -1;
+        private int frameCount = 0;
+        private boolean closed = false;
+
+        public Writer(File file) throws IOException {
+            this(file, DEFAULT_INDEX_CAPACITY, DEFAULT_SEGMENT_BYTES);
+        }
+
+        /**
+         * Creates or truncates {@code file}.
+         *
+         * @param indexCapacity frames the recording can hold.
+         * @param segmentBytes  size of each mapping, at least the size of the largest frame.
+         */
+        public Writer(File file, int indexCapacity, int segmentBytes) throws IOException {
+            if (indexCapacity <= 0 || segmentBytes < DATA_ALIGNMENT || segmentBytes % RECORD_ALIGNMENT != 0) {
+                throw new IllegalArgumentException("Index capacity must be positive, segments at least "
+                        + DATA_ALIGNMENT + " bytes and a multiple of " + RECORD_ALIGNMENT);
+            }
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.indexCapacity = indexCapacity;
+            this.segmentBytes = segmentBytes;
+            this.dataStart = dataStart(indexCapacity);
+            try {
+                header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataStart);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(OFFSET_INDEX_CAPACITY, indexCapacity);
+            header.putInt(OFFSET_SEGMENT_BYTES, segmentBytes);
+            header.putLong(OFFSET_FRAME_COUNT, 0);
+        }
+
+        /**
+         * Appends {@code image}.
+         *
+         * @return false if the index is full and the frame was not written.
+         * @throws IllegalArgumentException if the frame does not fit in a segment.
+         */
+        public boolean write(YuvPlanarImage image, long timestampNanos) throws IOException {
+            int chromaLayout = chromaLayout(image);
+            int start = reserve(recordBytes(image, chromaLayout));
+            if (start < 0) {
+                return false;
+            }
+            encode(image, chromaLayout, segment);
+            commit(start, timestampNanos);
+            return true;
+        }
+
+        /**
+         * Appends a record {@link #encode} wrote to {@code record}, from its position to its limit.
+         *
+         * @return false if the index is full and the frame was not written.
+         */
+        boolean append(ByteBuffer record, long timestampNanos) throws IOException {
+            int start = reserve(record.remaining());
+            if (start < 0) {
+                return false;
+            }
+            segment.put(record);
+            commit(start, timestampNanos);
+            return true;
+        }
+
+        /**
+         * Makes room for a record in the current or a new segment.
+         *
+         * @return where the record starts in {@link #segment}, -1 if the index is full.
+         */
+        private int reserve(int recordBytes) throws IOException {
+            if (closed) {
+                throw new IOException("Recording closed.");
+            }
+            if (frameCount >= indexCapacity) {
+                return -1;
+            }
+            if (recordBytes > segmentBytes) {
+                throw new IllegalArgumentException("Frame of " + recordBytes + " bytes does not fit segments of "
+                        + segmentBytes);
+            }
+            if (segment == null || segment.remaining() < recordBytes) {
+                nextSegment();
+            }
+            return segment.position();
+        }
+
+        private void commit(int start, long timestampNanos) {
+            segment.position(Math.min(align(segment.position()), segmentBytes));
+            int entry = HEADER_BYTES + frameCount * INDEX_ENTRY_BYTES;
+            header.putLong(entry, dataStart + (long) segmentIndex * segmentBytes + start);
+            header.putLong(entry + 8, timestampNanos);
+            // Written last, readers only trust frames the count covers.
+            header.putLong(OFFSET_FRAME_COUNT, ++frameCount);
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public int getIndexCapacity() {
+            return indexCapacity;
+        }
+
+        /**
+         * Flushes the mapped data to storage and cuts the file after the last frame.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (segment != null) {
+                    segment.force();
+                }
+                header.force();
+                long end = segment == null ? dataStart : dataStart + (long) segmentIndex * segmentBytes + segment.position();
+                channel.truncate(end);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void nextSegment() throws IOException {
+            if (segment != null) {
+                segment.force();
+            }
+            segmentIndex++;
+            segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                    dataStart + (long) segmentIndex * segmentBytes, segmentBytes);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private static int align(int position) {
+            return (position + RECORD_ALIGNMENT - 1) / RECORD_ALIGNMENT * RECORD_ALIGNMENT;
+        }
+    }
+
+    /**
+     * Random access to the frames of a recording. Frames are views into the mapped file, valid
+     * until the next call to {@link #read(int)} and while the reader is open.
+     * <p>
+     * The file is mapped read-only, the conversion tells aliased chroma apart by reading it.
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer index;
+        private final int frameCount;
+        private final int segmentBytes;
+        private final long dataStart;
+        private final long fileSize;
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private final RecordImage image = new RecordImage();
+
+        public Reader(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                fileSize = channel.size();
+                if (fileSize < HEADER_BYTES) {
+                    throw new IOException("Not a YUV recording: " + file);
+                }
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not a YUV recording: " + file);
+                }
+                int indexCapacity = header.getInt(OFFSET_INDEX_CAPACITY);
+                segmentBytes = header.getInt(OFFSET_SEGMENT_BYTES);
+                long committed = header.getLong(OFFSET_FRAME_COUNT);
+                dataStart = dataStart(indexCapacity);
+                if (indexCapacity <= 0 || segmentBytes <= 0 || committed < 0 || committed > indexCapacity
+                        || dataStart > fileSize) {
+                    throw new IOException("Corrupt YUV recording header: " + file);
+                }
+                frameCount = (int) committed;
+                index = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, (long) frameCount * INDEX_ENTRY_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public long getTimestampNanos(int frame) {
+            checkFrame(frame);
+            return index.getLong(frame * INDEX_ENTRY_BYTES + 8);
+        }
+
+        /**
+         * The planes of {@code frame}, without copying.
+         */
+        public YuvPlanarImage read(int frame) throws IOException {
+            checkFrame(frame);
+            long offset = index.getLong(frame * INDEX_ENTRY_BYTES) - dataStart;
+            int segmentIndex = (int) (offset / segmentBytes);
+            image.point(segment(segmentIndex), (int) (offset % segmentBytes));
+            return image;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void checkFrame(int frame) {
+            if (frame < 0 || frame >= frameCount) {
+                throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+            }
+        }
+
+        private ByteBuffer segment(int segmentIndex) throws IOException {
+            while (segments.size() <= segmentIndex) {
+                segments.add(null);
+            }
+            ByteBuffer segment = segments.get(segmentIndex);
+            if (segment == null) {
+                long start = dataStart + (long) segmentIndex * segmentBytes;
+                // The last segment was cut short when the writer closed.
+                long length = Math.min(segmentBytes, fileSize - start);
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(ByteOrder.LITTLE_ENDIAN);
+                segments.set(segmentIndex, segment);
+            }
+            return segment;
+        }
+    }
+}
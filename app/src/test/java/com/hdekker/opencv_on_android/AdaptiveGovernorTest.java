@@ -0,0 +1,174 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.publisher.Flux;
+
+public class AdaptiveGovernorTest {
+
+    private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final List<CameraMode> SUPPORTED = Arrays.asList(
+            new CameraMode(1920, 1080, 30, 30),
+            new CameraMode(1280, 720, 30, 30),
+            new CameraMode(1280, 720, 15, 15),
+            new CameraMode(640, 480, 30, 30),
+            new CameraMode(640, 480, 15, 15),
+            new CameraMode(320, 240, 30, 30),
+            new CameraMode(320, 240, 30, 30),
+            new CameraMode(3840, 2160, 30, 30));
+
+    private static final List<CameraMode> LADDER = AdaptiveGovernor.ladder(SUPPORTED, 1920 * 1080);
+
+    /**
+     * A camera delivering the mode's frame rate into a single threaded algorithm whose cost grows
+     * with the pixel count. When the algorithm is slower than the camera, frames queue up and latency
+     * grows with the backlog until the pipeline drops.
+     */
+    private static final class SimulatedCamera {
+        double nanosPerPixel;
+        double backlogFrames = 0;
+
+        SimulatedCamera(double nanosPerPixel) {
+            this.nanosPerPixel = nanosPerPixel;
+        }
+
+        /**
+         * Runs a second in {@code mode} and lets the governor evaluate at its end.
+         */
+        CameraMode runSecond(AdaptiveGovernor governor, long nowNanos) {
+            CameraMode mode = governor.getCurrentMode();
+            double processingNanos = mode.getPixels() * nanosPerPixel;
+            double capacityFps = SECOND / processingNanos;
+            double inputFps = mode.getMaxFps();
+            double outputFps = Math.min(inputFps, capacityFps);
+            backlogFrames = Math.min(8, Math.max(0, backlogFrames + inputFps - capacityFps));
+            long latency = (long) (processingNanos * (1 + backlogFrames));
+            CameraMode next = governor.evaluate(nowNanos, inputFps, outputFps, latency);
+            if (!next.equals(mode)) {
+                backlogFrames = 0;
+            }
+            return next;
+        }
+    }
+
+    private static List<CameraMode> run(AdaptiveGovernor governor, SimulatedCamera camera, int seconds, long startNanos) {
+        List<CameraMode> modes = new ArrayList<>();
+        for (int s = 1; s <= seconds; s++) {
+            modes.add(camera.runSecond(governor, startNanos + s * SECOND));
+        }
+        return modes;
+    }
+
+    @Test
+    public void givenSupportedModes_whenBuildingLadder_thenCheapestFirstWithoutDuplicatesOrOversized() {
+        Assert.assertEquals(6, LADDER.size());
+        Assert.assertEquals(new CameraMode(320, 240, 30, 30), LADDER.get(0));
+        Assert.assertEquals(new CameraMode(1920, 1080, 30, 30), LADDER.get(LADDER.size() - 1));
+        for (int i = 1; i < LADDER.size(); i++) {
+            Assert.assertTrue(LADDER.get(i - 1).getPixelRate() <= LADDER.get(i).getPixelRate());
+        }
+        Assert.assertEquals(new CameraMode(1280, 720, 30, 30),
+                LADDER.get(AdaptiveGovernor.indexAtOrBelow(LADDER, CameraMode.DEFAULT)));
+    }
+
+    @Test
+    public void givenExpensiveAlgorithm_whenStartingAtTop_thenStepsDownUntilWithinBudget() {
+        List<CameraMode[]> changes = new ArrayList<>();
+        AdaptiveGovernor governor = new AdaptiveGovernor(LADDER, LADDER.size() - 1, BUDGET_NANOS,
+                (previous, next) -> changes.add(new CameraMode[]{previous, next}));
+        // 40 ns per pixel: 1280x720 takes 37 ms, 640x480 12 ms.
+        SimulatedCamera camera = new SimulatedCamera(40);
+
+        List<CameraMode> modes = run(governor, camera, 60, 0);
+
+        Assert.assertFalse(changes.isEmpty());
+        Assert.assertEquals(LADDER.get(LADDER.size() - 1), changes.get(0)[0]);
+        Assert.assertEquals(changes.size(), governor.getChangeCount());
+        // Occasional step up attempts aside, it stays in modes the algorithm can keep up with.
+        int sustainable = 0;
+        for (CameraMode mode : modes.subList(30, 60)) {
+            if (mode.getPixels() * 40 * mode.getMaxFps() < SECOND && mode.getPixels() * 40 < BUDGET_NANOS) {
+                sustainable++;
+            }
+        }
+        Assert.assertTrue("Sustainable for " + sustainable + " of 30 seconds", sustainable >= 24);
+    }
+
+    @Test
+    public void givenCheapAlgorithm_whenStartingAtBottom_thenStepsUpToTheTop() {
+        AdaptiveGovernor governor = new AdaptiveGovernor(LADDER, 0, BUDGET_NANOS, null);
+        SimulatedCamera camera = new SimulatedCamera(2);
+
+        run(governor, camera, 60, 0);
+
+        Assert.assertEquals(LADDER.size() - 1, governor.getCurrentIndex());
+    }
+
+    @Test
+    public void givenBudgetBetweenTwoModes_thenDoesNotOscillate() {
+        AdaptiveGovernor governor = new AdaptiveGovernor(LADDER, 0, BUDGET_NANOS, 1.0,
+                AdaptiveGovernor.DEFAULT_HOLD_EVALUATIONS, AdaptiveGovernor.DEFAULT_COOLDOWN_NANOS, null);
+        // With no step up headroom the prediction alone lets it try the mode that cannot keep up.
+        SimulatedCamera camera = new SimulatedCamera(40);
+
+        run(governor, camera, 600, 0);
+
+        // Each failed attempt doubles the backoff, so ten minutes allow only a handful of tries,
+        // where retrying after every cooldown would change mode over a hundred times.
+        Assert.assertTrue("Changed mode " + governor.getChangeCount() + " times", governor.getChangeCount() < 20);
+    }
+
+    @Test
+    public void givenLoadDropsLater_thenStepsBackUp() {
+        AdaptiveGovernor governor = new AdaptiveGovernor(LADDER, LADDER.size() - 1, BUDGET_NANOS, null);
+        SimulatedCamera camera = new SimulatedCamera(40);
+        run(governor, camera, 60, 0);
+        int loaded = governor.getCurrentIndex();
+
+        camera.nanosPerPixel = 2;
+        run(governor, camera, 60, 60 * SECOND);
+
+        Assert.assertTrue(loaded < LADDER.size() - 1);
+        Assert.assertEquals(LADDER.size() - 1, governor.getCurrentIndex());
+    }
+
+    @Test
+    public void givenMonitoredFramesOverBudget_whenEvaluated_thenStepsDownAndStartsAFreshWindow() {
+        AdaptiveGovernor governor = new AdaptiveGovernor(LADDER, LADDER.size() - 1, BUDGET_NANOS, 1.0, 1, 0, null);
+        WindowedFPSCalculator inputFps = new WindowedFPSCalculator(1000.0f);
+        FramePool pool = new FramePool();
+        List<Frame> frames = new ArrayList<>();
+        long start = System.nanoTime() - 2 * BUDGET_NANOS;
+        for (int i = 0; i < 10; i++) {
+            Frame frame = pool.acquire(i);
+            frame.stampAt(PipelineStage.RECEIVED, start);
+            inputFps.recordFrameTimestamp(start + i * SECOND / 30);
+            frames.add(frame);
+        }
+        Flux.fromIterable(frames).transform(governor.monitor()).subscribe(Frame::release);
+
+        governor.evaluate(System.nanoTime(), inputFps);
+        Assert.assertEquals(LADDER.size() - 2, governor.getCurrentIndex());
+
+        // Nothing delivered since, the slow frames belong to the previous window.
+        governor.evaluate(System.nanoTime(), inputFps);
+        Assert.assertEquals(LADDER.size() - 1, governor.getCurrentIndex());
+    }
+
+    @Test
+    public void givenCameraNotDelivering_thenKeepsMode() {
+        AdaptiveGovernor governor = new AdaptiveGovernor(LADDER, 3, BUDGET_NANOS, null);
+        for (int s = 1; s <= 20; s++) {
+            governor.evaluate(s * SECOND, 0.0, 0.0, 0);
+        }
+        Assert.assertEquals(3, governor.getCurrentIndex());
+    }
+}
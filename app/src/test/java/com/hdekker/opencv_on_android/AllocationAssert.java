@@ -0,0 +1,51 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that code allocates nothing on the Java heap once warm, using the per-thread allocation
+ * counter of the JVM.
+ */
+public final class AllocationAssert {
+
+    private static final int WARM_UP_ITERATIONS = 20_000;
+    private static final int ROUNDS = 5;
+    private static final int ROUND_ITERATIONS = 1_000;
+
+    private AllocationAssert() {
+    }
+
+    public static void assertSteadyStateAllocationFree(Runnable iteration) {
+        assertSteadyStateAllocationFree("Bytes allocated in steady state", iteration);
+    }
+
+    /**
+     * Runs {@code iteration} enough times for the JIT to settle, then in a few rounds on this
+     * thread, and fails if every round allocated. A real per-iteration allocation shows up in
+     * every round, one-off JVM noise does not.
+     */
+    public static void assertSteadyStateAllocationFree(String message, Runnable iteration) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assert.assertTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            iteration.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long minAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ROUND_ITERATIONS; i++) {
+                iteration.run();
+            }
+            minAllocated = Math.min(minAllocated, threadBean.getThreadAllocatedBytes(threadId) - before);
+        }
+
+        Assert.assertEquals(message, 0, minAllocated);
+    }
+}
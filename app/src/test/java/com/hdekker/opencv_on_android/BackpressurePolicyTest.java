@@ -0,0 +1,107 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+public class BackpressurePolicyTest {
+
+    private static final int FRAME_COUNT = 40;
+    private static final long SLOW_STAGE_MILLIS = 10;
+
+    private final FramePool pool = new FramePool();
+    private final FrameDropStats stats = new FrameDropStats();
+
+    private CompletableFuture<List<Long>> subscribeSlowStage(Sinks.Many<Frame> sink, BackpressurePolicy policy,
+                                                             int capacity, Scheduler scheduler) {
+        return FrameOperators.receive(sink)
+                .transform(FrameOperators.onBackpressure(policy, capacity, stats, scheduler))
+                .transform(FrameOperators.mapAndRelease(frame -> {
+                    sleep(SLOW_STAGE_MILLIS);
+                    return frame.getSequence();
+                }))
+                .transform(FrameOperators.releaseDiscarded())
+                .collectList()
+                .toFuture();
+    }
+
+    private void emitAll(Sinks.Many<Frame> sink, boolean blocking) {
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            Frame frame = pool.acquire(i);
+            if (blocking) {
+                FrameOperators.emitBlocking(sink, frame, TimeUnit.SECONDS.toNanos(5));
+            } else {
+                FrameOperators.emit(sink, frame);
+            }
+            frame.release();
+        }
+        sink.tryEmitComplete();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void givenLatestPolicy_whenStageIsSlow_thenDropsStaleFramesAndKeepsNewest() throws Exception {
+        Scheduler scheduler = Schedulers.newSingle("latest");
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+        CompletableFuture<List<Long>> processed = subscribeSlowStage(sink, BackpressurePolicy.LATEST, 1, scheduler);
+
+        emitAll(sink, false);
+        List<Long> sequences = processed.get(5, TimeUnit.SECONDS);
+        scheduler.dispose();
+
+        Assert.assertTrue("Some frames dropped", stats.getDroppedCount() > 0);
+        Assert.assertEquals(FRAME_COUNT, sequences.size() + stats.getDroppedCount());
+        Assert.assertEquals(FRAME_COUNT - 1, (long) sequences.get(sequences.size() - 1));
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenDropOldestPolicy_whenStageIsSlow_thenDropsOldestFrames() throws Exception {
+        Scheduler scheduler = Schedulers.newSingle("drop-oldest");
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+        CompletableFuture<List<Long>> processed = subscribeSlowStage(sink, BackpressurePolicy.DROP_OLDEST, 4, scheduler);
+
+        emitAll(sink, false);
+        List<Long> sequences = processed.get(5, TimeUnit.SECONDS);
+        scheduler.dispose();
+
+        Assert.assertTrue("Some frames dropped", stats.getDroppedCount() > 0);
+        Assert.assertEquals(FRAME_COUNT, sequences.size() + stats.getDroppedCount());
+        // The last frames emitted are the ones still queued when the stream completes.
+        Assert.assertEquals(FRAME_COUNT - 1, (long) sequences.get(sequences.size() - 1));
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenBlockPolicy_whenStageIsSlow_thenEveryFrameIsProcessedInOrder() throws Exception {
+        Scheduler scheduler = Schedulers.newSingle("block");
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+        CompletableFuture<List<Long>> processed = subscribeSlowStage(sink, BackpressurePolicy.BLOCK, 2, scheduler);
+
+        emitAll(sink, true);
+        List<Long> sequences = processed.get(5, TimeUnit.SECONDS);
+        scheduler.dispose();
+
+        Assert.assertEquals(FRAME_COUNT, sequences.size());
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            Assert.assertEquals(i, (long) sequences.get(i));
+        }
+        Assert.assertEquals(0, stats.getDroppedCount());
+        Assert.assertEquals(0.0, stats.getDropRate(), 0.0);
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+}
@@ -0,0 +1,102 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+public class CameraCapabilitiesTest {
+
+    private static final int JPEG = 0x100;
+    private static final long FPS_30 = 33_333_333L;
+    private static final long FPS_60 = 16_666_666L;
+    private static final long FPS_15 = 66_666_666L;
+
+    static CameraCapabilities sampleCapabilities() {
+        CameraCapabilities.Camera back = new CameraCapabilities.Camera("0", CameraCapabilities.LENS_FACING_BACK, 1,
+                Arrays.asList(
+                        yuv(4000, 3000, FPS_15),
+                        yuv(1920, 1080, FPS_30),
+                        yuv(1280, 720, FPS_60),
+                        yuv(640, 480, FPS_60),
+                        new CameraCapabilities.StreamSize(JPEG, 4000, 3000, FPS_15)),
+                Arrays.asList(
+                        new CameraCapabilities.FpsRange(15, 15),
+                        new CameraCapabilities.FpsRange(7, 30),
+                        new CameraCapabilities.FpsRange(30, 30),
+                        new CameraCapabilities.FpsRange(60, 60)));
+        CameraCapabilities.Camera front = new CameraCapabilities.Camera("1", CameraCapabilities.LENS_FACING_FRONT, 0,
+                Arrays.asList(yuv(1280, 720, FPS_30)),
+                Arrays.asList(new CameraCapabilities.FpsRange(7, 30)));
+        return new CameraCapabilities(Arrays.asList(back, front));
+    }
+
+    private static CameraCapabilities.StreamSize yuv(int width, int height, long minFrameDuration) {
+        return new CameraCapabilities.StreamSize(CameraCapabilities.FORMAT_YUV_420_888, width, height, minFrameDuration);
+    }
+
+    @Test
+    public void givenTargetBetweenSizes_whenResolving_thenSmallestCoveringSizeAtFixedRate() {
+        CameraCapabilities.Camera back = sampleCapabilities().getCamera(CameraCapabilities.LENS_FACING_BACK);
+
+        Assert.assertEquals(new CameraMode(1280, 720, 30, 30), back.resolve(1280, 720, 30));
+        Assert.assertEquals(new CameraMode(1920, 1080, 30, 30), back.resolve(1600, 900, 30));
+        Assert.assertEquals(new CameraMode(640, 480, 60, 60), back.resolve(600, 450, 60));
+    }
+
+    @Test
+    public void givenRateOnlySmallerSizesReach_whenResolving_thenPrefersReachingTheRate() {
+        CameraCapabilities.Camera back = sampleCapabilities().getCamera(CameraCapabilities.LENS_FACING_BACK);
+
+        // 1920x1080 tops out at 30 fps, so 60 fps means the largest 16:9 size that gets there.
+        Assert.assertEquals(new CameraMode(1280, 720, 60, 60), back.resolve(1920, 1080, 60));
+    }
+
+    @Test
+    public void givenNoFixedRange_whenResolving_thenNarrowestRangeContainingTarget() {
+        CameraCapabilities.Camera front = sampleCapabilities().getCamera(CameraCapabilities.LENS_FACING_FRONT);
+
+        Assert.assertEquals(new CameraMode(1280, 720, 7, 30), front.resolve(1280, 720, 30));
+        Assert.assertEquals(new CameraMode(1280, 720, 7, 30), front.resolve(1280, 720, 24));
+    }
+
+    @Test
+    public void givenYuvSizes_thenAnalysisModesPairSizesWithSustainableFixedRanges() {
+        List<CameraMode> modes = sampleCapabilities().getCamera(CameraCapabilities.LENS_FACING_BACK).getAnalysisModes();
+
+        Assert.assertTrue(modes.contains(new CameraMode(4000, 3000, 15, 15)));
+        Assert.assertFalse(modes.contains(new CameraMode(4000, 3000, 30, 30)));
+        Assert.assertTrue(modes.contains(new CameraMode(1920, 1080, 30, 30)));
+        Assert.assertTrue(modes.contains(new CameraMode(640, 480, 60, 60)));
+        Assert.assertEquals(1 + 2 + 3 + 3, modes.size());
+    }
+
+    @Test
+    public void givenCapabilities_whenWrittenAndRead_thenSameModel() throws IOException {
+        CameraCapabilities original = sampleCapabilities();
+        StringWriter text = new StringWriter();
+        original.write(text);
+
+        CameraCapabilities copy = CameraCapabilities.read(new StringReader(text.toString()));
+
+        Assert.assertEquals(2, copy.getCameras().size());
+        CameraCapabilities.Camera back = copy.getCamera(CameraCapabilities.LENS_FACING_BACK);
+        Assert.assertEquals("0", back.getId());
+        Assert.assertEquals(1, back.getHardwareLevel());
+        Assert.assertEquals(5, back.getSizes().size());
+        Assert.assertEquals(1, back.getSizes(JPEG).size());
+        Assert.assertEquals(60, back.getSizes(CameraCapabilities.FORMAT_YUV_420_888).get(2).getMaxFps());
+        Assert.assertEquals(4, back.getFpsRanges().size());
+        Assert.assertEquals(original.getCamera(CameraCapabilities.LENS_FACING_BACK).getAnalysisModes(),
+                back.getAnalysisModes());
+    }
+
+    @Test(expected = IOException.class)
+    public void givenMalformedText_whenRead_thenIOException() throws IOException {
+        CameraCapabilities.read(new StringReader(CameraCapabilities.HEADER + "\ncamera 1 1 0\nsize 35 x 480 1\n"));
+    }
+}
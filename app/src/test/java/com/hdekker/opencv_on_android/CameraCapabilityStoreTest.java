@@ -0,0 +1,94 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CameraCapabilityStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger enumerations = new AtomicInteger();
+
+    private CameraCapabilities enumerate() {
+        enumerations.incrementAndGet();
+        return CameraCapabilitiesTest.sampleCapabilities();
+    }
+
+    @Test
+    public void givenNothingStored_thenEnumeratesOnceAndLaterStartsReadTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "capabilities.txt");
+        CameraCapabilityStore store = new CameraCapabilityStore(file, "device/build:1");
+
+        CameraCapabilities first = store.get(this::enumerate);
+        CameraCapabilities again = store.get(this::enumerate);
+        Assert.assertSame(first, again);
+        Assert.assertTrue(file.isFile());
+
+        // A new process.
+        CameraCapabilities restored = new CameraCapabilityStore(file, "device/build:1").get(this::enumerate);
+
+        Assert.assertEquals(1, enumerations.get());
+        Assert.assertEquals(first.getCamera(CameraCapabilities.LENS_FACING_BACK).getAnalysisModes(),
+                restored.getCamera(CameraCapabilities.LENS_FACING_BACK).getAnalysisModes());
+    }
+
+    @Test
+    public void givenFileFromAnotherFingerprint_thenEnumeratesAgain() {
+        File file = new File(folder.getRoot(), "capabilities.txt");
+        new CameraCapabilityStore(file, "device/build:1").get(this::enumerate);
+
+        new CameraCapabilityStore(file, "device/build:2").get(this::enumerate);
+
+        Assert.assertEquals(2, enumerations.get());
+        Assert.assertNotNull(new CameraCapabilityStore(file, "device/build:2").load());
+        Assert.assertNull(new CameraCapabilityStore(file, "device/build:1").load());
+    }
+
+    @Test
+    public void givenCorruptFile_thenTreatedAsMiss() throws IOException {
+        File file = new File(folder.getRoot(), "capabilities.txt");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("fingerprint device/build:1\ncamera-capabilities 1\nsize oops\n".getBytes(StandardCharsets.UTF_8));
+        }
+        CameraCapabilityStore store = new CameraCapabilityStore(file, "device/build:1");
+
+        Assert.assertNull(store.load());
+        Assert.assertNotNull(store.get(this::enumerate));
+        Assert.assertEquals(1, enumerations.get());
+        Assert.assertNotNull(store.load());
+    }
+
+    @Test
+    public void givenTruncatedLastCamera_thenTreatedAsMissAndDeleted() throws IOException {
+        File file = new File(folder.getRoot(), "capabilities.txt");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("fingerprint device/build:1\ncamera-capabilities 1\ncamera x 2\n".getBytes(StandardCharsets.UTF_8));
+        }
+        CameraCapabilityStore store = new CameraCapabilityStore(file, "device/build:1");
+
+        Assert.assertNull(store.load());
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void givenIncompleteEnumeration_thenUsedButNotStored() {
+        File file = new File(folder.getRoot(), "capabilities.txt");
+        CameraCapabilityStore store = new CameraCapabilityStore(file, "device/build:1");
+
+        CameraCapabilities partial = store.get(() -> new CameraCapabilities(
+                CameraCapabilitiesTest.sampleCapabilities().getCameras().subList(0, 1), false));
+
+        Assert.assertEquals(1, partial.getCameras().size());
+        Assert.assertFalse(file.exists());
+        Assert.assertNull(new CameraCapabilityStore(file, "device/build:1").load());
+    }
+}
@@ -0,0 +1,145 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+
+public class ConversionBufferPoolTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void givenReleasedBuffers_whenAcquireSameResolution_thenReusesBuffers() {
+        ConversionBufferPool pool = new ConversionBufferPool();
+        ConversionBufferPool.Buffers first = pool.acquire(WIDTH, HEIGHT);
+        byte[] nv21 = first.nv21();
+        first.release();
+
+        ConversionBufferPool.Buffers second = pool.acquire(WIDTH, HEIGHT);
+        Assert.assertSame(first, second);
+        Assert.assertSame(nv21, second.nv21());
+        Assert.assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void givenDifferentResolutions_whenAcquire_thenBuffersAreSizedPerResolution() {
+        ConversionBufferPool pool = new ConversionBufferPool();
+        ConversionBufferPool.Buffers small = pool.acquire(WIDTH, HEIGHT);
+        ConversionBufferPool.Buffers large = pool.acquire(WIDTH * 2, HEIGHT * 2);
+
+        Assert.assertEquals(WIDTH * HEIGHT * 3 / 2, small.nv21().length);
+        Assert.assertEquals(WIDTH * HEIGHT * 6, large.nv21().length);
+        Assert.assertEquals(2, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void givenMoreReturnsThanLimit_whenRelease_thenExtraBuffersAreDropped() {
+        ConversionBufferPool pool = new ConversionBufferPool(1);
+        ConversionBufferPool.Buffers first = pool.acquire(WIDTH, HEIGHT);
+        ConversionBufferPool.Buffers second = pool.acquire(WIDTH, HEIGHT);
+        first.release();
+        second.release();
+        Assert.assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void givenPreallocatedPool_whenAcquiring_thenStagingBuffersAreAlreadyAllocated() {
+        OpenCvTestSupport.assumeOpenCv();
+        ConversionBufferPool pool = new ConversionBufferPool(2);
+
+        pool.preallocate(3, WIDTH, HEIGHT);
+
+        Assert.assertEquals(2, pool.getAllocatedCount());
+        ConversionBufferPool.Buffers first = pool.acquire(WIDTH, HEIGHT);
+        ConversionBufferPool.Buffers second = pool.acquire(WIDTH, HEIGHT);
+        Assert.assertEquals(2, pool.getAllocatedCount());
+        Assert.assertEquals(HEIGHT * 3 / 2, first.yuvMat().rows());
+        Assert.assertEquals(WIDTH * HEIGHT * 3 / 2, second.nv21().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenReleasedBuffers_whenReleasedAgain_thenThrowsException() {
+        ConversionBufferPool pool = new ConversionBufferPool();
+        ConversionBufferPool.Buffers buffers = pool.acquire(WIDTH, HEIGHT);
+        buffers.release();
+        buffers.release();
+    }
+
+    @Test
+    public void givenRegionChangingSizeEveryFrame_whenBuffersAcquired_thenPoolStaysBounded() {
+        ConversionBufferPool pool = new ConversionBufferPool();
+        RegionOfInterest roi = new RegionOfInterest();
+        java.util.Set<org.opencv.core.Size> sizes = new java.util.HashSet<>();
+        // A tracked object growing and shrinking by a pixel or two per frame.
+        for (int i = 0; i < 500; i++) {
+            roi.set(new org.opencv.core.Rect(i % 200, i % 150, 40 + i % 300, 30 + i % 200));
+            org.opencv.core.Rect crop = roi.applyTo(FrameTransform.IDENTITY).cropRect(640, 480);
+            sizes.add(crop.size());
+            pool.acquire(crop.width, crop.height).release();
+            Assert.assertTrue(pool.getResolutionCount() <= ConversionBufferPool.DEFAULT_MAX_RESOLUTIONS);
+        }
+
+        Assert.assertTrue(sizes.size() > ConversionBufferPool.DEFAULT_MAX_RESOLUTIONS);
+        Assert.assertEquals(ConversionBufferPool.DEFAULT_MAX_RESOLUTIONS, pool.getResolutionCount());
+        Assert.assertEquals(ConversionBufferPool.DEFAULT_MAX_RESOLUTIONS, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void givenFullPool_whenNewResolutionAcquired_thenLeastRecentlyUsedIsDropped() {
+        ConversionBufferPool pool = new ConversionBufferPool(4, 2);
+        ConversionBufferPool.Buffers first = pool.acquire(WIDTH, HEIGHT);
+        first.release();
+        pool.acquire(WIDTH * 2, HEIGHT * 2).release();
+        // Using the first resolution again makes the second one the least recently used.
+        Assert.assertSame(first, pool.acquire(WIDTH, HEIGHT));
+        first.release();
+
+        ConversionBufferPool.Buffers leased = pool.acquire(WIDTH * 3, HEIGHT * 3);
+
+        Assert.assertEquals(2, pool.getResolutionCount());
+        Assert.assertEquals(2, pool.getAllocatedCount());
+        Assert.assertSame(first, pool.acquire(WIDTH, HEIGHT));
+        first.release();
+        leased.release();
+    }
+
+    @Test
+    public void givenWarmPool_whenConvertingFrames_thenNothingIsAllocated() {
+        OpenCvTestSupport.assumeOpenCv();
+        FrameTransform rotatedCrop = FrameTransform.rotation(90).withMirror(true)
+                .withCrop(new Rect(8, 6, 32, 24)).withScale(0.5);
+        // Camera memory with aliased NV21 or separate chroma, and heap planes that are staged.
+        YuvPlanarImage[] images = {
+                new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 16, WIDTH + 16, 2, SyntheticYuvImage.ChromaLayout.ALIASED_VU, true),
+                new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH, WIDTH / 2, 1, SyntheticYuvImage.ChromaLayout.SEPARATE, true),
+                new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 16, WIDTH + 16, 2, SyntheticYuvImage.ChromaLayout.SEPARATE, true),
+                new SyntheticYuvImage(WIDTH, HEIGHT),
+        };
+        for (YuvPlanarImage image : images) {
+            for (FrameTransform transform : new FrameTransform[]{FrameTransform.IDENTITY, rotatedCrop}) {
+                for (PixelFormat format : new PixelFormat[]{PixelFormat.RGBA, PixelFormat.GRAY}) {
+                    ConversionBufferPool pool = new ConversionBufferPool();
+                    Rect crop = transform.cropRect(WIDTH, HEIGHT);
+                    Mat dst = new Mat();
+
+                    AllocationAssert.assertSteadyStateAllocationFree("Bytes allocated in steady state converting to "
+                            + format + " with " + transform, () -> convertOnce(pool, image, format, transform, crop, dst));
+                    Assert.assertEquals(1, pool.getAllocatedCount());
+                    dst.release();
+                    pool.clear();
+                }
+            }
+        }
+    }
+
+    private static void convertOnce(ConversionBufferPool pool, YuvPlanarImage image, PixelFormat format,
+                                    FrameTransform transform, Rect crop, Mat dst) {
+        ConversionBufferPool.Buffers buffers = pool.acquire(crop.width, crop.height);
+        ImageConversionUtils.convert(image, format, transform, buffers, dst);
+        buffers.release();
+    }
+}
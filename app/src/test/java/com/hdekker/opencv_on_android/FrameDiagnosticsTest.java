@@ -0,0 +1,90 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameDiagnosticsTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private final List<String> messages = new ArrayList<>();
+    private final List<FrameDiagnostics.Level> levels = new ArrayList<>();
+
+    private final FrameDiagnostics.Reporter reporter = (level, message, error) -> {
+        levels.add(level);
+        messages.add(message);
+    };
+
+    @Test
+    public void givenFramesOverTwoSeconds_thenOneSummaryPerSecond() {
+        FrameDiagnostics diagnostics = new FrameDiagnostics(FrameDiagnostics.Level.INFO, reporter);
+        for (int i = 0; i <= 60; i++) {
+            diagnostics.recordFrame(i * 33 * MILLIS, 2 * MILLIS, 640, 480, 35, i);
+        }
+        diagnostics.recordDropped();
+        diagnostics.recordFrame(2_500 * MILLIS, 4 * MILLIS, 640, 480, 35, 61);
+
+        Assert.assertEquals(2, messages.size());
+        Assert.assertTrue(messages.get(0), messages.get(0).startsWith("31 frames in 1023 ms, dropped 0"));
+        Assert.assertTrue(messages.get(1), messages.get(1).contains("dropped 1, conversion avg 2000 us max 2000 us"));
+        Assert.assertFalse("Frame details only at DEBUG", messages.get(0).contains("640x480"));
+    }
+
+    @Test
+    public void givenDebugLevel_thenSummaryIncludesLastFrame() {
+        FrameDiagnostics diagnostics = new FrameDiagnostics(FrameDiagnostics.Level.DEBUG, reporter);
+        diagnostics.recordFrame(0, MILLIS, 640, 480, 35, 123);
+        diagnostics.recordFrame(500 * MILLIS, MILLIS, 640, 480, 35, 456);
+        diagnostics.recordFrame(1_000 * MILLIS, MILLIS, 640, 480, 35, 789);
+
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(FrameDiagnostics.Level.DEBUG, levels.get(0));
+        Assert.assertTrue(messages.get(0), messages.get(0).endsWith("last frame 640x480 format 35 timestamp 456"));
+    }
+
+    @Test
+    public void givenRepeatedErrors_thenFirstReportedAndRestCounted() {
+        FrameDiagnostics diagnostics = new FrameDiagnostics(FrameDiagnostics.Level.INFO, reporter);
+        RuntimeException error = new RuntimeException("boom");
+        for (int i = 0; i < 30; i++) {
+            diagnostics.recordError(i * 33 * MILLIS, "Conversion failed", error);
+        }
+        diagnostics.recordError(1_100 * MILLIS, "Conversion failed", error);
+
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals(FrameDiagnostics.Level.ERROR, levels.get(0));
+        Assert.assertTrue(messages.get(1), messages.get(1).endsWith("29 errors not shown"));
+        Assert.assertEquals(FrameDiagnostics.Level.ERROR, levels.get(2));
+    }
+
+    @Test
+    public void givenOffLevel_thenNothingReported() {
+        FrameDiagnostics diagnostics = new FrameDiagnostics(FrameDiagnostics.Level.OFF, reporter);
+        for (int i = 0; i < 100; i++) {
+            diagnostics.recordFrame(i * 33 * MILLIS, MILLIS, 640, 480, 35, i);
+            diagnostics.recordError(i * 33 * MILLIS, "Conversion failed", new RuntimeException());
+        }
+        Assert.assertTrue(messages.isEmpty());
+    }
+
+    @Test
+    public void givenDiagnosticsOffOrBetweenFlushes_whenRecordingFrames_thenNothingIsAllocated() {
+        FrameDiagnostics off = new FrameDiagnostics(FrameDiagnostics.Level.OFF, reporter);
+        FrameDiagnostics info = new FrameDiagnostics(FrameDiagnostics.Level.DEBUG, reporter, Long.MAX_VALUE);
+        int[] frame = {0};
+
+        AllocationAssert.assertSteadyStateAllocationFree(() -> {
+            recordOnce(off, frame[0]);
+            recordOnce(info, frame[0]++);
+        });
+        Assert.assertTrue(messages.isEmpty());
+    }
+
+    private static void recordOnce(FrameDiagnostics diagnostics, int i) {
+        diagnostics.recordFrame(i * MILLIS, MILLIS, 640, 480, 35, i);
+        diagnostics.recordDropped();
+    }
+}
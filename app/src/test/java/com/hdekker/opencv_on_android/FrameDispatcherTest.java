@@ -0,0 +1,165 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+public class FrameDispatcherTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private static VisionPipeline member(BackpressurePolicy policy) {
+        return VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                .backpressure(policy, 4)
+                .build();
+    }
+
+    private static ImageAnalyzer analyzer(FrameDispatcher dispatcher) {
+        ImageAnalyzer analyzer = new ImageAnalyzer(dispatcher);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        return analyzer;
+    }
+
+    @Test
+    public void givenTrackerAndRateLimitedClassifier_whenAnalyzed_thenBothShareTheConvertedFrames() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher(PixelFormat.GRAY);
+        VisionPipeline tracker = member(BackpressurePolicy.LATEST);
+        VisionPipeline classifier = member(BackpressurePolicy.LATEST);
+        Map<Long, Frame> tracked = new HashMap<>();
+        List<Long> classified = new ArrayList<>();
+        tracker.getOutputFlux().subscribe(frame -> {
+            tracked.put(frame.getTimestampNanos(), frame);
+            frame.release();
+        });
+        classifier.getOutputFlux().subscribe(frame -> {
+            // The very frame the tracker was handed, not a second conversion.
+            Assert.assertSame(tracked.get(frame.getTimestampNanos()), frame);
+            classified.add(frame.getTimestampNanos());
+            frame.release();
+        });
+        dispatcher.add(tracker, Schedulers.immediate());
+        FrameDispatcher.Member slow = dispatcher.add(classifier, Schedulers.immediate(), 2);
+        ImageAnalyzer analyzer = analyzer(dispatcher);
+
+        // One second of camera at 30 fps.
+        analyzer.analyze(SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(30).build(), 30);
+
+        Assert.assertEquals(30, tracked.size());
+        Assert.assertEquals(2, classified.size());
+        Assert.assertEquals(0L, (long) classified.get(0));
+        Assert.assertTrue(classified.get(1) >= TimeUnit.MILLISECONDS.toNanos(500));
+        Assert.assertEquals(28, slow.getSkippedCount());
+        Assert.assertEquals(0, analyzer.getDropStats().getDroppedCount());
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+    }
+
+    @Test
+    public void givenMemberAddedAndRemoved_whenAnalyzing_thenOnlyFramesInBetweenReachIt() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher(PixelFormat.GRAY);
+        VisionPipeline always = member(BackpressurePolicy.LATEST);
+        VisionPipeline sometimes = member(BackpressurePolicy.LATEST);
+        List<Long> alwaysSeen = new ArrayList<>();
+        List<Long> sometimesSeen = new ArrayList<>();
+        always.getOutputFlux().subscribe(FrameOperators.consume(frame -> alwaysSeen.add(frame.getSequence())));
+        sometimes.getOutputFlux().subscribe(FrameOperators.consume(frame -> sometimesSeen.add(frame.getSequence())));
+        dispatcher.add(always, Schedulers.immediate());
+        ImageAnalyzer analyzer = analyzer(dispatcher);
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(9).build();
+
+        analyzer.analyze(source, 3);
+        FrameDispatcher.Member member = dispatcher.add(sometimes, Schedulers.immediate());
+        analyzer.analyze(source, 3);
+        member.remove();
+        analyzer.analyze(source, 3);
+
+        Assert.assertEquals(9, alwaysSeen.size());
+        Assert.assertEquals(alwaysSeen.subList(3, 6), sometimesSeen);
+        Assert.assertEquals(1, dispatcher.getMembers().size());
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+    }
+
+    @Test
+    public void givenStalledMember_whenAnalyzing_thenOnlyItDropsAndRemovingItReleasesItsFrames() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher(PixelFormat.GRAY);
+        VisionPipeline fast = member(BackpressurePolicy.LATEST);
+        VisionPipeline stalled = member(BackpressurePolicy.LATEST);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch unstall = new CountDownLatch(1);
+        List<Long> fastSeen = new ArrayList<>();
+        fast.getOutputFlux().subscribe(FrameOperators.consume(frame -> fastSeen.add(frame.getSequence())));
+        stalled.getOutputFlux().subscribe(FrameOperators.consume(frame -> {
+            entered.countDown();
+            try {
+                unstall.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Scheduler worker = Schedulers.newSingle("stalled");
+        try {
+            dispatcher.add(fast, Schedulers.immediate());
+            FrameDispatcher.Member member = dispatcher.add(stalled, worker);
+            ImageAnalyzer analyzer = analyzer(dispatcher);
+            SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(10).build();
+
+            analyzer.analyze(source, 1);
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            analyzer.analyze(source, 9);
+
+            Assert.assertEquals(10, fastSeen.size());
+            Assert.assertEquals(0, analyzer.getDropStats().getDroppedCount());
+            // One frame in the algorithm, one waiting, the rest replaced by newer ones.
+            Assert.assertEquals(8, member.getDropStats().getDroppedCount());
+            Assert.assertEquals(2, analyzer.getFramePool().getOutstandingCount());
+
+            member.remove();
+            unstall.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (analyzer.getFramePool().getOutstandingCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+        } finally {
+            unstall.countDown();
+            worker.dispose();
+        }
+    }
+
+    @Test
+    public void givenBlockingMember_whenAskedForPolicy_thenBlocksOnlyWhileItIsAdded() {
+        FrameDispatcher dispatcher = new FrameDispatcher(PixelFormat.GRAY);
+        dispatcher.add(member(BackpressurePolicy.LATEST), Schedulers.immediate());
+        Assert.assertEquals(BackpressurePolicy.LATEST, dispatcher.getBackpressurePolicy());
+
+        FrameDispatcher.Member blocking = dispatcher.add(member(BackpressurePolicy.BLOCK), Schedulers.immediate());
+        Assert.assertEquals(BackpressurePolicy.BLOCK, dispatcher.getBackpressurePolicy());
+
+        blocking.remove();
+        Assert.assertEquals(BackpressurePolicy.LATEST, dispatcher.getBackpressurePolicy());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenMemberWantingAnotherFormat_whenAdded_thenThrows() {
+        new FrameDispatcher(PixelFormat.GRAY).add(VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build(), Schedulers.immediate());
+    }
+}
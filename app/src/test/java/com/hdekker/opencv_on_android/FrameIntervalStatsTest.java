@@ -0,0 +1,79 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FrameIntervalStatsTest {
+
+    private static final long PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1) / 30;
+
+    @Test
+    public void givenSteadyFrames_thenNoJitterAndNoGaps() {
+        FrameIntervalStats stats = new FrameIntervalStats(30.0);
+        for (int i = 0; i <= 300; i++) {
+            stats.recordFrameTimestamp(i * PERIOD_NANOS);
+        }
+        Assert.assertEquals(300, stats.getIntervalCount());
+        Assert.assertEquals(PERIOD_NANOS, stats.getMeanIntervalNanos(), 1.0);
+        Assert.assertEquals(0.0, stats.getJitterNanos(), 1.0);
+        Assert.assertEquals(0, stats.getGapCount());
+        Assert.assertEquals(PERIOD_NANOS, stats.getMaxIntervalNanos());
+    }
+
+    @Test
+    public void givenPeriodicHiccups_thenGapsAndTailShowThem() {
+        // A 100 ms stall every second, which barely moves the average frame rate.
+        FrameIntervalStats stats = new FrameIntervalStats(30.0);
+        WindowedFPSCalculator fps = new WindowedFPSCalculator(10_000.0f);
+        long t = 0;
+        for (int second = 0; second < 5; second++) {
+            for (int i = 0; i < 27; i++) {
+                stats.recordFrameTimestamp(t);
+                fps.recordFrameTimestamp(t);
+                t += PERIOD_NANOS;
+            }
+            t += TimeUnit.MILLISECONDS.toNanos(100) - PERIOD_NANOS;
+        }
+
+        Assert.assertTrue("Average frame rate looks healthy", fps.calculateFPS() > 28.0);
+        Assert.assertEquals(4, stats.getGapCount());
+        Assert.assertEquals(8, stats.getEstimatedMissedFrames());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), stats.getMaxIntervalNanos(), 1_000);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), stats.getIntervalPercentileNanos(99), 7_000_000);
+        Assert.assertEquals(PERIOD_NANOS, stats.getIntervalPercentileNanos(50), 3_000_000);
+        Assert.assertTrue(stats.getJitterNanos() > TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void givenKnownIntervals_thenMeanAndVarianceMatch() {
+        FrameIntervalStats stats = new FrameIntervalStats(30.0);
+        long[] timestamps = {0, 10, 30, 60, 100};
+        for (long timestamp : timestamps) {
+            stats.recordFrameTimestamp(timestamp);
+        }
+        // Intervals 10, 20, 30, 40.
+        Assert.assertEquals(25.0, stats.getMeanIntervalNanos(), 1e-9);
+        Assert.assertEquals(500.0 / 3.0, stats.getIntervalVariance(), 1e-9);
+    }
+
+    @Test
+    public void givenReset_whenNextFrameRecorded_thenStatisticsStartOver() {
+        FrameIntervalStats stats = new FrameIntervalStats(30.0);
+        stats.recordFrameTimestamp(0);
+        stats.recordFrameTimestamp(TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertEquals(1, stats.getGapCount());
+
+        stats.reset();
+        stats.recordFrameTimestamp(TimeUnit.MILLISECONDS.toNanos(300));
+        stats.recordFrameTimestamp(TimeUnit.MILLISECONDS.toNanos(300) + PERIOD_NANOS);
+        Assert.assertEquals(0, stats.getGapCount());
+        Assert.assertEquals(1, stats.getIntervalCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenZeroExpectedFps_whenCreating_thenThrowsException() {
+        new FrameIntervalStats(0.0);
+    }
+}
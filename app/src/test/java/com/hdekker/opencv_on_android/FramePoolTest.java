@@ -0,0 +1,206 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+public class FramePoolTest {
+
+    @Test
+    public void givenNewFrame_whenReleased_thenReturnsToPool() {
+        FramePool pool = new FramePool();
+        Frame frame = pool.acquire(123L);
+        Assert.assertEquals(1, frame.refCnt());
+        Assert.assertEquals(1, pool.getOutstandingCount());
+
+        Assert.assertTrue(frame.release());
+        Assert.assertEquals(0, pool.getOutstandingCount());
+        Assert.assertSame(frame, pool.acquire(456L));
+    }
+
+    @Test
+    public void givenAcquiredFrames_thenSequenceNumbersIncrease() {
+        FramePool pool = new FramePool();
+        Frame first = pool.acquire(0L);
+        Frame second = pool.acquire(0L);
+        Assert.assertEquals(0, first.getSequence());
+        Assert.assertEquals(1, second.getSequence());
+    }
+
+    @Test
+    public void givenRetainedFrame_whenReleasedOnce_thenStillOutstanding() {
+        FramePool pool = new FramePool();
+        Frame frame = pool.acquire(0L).retain();
+        Assert.assertFalse(frame.release());
+        Assert.assertEquals(1, pool.getOutstandingCount());
+        Assert.assertTrue(frame.release());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenReleasedFrame_whenReleasedAgain_thenThrowsException() {
+        Frame frame = new FramePool().acquire(0L);
+        frame.release();
+        frame.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenReleasedFrame_whenRetained_thenThrowsException() {
+        Frame frame = new FramePool().acquire(0L);
+        frame.release();
+        frame.retain();
+    }
+
+    @Test
+    public void givenLeakDetection_whenFrameNotReleased_thenReportsAcquisitionSite() {
+        FramePool pool = new FramePool();
+        pool.setLeakDetection(true);
+        pool.acquire(0L).release();
+        pool.acquire(0L);
+
+        List<Throwable> leaks = pool.getLeakReports();
+        Assert.assertEquals(1, leaks.size());
+        Assert.assertTrue(leaks.get(0).getMessage().contains("Frame 1"));
+    }
+
+    @Test
+    public void givenSinkWithoutSubscribers_whenEmit_thenFrameIsDropped() {
+        FramePool pool = new FramePool();
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+
+        Frame frame = pool.acquire(0L);
+        Assert.assertTrue(FrameOperators.emit(sink, frame).isFailure());
+        frame.release();
+
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenSubscriberCancelledDuringEmit_whenFrameIsDelivered_thenOnlyReceiversHoldReferences() {
+        FramePool pool = new FramePool();
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+        AtomicReference<Disposable> second = new AtomicReference<>();
+        List<Long> firstSeen = new ArrayList<>();
+        // The first subscriber cancels the second while the frame is on its way to both.
+        FrameOperators.receive(sink)
+                .subscribe(FrameOperators.consume(frame -> {
+                    firstSeen.add(frame.getSequence());
+                    second.get().dispose();
+                }));
+        second.set(FrameOperators.receive(sink).subscribe(Frame::release));
+
+        Frame frame = pool.acquire(0L);
+        Assert.assertFalse(FrameOperators.emit(sink, frame).isFailure());
+        frame.release();
+
+        Assert.assertEquals(1, firstSeen.size());
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenMulticastToTwoSubscribers_whenStreamCompletes_thenNoFramesLeak() throws Exception {
+        FramePool pool = new FramePool();
+        pool.setLeakDetection(true);
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+
+        CompletableFuture<List<Long>> released = FrameOperators.receive(sink)
+                .publishOn(Schedulers.parallel())
+                .transform(FrameOperators.mapAndRelease(Frame::getSequence))
+                .transform(FrameOperators.releaseDiscarded())
+                .collectList()
+                .toFuture();
+        CompletableFuture<Long> passedOn = FrameOperators.receive(sink)
+                .publishOn(Schedulers.boundedElastic())
+                .transform(FrameOperators.process(frame -> { }))
+                .doOnNext(Frame::release)
+                .transform(FrameOperators.releaseDiscarded())
+                .count()
+                .toFuture();
+
+        for (int i = 0; i < 100; i++) {
+            Frame frame = pool.acquire(i);
+            FrameOperators.emit(sink, frame);
+            frame.release();
+        }
+        sink.tryEmitComplete();
+
+        Assert.assertEquals(100, released.get(5, TimeUnit.SECONDS).size());
+        Assert.assertEquals(100L, (long) passedOn.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, pool.getOutstandingCount());
+        Assert.assertTrue(pool.getLeakReports().isEmpty());
+    }
+
+    @Test
+    public void givenSubscriberCancels_whenFramesAreQueued_thenQueuedFramesAreReleased() throws Exception {
+        FramePool pool = new FramePool();
+        Sinks.Many<Frame> sink = FrameOperators.inputSink();
+
+        // Hold the consumer until everything is queued so the cancel does not race emission.
+        CountDownLatch allEmitted = new CountDownLatch(1);
+        CompletableFuture<List<Long>> firstFive = FrameOperators.receive(sink)
+                .publishOn(Schedulers.single())
+                .transform(FrameOperators.process(frame -> awaitQuietly(allEmitted)))
+                .take(5)
+                .transform(FrameOperators.mapAndRelease(Frame::getSequence))
+                .transform(FrameOperators.releaseDiscarded())
+                .collectList()
+                .toFuture();
+
+        for (int i = 0; i < 50; i++) {
+            Frame frame = pool.acquire(i);
+            FrameOperators.emit(sink, frame);
+            frame.release();
+        }
+
+        allEmitted.countDown();
+
+        Assert.assertEquals(5, firstFive.get(5, TimeUnit.SECONDS).size());
+        // Frames still queued in publishOn when take(5) cancelled are discarded asynchronously.
+        for (int i = 0; i < 100 && pool.getOutstandingCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void givenFullyReleasedFrame_whenReleaseIfRetained_thenIgnored() {
+        FramePool pool = new FramePool();
+        Frame frame = pool.acquire(0L);
+        frame.releaseIfRetained();
+        frame.releaseIfRetained();
+        Assert.assertEquals(0, frame.refCnt());
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenPreallocatedPool_whenAcquiring_thenMatsAreAlreadyAllocated() {
+        OpenCvTestSupport.assumeOpenCv();
+        FramePool pool = new FramePool(4);
+        MatSpec spec = MatSpec.of(PixelFormat.RGBA, 64, 48);
+
+        pool.preallocate(6, spec);
+
+        Assert.assertEquals(4, pool.getPooledCount());
+        Frame frame = pool.acquire(0L);
+        Assert.assertTrue(spec.matches(frame.getMat()));
+        Assert.assertEquals(3, pool.getPooledCount());
+        frame.release();
+    }
+}
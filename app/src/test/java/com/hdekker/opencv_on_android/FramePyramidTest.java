@@ -0,0 +1,101 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+public class FramePyramidTest {
+
+    private final FramePool pool = new FramePool();
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private Frame frame(int levels) {
+        Frame frame = pool.acquire(0L);
+        frame.getMat().create(48, 64, CvType.CV_8UC1);
+        Core.randu(frame.getMat(), 0, 256);
+        frame.preparePyramid(levels);
+        return frame;
+    }
+
+    @Test
+    public void givenPreparedPyramid_whenNothingAsked_thenNothingIsBuilt() {
+        Frame frame = frame(3);
+        Assert.assertEquals(3, frame.getPyramid().getLevelCount());
+        Assert.assertEquals(0, frame.getPyramid().getBuiltCount());
+        Assert.assertSame(frame.getMat(), frame.getPyramid().getLevel(0));
+        Assert.assertEquals(0, frame.getPyramid().getBuiltCount());
+    }
+
+    @Test
+    public void givenLevelAsked_whenBuilt_thenEachLevelHalvesThePreviousOne() {
+        FramePyramid pyramid = frame(3).getPyramid();
+
+        Mat quarter = pyramid.getLevel(2);
+        Assert.assertEquals(2, pyramid.getBuiltCount());
+        Assert.assertEquals(new Size(16, 12), quarter.size());
+
+        Mat expected = new Mat();
+        Imgproc.resize(pyramid.getLevel(1), expected, new Size(16, 12), 0, 0, Imgproc.INTER_AREA);
+        Assert.assertEquals(0.0, Core.norm(expected, quarter, Core.NORM_INF), 0.0);
+        Assert.assertSame(quarter, pyramid.getLevel(2));
+        Assert.assertEquals(new Size(8, 6), pyramid.getLevel(3).size());
+    }
+
+    @Test
+    public void givenSeveralThreads_whenAskingForTheSameLevel_thenItIsBuiltOnce() throws Exception {
+        FramePyramid pyramid = frame(2).getPyramid();
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Mat>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return pyramid.getLevel(2);
+            }));
+        }
+        start.countDown();
+        for (CompletableFuture<Mat> result : results) {
+            Assert.assertSame(results.get(0).get(), result.get());
+        }
+        Assert.assertEquals(2, pyramid.getBuiltCount());
+    }
+
+    @Test
+    public void givenRecycledFrame_whenReused_thenPyramidStartsOverWithTheSameMats() {
+        Frame frame = frame(1);
+        Mat half = frame.getPyramid().getLevel(1);
+        frame.release();
+
+        Frame reused = pool.acquire(1L);
+        Assert.assertSame(frame, reused);
+        Assert.assertNull(reused.getPyramid());
+        reused.getMat().setTo(new Scalar(7));
+        reused.preparePyramid(1);
+        Assert.assertEquals(0, reused.getPyramid().getBuiltCount());
+        Assert.assertSame(half, reused.getPyramid().getLevel(1));
+        Assert.assertEquals(7.0, half.get(0, 0)[0], 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenLevelAboveTheTop_whenAsked_thenThrows() {
+        frame(2).getPyramid().getLevel(3);
+    }
+}
@@ -0,0 +1,210 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class FrameTransformTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    private final ConversionBufferPool pool = new ConversionBufferPool();
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private static SyntheticYuvImage[] layouts() {
+        return new SyntheticYuvImage[]{
+                new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 16, WIDTH + 16, 2,
+                        SyntheticYuvImage.ChromaLayout.ALIASED_VU, true),
+                new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 8, WIDTH / 2 + 4, 1,
+                        SyntheticYuvImage.ChromaLayout.SEPARATE, true),
+                new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH, WIDTH, 2,
+                        SyntheticYuvImage.ChromaLayout.ALIASED_UV, false)
+        };
+    }
+
+    private Mat convert(YuvPlanarImage image, PixelFormat format, FrameTransform transform) {
+        Rect crop = transform.cropRect(image.getWidth(), image.getHeight());
+        ConversionBufferPool.Buffers scratch = pool.acquire(crop.width, crop.height);
+        Mat dst = new Mat();
+        ImageConversionUtils.convert(image, format, transform, scratch, dst);
+        scratch.release();
+        return dst;
+    }
+
+    // What consumers did before: convert the whole frame, then crop, rotate and flip the result.
+    private Mat reference(YuvPlanarImage image, PixelFormat format, FrameTransform transform) {
+        Mat full = convert(image, format, FrameTransform.IDENTITY);
+        Mat result = full.submat(transform.cropRect(image.getWidth(), image.getHeight())).clone();
+        switch (transform.getRotationDegrees()) {
+            case 90:
+                Core.rotate(result, result, Core.ROTATE_90_CLOCKWISE);
+                break;
+            case 180:
+                Core.rotate(result, result, Core.ROTATE_180);
+                break;
+            case 270:
+                Core.rotate(result, result, Core.ROTATE_90_COUNTERCLOCKWISE);
+                break;
+        }
+        if (transform.isMirrored()) {
+            Core.flip(result, result, 1);
+        }
+        return result;
+    }
+
+    private static void assertSame(Mat expected, Mat actual, String message) {
+        Assert.assertEquals(message, expected.size(), actual.size());
+        Assert.assertEquals(message, expected.type(), actual.type());
+        Assert.assertEquals(message, 0.0, Core.norm(expected, actual, Core.NORM_INF), 0.0);
+    }
+
+    @Test
+    public void givenEveryRotationAndMirror_whenConvertedToColour_thenSameAsRotatingTheConvertedFrame() {
+        for (SyntheticYuvImage image : layouts()) {
+            for (int degrees : ROTATIONS) {
+                for (boolean mirror : new boolean[]{false, true}) {
+                    FrameTransform transform = FrameTransform.rotation(degrees).withMirror(mirror);
+                    for (PixelFormat format : new PixelFormat[]{PixelFormat.RGBA, PixelFormat.RGB, PixelFormat.GRAY}) {
+                        assertSame(reference(image, format, transform), convert(image, format, transform),
+                                format + " " + transform);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void givenRotation_whenConvertedToNv21_thenBothPlanesAreRotated() {
+        SyntheticYuvImage image = layouts()[0];
+        FrameTransform transform = FrameTransform.rotation(90);
+        Mat nv21 = convert(image, PixelFormat.NV21, transform);
+
+        Assert.assertEquals(WIDTH * 3 / 2, nv21.rows());
+        Assert.assertEquals(HEIGHT, nv21.cols());
+        Mat rgba = new Mat();
+        Imgproc.cvtColor(nv21, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        assertSame(reference(image, PixelFormat.RGBA, transform), rgba, "NV21 rotated 90");
+    }
+
+    @Test
+    public void givenCrop_whenConverted_thenOnlyTheEvenAlignedCropIsConvertedAndRotated() {
+        // Odd coordinates are rounded to 10, 6 and 30 x 24.
+        FrameTransform transform = FrameTransform.rotation(270).withCrop(new Rect(11, 7, 30, 24));
+        Assert.assertEquals(new Rect(10, 6, 30, 24), transform.cropRect(WIDTH, HEIGHT));
+        Assert.assertEquals(24, transform.getOutputWidth(WIDTH, HEIGHT));
+        Assert.assertEquals(30, transform.getOutputHeight(WIDTH, HEIGHT));
+
+        for (SyntheticYuvImage image : layouts()) {
+            for (PixelFormat format : new PixelFormat[]{PixelFormat.RGBA, PixelFormat.GRAY}) {
+                assertSame(reference(image, format, transform), convert(image, format, transform), format.toString());
+            }
+        }
+    }
+
+    @Test
+    public void givenCropPastTheEdge_whenConverted_thenClippedToTheImage() {
+        FrameTransform transform = FrameTransform.IDENTITY.withCrop(new Rect(40, 30, 100, 100));
+        Assert.assertEquals(new Rect(40, 30, 24, 18), transform.cropRect(WIDTH, HEIGHT));
+        SyntheticYuvImage image = layouts()[0];
+        assertSame(reference(image, PixelFormat.RGBA, transform), convert(image, PixelFormat.RGBA, transform), "clipped");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenCropOutsideTheImage_whenConverted_thenThrows() {
+        FrameTransform.IDENTITY.withCrop(new Rect(WIDTH, 0, 10, 10)).cropRect(WIDTH, HEIGHT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenOddRotation_whenCreated_thenThrows() {
+        FrameTransform.rotation(45);
+    }
+
+    @Test
+    public void givenSameRotationAsked_whenRotated_thenNoNewTransform() {
+        FrameTransform mirrored = FrameTransform.IDENTITY.withMirror(true);
+        Assert.assertSame(mirrored.withRotation(90), mirrored.withRotation(90));
+        Assert.assertTrue(mirrored.withRotation(90).isMirrored());
+        Assert.assertTrue(FrameTransform.rotation(0).isIdentity());
+    }
+
+    @Test
+    public void givenScale_whenConvertedToGray_thenSameAsResizingTheLumaPlane() {
+        FrameTransform transform = FrameTransform.IDENTITY.withScale(0.5).withCrop(new Rect(8, 8, 40, 32));
+        for (SyntheticYuvImage image : layouts()) {
+            Mat full = convert(image, PixelFormat.GRAY, FrameTransform.IDENTITY);
+            Mat expected = new Mat();
+            Imgproc.resize(full.submat(new Rect(8, 8, 40, 32)), expected, new Size(20, 16), 0, 0, Imgproc.INTER_AREA);
+            assertSame(expected, convert(image, PixelFormat.GRAY, transform), "gray scaled");
+        }
+    }
+
+    @Test
+    public void givenScaleAndRotation_whenConvertedToColour_thenPlanesAreResizedBeforeConversion() {
+        FrameTransform transform = FrameTransform.rotation(90).withScale(0.5);
+        Assert.assertEquals(HEIGHT / 2, transform.getOutputWidth(WIDTH, HEIGHT));
+        Assert.assertEquals(WIDTH / 2, transform.getOutputHeight(WIDTH, HEIGHT));
+        for (SyntheticYuvImage image : layouts()) {
+            // Resize the packed planes by hand, convert, then rotate.
+            Mat nv21 = convert(image, PixelFormat.NV21, FrameTransform.IDENTITY);
+            Mat luma = new Mat();
+            Mat chroma = new Mat();
+            Imgproc.resize(nv21.rowRange(0, HEIGHT), luma, new Size(WIDTH / 2, HEIGHT / 2), 0, 0, Imgproc.INTER_AREA);
+            Imgproc.resize(nv21.rowRange(HEIGHT, HEIGHT * 3 / 2).reshape(2), chroma,
+                    new Size(WIDTH / 4, HEIGHT / 4), 0, 0, Imgproc.INTER_AREA);
+            Mat expected = new Mat();
+            Imgproc.cvtColorTwoPlane(luma, chroma, expected, Imgproc.COLOR_YUV2RGBA_NV21);
+            Core.rotate(expected, expected, Core.ROTATE_90_CLOCKWISE);
+
+            assertSame(expected, convert(image, PixelFormat.RGBA, transform), "rgba scaled");
+        }
+    }
+
+    @Test
+    public void givenRectInFrame_whenMappedToImage_thenPointsAtTheSamePixels() {
+        SyntheticYuvImage image = layouts()[0];
+        Mat full = convert(image, PixelFormat.GRAY, FrameTransform.IDENTITY);
+        Rect crop = new Rect(10, 6, 40, 30);
+        for (int degrees : ROTATIONS) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                FrameTransform transform = FrameTransform.rotation(degrees).withMirror(mirror).withCrop(crop);
+                Mat frame = convert(image, PixelFormat.GRAY, transform);
+                Assert.assertEquals(crop, transform.toImage(new Rect(0, 0, frame.cols(), frame.rows()), WIDTH, HEIGHT));
+                Rect inImage = transform.toImage(new Rect(3, 5, 1, 1), WIDTH, HEIGHT);
+                Assert.assertEquals(1, inImage.area(), 0.0);
+                Assert.assertEquals(transform.toString(), full.get(inImage.y, inImage.x)[0], frame.get(5, 3)[0], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void givenScaledFrame_whenMappedToImage_thenRoundedOutwards() {
+        FrameTransform transform = FrameTransform.IDENTITY.withCrop(new Rect(10, 6, 40, 30)).withScale(0.5);
+        // 40 x 30 scales to 20 x 14, so rows are 30 / 14 image rows tall.
+        Assert.assertEquals(new Rect(12, 8, 4, 5), transform.toImage(new Rect(1, 1, 2, 2), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void givenCropWithSizeStep_whenClipped_thenGrownAroundItsCentreAndKeptInside() {
+        FrameTransform centred = FrameTransform.IDENTITY.withCrop(new Rect(20, 10, 10, 6), 16);
+        Assert.assertEquals(new Rect(16, 4, 16, 16), centred.cropRect(WIDTH, HEIGHT));
+
+        // Grown past the right and bottom edges, shifted back inside.
+        FrameTransform atEdge = FrameTransform.IDENTITY.withCrop(new Rect(60, 40, 4, 8), 16);
+        Assert.assertEquals(new Rect(48, 32, 16, 16), atEdge.cropRect(WIDTH, HEIGHT));
+
+        // Never larger than the image.
+        FrameTransform large = FrameTransform.IDENTITY.withCrop(new Rect(0, 0, 60, 46), 32);
+        Assert.assertEquals(new Rect(0, 0, WIDTH, HEIGHT), large.cropRect(WIDTH, HEIGHT));
+    }
+}
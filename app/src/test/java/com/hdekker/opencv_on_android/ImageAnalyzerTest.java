@@ -0,0 +1,189 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.scheduler.Schedulers;
+
+public class ImageAnalyzerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_COUNT = 10;
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    @Test
+    public void givenSyntheticSource_whenAnalyzedHeadless_thenEveryFrameReachesTheAlgorithm() throws Exception {
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build();
+        ImageAnalyzer analyzer = new ImageAnalyzer(pipeline);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        CompletableFuture<List<Long>> timestamps = pipeline.getOutputFlux()
+                .transform(FrameOperators.mapAndRelease(frame -> {
+                    Assert.assertEquals(WIDTH, pipeline.getResult(frame).cols());
+                    Assert.assertEquals(1, pipeline.getResult(frame).channels());
+                    return frame.getTimestampNanos();
+                }))
+                .collectList()
+                .toFuture();
+
+        long read = analyzer.analyze(SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(FRAME_COUNT).build(), 100);
+        pipeline.getInputSink().tryEmitComplete();
+        List<Long> results = timestamps.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(FRAME_COUNT, read);
+        Assert.assertEquals(FRAME_COUNT, results.size());
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(1) / 30 * 3, results.get(3), 1);
+        Assert.assertEquals(0, analyzer.getDropStats().getDroppedCount());
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+        Assert.assertTrue(analyzer.getFirstFrameFuture().isDone());
+    }
+
+    @Test
+    public void givenFrameLimit_whenAnalyzed_thenStopsThere() throws Exception {
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build();
+        ImageAnalyzer analyzer = new ImageAnalyzer(pipeline);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        pipeline.getOutputFlux().subscribe(Frame::release);
+
+        Assert.assertEquals(4, analyzer.analyze(SyntheticFrameSource.builder(WIDTH, HEIGHT).build(), 4));
+        Assert.assertEquals(4, analyzer.getDropStats().getOfferedCount());
+    }
+
+    @Test
+    public void givenRegionPublishedFromResults_whenAnalyzed_thenLaterFramesOnlyCoverTheRegion() throws Exception {
+        RegionOfInterest roi = new RegionOfInterest();
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                .regionOfInterest(roi)
+                .build();
+        ImageAnalyzer analyzer = new ImageAnalyzer(pipeline);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        analyzer.setTransform(FrameTransform.rotation(90));
+        List<String> sizes = new ArrayList<>();
+        pipeline.getOutputFlux().subscribe(frame -> {
+            sizes.add(frame.getMat().cols() + "x" + frame.getMat().rows());
+            // A "tracker" that keeps the top left quarter of whatever it was given.
+            Rect found = new Rect(0, 0, frame.getMat().cols() / 2, frame.getMat().rows() / 2);
+            roi.set(frame.toImage(found));
+            frame.release();
+        });
+
+        analyzer.analyze(SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(3).build(), 3);
+
+        // Rotated 64x48 is 48x64, then a quarter of that twice over, grown to the region size step.
+        Assert.assertEquals(List.of("48x64", "32x32", "32x32"), sizes);
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+    }
+
+    @Test
+    public void givenPyramid_whenSeveralSubscribersAskForIt_thenLevelsAreSharedAndBuiltOnce() throws Exception {
+        FrameDispatcher dispatcher = new FrameDispatcher(PixelFormat.GRAY);
+        ImageAnalyzer analyzer = new ImageAnalyzer(dispatcher);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        analyzer.setPyramidLevels(2);
+        List<org.opencv.core.Mat> halves = new ArrayList<>();
+        List<Integer> built = new ArrayList<>();
+        // Two detectors on the same stream, both wanting the half scale frame.
+        for (int i = 0; i < 2; i++) {
+            VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                    .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                    .build();
+            dispatcher.add(pipeline, Schedulers.immediate());
+            pipeline.getOutputFlux().subscribe(frame -> {
+                halves.add(frame.getPyramid().getLevel(1));
+                built.add(frame.getPyramid().getBuiltCount());
+                frame.release();
+            });
+        }
+
+        analyzer.analyze(SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(1).build(), 1);
+
+        Assert.assertEquals(2, halves.size());
+        Assert.assertSame(halves.get(0), halves.get(1));
+        Assert.assertEquals(WIDTH / 2, halves.get(0).cols());
+        Assert.assertEquals(List.of(1, 1), built);
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+    }
+
+    @Test
+    public void givenAlgorithmSwappedWhileRunning_whenAnalyzed_thenLaterFramesGoToTheNewOneInItsFormat() throws Exception {
+        VisionPipeline gray = VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                .build();
+        VisionPipeline rgba = VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build();
+        List<Integer> grayChannels = new ArrayList<>();
+        List<Integer> rgbaChannels = new ArrayList<>();
+        gray.getOutputFlux().subscribe(FrameOperators.consume(frame -> grayChannels.add(frame.getMat().channels())));
+        rgba.getOutputFlux().subscribe(FrameOperators.consume(frame -> rgbaChannels.add(frame.getMat().channels())));
+        ImageAnalyzer analyzer = new ImageAnalyzer(gray);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(6).build();
+
+        analyzer.analyze(source, 3);
+        CompletableFuture<Long> swap = analyzer.setAlgorithm(rgba);
+        Assert.assertFalse(swap.isDone());
+        analyzer.analyze(source, 3);
+
+        Assert.assertEquals(List.of(1, 1, 1), grayChannels);
+        Assert.assertEquals(List.of(4, 4, 4), rgbaChannels);
+        Assert.assertSame(rgba, analyzer.getAlgorithm());
+        Assert.assertTrue(swap.get(5, TimeUnit.SECONDS) > 0);
+        Assert.assertEquals(1, analyzer.getSwapLatency().getCount());
+        Assert.assertEquals(0, analyzer.getDropStats().getDroppedCount());
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+    }
+
+    @Test
+    public void givenFrameInFlightDuringSwap_whenDelivered_thenItReachesTheAlgorithmItWasConvertedFor() throws Exception {
+        VisionPipeline first = VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                .build();
+        VisionPipeline second = VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                .build();
+        VisionPipeline third = VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_GRAY2RGBA, 1, 4))
+                .build();
+        List<Long> firstSeen = new ArrayList<>();
+        List<Long> thirdSeen = new ArrayList<>();
+        first.getOutputFlux().subscribe(FrameOperators.consume(frame -> firstSeen.add(frame.getTimestampNanos())));
+        third.getOutputFlux().subscribe(FrameOperators.consume(frame -> thirdSeen.add(frame.getTimestampNanos())));
+        ImageAnalyzer analyzer = new ImageAnalyzer(first);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(2).build();
+
+        // Converted for the first algorithm, as a parallel conversion worker would, then swapped twice.
+        Frame inFlight = analyzer.convert(source.next(), 1L, System.nanoTime());
+        CompletableFuture<Long> superseded = analyzer.setAlgorithm(second);
+        CompletableFuture<Long> swap = analyzer.setAlgorithm(third);
+        analyzer.deliver(inFlight);
+
+        Assert.assertEquals(List.of(1L), firstSeen);
+        Assert.assertTrue(superseded.isCancelled());
+        Assert.assertFalse(swap.isDone());
+
+        analyzer.deliver(analyzer.convert(source.next(), 2L, System.nanoTime()));
+
+        Assert.assertEquals(List.of(2L), thirdSeen);
+        Assert.assertTrue(swap.isDone());
+        Assert.assertEquals(0, analyzer.getFramePool().getOutstandingCount());
+    }
+}
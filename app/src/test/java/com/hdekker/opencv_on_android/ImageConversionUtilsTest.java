@@ -0,0 +1,84 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+public class ImageConversionUtilsTest {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 16;
+
+    private final ConversionBufferPool pool = new ConversionBufferPool();
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private Mat convert(SyntheticYuvImage image, PixelFormat format) {
+        Mat dst = new Mat();
+        ConversionBufferPool.Buffers scratch = pool.acquire(image.getWidth(), image.getHeight());
+        ImageConversionUtils.convert(image, format, scratch, dst);
+        scratch.release();
+        return dst;
+    }
+
+    @Test
+    public void givenGrayFormat_whenConvert_thenReturnsYPlaneWithoutPadding() {
+        for (boolean direct : new boolean[]{false, true}) {
+            SyntheticYuvImage image = new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 8, WIDTH, 2,
+                    SyntheticYuvImage.ChromaLayout.ALIASED_VU, direct);
+            Mat gray = convert(image, PixelFormat.GRAY);
+
+            Assert.assertEquals(CvType.CV_8UC1, gray.type());
+            Assert.assertEquals(WIDTH, gray.cols());
+            Assert.assertEquals(HEIGHT, gray.rows());
+            byte[] pixel = new byte[1];
+            gray.get(5, 7, pixel);
+            Assert.assertEquals(SyntheticYuvImage.expected(YuvPlanarImage.PLANE_Y, 5, 7), pixel[0]);
+        }
+    }
+
+    @Test
+    public void givenRgbFormat_whenConvert_thenMatchesRgbaWithoutAlpha() {
+        SyntheticYuvImage image = new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH, WIDTH, 2,
+                SyntheticYuvImage.ChromaLayout.ALIASED_VU, true);
+        Mat rgb = convert(image, PixelFormat.RGB);
+        Mat rgba = convert(image, PixelFormat.RGBA);
+
+        Assert.assertEquals(CvType.CV_8UC3, rgb.type());
+        Assert.assertEquals(CvType.CV_8UC4, rgba.type());
+        Mat rgbFromRgba = new Mat();
+        Imgproc.cvtColor(rgba, rgbFromRgba, Imgproc.COLOR_RGBA2RGB);
+        Assert.assertEquals(0.0, Core.norm(rgb, rgbFromRgba, Core.NORM_INF), 0.0);
+    }
+
+    @Test
+    public void givenNv21Format_whenConvert_thenReturnsPackedNv21() {
+        SyntheticYuvImage image = new SyntheticYuvImage(WIDTH, HEIGHT);
+        Mat nv21 = convert(image, PixelFormat.NV21);
+
+        Assert.assertEquals(HEIGHT * 3 / 2, nv21.rows());
+        byte[] vu = new byte[2];
+        nv21.get(HEIGHT + 1, 4, vu);
+        // Each NV21 chroma row is WIDTH bytes, so Mat row HEIGHT + 1 is chroma row 1 and column 4 is sample 2.
+        Assert.assertEquals(SyntheticYuvImage.expected(YuvPlanarImage.PLANE_V, 1, 2), vu[0]);
+        Assert.assertEquals(SyntheticYuvImage.expected(YuvPlanarImage.PLANE_U, 1, 2), vu[1]);
+    }
+
+    @Test
+    public void givenRgbaMat_whenToGrayscale_thenUsesRgbaConversion() {
+        Mat rgba = convert(new SyntheticYuvImage(WIDTH, HEIGHT), PixelFormat.RGBA);
+        Mat expected = new Mat();
+        Imgproc.cvtColor(rgba, expected, Imgproc.COLOR_RGBA2GRAY);
+
+        Mat gray = ImageConversionUtils.toGrayscale(rgba);
+        Assert.assertEquals(CvType.CV_8UC1, gray.type());
+        Assert.assertEquals(0.0, Core.norm(expected, gray, Core.NORM_INF), 0.0);
+    }
+}
@@ -0,0 +1,94 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void givenUniformLatencies_thenPercentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MILLIS);
+        }
+
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000 * MILLIS, histogram.getMaxNanos());
+        Assert.assertEquals(500.5 * MILLIS, histogram.getMeanNanos(), 1.0);
+        assertWithin(500 * MILLIS, histogram.getPercentileNanos(50), 0.07);
+        assertWithin(950 * MILLIS, histogram.getPercentileNanos(95), 0.07);
+        assertWithin(990 * MILLIS, histogram.getPercentileNanos(99), 0.07);
+        Assert.assertEquals(1000 * MILLIS, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void givenEmptyHistogram_thenPercentilesAreZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentileNanos(99));
+        histogram.record(5 * MILLIS);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void givenAnyValue_thenBucketContainsIt() {
+        for (long micros = 0; micros < 10_000_000L; micros = micros * 3 / 2 + 1) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            Assert.assertTrue(micros <= LatencyHistogram.bucketUpperMicros(index));
+            Assert.assertTrue(index == 0 || micros > LatencyHistogram.bucketUpperMicros(index - 1));
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void givenStampedFrame_thenStageAndEndToEndLatenciesRecorded() {
+        PipelineLatencyMetrics metrics = new PipelineLatencyMetrics();
+        Frame frame = new FramePool().acquire(1_000 * MILLIS);
+        frame.stampAt(PipelineStage.RECEIVED, 1_010 * MILLIS);
+        frame.stampAt(PipelineStage.CONVERTED, 1_015 * MILLIS);
+        frame.stampAt(PipelineStage.ALGORITHM_START, 1_020 * MILLIS);
+        frame.stampAt(PipelineStage.DELIVERED, 1_050 * MILLIS);
+
+        metrics.record(frame);
+
+        Assert.assertEquals(5 * MILLIS, metrics.getStageHistogram(PipelineStage.CONVERTED).getMaxNanos());
+        Assert.assertEquals(0, metrics.getStageHistogram(PipelineStage.EMITTED).getCount());
+        Assert.assertEquals(5 * MILLIS, metrics.getStageHistogram(PipelineStage.ALGORITHM_START).getMaxNanos());
+        Assert.assertEquals(30 * MILLIS, metrics.getStageHistogram(PipelineStage.DELIVERED).getMaxNanos());
+        Assert.assertEquals(40 * MILLIS, metrics.getEndToEndHistogram().getMaxNanos());
+        Assert.assertEquals(50 * MILLIS, metrics.getSensorToDeliveredHistogram().getMaxNanos());
+    }
+
+    @Test
+    public void givenRecycledFrame_thenStampsCleared() {
+        FramePool pool = new FramePool();
+        Frame frame = pool.acquire(0L);
+        frame.stamp(PipelineStage.RECEIVED);
+        frame.release();
+        Assert.assertEquals(0, pool.acquire(0L).getStageNanos(PipelineStage.RECEIVED));
+    }
+
+    @Test
+    public void givenWarmMetrics_whenRecording_thenNothingIsAllocated() {
+        PipelineLatencyMetrics metrics = new PipelineLatencyMetrics();
+        Frame frame = new FramePool().acquire(0L);
+        int[] i = {0};
+
+        AllocationAssert.assertSteadyStateAllocationFree(() -> recordOnce(metrics, frame, i[0]++));
+    }
+
+    private static void recordOnce(PipelineLatencyMetrics metrics, Frame frame, int i) {
+        for (PipelineStage stage : PipelineStage.VALUES) {
+            frame.stampAt(stage, 1 + (stage.ordinal() + 1) * (long) i * 1_000);
+        }
+        metrics.record(frame);
+    }
+
+    private static void assertWithin(long expected, long actual, double relativeError) {
+        Assert.assertEquals(expected, actual, expected * relativeError);
+    }
+}
@@ -0,0 +1,27 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assume;
+
+/**
+ * Loads the desktop OpenCV natives for JVM unit tests, skipping the test when they are unavailable.
+ */
+public final class OpenCvTestSupport {
+
+    private static Throwable loadFailure;
+    private static boolean loaded;
+
+    private OpenCvTestSupport() {
+    }
+
+    public static synchronized void assumeOpenCv() {
+        if (!loaded && loadFailure == null) {
+            try {
+                nu.pattern.OpenCV.loadLocally();
+                loaded = true;
+            } catch (Throwable t) {
+                loadFailure = t;
+            }
+        }
+        Assume.assumeNoException("OpenCV natives not available", loadFailure);
+    }
+}
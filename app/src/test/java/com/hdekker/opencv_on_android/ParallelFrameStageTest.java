@@ -0,0 +1,162 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+public class ParallelFrameStageTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void givenUnevenWork_whenSequenceOrdering_thenResultsInFrameOrder() {
+        FramePool pool = new FramePool();
+        Scheduler scheduler = Schedulers.newParallel("stage-test", 4);
+        try {
+            List<Long> sequences = frames(pool, 20)
+                    .transform(ParallelFrameStage.process(4, ParallelFrameStage.Ordering.SEQUENCE, scheduler,
+                            frame -> LockSupport.parkNanos((20 - frame.getSequence()) * MILLIS)))
+                    .transform(FrameOperators.mapAndRelease(Frame::getSequence))
+                    .transform(FrameOperators.releaseDiscarded())
+                    .collectList()
+                    .block(Duration.ofSeconds(10));
+
+            Assert.assertEquals(20, sequences.size());
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(i, (long) sequences.get(i));
+            }
+            Assert.assertEquals(0, pool.getOutstandingCount());
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void givenUnevenWork_whenLatestOnly_thenResultsNeverGoBackInTime() {
+        FramePool pool = new FramePool();
+        Scheduler scheduler = Schedulers.newParallel("stage-test", 4);
+        try {
+            List<Long> sequences = frames(pool, 40)
+                    .transform(ParallelFrameStage.process(4, ParallelFrameStage.Ordering.LATEST_ONLY, scheduler,
+                            frame -> LockSupport.parkNanos((frame.getSequence() % 3 == 0 ? 15 : 1) * MILLIS)))
+                    .transform(FrameOperators.mapAndRelease(Frame::getSequence))
+                    .transform(FrameOperators.releaseDiscarded())
+                    .collectList()
+                    .block(Duration.ofSeconds(10));
+
+            Assert.assertFalse(sequences.isEmpty());
+            for (int i = 1; i < sequences.size(); i++) {
+                Assert.assertTrue(sequences.get(i) > sequences.get(i - 1));
+            }
+            Assert.assertEquals(0, pool.getOutstandingCount());
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void givenMaxInFlight_thenNeverExceeded() {
+        FramePool pool = new FramePool();
+        Scheduler scheduler = Schedulers.newParallel("stage-test", 8);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxSeen = new AtomicInteger();
+        try {
+            frames(pool, 30)
+                    .transform(ParallelFrameStage.process(3, ParallelFrameStage.Ordering.SEQUENCE, scheduler, frame -> {
+                        maxSeen.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        LockSupport.parkNanos(2 * MILLIS);
+                        inFlight.decrementAndGet();
+                    }))
+                    .transform(FrameOperators.releaseDiscarded())
+                    .doOnNext(Frame::release)
+                    .blockLast(Duration.ofSeconds(10));
+
+            Assert.assertEquals(3, maxSeen.get());
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void givenSlowAlgorithm_thenThroughputScalesWithParallelism() {
+        FramePool pool = new FramePool();
+        Scheduler scheduler = Schedulers.newParallel("stage-test", 4);
+        try {
+            long start = System.nanoTime();
+            frames(pool, 8)
+                    .transform(ParallelFrameStage.process(4, ParallelFrameStage.Ordering.SEQUENCE, scheduler,
+                            frame -> LockSupport.parkNanos(50 * MILLIS)))
+                    .transform(FrameOperators.releaseDiscarded())
+                    .doOnNext(Frame::release)
+                    .blockLast(Duration.ofSeconds(10));
+            long elapsed = System.nanoTime() - start;
+
+            // Two rounds of 50 ms rather than eight.
+            Assert.assertTrue("Took " + elapsed / MILLIS + " ms", elapsed < 250 * MILLIS);
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void givenFailingAction_thenFrameReleasedAndErrorPropagated() {
+        FramePool pool = new FramePool();
+        Scheduler scheduler = Schedulers.newParallel("stage-test", 2);
+        try {
+            Flux<Frame> failing = frames(pool, 4)
+                    .transform(ParallelFrameStage.process(2, ParallelFrameStage.Ordering.SEQUENCE, scheduler, frame -> {
+                        if (frame.getSequence() == 1) {
+                            throw new IllegalStateException("boom");
+                        }
+                    }))
+                    .transform(FrameOperators.releaseDiscarded())
+                    .doOnNext(Frame::release);
+            Assert.assertThrows(IllegalStateException.class, failing::blockLast);
+
+            awaitAllReleased(pool);
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void givenCancelWhileFramesInFlight_thenAllFramesReleased() {
+        FramePool pool = new FramePool();
+        Scheduler scheduler = Schedulers.newParallel("stage-test", 4);
+        try {
+            for (ParallelFrameStage.Ordering ordering : ParallelFrameStage.Ordering.values()) {
+                frames(pool, 50)
+                        .transform(ParallelFrameStage.process(4, ordering, scheduler,
+                                frame -> LockSupport.parkNanos((frame.getSequence() % 4 + 1) * MILLIS)))
+                        .transform(FrameOperators.releaseDiscarded())
+                        .take(5)
+                        .doOnNext(Frame::release)
+                        .blockLast(Duration.ofSeconds(10));
+            }
+            awaitAllReleased(pool);
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    private static void awaitAllReleased(FramePool pool) {
+        // Frames still in flight when the stage terminated are released once their action returns.
+        long deadline = System.nanoTime() + 1_000 * MILLIS;
+        while (pool.getOutstandingCount() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(MILLIS);
+        }
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    private static Flux<Frame> frames(FramePool pool, int count) {
+        return Flux.range(0, count).map(i -> pool.acquire(i));
+    }
+}
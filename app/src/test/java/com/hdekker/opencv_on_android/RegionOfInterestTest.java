@@ -0,0 +1,48 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+public class RegionOfInterestTest {
+
+    @Test
+    public void givenNoRegion_whenApplied_thenBaseIsReturned() {
+        FrameTransform base = FrameTransform.rotation(90);
+        Assert.assertSame(base, new RegionOfInterest().applyTo(base));
+    }
+
+    @Test
+    public void givenRegion_whenAppliedAgain_thenSameTransformUntilTheRegionChanges() {
+        RegionOfInterest roi = new RegionOfInterest();
+        roi.set(new Rect(10, 20, 30, 40));
+        roi.setScale(0.5);
+
+        FrameTransform first = roi.applyTo(FrameTransform.IDENTITY);
+        Assert.assertEquals(new Rect(10, 20, 30, 40), first.getCrop());
+        Assert.assertEquals(0.5, first.getScale(), 0.0);
+        Assert.assertSame(first, roi.applyTo(FrameTransform.IDENTITY));
+
+        roi.set(new Rect(0, 0, 8, 8));
+        Assert.assertEquals(new Rect(0, 0, 8, 8), roi.applyTo(FrameTransform.IDENTITY).getCrop());
+        roi.clear();
+        Assert.assertNull(roi.applyTo(FrameTransform.IDENTITY).getCrop());
+    }
+
+    @Test
+    public void givenBaseCrop_whenApplied_thenRegionIsIntersectedWithIt() {
+        RegionOfInterest roi = new RegionOfInterest();
+        FrameTransform base = FrameTransform.IDENTITY.withCrop(new Rect(0, 0, 100, 100));
+
+        roi.set(new Rect(50, 50, 100, 100));
+        Assert.assertEquals(new Rect(50, 50, 50, 50), roi.applyTo(base).getCrop());
+
+        roi.set(new Rect(200, 200, 10, 10));
+        Assert.assertEquals(new Rect(0, 0, 100, 100), roi.applyTo(base).getCrop());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenEmptyRegion_whenSet_thenThrows() {
+        new RegionOfInterest().set(new Rect(0, 0, 0, 10));
+    }
+}
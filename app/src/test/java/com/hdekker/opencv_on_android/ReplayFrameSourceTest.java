@@ -0,0 +1,116 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class ReplayFrameSourceTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_COUNT = 3;
+    private static final long PERIOD_NANOS = 33_000_000L;
+
+    @Before
+    public void setUp() {
+        // Direct chroma planes are told apart by native address, through OpenCV Mat headers.
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SyntheticFrameSource paddedNv21Source() {
+        return SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .rowStrides(WIDTH + 16, WIDTH + 16)
+                .distinctImages(FRAME_COUNT)
+                .build();
+    }
+
+    private File record() throws IOException {
+        File file = folder.newFile("frames.yuv");
+        SyntheticFrameSource source = paddedNv21Source();
+        try (YuvRecording.Writer writer = new YuvRecording.Writer(file)) {
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                Assert.assertTrue(writer.write(source.next(), 1_000L + i * PERIOD_NANOS));
+            }
+        }
+        return file;
+    }
+
+    private static byte[] nv21(YuvPlanarImage image) {
+        byte[] packed = new byte[WIDTH * HEIGHT * 3 / 2];
+        new YuvInterleaver().packNv21(image, packed);
+        return packed;
+    }
+
+    @Test
+    public void givenRecording_whenReplayed_thenPixelsAndTimestampsMatchTheOriginal() throws IOException {
+        File file = record();
+        SyntheticFrameSource original = paddedNv21Source();
+
+        try (ReplayFrameSource replay = new ReplayFrameSource(file, FramePacer.unpaced(), false)) {
+            Assert.assertEquals(FRAME_COUNT, replay.getFrameCount());
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                YuvPlanarImage image = replay.next();
+                Assert.assertArrayEquals(nv21(original.next()), nv21(image));
+                Assert.assertEquals(1_000L + i * PERIOD_NANOS, replay.getTimestampNanos());
+            }
+            Assert.assertNull(replay.next());
+        }
+    }
+
+    @Test
+    public void givenRecording_whenReplayed_thenChromaIsSeenAsNv21AndTheFileIsNotTouched() throws IOException {
+        File file = record();
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        try (ReplayFrameSource replay = new ReplayFrameSource(file, FramePacer.unpaced(), false)) {
+            YuvPlanarImage image = replay.next();
+            Assert.assertTrue(image.getPlaneBuffer(YuvPlanarImage.PLANE_Y).isDirect());
+            Assert.assertEquals(YuvInterleaver.ALIAS_NV21, YuvInterleaver.chromaAlias(image));
+        }
+
+        Assert.assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void givenLoop_whenReplayedPastTheEnd_thenTimestampsKeepIncreasing() throws IOException {
+        try (ReplayFrameSource replay = new ReplayFrameSource(record(), FramePacer.unpaced(), true)) {
+            long previous = Long.MIN_VALUE;
+            for (int i = 0; i < FRAME_COUNT * 3; i++) {
+                Assert.assertNotNull(replay.next());
+                Assert.assertTrue(replay.getTimestampNanos() > previous);
+                previous = replay.getTimestampNanos();
+            }
+            // Three loops of three frames, evenly spaced.
+            Assert.assertEquals(1_000L + (FRAME_COUNT * 3 - 1) * PERIOD_NANOS, previous);
+        }
+    }
+
+    @Test
+    public void givenBytesAfterTheLastFrame_whenOpened_thenOnlyCommittedFramesCount() throws IOException {
+        File file = record();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[100]);
+        }
+
+        try (ReplayFrameSource replay = new ReplayFrameSource(file, FramePacer.unpaced(), false)) {
+            Assert.assertEquals(FRAME_COUNT, replay.getFrameCount());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void givenOtherFile_whenOpened_thenThrows() throws IOException {
+        File file = folder.newFile("other.bin");
+        Files.write(file.toPath(), new byte[64]);
+        new ReplayFrameSource(file, FramePacer.unpaced(), false).close();
+    }
+}
@@ -0,0 +1,82 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class SequencedDeliveryTest {
+
+    @Test
+    public void givenResultsCompletedOutOfOrder_thenDeliveredInTicketOrder() {
+        List<Integer> delivered = new ArrayList<>();
+        SequencedDelivery<Integer> delivery = new SequencedDelivery<>(4, delivered::add);
+        long first = delivery.reserve();
+        long second = delivery.reserve();
+        long third = delivery.reserve();
+
+        delivery.complete(third, 3);
+        delivery.complete(second, 2);
+        Assert.assertTrue(delivered.isEmpty());
+
+        delivery.complete(first, 1);
+        Assert.assertEquals(List.of(1, 2, 3), delivered);
+        Assert.assertEquals(0, delivery.getOutstandingCount());
+    }
+
+    @Test
+    public void givenCapacityReached_whenReserving_thenRefused() {
+        SequencedDelivery<Integer> delivery = new SequencedDelivery<>(2, result -> { });
+        long first = delivery.reserve();
+        delivery.reserve();
+        Assert.assertEquals(-1, delivery.reserve());
+
+        delivery.complete(first, 1);
+        Assert.assertEquals(2, delivery.reserve());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void givenDeliveredTicket_whenCompletedAgain_thenThrowsException() {
+        SequencedDelivery<Integer> delivery = new SequencedDelivery<>(2, result -> { });
+        long ticket = delivery.reserve();
+        delivery.complete(ticket, 1);
+        delivery.complete(ticket, 1);
+    }
+
+    @Test
+    public void givenWorkerThreads_thenEveryResultDeliveredOnceInOrder() throws InterruptedException {
+        int count = 10_000;
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        SequencedDelivery<Integer> delivery = new SequencedDelivery<>(8, delivered::add);
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        Random random = new Random(42);
+
+        for (int i = 0; i < count; i++) {
+            long ticket;
+            while ((ticket = delivery.reserve()) < 0) {
+                Thread.onSpinWait();
+            }
+            int value = i;
+            long work = random.nextInt(20_000);
+            long t = ticket;
+            workers.execute(() -> {
+                LockSupport.parkNanos(work);
+                delivery.complete(t, value);
+            });
+        }
+        workers.shutdown();
+        Assert.assertTrue(workers.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(count, delivered.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, (int) delivered.get(i));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StartupOrchestratorTest {
+
+    private static final long PHASE_MILLIS = 100;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Object sleepAndReturn(Object value) throws InterruptedException {
+        Thread.sleep(PHASE_MILLIS);
+        return value;
+    }
+
+    @Test
+    public void givenIndependentPhases_thenTheyRunInParallelAndAreTimed() throws Exception {
+        StartupOrchestrator orchestrator = new StartupOrchestrator(executor)
+                .phase("a", () -> sleepAndReturn("a"))
+                .phase("b", () -> sleepAndReturn("b"))
+                .phase("c", () -> sleepAndReturn("c"));
+
+        StartupOrchestrator.Timings timings = orchestrator.start().get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(timings.getPhaseNanos("a") >= TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS));
+        Assert.assertTrue(timings.getPhaseNanos("c") >= TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS));
+        // Sequentially it would take three phases.
+        Assert.assertTrue(timings.getTotalNanos() < TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS * 5 / 2));
+        Assert.assertEquals("b", orchestrator.<String>getPhaseResult("b").get());
+        Assert.assertSame(orchestrator.start(), orchestrator.whenReady());
+    }
+
+    @Test
+    public void givenDependency_thenPhaseStartsAfterItsDependenciesAndSeesTheirResults() throws Exception {
+        StartupOrchestrator orchestrator = new StartupOrchestrator(executor);
+        orchestrator
+                .phase("natives", () -> sleepAndReturn(1))
+                .phase("model", () -> sleepAndReturn(2))
+                .phase("pool", () -> (Integer) orchestrator.getPhaseResult("natives").get()
+                        + (Integer) orchestrator.getPhaseResult("model").get(), "natives", "model");
+
+        StartupOrchestrator.Timings timings = orchestrator.start().get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(3, (int) orchestrator.<Integer>getPhaseResult("pool").get());
+        long dependenciesDone = Math.max(
+                timings.getPhaseStartNanos("natives") + timings.getPhaseNanos("natives"),
+                timings.getPhaseStartNanos("model") + timings.getPhaseNanos("model"));
+        Assert.assertTrue(timings.getPhaseStartNanos("pool") >= dependenciesDone);
+    }
+
+    @Test
+    public void givenFailingPhase_thenDependentsSkippedOthersRunAndReadinessFails() throws Exception {
+        AtomicBoolean dependentRan = new AtomicBoolean();
+        StartupOrchestrator orchestrator = new StartupOrchestrator(executor)
+                .phase("broken", () -> {
+                    throw new IllegalStateException("no natives");
+                })
+                .phase("independent", () -> sleepAndReturn("ok"))
+                .phase("dependent", () -> dependentRan.getAndSet(true), "broken");
+
+        CompletableFuture<StartupOrchestrator.Timings> ready = orchestrator.start();
+        try {
+            ready.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected startup to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("broken"));
+        }
+        Assert.assertEquals("ok", orchestrator.<String>getPhaseResult("independent").get());
+        Assert.assertFalse(dependentRan.get());
+    }
+
+    @Test
+    public void givenMilestone_thenRecordedOnceRelativeToStart() throws Exception {
+        StartupOrchestrator orchestrator = new StartupOrchestrator(executor).phase("a", () -> sleepAndReturn("a"));
+        StartupOrchestrator.Timings timings = orchestrator.start().get(5, TimeUnit.SECONDS);
+
+        long first = orchestrator.markMilestone("firstFrame");
+        Thread.sleep(10);
+        long second = orchestrator.markMilestone("firstFrame");
+
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(first, timings.getMilestoneNanos("firstFrame"));
+        Assert.assertTrue(first >= timings.getTotalNanos());
+        Assert.assertTrue(timings.toString().contains("firstFrame at"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenUnknownDependency_whenAddingPhase_thenRejected() {
+        new StartupOrchestrator(executor).phase("pool", () -> null, "natives");
+    }
+}
@@ -0,0 +1,102 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+public class SyntheticFrameSourceTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Before
+    public void setUp() {
+        // Direct chroma planes are told apart by native address, through OpenCV Mat headers.
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    @Test
+    public void givenPaddedNv21Layout_whenNext_thenPlanesHoldTheExpectedValues() {
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .rowStrides(WIDTH + 16, WIDTH + 16)
+                .paddedLastRow(true)
+                .frames(1)
+                .build();
+        YuvPlanarImage image = source.next();
+
+        Assert.assertEquals(WIDTH + 16, image.getRowStride(YuvPlanarImage.PLANE_Y));
+        Assert.assertEquals(2, image.getPixelStride(YuvPlanarImage.PLANE_U));
+        Assert.assertEquals((WIDTH + 16) * HEIGHT, image.getPlaneBuffer(YuvPlanarImage.PLANE_Y).remaining());
+        Assert.assertEquals((WIDTH + 16) * HEIGHT / 2 - 1, image.getPlaneBuffer(YuvPlanarImage.PLANE_V).remaining());
+        Assert.assertEquals(YuvInterleaver.ALIAS_NV21, YuvInterleaver.chromaAlias(image));
+
+        ByteBuffer y = image.getPlaneBuffer(YuvPlanarImage.PLANE_Y);
+        ByteBuffer u = image.getPlaneBuffer(YuvPlanarImage.PLANE_U);
+        Assert.assertEquals(SyntheticFrameSource.value(0, YuvPlanarImage.PLANE_Y, 5, 7), y.get(5 * (WIDTH + 16) + 7));
+        Assert.assertEquals(SyntheticFrameSource.value(0, YuvPlanarImage.PLANE_U, 3, 4), u.get(3 * (WIDTH + 16) + 4 * 2));
+        Assert.assertNull(source.next());
+    }
+
+    @Test
+    public void givenFrameLimit_whenDrained_thenImagesCycleAndTimestampsAdvance() {
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .distinctImages(2)
+                .frames(5)
+                .timestampFps(50)
+                .build();
+        YuvPlanarImage[] images = new YuvPlanarImage[5];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = source.next();
+            Assert.assertEquals(i * 20_000_000L, source.getTimestampNanos());
+        }
+
+        Assert.assertNull(source.next());
+        Assert.assertSame(images[0], images[2]);
+        Assert.assertSame(images[1], images[3]);
+        Assert.assertNotSame(images[0], images[1]);
+    }
+
+    @Test
+    public void givenFixedRate_whenDrained_thenImagesAreSpacedByThePeriod() {
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .frames(6)
+                .pacer(FramePacer.fixedRate(100))
+                .build();
+        long start = System.nanoTime();
+        while (source.next() != null) {
+            // Drain.
+        }
+
+        // The first image is due at once, the other five a period apart.
+        Assert.assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    @Test
+    public void givenDifferentLayouts_whenConverted_thenPixelsAreTheSame() {
+        Mat planar = convert(SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .rowStrides(WIDTH + 8, WIDTH / 2 + 4)
+                .chroma(SyntheticFrameSource.ChromaLayout.SEPARATE, 1)
+                .direct(false));
+        Mat nv21 = convert(SyntheticFrameSource.builder(WIDTH, HEIGHT).rowStrides(WIDTH + 32, WIDTH + 32));
+        Mat nv12 = convert(SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .chroma(SyntheticFrameSource.ChromaLayout.ALIASED_UV, 2)
+                .paddedLastRow(true));
+
+        Assert.assertEquals(0.0, Core.norm(planar, nv21, Core.NORM_INF), 0.0);
+        Assert.assertEquals(0.0, Core.norm(planar, nv12, Core.NORM_INF), 0.0);
+    }
+
+    private static Mat convert(SyntheticFrameSource.Builder builder) {
+        ConversionBufferPool pool = new ConversionBufferPool();
+        ConversionBufferPool.Buffers scratch = pool.acquire(WIDTH, HEIGHT);
+        Mat rgba = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4);
+        ImageConversionUtils.convert(builder.build().next(), PixelFormat.RGBA, scratch, rgba);
+        scratch.release();
+        return rgba;
+    }
+}
@@ -0,0 +1,116 @@
+package com.hdekker.opencv_on_android;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV_420_888 image for JVM tests. Pixel values are a deterministic function of
+ * plane, row and column so conversions can be checked byte for byte.
+ */
+public class SyntheticYuvImage implements YuvPlanarImage {
+
+    /** How the U and V planes are laid out in memory. */
+    public enum ChromaLayout {
+        /** U and V in separate buffers. */
+        SEPARATE,
+        /** One interleaved buffer, V first, as NV21. */
+        ALIASED_VU,
+        /** One interleaved buffer, U first, as NV12. */
+        ALIASED_UV
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] rowStrides;
+    private final int[] pixelStrides;
+    private final ByteBuffer[] buffers = new ByteBuffer[3];
+
+    /**
+     * Planar I420 style layout with tightly packed rows.
+     */
+    public SyntheticYuvImage(int width, int height) {
+        this(width, height, width, width / 2, 1);
+    }
+
+    public SyntheticYuvImage(int width, int height, int yRowStride, int chromaRowStride, int chromaPixelStride) {
+        this(width, height, yRowStride, chromaRowStride, chromaPixelStride, ChromaLayout.SEPARATE, false);
+    }
+
+    /**
+     * @param direct allocate the planes as direct buffers, as CameraX does.
+     */
+    public SyntheticYuvImage(int width, int height, int yRowStride, int chromaRowStride, int chromaPixelStride,
+                             ChromaLayout layout, boolean direct) {
+        if (layout != ChromaLayout.SEPARATE && chromaPixelStride != 2) {
+            throw new IllegalArgumentException("Aliased chroma requires a pixel stride of 2");
+        }
+        this.width = width;
+        this.height = height;
+        this.rowStrides = new int[]{yRowStride, chromaRowStride, chromaRowStride};
+        this.pixelStrides = new int[]{1, chromaPixelStride, chromaPixelStride};
+
+        buffers[PLANE_Y] = allocate(yRowStride * (height - 1) + width, direct);
+        int chromaSize = chromaRowStride * (height / 2 - 1) + (width / 2 - 1) * chromaPixelStride + 1;
+        if (layout == ChromaLayout.SEPARATE) {
+            buffers[PLANE_U] = allocate(chromaSize, direct);
+            buffers[PLANE_V] = allocate(chromaSize, direct);
+        } else {
+            ByteBuffer shared = allocate(chromaSize + 1, direct);
+            int uStart = layout == ChromaLayout.ALIASED_VU ? 1 : 0;
+            buffers[PLANE_U] = slice(shared, uStart, chromaSize);
+            buffers[PLANE_V] = slice(shared, 1 - uStart, chromaSize);
+        }
+
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                buffers[PLANE_Y].put(row * yRowStride + col, expected(PLANE_Y, row, col));
+            }
+        }
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                int index = row * chromaRowStride + col * chromaPixelStride;
+                buffers[PLANE_U].put(index, expected(PLANE_U, row, col));
+                buffers[PLANE_V].put(index, expected(PLANE_V, row, col));
+            }
+        }
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.wrap(new byte[size]);
+    }
+
+    private static ByteBuffer slice(ByteBuffer shared, int start, int length) {
+        ByteBuffer view = shared.duplicate();
+        view.position(start);
+        view.limit(start + length);
+        return view.slice();
+    }
+
+    public static byte expected(int plane, int row, int col) {
+        return (byte) (plane * 71 + row * 31 + col * 7);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public ByteBuffer getPlaneBuffer(int plane) {
+        return buffers[plane];
+    }
+
+    @Override
+    public int getRowStride(int plane) {
+        return rowStrides[plane];
+    }
+
+    @Override
+    public int getPixelStride(int plane) {
+        return pixelStrides[plane];
+    }
+}
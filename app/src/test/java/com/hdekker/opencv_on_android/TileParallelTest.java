@@ -0,0 +1,111 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.ForkJoinPool;
+
+import reactor.core.publisher.Flux;
+
+public class TileParallelTest {
+
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private static Mat randomImage(int type) {
+        Mat image = new Mat(HEIGHT, WIDTH, type);
+        Core.randu(image, 0, 256);
+        return image;
+    }
+
+    private static void assertSameAsWholeFrame(Mat src, TileParallel tiles, TileParallel.TileOperation operation) {
+        Mat expected = new Mat();
+        operation.apply(src, expected);
+        Mat tiled = new Mat();
+        tiles.apply(src, tiled, operation);
+        Assert.assertEquals(expected.size(), tiled.size());
+        Assert.assertEquals(expected.type(), tiled.type());
+        // IPP builds of desktop OpenCV take a differently rounded path for whole Mats, tiles are submats.
+        Assert.assertTrue(Core.norm(expected, tiled, Core.NORM_INF) <= 1.0);
+    }
+
+    @Test
+    public void givenNeighbourhoodOperations_whenTiledWithoutHalo_thenMatchesWholeFrame() {
+        Mat rgba = randomImage(CvType.CV_8UC4);
+        Mat gray = randomImage(CvType.CV_8UC1);
+        TileParallel tiles = new TileParallel(pool, 7, 0);
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(7, 7));
+
+        assertSameAsWholeFrame(rgba, tiles, TileParallel.blur(new Size(9, 9)));
+        assertSameAsWholeFrame(rgba, tiles, TileParallel.gaussianBlur(new Size(15, 15), 0));
+        assertSameAsWholeFrame(gray, tiles, TileParallel.threshold(100, 255, Imgproc.THRESH_BINARY));
+        assertSameAsWholeFrame(gray, tiles, TileParallel.morphology(Imgproc.MORPH_ERODE, kernel));
+        assertSameAsWholeFrame(gray, tiles, TileParallel.morphology(Imgproc.MORPH_DILATE, kernel));
+    }
+
+    @Test
+    public void givenChainedMorphology_whenTiledWithKernelRadiusHalo_thenMatchesWholeFrame() {
+        Mat gray = randomImage(CvType.CV_8UC1);
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(7, 7));
+
+        assertSameAsWholeFrame(gray, new TileParallel(pool, 7, 3), TileParallel.morphology(Imgproc.MORPH_OPEN, kernel));
+        assertSameAsWholeFrame(gray, new TileParallel(pool, 7, 3), TileParallel.morphology(Imgproc.MORPH_CLOSE, kernel));
+    }
+
+    @Test
+    public void givenIsolatedOperation_whenTiledWithHalo_thenMatchesWholeFrame() {
+        Mat gray = randomImage(CvType.CV_8UC1);
+        // Only sees its own input, so tiles need a halo of the kernel radius.
+        TileParallel.TileOperation isolated = (src, dst) ->
+                Imgproc.blur(src, dst, new Size(9, 9), new org.opencv.core.Point(-1, -1),
+                        Core.BORDER_REFLECT_101 | Core.BORDER_ISOLATED);
+
+        Mat expected = new Mat();
+        Imgproc.blur(gray, expected, new Size(9, 9));
+        Mat tiled = new Mat();
+        new TileParallel(pool, 5, 4).apply(gray, tiled, isolated);
+        Assert.assertEquals(0.0, Core.norm(expected, tiled, Core.NORM_INF), 0.0);
+
+        Mat withoutHalo = new Mat();
+        new TileParallel(pool, 5, 0).apply(gray, withoutHalo, isolated);
+        Assert.assertTrue(Core.norm(expected, withoutHalo, Core.NORM_INF) > 0.0);
+    }
+
+    @Test
+    public void givenMoreTilesThanRows_thenStillCoversFrame() {
+        Mat gray = new Mat(3, WIDTH, CvType.CV_8UC1);
+        Core.randu(gray, 0, 256);
+        assertSameAsWholeFrame(gray, new TileParallel(pool, 16, 0), TileParallel.blur(new Size(3, 3)));
+    }
+
+    @Test
+    public void givenFramePipeline_whenProcessedTiled_thenResultInResultMat() {
+        FramePool framePool = new FramePool();
+        Frame frame = framePool.acquire(0L);
+        randomImage(CvType.CV_8UC1).copyTo(frame.getMat());
+        Mat expected = new Mat();
+        Imgproc.GaussianBlur(frame.getMat(), expected, new Size(5, 5), 0);
+
+        TileParallel tiles = new TileParallel();
+        double difference = Flux.just(frame)
+                .transform(FrameOperators.process(tiles.intoResult(tiles, TileParallel.gaussianBlur(new Size(5, 5), 0))))
+                .transform(FrameOperators.mapAndRelease(f -> Core.norm(expected, f.getResultMat(tiles, 0), Core.NORM_INF)))
+                .blockLast();
+
+        Assert.assertEquals(0.0, difference, 0.0);
+        Assert.assertEquals(0, framePool.getOutstandingCount());
+    }
+}
@@ -0,0 +1,245 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+public class VisionPipelineTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_COUNT = 10;
+
+    private final FramePool pool = new FramePool();
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private static Mat randomRgba() {
+        Mat rgba = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4);
+        Core.randu(rgba, 0, 256);
+        return rgba;
+    }
+
+    private static Mat grayBlurThreshold(Mat rgba) {
+        Mat gray = new Mat();
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+        Imgproc.GaussianBlur(gray, gray, new Size(5, 5), 0);
+        Imgproc.threshold(gray, gray, 128, 255, Imgproc.THRESH_BINARY);
+        return gray;
+    }
+
+    private void emitAll(Sinks.Many<Frame> sink, Mat input) {
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            Frame frame = pool.acquire(i);
+            input.copyTo(frame.getMat());
+            FrameOperators.emitBlocking(sink, frame, TimeUnit.SECONDS.toNanos(5));
+            frame.release();
+        }
+        sink.tryEmitComplete();
+    }
+
+    /**
+     * A same-size stage that records the thread it ran on.
+     */
+    private static VisionStage recordingThread(Set<String> threads) {
+        return VisionStage.of((src, dst) -> {
+            threads.add(Thread.currentThread().getName());
+            src.copyTo(dst);
+        });
+    }
+
+    @Test
+    public void givenFusedStages_whenFramesFlow_thenResultMatchesAndBuffersAreReused() throws Exception {
+        // Runs on the emitting thread, so each frame is back in the pool before the next is acquired.
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .then(VisionStage.of(TileParallel.gaussianBlur(new Size(5, 5), 0)))
+                .then(VisionStage.of(TileParallel.threshold(128, 255, Imgproc.THRESH_BINARY)))
+                .build();
+        Mat input = randomRgba();
+        Mat expected = grayBlurThreshold(input);
+        Set<Long> resultAddresses = ConcurrentHashMap.newKeySet();
+
+        CompletableFuture<List<Double>> differences = pipeline.getOutputFlux()
+                .doOnNext(frame -> resultAddresses.add(pipeline.getResult(frame).dataAddr()))
+                .transform(FrameOperators.mapAndRelease(frame -> Core.norm(expected, pipeline.getResult(frame), Core.NORM_INF)))
+                .collectList()
+                .toFuture();
+        emitAll(pipeline.getInputSink(), input);
+        List<Double> results = differences.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, pipeline.getSegmentCount());
+        Assert.assertEquals(FRAME_COUNT, results.size());
+        for (double difference : results) {
+            Assert.assertEquals(0.0, difference, 0.0);
+        }
+        // Every frame reused the pooled frame's result buffer.
+        Assert.assertEquals(1, resultAddresses.size());
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenAsyncStage_thenOnlyItRunsOnItsOwnScheduler() throws Exception {
+        Scheduler first = Schedulers.newSingle("first");
+        Scheduler second = Schedulers.newSingle("second");
+        Set<String> fusedThreads = ConcurrentHashMap.newKeySet();
+        Set<String> asyncThreads = ConcurrentHashMap.newKeySet();
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, first)
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .then(recordingThread(fusedThreads))
+                .thenAsync(second, VisionStage.resize(WIDTH / 2, HEIGHT / 2, Imgproc.INTER_AREA))
+                .then(recordingThread(asyncThreads))
+                .build();
+        Mat input = randomRgba();
+        Mat expected = new Mat();
+        Imgproc.cvtColor(input, expected, Imgproc.COLOR_RGBA2GRAY);
+        Imgproc.resize(expected, expected, new Size(WIDTH / 2, HEIGHT / 2), 0, 0, Imgproc.INTER_AREA);
+
+        CompletableFuture<List<Double>> differences = pipeline.getOutputFlux()
+                .transform(FrameOperators.mapAndRelease(frame -> Core.norm(expected, pipeline.getResult(frame), Core.NORM_INF)))
+                .collectList()
+                .toFuture();
+        emitAll(pipeline.getInputSink(), input);
+        List<Double> results = differences.get(5, TimeUnit.SECONDS);
+        first.dispose();
+        second.dispose();
+
+        Assert.assertEquals(2, pipeline.getSegmentCount());
+        Assert.assertEquals(FRAME_COUNT, results.size());
+        Assert.assertEquals(0.0, results.get(FRAME_COUNT - 1), 0.0);
+        Assert.assertEquals(1, fusedThreads.size());
+        Assert.assertTrue(fusedThreads.iterator().next().startsWith("first"));
+        Assert.assertEquals(1, asyncThreads.size());
+        Assert.assertTrue(asyncThreads.iterator().next().startsWith("second"));
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void givenStageThatCannotTakePreviousOutput_whenBuilding_thenRejected() {
+        VisionPipeline.builder(PixelFormat.GRAY, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build();
+    }
+
+    @Test
+    public void givenFailingStage_thenErrorsAndReleasesFrames() throws Exception {
+        Scheduler scheduler = Schedulers.newSingle("failing");
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, scheduler)
+                .then(VisionStage.of((src, dst) -> {
+                    throw new IllegalStateException("stage failed");
+                }))
+                .build();
+
+        CompletableFuture<List<Frame>> output = pipeline.getOutputFlux()
+                .doOnNext(Frame::release)
+                .collectList()
+                .toFuture();
+        emitAll(pipeline.getInputSink(), randomRgba());
+        try {
+            output.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the stage error");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        scheduler.dispose();
+        // Frames emitted after the failure found no subscriber and were never handed over.
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenSubscribedPipeline_whenSubscribedAgain_thenRejectedUntilTheFirstIsDone() throws Exception {
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build();
+        Disposable first = pipeline.getOutputFlux().subscribe(Frame::release);
+
+        CompletableFuture<List<Frame>> second = pipeline.getOutputFlux().collectList().toFuture();
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the second subscriber to be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        first.dispose();
+        Mat input = randomRgba();
+        Mat expected = new Mat();
+        Imgproc.cvtColor(input, expected, Imgproc.COLOR_RGBA2GRAY);
+        CompletableFuture<List<Double>> differences = pipeline.getOutputFlux()
+                .transform(FrameOperators.mapAndRelease(frame -> Core.norm(expected, pipeline.getResult(frame), Core.NORM_INF)))
+                .collectList()
+                .toFuture();
+        emitAll(pipeline.getInputSink(), input);
+        Assert.assertEquals(FRAME_COUNT, differences.get(5, TimeUnit.SECONDS).size());
+        Assert.assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void givenTwoPipelinesSharingFrames_whenRunningSideBySide_thenEachKeepsItsOwnResult() throws Exception {
+        Scheduler blurring = Schedulers.newSingle("blur");
+        Scheduler thresholding = Schedulers.newSingle("threshold");
+        VisionPipeline blur = VisionPipeline.builder(PixelFormat.RGBA, blurring)
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .then(VisionStage.of(TileParallel.gaussianBlur(new Size(5, 5), 0)))
+                .build();
+        VisionPipeline threshold = VisionPipeline.builder(PixelFormat.RGBA, thresholding)
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .then(VisionStage.of(TileParallel.threshold(128, 255, Imgproc.THRESH_BINARY)))
+                .build();
+        FrameDispatcher dispatcher = new FrameDispatcher(PixelFormat.RGBA);
+        dispatcher.add(blur, Schedulers.immediate());
+        dispatcher.add(threshold, Schedulers.immediate());
+        Mat input = randomRgba();
+        Mat gray = new Mat();
+        Imgproc.cvtColor(input, gray, Imgproc.COLOR_RGBA2GRAY);
+        Mat blurred = new Mat();
+        Imgproc.GaussianBlur(gray, blurred, new Size(5, 5), 0);
+        Mat thresholded = new Mat();
+        Imgproc.threshold(gray, thresholded, 128, 255, Imgproc.THRESH_BINARY);
+
+        try {
+            CompletableFuture<List<Double>> blurDifferences = blur.getOutputFlux()
+                    .transform(FrameOperators.mapAndRelease(frame -> Core.norm(blurred, blur.getResult(frame), Core.NORM_INF)))
+                    .take(FRAME_COUNT)
+                    .collectList()
+                    .toFuture();
+            CompletableFuture<List<Double>> thresholdDifferences = threshold.getOutputFlux()
+                    .transform(FrameOperators.mapAndRelease(frame -> Core.norm(thresholded, threshold.getResult(frame), Core.NORM_INF)))
+                    .take(FRAME_COUNT)
+                    .collectList()
+                    .toFuture();
+            emitAll(dispatcher.getInputSink(), input);
+
+            for (double difference : blurDifferences.get(5, TimeUnit.SECONDS)) {
+                Assert.assertEquals(0.0, difference, 0.0);
+            }
+            for (double difference : thresholdDifferences.get(5, TimeUnit.SECONDS)) {
+                Assert.assertEquals(0.0, difference, 0.0);
+            }
+            Assert.assertEquals(0, pool.getOutstandingCount());
+        } finally {
+            blurring.dispose();
+            thresholding.dispose();
+        }
+    }
+}
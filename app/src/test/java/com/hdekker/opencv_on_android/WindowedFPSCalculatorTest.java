@@ -3,8 +3,9 @@ package com.hdekker.opencv_on_android;
 import org.junit.Assert;
 import org.junit.Test;
 
-import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class WindowedFPSCalculatorTest {
 
@@ -171,5 +172,62 @@ public class WindowedFPSCalculatorTest {
         public void givenNegativeWindowSize_whenCreatingCalculator_thenThrowsException() {
             new WindowedFPSCalculator(-1.0f);
         }
-}
 
+        @Test
+        public void givenMoreFramesThanCapacity_whenCalculateFPS_thenUsesNewestFrames() {
+            WindowedFPSCalculator calculator = new WindowedFPSCalculator(1000.0f, 4);
+            long frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+            for (int i = 0; i < 10; i++) {
+                calculator.recordFrameTimestamp(i * frameIntervalNanos);
+            }
+            Assert.assertEquals(4, calculator.getFrameCount());
+            Assert.assertEquals(100.0, calculator.calculateFPS(), FPS_DELTA);
+        }
+
+        @Test
+        public void givenReset_whenCalculateFPS_thenReturnsZero() {
+            WindowedFPSCalculator calculator = new WindowedFPSCalculator(1000.0f);
+            calculator.recordFrameTimestamp(0);
+            calculator.recordFrameTimestamp(100_000_000);
+            calculator.reset();
+            Assert.assertEquals(0.0, calculator.calculateFPS(), FPS_DELTA);
+            calculator.recordFrameTimestamp(200_000_000);
+            calculator.recordFrameTimestamp(300_000_000);
+            Assert.assertEquals(10.0, calculator.calculateFPS(), FPS_DELTA);
+        }
+
+        @Test
+        public void givenConcurrentWriter_whenReading_thenSnapshotsAreConsistent() throws InterruptedException {
+            // Frames are exactly 10 ms apart, so any consistent snapshot with two or more frames is 100 FPS.
+            WindowedFPSCalculator calculator = new WindowedFPSCalculator(1000.0f, 64);
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicReference<Double> inconsistent = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                while (running.get()) {
+                    double fps = calculator.calculateFPS();
+                    if (fps != 0.0 && Math.abs(fps - 100.0) > FPS_DELTA) {
+                        inconsistent.set(fps);
+                    }
+                }
+            });
+            reader.start();
+            long frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+            for (long i = 0; i < 2_000_000; i++) {
+                calculator.recordFrameTimestamp(i * frameIntervalNanos);
+            }
+            running.set(false);
+            reader.join();
+            Assert.assertNull("Inconsistent snapshot read", inconsistent.get());
+        }
+
+        @Test
+        public void givenWarmCalculator_whenRecording_thenNothingIsAllocated() {
+            WindowedFPSCalculator calculator = new WindowedFPSCalculator(1000.0f);
+            long[] t = {0};
+
+            AllocationAssert.assertSteadyStateAllocationFree(() -> {
+                calculator.recordFrameTimestamp(t[0] += 33_000_000L);
+                calculator.calculateFPS();
+            });
+        }
+}
@@ -0,0 +1,193 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class YuvInterleaverTest {
+
+    private static final int RANDOM_CASES = 300;
+
+    /**
+     * Straightforward per pixel NV21 packing used as the reference.
+     */
+    private static byte[] referenceNv21(YuvPlanarImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        ByteBuffer y = image.getPlaneBuffer(YuvPlanarImage.PLANE_Y);
+        ByteBuffer u = image.getPlaneBuffer(YuvPlanarImage.PLANE_U);
+        ByteBuffer v = image.getPlaneBuffer(YuvPlanarImage.PLANE_V);
+        int out = 0;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                nv21[out++] = y.get(row * image.getRowStride(YuvPlanarImage.PLANE_Y) + col);
+            }
+        }
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                nv21[out++] = v.get(row * image.getRowStride(YuvPlanarImage.PLANE_V) + col * image.getPixelStride(YuvPlanarImage.PLANE_V));
+                nv21[out++] = u.get(row * image.getRowStride(YuvPlanarImage.PLANE_U) + col * image.getPixelStride(YuvPlanarImage.PLANE_U));
+            }
+        }
+        return nv21;
+    }
+
+    private static SyntheticYuvImage randomImage(Random random) {
+        int width = 2 * (1 + random.nextInt(40));
+        int height = 2 * (1 + random.nextInt(30));
+        int yRowStride = width + (random.nextBoolean() ? 0 : random.nextInt(17));
+        SyntheticYuvImage.ChromaLayout layout = SyntheticYuvImage.ChromaLayout.values()[random.nextInt(3)];
+        int pixelStride = layout == SyntheticYuvImage.ChromaLayout.SEPARATE ? 1 + random.nextInt(2) : 2;
+        int chromaRowStride = (width / 2) * pixelStride + (random.nextBoolean() ? 0 : random.nextInt(17));
+        return new SyntheticYuvImage(width, height, yRowStride, chromaRowStride, pixelStride, layout, random.nextBoolean());
+    }
+
+    @Before
+    public void setUp() {
+        // Direct chroma planes are told apart by native address, through OpenCV Mat headers.
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    @Test
+    public void givenRandomStrides_whenPackNv21_thenMatchesReference() {
+        Random random = new Random(42);
+        YuvInterleaver interleaver = new YuvInterleaver();
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            SyntheticYuvImage image = randomImage(random);
+            byte[] actual = new byte[image.getWidth() * image.getHeight() * 3 / 2];
+            interleaver.packNv21(image, actual);
+            Assert.assertArrayEquals("Case " + i, referenceNv21(image), actual);
+        }
+    }
+
+    @Test
+    public void givenRandomStrides_whenPackAllowingNv12_thenMatchesReferenceAfterSwap() {
+        Random random = new Random(7);
+        YuvInterleaver interleaver = new YuvInterleaver();
+        for (int i = 0; i < RANDOM_CASES; i++) {
+            SyntheticYuvImage image = randomImage(random);
+            int ySize = image.getWidth() * image.getHeight();
+            byte[] actual = new byte[ySize * 3 / 2];
+            if (interleaver.pack(image, actual, true) == Yuv420Layout.NV12) {
+                for (int j = ySize; j < actual.length; j += 2) {
+                    byte tmp = actual[j];
+                    actual[j] = actual[j + 1];
+                    actual[j + 1] = tmp;
+                }
+            }
+            Assert.assertArrayEquals("Case " + i, referenceNv21(image), actual);
+        }
+    }
+
+    @Test
+    public void givenPackNv21_thenBufferPositionsAreUnchanged() {
+        SyntheticYuvImage image = new SyntheticYuvImage(16, 8, 20, 16, 2);
+        new YuvInterleaver().packNv21(image, new byte[16 * 8 * 3 / 2]);
+        for (int plane = 0; plane < 3; plane++) {
+            Assert.assertEquals(0, image.getPlaneBuffer(plane).position());
+        }
+    }
+
+    @Test
+    public void givenAliasedChroma_whenDetectingAlias_thenReportsLayout() {
+        for (boolean direct : new boolean[]{false, true}) {
+            SyntheticYuvImage nv21 = new SyntheticYuvImage(8, 4, 8, 8, 2, SyntheticYuvImage.ChromaLayout.ALIASED_VU, direct);
+            SyntheticYuvImage nv12 = new SyntheticYuvImage(8, 4, 8, 8, 2, SyntheticYuvImage.ChromaLayout.ALIASED_UV, direct);
+            SyntheticYuvImage separate = new SyntheticYuvImage(8, 4, 8, 8, 2, SyntheticYuvImage.ChromaLayout.SEPARATE, direct);
+
+            Assert.assertEquals(YuvInterleaver.ALIAS_NV21, YuvInterleaver.chromaAlias(nv21));
+            Assert.assertEquals(YuvInterleaver.ALIAS_NV12, YuvInterleaver.chromaAlias(nv12));
+            Assert.assertEquals(YuvInterleaver.ALIAS_NONE, YuvInterleaver.chromaAlias(separate));
+        }
+    }
+
+    @Test
+    public void givenAliasedNv12_whenPackAllowingNv12_thenReportsNv12() {
+        SyntheticYuvImage image = new SyntheticYuvImage(8, 4, 8, 8, 2, SyntheticYuvImage.ChromaLayout.ALIASED_UV, true);
+        Assert.assertEquals(Yuv420Layout.NV12, new YuvInterleaver().pack(image, new byte[8 * 4 * 3 / 2], true));
+    }
+
+    @Test
+    public void givenReadOnlyDirectChroma_whenDetectingAlias_thenReportsLayoutWithoutWriting() {
+        SyntheticYuvImage nv21 = new SyntheticYuvImage(16, 8, 20, 20, 2, SyntheticYuvImage.ChromaLayout.ALIASED_VU, true);
+        SyntheticYuvImage nv12 = new SyntheticYuvImage(16, 8, 20, 20, 2, SyntheticYuvImage.ChromaLayout.ALIASED_UV, true);
+
+        Assert.assertEquals(YuvInterleaver.ALIAS_NV21, YuvInterleaver.chromaAlias(readOnly(nv21)));
+        Assert.assertEquals(YuvInterleaver.ALIAS_NV12, YuvInterleaver.chromaAlias(readOnly(nv12)));
+        byte[] packed = new byte[16 * 8 * 3 / 2];
+        Assert.assertEquals(Yuv420Layout.NV21, new YuvInterleaver().pack(readOnly(nv21), packed, true));
+        Assert.assertArrayEquals(referenceNv21(nv21), packed);
+    }
+
+    @Test
+    public void givenPlainColourChroma_whenDetectingAlias_thenLayoutComesFromMemoryAndStaysCorrect() {
+        SyntheticYuvImage image = new SyntheticYuvImage(16, 8, 16, 16, 2, SyntheticYuvImage.ChromaLayout.ALIASED_UV, true);
+        ByteBuffer u = image.getPlaneBuffer(YuvPlanarImage.PLANE_U);
+        ByteBuffer v = image.getPlaneBuffer(YuvPlanarImage.PLANE_V);
+        for (int i = 0; i < u.remaining(); i += 2) {
+            u.put(i, (byte) 90);
+            v.put(i, (byte) 200);
+        }
+
+        // U V U V reads the same one byte on as V U V U, only the addresses tell the layout.
+        Assert.assertEquals(YuvInterleaver.ALIAS_NV12, YuvInterleaver.chromaAlias(image));
+        byte[] packed = new byte[16 * 8 * 3 / 2];
+        Assert.assertEquals(Yuv420Layout.NV21, new YuvInterleaver().pack(image, packed, false));
+        for (int i = 16 * 8; i < packed.length; i += 2) {
+            Assert.assertEquals((byte) 200, packed[i]);
+            Assert.assertEquals((byte) 90, packed[i + 1]);
+        }
+    }
+
+    @Test
+    public void givenSeparateDirectPlanesThatReadLikeNv21_whenDetectingAlias_thenReportsNone() {
+        SyntheticYuvImage image = new SyntheticYuvImage(16, 8, 20, 20, 2, SyntheticYuvImage.ChromaLayout.SEPARATE, true);
+        ByteBuffer u = image.getPlaneBuffer(YuvPlanarImage.PLANE_U);
+        ByteBuffer v = image.getPlaneBuffer(YuvPlanarImage.PLANE_V);
+        // Every V byte is the U byte before it, as if V started one byte before U in the same memory.
+        for (int i = 0; i < u.remaining(); i++) {
+            u.put(i, (byte) i);
+        }
+        for (int i = 0; i < v.remaining(); i++) {
+            v.put(i, (byte) (i - 1));
+        }
+
+        Assert.assertEquals(YuvInterleaver.ALIAS_NONE, YuvInterleaver.chromaAlias(image));
+        byte[] packed = new byte[16 * 8 * 3 / 2];
+        Assert.assertEquals(Yuv420Layout.NV21, new YuvInterleaver().pack(image, packed, true));
+        Assert.assertArrayEquals(referenceNv21(image), packed);
+    }
+
+    private static YuvPlanarImage readOnly(YuvPlanarImage image) {
+        return new YuvPlanarImage() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public ByteBuffer getPlaneBuffer(int plane) {
+                return image.getPlaneBuffer(plane).asReadOnlyBuffer();
+            }
+
+            @Override
+            public int getRowStride(int plane) {
+                return image.getRowStride(plane);
+            }
+
+            @Override
+            public int getPixelStride(int plane) {
+                return image.getPixelStride(plane);
+            }
+        };
+    }
+}
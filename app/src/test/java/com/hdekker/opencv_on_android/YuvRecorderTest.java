@@ -0,0 +1,136 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.scheduler.Schedulers;
+
+public class YuvRecorderTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Before
+    public void setUp() {
+        // Direct chroma planes are told apart by native address, through OpenCV Mat headers.
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void givenStorageBehind_whenOffered_thenFramesAreDroppedInsteadOfWaiting() throws IOException {
+        File file = folder.newFile();
+        List<Runnable> pendingWrites = new ArrayList<>();
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).build();
+        YuvRecorder recorder = new YuvRecorder(new YuvRecording.Writer(file), 2, pendingWrites::add);
+
+        for (int i = 0; i < 5; i++) {
+            recorder.offer(source.next(), source.getTimestampNanos());
+        }
+        Assert.assertEquals(2, pendingWrites.size());
+        Assert.assertEquals(3, recorder.getDroppedCount());
+
+        // Storage catches up, the staging buffers are free again.
+        pendingWrites.forEach(Runnable::run);
+        pendingWrites.clear();
+        Assert.assertTrue(recorder.offer(source.next(), source.getTimestampNanos()));
+        pendingWrites.forEach(Runnable::run);
+        recorder.close();
+
+        Assert.assertEquals(6, recorder.getOfferedCount());
+        Assert.assertEquals(3, recorder.getRecordedCount());
+        try (YuvRecording.Reader reader = new YuvRecording.Reader(file)) {
+            Assert.assertEquals(3, reader.getFrameCount());
+            Assert.assertEquals(source.getTimestampNanos(), reader.getTimestampNanos(2));
+        }
+    }
+
+    @Test
+    public void givenOwnWriterThread_whenClosed_thenEveryStagedFrameIsWritten() throws IOException {
+        File file = folder.newFile();
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).frames(20).build();
+        YuvRecorder recorder = new YuvRecorder(new YuvRecording.Writer(file));
+        YuvPlanarImage image;
+        while ((image = source.next()) != null) {
+            recorder.offer(image, source.getTimestampNanos());
+        }
+        recorder.close();
+
+        Assert.assertEquals(20, recorder.getRecordedCount() + recorder.getDroppedCount());
+        try (YuvRecording.Reader reader = new YuvRecording.Reader(file)) {
+            Assert.assertEquals(recorder.getRecordedCount(), reader.getFrameCount());
+        }
+    }
+
+    @Test
+    public void givenWriteStillRunning_whenClosed_thenTheFileIsLeftWholeUntilClosedAgain() throws IOException {
+        File file = folder.newFile();
+        List<Runnable> pendingWrites = new ArrayList<>();
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).build();
+        YuvRecorder recorder = new YuvRecorder(new YuvRecording.Writer(file), 2, pendingWrites::add);
+        recorder.offer(source.next(), source.getTimestampNanos());
+        recorder.offer(source.next(), source.getTimestampNanos());
+        pendingWrites.remove(0).run();
+        long mappedLength = file.length();
+
+        try {
+            recorder.close(TimeUnit.MILLISECONDS.toNanos(10));
+            Assert.fail("Expected the close to time out");
+        } catch (IOException expected) {
+            // The second write has not run yet.
+        }
+        Assert.assertEquals(mappedLength, file.length());
+
+        pendingWrites.remove(0).run();
+        recorder.close();
+
+        Assert.assertTrue(file.length() < mappedLength);
+        try (YuvRecording.Reader reader = new YuvRecording.Reader(file)) {
+            Assert.assertEquals(2, reader.getFrameCount());
+        }
+    }
+
+    @Test
+    public void givenRecorderOnAnalyzer_whenReplayed_thenTheSameFramesComeBack() throws Exception {
+        File file = folder.newFile();
+        VisionPipeline pipeline = VisionPipeline.builder(PixelFormat.RGBA, Schedulers.immediate())
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .build();
+        pipeline.getOutputFlux().subscribe(Frame::release);
+        ImageAnalyzer analyzer = new ImageAnalyzer(pipeline);
+        analyzer.getDiagnostics().setLevel(FrameDiagnostics.Level.OFF);
+        // Writes inline, nothing is dropped.
+        YuvRecorder recorder = new YuvRecorder(new YuvRecording.Writer(file), 1, Runnable::run);
+        analyzer.setRecorder(recorder);
+
+        analyzer.analyze(SyntheticFrameSource.builder(WIDTH, HEIGHT).rowStrides(WIDTH + 16, WIDTH + 16)
+                .frames(8).build(), 8);
+        analyzer.setRecorder(null);
+        recorder.close();
+
+        SyntheticFrameSource expected = SyntheticFrameSource.builder(WIDTH, HEIGHT).rowStrides(WIDTH + 16, WIDTH + 16)
+                .build();
+        try (ReplayFrameSource replay = new ReplayFrameSource(file, FramePacer.unpaced(), false)) {
+            Assert.assertEquals(8, replay.getFrameCount());
+            YuvPlanarImage image;
+            while ((image = replay.next()) != null) {
+                YuvPlanarImage original = expected.next();
+                Assert.assertEquals(expected.getTimestampNanos(), replay.getTimestampNanos());
+                Assert.assertEquals(original.getPlaneBuffer(YuvPlanarImage.PLANE_Y), image.getPlaneBuffer(YuvPlanarImage.PLANE_Y));
+                Assert.assertEquals(original.getPlaneBuffer(YuvPlanarImage.PLANE_V), image.getPlaneBuffer(YuvPlanarImage.PLANE_V));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class YuvRecordingTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertSamePlanes(YuvPlanarImage expected, YuvPlanarImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int plane = 0; plane < 3; plane++) {
+            Assert.assertEquals(expected.getRowStride(plane), actual.getRowStride(plane));
+            Assert.assertEquals(expected.getPixelStride(plane), actual.getPixelStride(plane));
+            Assert.assertEquals(expected.getPlaneBuffer(plane), actual.getPlaneBuffer(plane));
+        }
+    }
+
+    private void assertRoundTrip(SyntheticFrameSource.Builder builder, int chromaLayout) throws IOException {
+        File file = folder.newFile();
+        SyntheticFrameSource source = builder.distinctImages(2).build();
+        YuvPlanarImage first = source.next();
+        YuvPlanarImage second = source.next();
+        try (YuvRecording.Writer writer = new YuvRecording.Writer(file)) {
+            writer.write(first, 10);
+            writer.write(second, 20);
+        }
+
+        try (YuvRecording.Reader reader = new YuvRecording.Reader(file)) {
+            Assert.assertEquals(2, reader.getFrameCount());
+            Assert.assertEquals(20, reader.getTimestampNanos(1));
+            assertSamePlanes(second, reader.read(1));
+            YuvPlanarImage replayed = reader.read(0);
+            assertSamePlanes(first, replayed);
+            Assert.assertEquals(chromaLayout, YuvRecording.chromaLayout(replayed));
+        }
+    }
+
+    @Test
+    public void givenPaddedNv21_whenRecorded_thenPlanesStridesAndAliasingSurvive() throws IOException {
+        assertRoundTrip(SyntheticFrameSource.builder(WIDTH, HEIGHT).rowStrides(WIDTH + 32, WIDTH + 32)
+                .paddedLastRow(true), YuvRecording.CHROMA_ALIASED_VU);
+    }
+
+    @Test
+    public void givenNv12_whenRecorded_thenPlanesStridesAndAliasingSurvive() throws IOException {
+        assertRoundTrip(SyntheticFrameSource.builder(WIDTH, HEIGHT)
+                .chroma(SyntheticFrameSource.ChromaLayout.ALIASED_UV, 2), YuvRecording.CHROMA_ALIASED_UV);
+    }
+
+    @Test
+    public void givenPlanarHeapBuffers_whenRecorded_thenPlanesAndStridesSurvive() throws IOException {
+        assertRoundTrip(SyntheticFrameSource.builder(WIDTH, HEIGHT).rowStrides(WIDTH + 8, WIDTH / 2 + 4)
+                .chroma(SyntheticFrameSource.ChromaLayout.SEPARATE, 1).direct(false), YuvRecording.CHROMA_SEPARATE);
+    }
+
+    @Test
+    public void givenSmallSegments_whenManyFramesRecorded_thenRecordsSpreadOverSegmentsAndReadBack() throws IOException {
+        File file = folder.newFile();
+        SyntheticFrameSource source = SyntheticFrameSource.builder(WIDTH, HEIGHT).distinctImages(3).build();
+        // A frame is about 4.6 KB, one per segment.
+        try (YuvRecording.Writer writer = new YuvRecording.Writer(file, 16, 8192)) {
+            for (int i = 0; i < 6; i++) {
+                writer.write(source.next(), i);
+            }
+        }
+
+        SyntheticFrameSource expected = SyntheticFrameSource.builder(WIDTH, HEIGHT).distinctImages(3).build();
+        try (YuvRecording.Reader reader = new YuvRecording.Reader(file)) {
+            Assert.assertEquals(6, reader.getFrameCount());
+            for (int i = 0; i < 6; i++) {
+                assertSamePlanes(expected.next(), reader.read(i));
+            }
+        }
+        Assert.assertTrue(file.length() < YuvRecording.dataStart(16) + 6 * 8192);
+    }
+
+    @Test
+    public void givenFullIndex_whenWriting_thenFrameIsRefused() throws IOException {
+        File file = folder.newFile();
+        YuvPlanarImage image = SyntheticFrameSource.builder(WIDTH, HEIGHT).build().next();
+        try (YuvRecording.Writer writer = new YuvRecording.Writer(file, 2, 1 << 16)) {
+            Assert.assertTrue(writer.write(image, 1));
+            Assert.assertTrue(writer.write(image, 2));
+            Assert.assertFalse(writer.write(image, 3));
+            Assert.assertEquals(2, writer.getFrameCount());
+        }
+    }
+
+    @Test
+    public void givenWriterStillOpen_whenRead_thenCommittedFramesAreVisible() throws IOException {
+        File file = folder.newFile();
+        YuvPlanarImage image = SyntheticFrameSource.builder(WIDTH, HEIGHT).build().next();
+        try (YuvRecording.Writer writer = new YuvRecording.Writer(file)) {
+            writer.write(image, 1);
+            writer.write(image, 2);
+
+            // As after a crash: no close, the header count says how far the file can be trusted.
+            try (YuvRecording.Reader reader = new YuvRecording.Reader(file)) {
+                Assert.assertEquals(2, reader.getFrameCount());
+                ByteBuffer y = reader.read(1).getPlaneBuffer(YuvPlanarImage.PLANE_Y);
+                Assert.assertEquals(image.getPlaneBuffer(YuvPlanarImage.PLANE_Y), y);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.hdekker.opencv_on_android;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+public class ZeroCopyConversionTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Before
+    public void setUp() {
+        OpenCvTestSupport.assumeOpenCv();
+    }
+
+    private static void assertSameAsStagedConversion(SyntheticYuvImage image) {
+        ConversionBufferPool pool = new ConversionBufferPool();
+        ConversionBufferPool.Buffers staged = pool.acquire(image.getWidth(), image.getHeight());
+        ConversionBufferPool.Buffers direct = pool.acquire(image.getWidth(), image.getHeight());
+
+        Mat expected = ImageConversionUtils.imageToMat(image, staged);
+        Mat actual = ImageConversionUtils.imageToMatZeroCopy(image, direct);
+
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertEquals(expected.type(), actual.type());
+        Assert.assertEquals(0.0, Core.norm(expected, actual, Core.NORM_INF), 0.0);
+        pool.clear();
+        staged.release();
+        direct.release();
+    }
+
+    @Test
+    public void givenAliasedNv21Planes_whenConvertZeroCopy_thenMatchesStagedConversion() {
+        assertSameAsStagedConversion(new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 16, WIDTH + 16, 2,
+                SyntheticYuvImage.ChromaLayout.ALIASED_VU, true));
+    }
+
+    @Test
+    public void givenAliasedNv12Planes_whenConvertZeroCopy_thenMatchesStagedConversion() {
+        assertSameAsStagedConversion(new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH, WIDTH, 2,
+                SyntheticYuvImage.ChromaLayout.ALIASED_UV, true));
+    }
+
+    @Test
+    public void givenSeparatePlanarChroma_whenConvertZeroCopy_thenMatchesStagedConversion() {
+        assertSameAsStagedConversion(new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH + 8, WIDTH / 2 + 4, 1,
+                SyntheticYuvImage.ChromaLayout.SEPARATE, true));
+    }
+
+    @Test
+    public void givenSeparateSemiPlanarChroma_whenConvertZeroCopy_thenMatchesStagedConversion() {
+        assertSameAsStagedConversion(new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH, WIDTH, 2,
+                SyntheticYuvImage.ChromaLayout.SEPARATE, true));
+    }
+
+    @Test
+    public void givenHeapPlanes_whenConvertZeroCopy_thenFallsBackToStagedConversion() {
+        assertSameAsStagedConversion(new SyntheticYuvImage(WIDTH, HEIGHT, WIDTH, WIDTH, 2,
+                SyntheticYuvImage.ChromaLayout.ALIASED_VU, false));
+    }
+}
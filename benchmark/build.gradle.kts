@@ -0,0 +1,169 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+sourceSets {
+    main {
+        java {
+            // Only the platform independent pipeline classes, the rest needs the Android SDK.
+            setSrcDirs(listOf("../app/src/main/java"))
+            include(
+                "**/WindowedFPSCalculator.java",
+                "**/Frame.java",
+                "**/FramePool.java",
+                "**/FramePyramid.java",
+                "**/PipelineStage.java",
+                "**/ParallelFrameStage.java",
+                "**/TileParallel.java",
+                "**/MatSpec.java",
+                "**/PixelFormat.java",
+                "**/FrameSource.java",
+                "**/FramePacer.java",
+                "**/SyntheticFrameSource.java",
+                "**/ReplayFrameSource.java",
+                "**/YuvRecording.java",
+                "**/YuvRecorder.java",
+                "**/YuvPlanarImage.java",
+                "**/YuvInterleaver.java",
+                "**/Yuv420Layout.java",
+                "**/ImageConversionUtils.java",
+                "**/FrameTransform.java",
+                "**/CroppedYuvImage.java",
+                "**/RegionOfInterest.java",
+                "**/ConversionBufferPool.java",
+                "**/DirectPlaneMats.java",
+                "**/ReactiveImageAlgo.java",
+                "**/VisionPipeline.java",
+                "**/VisionStage.java",
+                "**/FrameOperators.java",
+                "**/BackpressurePolicy.java",
+                "**/FrameDropStats.java",
+                "**/PipelineLatencyMetrics.java",
+                "**/LatencyHistogram.java",
+            )
+        }
+    }
+}
+
+dependencies {
+    implementation(libs.reactor.core)
+    implementation(libs.opencv.desktop)
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("jmh-baseline.json")
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // Allocation rate next to every time, B/op shows up as gc.alloc.rate.norm.
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(jmhResults)
+    // Run a subset with -PjmhIncludes=<regex>, for example -PjmhIncludes=Conversion.
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.add(it) }
+}
+
+/**
+ * Runs of a JMH JSON result file by benchmark and parameters.
+ */
+@Suppress("UNCHECKED_CAST")
+fun readJmhRuns(file: File): Map<String, Map<String, Any?>> {
+    val runs = groovy.json.JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return runs.associateBy { run ->
+        val params = (run["params"] as Map<String, Any?>?).orEmpty().entries
+            .sortedBy { it.key }
+            .joinToString(",") { "${it.key}=${it.value}" }
+        if (params.isEmpty()) "${run["benchmark"]}" else "${run["benchmark"]}($params)"
+    }
+}
+
+/**
+ * JMH writes NaN as a string, for example the error of a single iteration.
+ */
+fun jmhNumber(value: Any?): Double = when (value) {
+    is Number -> value.toDouble()
+    is String -> value.toDoubleOrNull() ?: Double.NaN
+    else -> Double.NaN
+}
+
+@Suppress("UNCHECKED_CAST")
+fun jmhMetric(run: Map<String, Any?>, secondary: String?): Map<String, Any?>? =
+    if (secondary == null) run["primaryMetric"] as Map<String, Any?>?
+    else (run["secondaryMetrics"] as Map<String, Any?>?)?.entries
+        ?.firstOrNull { it.key.removePrefix("\u00b7") == secondary }?.value as Map<String, Any?>?
+
+tasks.register<Copy>("jmhSaveBaseline") {
+    group = "benchmark"
+    description = "Stores the last JMH results as the baseline jmhCompare checks against."
+    from(jmhResults)
+    into(layout.projectDirectory)
+    rename { jmhBaseline.asFile.name }
+}
+
+tasks.register("jmhCompare") {
+    group = "benchmark"
+    description = "Fails when the last JMH results regressed against the stored baseline. " +
+        "-PjmhThreshold sets the tolerated relative change, 0.10 by default."
+    val resultsFile = jmhResults.get().asFile
+    val baselineFile = jmhBaseline.asFile
+    val threshold = providers.gradleProperty("jmhThreshold").orNull?.toDouble() ?: 0.10
+    doLast {
+        if (!resultsFile.isFile) {
+            throw GradleException("No JMH results at $resultsFile, run the jmh task first.")
+        }
+        if (!baselineFile.isFile) {
+            throw GradleException("No baseline at $baselineFile, run jmhSaveBaseline on a known good build.")
+        }
+        val baseline = readJmhRuns(baselineFile)
+        val regressions = mutableListOf<String>()
+        for ((key, run) in readJmhRuns(resultsFile)) {
+            val base = baseline[key]
+            if (base == null) {
+                logger.lifecycle("new       $key")
+                continue
+            }
+            val now = jmhMetric(run, null)!!
+            val before = jmhMetric(base, null)!!
+            val unit = "${now["scoreUnit"]}"
+            if (unit != "${before["scoreUnit"]}" || run["mode"] != base["mode"]) {
+                logger.warn("skipped   $key, mode or unit changed")
+                continue
+            }
+            val score = jmhNumber(now["score"])
+            val baseScore = jmhNumber(before["score"])
+            // Differences within the combined confidence intervals are noise.
+            val noise = listOf(now["scoreError"], before["scoreError"])
+                .map { jmhNumber(it) }.filter { !it.isNaN() }.sum()
+            // Throughput is better when higher, time based modes when lower.
+            val worse = if (run["mode"] == "thrpt") baseScore - score else score - baseScore
+            val timeRegressed = worse > Math.abs(baseScore) * threshold && worse > noise
+            val allocation = jmhMetric(run, "gc.alloc.rate.norm")?.let { jmhNumber(it["score"]) }
+            val baseAllocation = jmhMetric(base, "gc.alloc.rate.norm")?.let { jmhNumber(it["score"]) }
+            // A byte per operation of slack, allocation free code measures slightly above zero.
+            val allocationRegressed = allocation != null && baseAllocation != null &&
+                allocation - baseAllocation > Math.max(baseAllocation * threshold, 1.0)
+            val line = "$key: ${"%.3f".format(baseScore)} -> ${"%.3f".format(score)} $unit" +
+                if (allocation != null && baseAllocation != null)
+                    ", ${"%.1f".format(baseAllocation)} -> ${"%.1f".format(allocation)} B/op" else ""
+            if (timeRegressed || allocationRegressed) {
+                regressions.add(line)
+                logger.lifecycle("REGRESSED $line")
+            } else {
+                logger.lifecycle("ok        $line")
+            }
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("${regressions.size} benchmark(s) regressed by more than " +
+                "${(threshold * 100).toInt()}%:\n" + regressions.joinToString("\n"))
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV_420_888 to RGBA across resolutions and the plane layouts devices deliver, through the
+ * allocating {@code imageProxyToMat} path and the pooled path the analyzer uses.
+ * {@link ImageProxyPlanes#imageProxyToMat} only adds a format check and the rotation to
+ * {@link ImageConversionUtils#yuvToRgbaMat}, which is what runs here.
+ * <p>
+ * {@code pooledThenRotate} and {@code pooledRotated} compare turning a frame upright the old way,
+ * {@code Core.rotate} over the converted frame, with the rotation folded into the conversion.
+ * {@code pooledRegion} converts only the central quarter of the frame, as for a tracked
+ * {@link RegionOfInterest}, and should take about a quarter of {@code pooled}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ConversionBenchmark {
+
+    private static final FrameTransform ROTATE_90 = FrameTransform.rotation(90);
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    /**
+     * NV21: tightly packed aliased chroma. NV21_PADDED: rows padded to 64 bytes, as many devices do.
+     * PLANAR_PADDED: separate U and V with a pixel stride of 1 in heap buffers, the slowest path.
+     */
+    @Param({"NV21", "NV21_PADDED", "PLANAR_PADDED"})
+    public String layout;
+
+    private YuvPlanarImage image;
+    private ConversionBufferPool scratchPool;
+    private Mat rgba;
+    private Mat rotated;
+    private Mat region;
+    private FrameTransform centralQuarter;
+
+    static SyntheticFrameSource.Builder source(String resolution, String layout) {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        int paddedWidth = (width + 63) / 64 * 64 + 64;
+        SyntheticFrameSource.Builder builder = SyntheticFrameSource.builder(width, height);
+        switch (layout) {
+            case "NV21":
+                return builder;
+            case "NV21_PADDED":
+                return builder.rowStrides(paddedWidth, paddedWidth);
+            case "PLANAR_PADDED":
+                return builder.rowStrides(paddedWidth, paddedWidth / 2)
+                        .chroma(SyntheticFrameSource.ChromaLayout.SEPARATE, 1)
+                        .direct(false);
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        image = source(resolution, layout).distinctImages(1).build().next();
+        scratchPool = new ConversionBufferPool();
+        rgba = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC4);
+        rotated = new Mat(image.getWidth(), image.getHeight(), CvType.CV_8UC4);
+        region = new Mat();
+        centralQuarter = FrameTransform.IDENTITY.withCrop(new Rect(image.getWidth() / 4, image.getHeight() / 4,
+                image.getWidth() / 2, image.getHeight() / 2));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rgba.release();
+        rotated.release();
+        region.release();
+        scratchPool.clear();
+    }
+
+    @Benchmark
+    public long imageProxyToMat() {
+        Mat result = ImageConversionUtils.yuvToRgbaMat(image);
+        long address = result.dataAddr();
+        result.release();
+        return address;
+    }
+
+    @Benchmark
+    public Mat pooled() {
+        ConversionBufferPool.Buffers scratch = scratchPool.acquire(image.getWidth(), image.getHeight());
+        try {
+            ImageConversionUtils.convert(image, PixelFormat.RGBA, scratch, rgba);
+        } finally {
+            scratch.release();
+        }
+        return rgba;
+    }
+
+    @Benchmark
+    public Mat pooledThenRotate() {
+        pooled();
+        Core.rotate(rgba, rotated, Core.ROTATE_90_CLOCKWISE);
+        return rotated;
+    }
+
+    @Benchmark
+    public Mat pooledRotated() {
+        ConversionBufferPool.Buffers scratch = scratchPool.acquire(image.getWidth(), image.getHeight());
+        try {
+            ImageConversionUtils.convert(image, PixelFormat.RGBA, ROTATE_90, scratch, rotated);
+        } finally {
+            scratch.release();
+        }
+        return rotated;
+    }
+
+    @Benchmark
+    public Mat pooledRegion() {
+        Rect crop = centralQuarter.cropRect(image.getWidth(), image.getHeight());
+        ConversionBufferPool.Buffers scratch = scratchPool.acquire(crop.width, crop.height);
+        try {
+            ImageConversionUtils.convert(image, PixelFormat.RGBA, centralQuarter, scratch, region);
+        } finally {
+            scratch.release();
+        }
+        return region;
+    }
+}
@@ -0,0 +1,69 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ImageConversionUtils#toGrayscale} on a converted RGBA frame, against asking the conversion
+ * for {@link PixelFormat#GRAY} directly, which only copies the Y plane.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class GrayscaleBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private YuvPlanarImage image;
+    private ConversionBufferPool scratchPool;
+    private Mat rgba;
+    private Mat gray;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        image = ConversionBenchmark.source(resolution, "NV21").distinctImages(1).build().next();
+        scratchPool = new ConversionBufferPool();
+        rgba = ImageConversionUtils.yuvToRgbaMat(image);
+        gray = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rgba.release();
+        gray.release();
+        scratchPool.clear();
+    }
+
+    @Benchmark
+    public long toGrayscale() {
+        Mat result = ImageConversionUtils.toGrayscale(rgba);
+        long address = result.dataAddr();
+        result.release();
+        return address;
+    }
+
+    @Benchmark
+    public Mat grayFromYuv() {
+        ConversionBufferPool.Buffers scratch = scratchPool.acquire(image.getWidth(), image.getHeight());
+        try {
+            ImageConversionUtils.convert(image, PixelFormat.GRAY, scratch, gray);
+        } finally {
+            scratch.release();
+        }
+        return gray;
+    }
+}
@@ -0,0 +1,34 @@
+package com.hdekker.opencv_on_android;
+
+import java.util.LinkedList;
+
+/**
+ * The LinkedList based WindowedFPSCalculator the ring buffer version replaced, kept as a baseline.
+ */
+public class LinkedListFPSCalculator {
+
+    private final LinkedList<Long> frameTimestamps = new LinkedList<>();
+    private final long windowSizeNanos;
+
+    public LinkedListFPSCalculator(float windowSizeMillis) {
+        this.windowSizeNanos = (long) (windowSizeMillis * 1_000_000L);
+    }
+
+    public void recordFrameTimestamp(long timestampNanos) {
+        frameTimestamps.addLast(timestampNanos);
+        while (!frameTimestamps.isEmpty() && (timestampNanos - frameTimestamps.getFirst() > windowSizeNanos)) {
+            frameTimestamps.removeFirst();
+        }
+    }
+
+    public double calculateFPS() {
+        if (frameTimestamps.size() < 2) {
+            return 0.0;
+        }
+        long durationNanos = frameTimestamps.getLast() - frameTimestamps.getFirst();
+        if (durationNanos <= 0) {
+            return 0.0;
+        }
+        return (double) (frameTimestamps.size() - 1) * 1_000_000_000.0 / durationNanos;
+    }
+}
@@ -0,0 +1,75 @@
+package com.hdekker.opencv_on_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Throughput of {@link ParallelFrameStage} for a 200 ms algorithm as the number of frames in flight
+ * grows. Each operation pushes a burst of synthetic frames through the stage; with linear scaling
+ * the time per burst halves every time maxInFlight doubles.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelFrameStageBenchmark {
+
+    private static final int FRAMES = 32;
+
+    @Param({"1", "2", "4", "8"})
+    public int maxInFlight;
+
+    @Param({"200"})
+    public int algorithmMillis;
+
+    @Param({"SEQUENCE", "LATEST_ONLY"})
+    public ParallelFrameStage.Ordering ordering;
+
+    private FramePool pool;
+    private Scheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new FramePool(FRAMES);
+        scheduler = Schedulers.newParallel("benchmark", maxInFlight);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Benchmark
+    public long burst() {
+        long algorithmNanos = TimeUnit.MILLISECONDS.toNanos(algorithmMillis);
+        Long count = Flux.range(0, FRAMES)
+                .map(i -> pool.acquire(System.nanoTime()))
+                .transform(ParallelFrameStage.process(maxInFlight, ordering, scheduler,
+                        frame -> LockSupport.parkNanos(algorithmNanos)))
+                .doOnDiscard(Frame.class, Frame::releaseIfRetained)
+                .doOnNext(Frame::release)
+                .count()
+                .block();
+        return count == null ? 0 : count;
+    }
+}
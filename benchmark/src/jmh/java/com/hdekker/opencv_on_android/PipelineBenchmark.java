@@ -0,0 +1,125 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * End to end throughput and latency of a {@link ReactiveImageAlgo}: synthetic camera images are
+ * converted into pooled frames and emitted the way {@link ImageAnalyzer} does, then run through a
+ * {@link VisionPipeline} on its own thread with a grayscale stage and a stage burning
+ * {@link #algorithmTokens} of CPU, see {@link Blackhole#consumeCPU}.
+ * <p>
+ * {@code throughput} emits as fast as the pipeline accepts frames, so its score is the frame rate
+ * the algorithm sustains. {@code latency} waits for each frame to come out before emitting the
+ * next, so it samples conversion to result latency without queueing.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    private static final long EMIT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Param({"640x480", "1280x720"})
+    public String resolution;
+
+    @Param({"0", "50000"})
+    public long algorithmTokens;
+
+    private FrameSource source;
+    private FramePool framePool;
+    private ConversionBufferPool scratchPool;
+    private Scheduler scheduler;
+    private VisionPipeline pipeline;
+    private Disposable subscription;
+    private volatile long deliveredTimestamp = -1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        source = ConversionBenchmark.source(resolution, "NV21_PADDED").build();
+        framePool = new FramePool();
+        scratchPool = new ConversionBufferPool();
+        scheduler = Schedulers.newSingle("algorithm");
+        long tokens = algorithmTokens;
+        pipeline = VisionPipeline.builder(PixelFormat.RGBA, scheduler)
+                .then(VisionStage.convertColor(Imgproc.COLOR_RGBA2GRAY, 4, 1))
+                .then(VisionStage.of((src, dst) -> {
+                    Blackhole.consumeCPU(tokens);
+                    src.copyTo(dst);
+                }))
+                .build();
+        subscription = pipeline.getOutputFlux().subscribe(frame -> {
+            deliveredTimestamp = frame.getTimestampNanos();
+            frame.release();
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pipeline.getInputSink().tryEmitComplete();
+        subscription.dispose();
+        scheduler.dispose();
+        scratchPool.clear();
+        framePool.clear();
+    }
+
+    /**
+     * Converts the next image and emits it, blocking while the pipeline is full.
+     *
+     * @return the frame's timestamp.
+     */
+    private long convertAndEmit() throws Exception {
+        YuvPlanarImage image = source.next();
+        long timestamp = source.getTimestampNanos();
+        Frame frame = framePool.acquire(timestamp);
+        try {
+            frame.stamp(PipelineStage.RECEIVED);
+            ConversionBufferPool.Buffers scratch = scratchPool.acquire(image.getWidth(), image.getHeight());
+            try {
+                ImageConversionUtils.convert(image, pipeline.getPixelFormat(), scratch, frame.getMat());
+            } finally {
+                scratch.release();
+            }
+            frame.stamp(PipelineStage.CONVERTED);
+            if (FrameOperators.emitBlocking(pipeline.getInputSink(), frame, EMIT_TIMEOUT_NANOS).isFailure()) {
+                throw new IllegalStateException("Pipeline did not accept a frame.");
+            }
+        } finally {
+            frame.release();
+        }
+        return timestamp;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public long throughput() throws Exception {
+        return convertAndEmit();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public long latency() throws Exception {
+        long timestamp = convertAndEmit();
+        while (deliveredTimestamp < timestamp) {
+            // Yield rather than spin, the pipeline thread may share the core.
+            Thread.yield();
+        }
+        return timestamp;
+    }
+}
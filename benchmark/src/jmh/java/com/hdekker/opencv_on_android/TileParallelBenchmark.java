@@ -0,0 +1,80 @@
+package com.hdekker.opencv_on_android;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single frame latency of {@link TileParallel} on a 720x1280 RGBA frame against the same operation
+ * on the whole frame. OpenCV's own threading is switched off so the tiles are the only parallelism.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TileParallelBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int tiles;
+
+    @Param({"GAUSSIAN", "DILATE"})
+    public String operation;
+
+    private Mat src;
+    private Mat dst;
+    private ForkJoinPool pool;
+    private TileParallel tileParallel;
+    private TileParallel.TileOperation tileOperation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        Core.setNumThreads(1);
+        src = new Mat(1280, 720, CvType.CV_8UC4);
+        dst = new Mat();
+        Core.randu(src, 0, 256);
+        pool = new ForkJoinPool(tiles);
+        tileParallel = new TileParallel(pool, tiles, 0);
+        tileOperation = "GAUSSIAN".equals(operation)
+                ? TileParallel.gaussianBlur(new Size(9, 9), 0)
+                : TileParallel.morphology(Imgproc.MORPH_DILATE,
+                        Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(7, 7)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Mat wholeFrame() {
+        tileOperation.apply(src, dst);
+        return dst;
+    }
+
+    @Benchmark
+    public Mat tiled() {
+        tileParallel.apply(src, dst, tileOperation);
+        return dst;
+    }
+}
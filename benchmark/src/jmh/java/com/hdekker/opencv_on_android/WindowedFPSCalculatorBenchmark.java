@@ -0,0 +1,92 @@
+package com.hdekker.opencv_on_android;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ring buffer {@link WindowedFPSCalculator} against the LinkedList version it replaced, with the
+ * window kept full at the given frame rate. Run with -prof gc to compare allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class WindowedFPSCalculatorBenchmark {
+
+    private static final float WINDOW_MILLIS = 1000.0f;
+
+    @Param({"30", "240"})
+    public int fps;
+
+    private long intervalNanos;
+    private long timestamp;
+    private WindowedFPSCalculator ring;
+    private LinkedListFPSCalculator linkedList;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        intervalNanos = TimeUnit.SECONDS.toNanos(1) / fps;
+        ring = new WindowedFPSCalculator(WINDOW_MILLIS);
+        linkedList = new LinkedListFPSCalculator(WINDOW_MILLIS);
+        for (int i = 0; i < 2 * fps; i++) {
+            timestamp += intervalNanos;
+            ring.recordFrameTimestamp(timestamp);
+            linkedList.recordFrameTimestamp(timestamp);
+        }
+    }
+
+    @Benchmark
+    public double ringRecordAndCalculate() {
+        ring.recordFrameTimestamp(timestamp += intervalNanos);
+        return ring.calculateFPS();
+    }
+
+    @Benchmark
+    public double linkedListRecordAndCalculate() {
+        linkedList.recordFrameTimestamp(timestamp += intervalNanos);
+        return linkedList.calculateFPS();
+    }
+
+    @Benchmark
+    public double ringCalculate() {
+        return ring.calculateFPS();
+    }
+
+    @Benchmark
+    public double linkedListCalculate() {
+        return linkedList.calculateFPS();
+    }
+
+    /**
+     * One camera thread recording while readers poll, the case the LinkedList version could not handle.
+     */
+    @State(Scope.Group)
+    public static class Shared {
+        final WindowedFPSCalculator calculator = new WindowedFPSCalculator(WINDOW_MILLIS);
+        long timestamp;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedRecord(Shared shared) {
+        shared.calculator.recordFrameTimestamp(shared.timestamp += 4_166_666L);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public double contendedRead(Shared shared) {
+        return shared.calculator.calculateFPS();
+    }
+}
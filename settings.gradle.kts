@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "opencv_on_android"
 include(":app")
+include(":benchmark")
  
\ No newline at end of file